@@ -40,4 +40,7 @@ public interface AccountInternalApi {
     public void updatePaymentMethod(UUID accountId, UUID paymentMethodId, InternalCallContext context) throws AccountApiException;
 
     public UUID getByRecordId(Long recordId, InternalTenantContext context) throws AccountApiException;
+
+    // Stream all the accounts of the tenant (the results need to be fully consumed to release the connection)
+    public Pagination<Account> getAccounts(InternalTenantContext context);
 }
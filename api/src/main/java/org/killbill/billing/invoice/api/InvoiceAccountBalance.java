@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.api;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.joda.time.LocalDate;
+
+/**
+ * Snapshot of the invoice related balances for an account, as maintained by the invoice module ledger.
+ */
+public interface InvoiceAccountBalance {
+
+    public UUID getAccountId();
+
+    /**
+     * @return the account balance (sum of all invoice balances, minus the account credit)
+     */
+    public BigDecimal getBalance();
+
+    /**
+     * @return the account credit (CBA)
+     */
+    public BigDecimal getCBA();
+
+    public int getNumberOfUnpaidInvoices();
+
+    /**
+     * @return the sum of the balances of the unpaid invoices
+     */
+    public BigDecimal getUnpaidInvoiceBalance();
+
+    public LocalDate getDateOfEarliestUnpaidInvoice();
+
+    public UUID getIdOfEarliestUnpaidInvoice();
+
+    /**
+     * @return the latest target date across the unpaid invoices (null if there are none)
+     */
+    public LocalDate getLatestTargetDateOfUnpaidInvoices();
+}
@@ -20,6 +20,7 @@ package org.killbill.billing.invoice.api;
 
 import java.math.BigDecimal;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -37,10 +38,73 @@ public interface InvoiceInternalApi {
 
     public BigDecimal getAccountBalance(UUID accountId, InternalTenantContext context);
 
+    /**
+     * Iterate over the (non migrated) invoices of the account, ordered by invoice number. Invoices are loaded lazily,
+     * batchSize at a time, so that accounts with a large history can be walked with bounded memory.
+     *
+     * @param batchSize maximum number of invoices (with their items and payments) loaded at once
+     * @param context   the tenant callcontext
+     * @return the invoices of the account
+     */
+    public Iterable<Invoice> getInvoicesByAccountInBatches(int batchSize, InternalTenantContext context);
+
+    /**
+     * Retrieve the balances for an account, only taking into account unpaid invoices whose target date is on or before upToDate
+     *
+     * @param accountId account id
+     * @param upToDate  the cut-off target date for unpaid invoices (null for all)
+     * @param context   the tenant callcontext
+     * @return the account balances
+     */
+    public InvoiceAccountBalance getAccountBalanceSummary(UUID accountId, LocalDate upToDate, InternalTenantContext context);
+
+    /**
+     * Retrieve, in a single query, the persisted balances of all the accounts of the tenant which have unpaid invoices.
+     * Unlike getAccountBalanceSummary, unpaid invoices are not filtered by target date: callers should check
+     * getLatestTargetDateOfUnpaidInvoices and fall back to getAccountBalanceSummary when it matters.
+     *
+     * @param context the tenant callcontext
+     * @return the account balances
+     */
+    public List<InvoiceAccountBalance> getAccountBalanceSummariesWithUnpaidInvoices(InternalTenantContext context);
+
+    /**
+     * Recompute the balances for an account from its invoices and compare them against the persisted ledger
+     *
+     * @param accountId account id
+     * @param dryRun    if true, only report drift, do not fix the ledger
+     * @param context   the callcontext
+     * @return true if the persisted ledger was out of sync
+     */
+    public boolean rebuildAccountBalance(UUID accountId, boolean dryRun, InternalCallContext context);
+
+    /**
+     * Compute and persist the balances of the accounts of the tenant which have invoices but no persisted ledger yet
+     * (accounts created before the ledger and not modified since). Such accounts are otherwise missing from
+     * getAccountBalanceSummariesWithUnpaidInvoices.
+     *
+     * @param context the tenant callcontext (the account record id is ignored)
+     * @return the number of accounts backfilled
+     */
+    public int backfillAccountBalances(InternalCallContext context);
+
     public void notifyOfPayment(UUID invoiceId, BigDecimal amountOutstanding, Currency currency, Currency processedCurrency, UUID paymentId, DateTime paymentDate, InternalCallContext context) throws InvoiceApiException;
 
     public void notifyOfPayment(InvoicePayment invoicePayment, InternalCallContext context) throws InvoiceApiException;
 
+    /**
+     * Record a single payment spread across several invoices, in one transaction.
+     *
+     * @param paymentId              the payment id
+     * @param invoiceIdsWithAmounts  the amount allocated to each invoice
+     * @param currency               the currency of the payment
+     * @param processedCurrency      the currency processed by the gateway
+     * @param paymentDate            the payment date
+     * @param context                the callcontext
+     * @throws InvoiceApiException
+     */
+    public void notifyOfPayments(UUID paymentId, Map<UUID, BigDecimal> invoiceIdsWithAmounts, Currency currency, Currency processedCurrency, DateTime paymentDate, InternalCallContext context) throws InvoiceApiException;
+
     public InvoicePayment getInvoicePaymentForAttempt(UUID paymentId, InternalTenantContext context) throws InvoiceApiException;
 
     public InvoicePayment getInvoicePaymentForRefund(UUID paymentId, InternalTenantContext context) throws InvoiceApiException;
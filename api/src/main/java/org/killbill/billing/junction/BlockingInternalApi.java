@@ -30,5 +30,11 @@ public interface BlockingInternalApi {
 
     public List<BlockingState> getBlockingAllForAccount(InternalTenantContext context);
 
+    /**
+     * Returns, in a single query, the current state for that specific service of all the blockable objects of that type
+     * across the tenant. Blockable objects which never had a state for that service are not returned.
+     */
+    public List<BlockingState> getBlockingStatesForService(BlockingStateType blockingStateType, String serviceName, InternalTenantContext context);
+
     public void setBlockingState(BlockingState state, InternalCallContext context);
 }
@@ -34,4 +34,12 @@ public interface OverdueInternalApi {
 
     public BillingState getBillingStateFor(Account overdueable, TenantContext context) throws OverdueException;
 
+    /**
+     * Evaluate the overdue state of all the accounts of the tenant in bulk, and trigger a refresh for those whose state changed
+     *
+     * @param context the callcontext
+     * @return the number of accounts to refresh
+     */
+    public int refreshOverdueStates(CallContext context) throws OverdueException;
+
 }
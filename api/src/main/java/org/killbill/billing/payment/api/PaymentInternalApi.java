@@ -42,6 +42,9 @@ public interface PaymentInternalApi {
     public List<Payment> getAccountPayments(UUID accountId, InternalTenantContext context)
             throws PaymentApiException;
 
+    // Payments of the account (without plugin info), fetched batchSize at a time as the iterator is consumed
+    public Iterable<Payment> getAccountPaymentsInBatches(int batchSize, InternalTenantContext context);
+
     public List<PaymentMethod> getPaymentMethods(Account account, Iterable<PluginProperty> properties, InternalTenantContext context)
             throws PaymentApiException;
 }
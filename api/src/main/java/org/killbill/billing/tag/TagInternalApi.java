@@ -40,6 +40,17 @@ public interface TagInternalApi {
      */
     public List<Tag> getTags(UUID objectId, ObjectType objectType, InternalTenantContext context);
 
+    /**
+     * Return all tags of a given object type for the account the context is associated with
+     *
+     * @param accountId       the account id
+     * @param objectType      the object type
+     * @param includedDeleted whether to include deleted tags
+     * @param context         call callcontext
+     * @return list of tags, across all objects of that type for the account
+     */
+    public List<Tag> getTagsForAccountType(UUID accountId, ObjectType objectType, boolean includedDeleted, InternalTenantContext context);
+
     public void addTag(final UUID objectId, final ObjectType objectType, UUID tagDefinitionId, InternalCallContext context) throws TagApiException;
 
     public void removeTag(final UUID objectId, final ObjectType objectType, final UUID tagDefinitionId, InternalCallContext context) throws TagApiException;
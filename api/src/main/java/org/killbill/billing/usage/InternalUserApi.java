@@ -20,10 +20,24 @@ package org.killbill.billing.usage;
 import java.util.List;
 import java.util.UUID;
 
+import javax.annotation.Nullable;
+
 import org.joda.time.LocalDate;
+import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.usage.api.SubscriptionUsageRecord;
 
 public interface InternalUserApi {
 
     public List<RawUsage> getRawUsageForAccount(final LocalDate stateDate, final LocalDate endDate, final InternalTenantContext tenantContext);
+
+    /**
+     * Record usage for several subscriptions, potentially across accounts, in a single transaction
+     *
+     * @param records    the usage records
+     * @param trackingId optional key identifying the batch: if a batch with the same key was already recorded, nothing is written
+     * @param context    call context for the tenant
+     * @return false if the batch was ignored because its trackingId had already been recorded
+     */
+    public boolean recordRolledUpUsage(final List<SubscriptionUsageRecord> records, @Nullable final String trackingId, final InternalCallContext context);
 }
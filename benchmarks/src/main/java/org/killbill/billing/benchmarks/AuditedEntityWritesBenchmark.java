@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.DBTestingHelper;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.util.cache.AccountRecordIdCacheLoader;
+import org.killbill.billing.util.cache.BaseIdCacheLoader;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.IdMappingCacheController;
+import org.killbill.billing.util.cache.ObjectIdCacheLoader;
+import org.killbill.billing.util.cache.RecordIdCacheLoader;
+import org.killbill.billing.util.cache.TenantRecordIdCacheLoader;
+import org.killbill.billing.util.customfield.dao.CustomFieldModelDao;
+import org.killbill.billing.util.customfield.dao.CustomFieldSqlDao;
+import org.killbill.billing.util.dao.DefaultNonEntityDao;
+import org.killbill.billing.util.dao.NonEntityDao;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.killbill.clock.Clock;
+import org.killbill.clock.DefaultClock;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.TimingCollector;
+
+/**
+ * Audited creations (entity, history and audit rows) against an embedded H2 database, with nbEntitiesPerTransaction custom
+ * fields created per transaction. Next to the timings, the statements and entities counters report how many statements were
+ * sent to the database: statements / entities is the number of statements per audited entity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuditedEntityWritesBenchmark {
+
+    private static final String H2_TEST_DB_PROPERTY = "org.killbill.billing.dbi.test.h2";
+    private static final int ID_MAPPING_CACHE_MAX_ENTRIES_PER_TABLE = 100000;
+
+    @Param({"1", "10", "100"})
+    public int nbEntitiesPerTransaction;
+
+    private final StatementCountingCollector statementCountingCollector = new StatementCountingCollector();
+
+    private Clock clock;
+    private EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
+    private InternalCallContext internalCallContext;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class StatementCounters {
+
+        public long statements;
+        public long entities;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (System.getProperty(H2_TEST_DB_PROPERTY) == null) {
+            System.setProperty(H2_TEST_DB_PROPERTY, "true");
+        }
+
+        DBTestingHelper.get().start();
+        final DBI dbi = (DBI) DBTestingHelper.get().getDBI();
+        dbi.setTimingCollector(statementCountingCollector);
+
+        clock = new DefaultClock();
+        final NonEntityDao nonEntityDao = new DefaultNonEntityDao(dbi);
+        transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, createCacheControllerDispatcher(nonEntityDao), nonEntityDao);
+        internalCallContext = BenchmarkContexts.createInternalCallContext();
+    }
+
+    @Setup(Level.Iteration)
+    public void cleanupTables() throws Exception {
+        DBTestingHelper.get().getInstance().cleanupAllTables();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        DBTestingHelper.get().getInstance().stop();
+    }
+
+    @Benchmark
+    public void createCustomFields(final StatementCounters counters) {
+        final long statementsBefore = statementCountingCollector.getNbStatements();
+        transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
+            @Override
+            public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                final CustomFieldSqlDao customFieldSqlDao = entitySqlDaoWrapperFactory.become(CustomFieldSqlDao.class);
+                final UUID objectId = UUID.randomUUID();
+                final DateTime now = clock.getUTCNow();
+                for (int i = 0; i < nbEntitiesPerTransaction; i++) {
+                    customFieldSqlDao.create(new CustomFieldModelDao(UUID.randomUUID(), now, now, "field" + i, "value" + i, objectId, ObjectType.ACCOUNT),
+                                             internalCallContext);
+                }
+                return null;
+            }
+        });
+        counters.statements += statementCountingCollector.getNbStatements() - statementsBefore;
+        counters.entities += nbEntitiesPerTransaction;
+    }
+
+    // Same id mapping caches as the server, which the DAO layer populates right after each creation
+    private static CacheControllerDispatcher createCacheControllerDispatcher(final NonEntityDao nonEntityDao) {
+        final Map<CacheType, CacheController<Object, Object>> cacheControllers = new LinkedHashMap<CacheType, CacheController<Object, Object>>();
+        for (final BaseIdCacheLoader idCacheLoader : new BaseIdCacheLoader[]{new RecordIdCacheLoader(nonEntityDao),
+                                                                            new AccountRecordIdCacheLoader(nonEntityDao),
+                                                                            new TenantRecordIdCacheLoader(nonEntityDao),
+                                                                            new ObjectIdCacheLoader(nonEntityDao)}) {
+            cacheControllers.put(idCacheLoader.getCacheType(), new IdMappingCacheController(idCacheLoader, ID_MAPPING_CACHE_MAX_ENTRIES_PER_TABLE));
+        }
+        return new CacheControllerDispatcher(cacheControllers);
+    }
+
+    // Invoked once per statement (a JDBI batch being a single statement)
+    private static final class StatementCountingCollector implements TimingCollector {
+
+        private final AtomicLong nbStatements = new AtomicLong();
+
+        @Override
+        public void collect(final long elapsedTime, final StatementContext ctx) {
+            nbStatements.incrementAndGet();
+        }
+
+        public long getNbStatements() {
+            return nbStatements.get();
+        }
+    }
+}
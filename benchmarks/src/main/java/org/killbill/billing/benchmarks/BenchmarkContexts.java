@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks;
+
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.util.callcontext.CallOrigin;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.UserType;
+
+// Same context as the one used by KillbillTestSuite
+final class BenchmarkContexts {
+
+    static final long ACCOUNT_RECORD_ID = 1687L;
+
+    private BenchmarkContexts() {
+    }
+
+    static InternalCallContext createInternalCallContext() {
+        final DateTime now = new DateTime(DateTimeZone.UTC);
+        return new InternalCallContext(InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID, ACCOUNT_RECORD_ID, UUID.randomUUID(),
+                                       "benchmarks", CallOrigin.TEST, UserType.TEST, "Benchmarking", null, now, now);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks;
+
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.benchmarks.generator.SyntheticAccount;
+import org.killbill.billing.benchmarks.generator.SyntheticAccountGenerator;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.entitlement.api.BlockingState;
+import org.killbill.billing.entitlement.api.BlockingStateType;
+import org.killbill.billing.junction.BillingEvent;
+import org.killbill.billing.junction.BlockingInternalApi;
+import org.killbill.billing.junction.plumbing.billing.BlockingCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insertion of the overdue blocking periods into the billing events of an account with N subscriptions and M years of history.
+ * <p/>
+ * The calculator updates the set it is given, so each invocation works on a copy: copyBillingEvents measures that copy alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockingCalculatorBenchmark {
+
+    private static final int NB_YEARS = 3;
+
+    @Param({"10", "50"})
+    public int nbSubscriptions;
+
+    @Param({"1", "10"})
+    public int nbBlockedPeriods;
+
+    private SortedSet<BillingEvent> billingEvents;
+    private BlockingCalculator blockingCalculator;
+    private InternalTenantContext internalTenantContext;
+
+    @Setup
+    public void setUp() {
+        final SyntheticAccountGenerator generator = new SyntheticAccountGenerator();
+        final SyntheticAccount syntheticAccount = generator.generate(nbSubscriptions, NB_YEARS);
+        final List<BlockingState> blockingStates = generator.generateOverdueBlockingStates(syntheticAccount, nbBlockedPeriods);
+
+        billingEvents = syntheticAccount.getBillingEvents();
+        blockingCalculator = new BlockingCalculator(new StaticBlockingInternalApi(blockingStates));
+        internalTenantContext = BenchmarkContexts.createInternalCallContext();
+    }
+
+    @Benchmark
+    public SortedSet<BillingEvent> copyBillingEvents() {
+        return new TreeSet<BillingEvent>(billingEvents);
+    }
+
+    @Benchmark
+    public SortedSet<BillingEvent> insertBlockingEvents() {
+        final SortedSet<BillingEvent> billingEventsCopy = new TreeSet<BillingEvent>(billingEvents);
+        blockingCalculator.insertBlockingEvents(billingEventsCopy, internalTenantContext);
+        return billingEventsCopy;
+    }
+
+    // Only the account-wide lookup is used by the calculator
+    private static final class StaticBlockingInternalApi implements BlockingInternalApi {
+
+        private final List<BlockingState> blockingStates;
+
+        private StaticBlockingInternalApi(final List<BlockingState> blockingStates) {
+            this.blockingStates = blockingStates;
+        }
+
+        @Override
+        public List<BlockingState> getBlockingAllForAccount(final InternalTenantContext context) {
+            return blockingStates;
+        }
+
+        @Override
+        public BlockingState getBlockingStateForService(final UUID blockableId, final BlockingStateType blockingStateType, final String serviceName, final InternalTenantContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<BlockingState> getBlockingStatesForService(final BlockingStateType blockingStateType, final String serviceName, final InternalTenantContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBlockingState(final BlockingState state, final InternalCallContext context) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
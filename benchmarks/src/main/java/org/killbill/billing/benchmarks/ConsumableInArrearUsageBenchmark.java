@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.benchmarks.generator.SyntheticDataGeneratorBase;
+import org.killbill.billing.benchmarks.generator.SyntheticUsageGenerator;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.usage.ContiguousIntervalConsumableInArrear;
+import org.killbill.billing.junction.BillingEvent;
+import org.killbill.billing.usage.RawUsage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+/**
+ * Consumable in arrear usage billing of a subscription with K raw usage records over M years: the raw usage is rolled up
+ * per period and unit type, priced across the tiers and compared with what was already billed (everything but the last period).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsumableInArrearUsageBenchmark {
+
+    private static final int NB_UNIT_TYPES = 3;
+
+    @Param({"1000", "10000", "100000"})
+    public int nbRawUsages;
+
+    @Param({"1", "3"})
+    public int nbYears;
+
+    @Param({"1", "5"})
+    public int nbTiers;
+
+    private Usage usage;
+    private BillingEvent billingEvent;
+    private List<RawUsage> rawUsages;
+    private LocalDate targetDate;
+    private UUID invoiceId;
+    private List<InvoiceItem> existingUsageItems;
+
+    @Setup
+    public void setUp() throws CatalogApiException {
+        final SyntheticUsageGenerator generator = new SyntheticUsageGenerator(NB_UNIT_TYPES);
+        final LocalDate startDate = SyntheticDataGeneratorBase.START_DATE;
+
+        usage = generator.generateConsumableUsage(nbTiers);
+        billingEvent = generator.generateBillingEvent(startDate);
+        targetDate = startDate.plusYears(nbYears);
+        rawUsages = generator.generateRawUsage(billingEvent.getSubscription().getId(), startDate, targetDate, nbRawUsages);
+        invoiceId = UUID.randomUUID();
+
+        // What the previous invoice run billed, without the $0 marker items (removed by the invoicing code)
+        final List<InvoiceItem> previousItems = computeMissingItemsAt(targetDate.minusMonths(1), ImmutableList.<InvoiceItem>of());
+        existingUsageItems = ImmutableList.<InvoiceItem>copyOf(Iterables.filter(previousItems, new Predicate<InvoiceItem>() {
+            @Override
+            public boolean apply(final InvoiceItem input) {
+                return input.getAmount().compareTo(BigDecimal.ZERO) > 0;
+            }
+        }));
+    }
+
+    @Benchmark
+    public List<InvoiceItem> computeMissingItems() throws CatalogApiException {
+        return computeMissingItemsAt(targetDate, existingUsageItems);
+    }
+
+    private List<InvoiceItem> computeMissingItemsAt(final LocalDate targetDate, final List<InvoiceItem> existingUsage) throws CatalogApiException {
+        final ContiguousIntervalConsumableInArrear intervalConsumableInArrear = new ContiguousIntervalConsumableInArrear(usage, invoiceId, rawUsages, targetDate, SyntheticDataGeneratorBase.START_DATE);
+        intervalConsumableInArrear.addBillingEvent(billingEvent);
+        intervalConsumableInArrear.build(false);
+        return intervalConsumableInArrear.computeMissingItems(existingUsage);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.benchmarks.generator.SyntheticAccount;
+import org.killbill.billing.benchmarks.generator.SyntheticAccountGenerator;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceApiException;
+import org.killbill.billing.invoice.generator.DefaultInvoiceGenerator;
+import org.killbill.billing.invoice.generator.InvoiceGenerator;
+import org.killbill.billing.util.config.InvoiceConfig;
+import org.killbill.clock.DefaultClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.config.TimeSpan;
+
+/**
+ * Full (non incremental) invoice generation for an account with N subscriptions, invoiced monthly for M years:
+ * the generator rebuilds the item trees from the whole invoice history and only has the next period to bill.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InvoiceGeneratorBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int nbSubscriptions;
+
+    @Param({"1", "3", "5"})
+    public int nbYears;
+
+    private SyntheticAccount syntheticAccount;
+    private InvoiceGenerator invoiceGenerator;
+    private InternalCallContext internalCallContext;
+
+    @Setup
+    public void setUp() {
+        syntheticAccount = new SyntheticAccountGenerator().generate(nbSubscriptions, nbYears);
+        invoiceGenerator = new DefaultInvoiceGenerator(new DefaultClock(), new BenchmarkInvoiceConfig(), null);
+        internalCallContext = BenchmarkContexts.createInternalCallContext();
+    }
+
+    @Benchmark
+    public Invoice generateInvoice() throws InvoiceApiException {
+        return invoiceGenerator.generateInvoice(syntheticAccount.getAccount(),
+                                                syntheticAccount.getBillingEvents(),
+                                                syntheticAccount.getInvoices(),
+                                                syntheticAccount.getTargetDate(),
+                                                SyntheticAccountGenerator.CURRENCY,
+                                                internalCallContext);
+    }
+
+    private static final class BenchmarkInvoiceConfig implements InvoiceConfig {
+
+        @Override
+        public int getNumberOfMonthsInFuture() {
+            return 36;
+        }
+
+        @Override
+        public boolean isEmailNotificationsEnabled() {
+            return false;
+        }
+
+        @Override
+        public TimeSpan getDryRunNotificationSchedule() {
+            return new TimeSpan("0s");
+        }
+
+        @Override
+        public int getMaxRawUsagePreviousPeriod() {
+            return -1;
+        }
+
+        @Override
+        public boolean isIncrementalGenerationEnabled() {
+            return false;
+        }
+
+        @Override
+        public TimeSpan getCoalescingWindow() {
+            return new TimeSpan("0s");
+        }
+    }
+}
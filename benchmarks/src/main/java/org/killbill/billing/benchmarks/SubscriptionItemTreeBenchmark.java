@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.benchmarks.generator.SyntheticInvoiceItemGenerator;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.tree.SubscriptionItemTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Item tree of a single subscription with M years of monthly items (and one mid-period upgrade per year):
+ * build computes the current view of the existing items, merge reconciles them with the proposed items
+ * the same way AccountItemTree#mergeWithProposedItems does. flatten measures the step between the two on
+ * its own, the tree being built beforehand (outside of the measurement) for each invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubscriptionItemTreeBenchmark {
+
+    @Param({"1", "5", "10"})
+    public int nbYears;
+
+    private UUID subscriptionId;
+    private UUID targetInvoiceId;
+    private List<InvoiceItem> existingItems;
+    private List<InvoiceItem> proposedItems;
+
+    @Setup
+    public void setUp() {
+        final SyntheticInvoiceItemGenerator generator = new SyntheticInvoiceItemGenerator();
+        subscriptionId = generator.getSubscriptionId();
+        targetInvoiceId = UUID.randomUUID();
+        existingItems = generator.generateExistingItems(nbYears);
+        proposedItems = generator.generateProposedItems(nbYears);
+    }
+
+    @Benchmark
+    public List<InvoiceItem> build() {
+        final SubscriptionItemTree tree = createTreeWithExistingItems();
+        tree.build();
+        return tree.getView();
+    }
+
+    @Benchmark
+    public SubscriptionItemTree flatten(final BuiltTree builtTree) {
+        builtTree.tree.flatten(true);
+        return builtTree.tree;
+    }
+
+    @Benchmark
+    public List<InvoiceItem> merge() {
+        final SubscriptionItemTree tree = createTreeWithExistingItems();
+        tree.build();
+        tree.flatten(true);
+        for (final InvoiceItem proposedItem : proposedItems) {
+            tree.mergeProposedItem(proposedItem);
+        }
+        tree.buildForMerge();
+        return tree.getView();
+    }
+
+    private SubscriptionItemTree createTreeWithExistingItems() {
+        final SubscriptionItemTree tree = new SubscriptionItemTree(subscriptionId, targetInvoiceId);
+        for (final InvoiceItem existingItem : existingItems) {
+            tree.addItem(existingItem);
+        }
+        return tree;
+    }
+
+    @State(Scope.Thread)
+    public static class BuiltTree {
+
+        private SubscriptionItemTree tree;
+
+        // flatten consumes the built tree: a new one is needed for every invocation
+        @Setup(Level.Invocation)
+        public void setUp(final SubscriptionItemTreeBenchmark benchmark) {
+            tree = benchmark.createTreeWithExistingItems();
+            tree.build();
+        }
+    }
+}
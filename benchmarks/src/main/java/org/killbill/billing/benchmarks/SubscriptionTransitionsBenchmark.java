@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.benchmarks.generator.SyntheticCatalogGenerator;
+import org.killbill.billing.benchmarks.generator.SyntheticSubscriptionGenerator;
+import org.killbill.billing.catalog.VersionedCatalog;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.subscription.api.user.DefaultSubscriptionBase;
+import org.killbill.billing.subscription.api.user.SubscriptionBaseTransition;
+import org.killbill.billing.subscription.events.SubscriptionBaseEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rebuild of the transitions of a subscription from its events (done each time a subscription is loaded), for a subscription
+ * with one plan change per year in a multi-version catalog.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubscriptionTransitionsBenchmark {
+
+    private static final int NB_PLANS = 1000;
+    private static final int NB_VERSIONS = 5;
+
+    @Param({"1", "10", "50"})
+    public int nbChanges;
+
+    private VersionedCatalog catalog;
+    private DefaultSubscriptionBase subscription;
+    private List<SubscriptionBaseEvent> events;
+
+    @Setup
+    public void setUp() throws CatalogApiException {
+        catalog = new SyntheticCatalogGenerator().generate(NB_PLANS, NB_VERSIONS);
+
+        final SyntheticSubscriptionGenerator generator = new SyntheticSubscriptionGenerator(NB_PLANS);
+        subscription = generator.generateSubscription();
+        events = generator.generateEvents(subscription, nbChanges);
+    }
+
+    @Benchmark
+    public List<SubscriptionBaseTransition> rebuildTransitions() throws CatalogApiException {
+        subscription.rebuildTransitions(events, catalog);
+        return subscription.getAllTransitions();
+    }
+}
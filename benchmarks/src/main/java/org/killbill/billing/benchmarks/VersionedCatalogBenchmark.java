@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.benchmarks.generator.SyntheticCatalogGenerator;
+import org.killbill.billing.benchmarks.generator.SyntheticDataGeneratorBase;
+import org.killbill.billing.catalog.VersionedCatalog;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.catalog.api.Plan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Plan lookups by name in a catalog with up to 5000 plans per version. findPlan is the lookup done for an existing subscription
+ * (requested date in the last version, subscription started in the first one), findCurrentPlan the lookup for a new one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VersionedCatalogBenchmark {
+
+    // Power of two, see nextPlanName
+    private static final int NB_LOOKUPS = 1024;
+
+    @Param({"100", "1000", "5000"})
+    public int nbPlans;
+
+    @Param({"1", "5"})
+    public int nbVersions;
+
+    private VersionedCatalog catalog;
+    private String[] planNames;
+    private DateTime requestedDate;
+    private DateTime subscriptionStartDate;
+    private int lookupIndex;
+
+    @Setup
+    public void setUp() throws CatalogApiException {
+        catalog = new SyntheticCatalogGenerator().generate(nbPlans, nbVersions);
+
+        final Random random = new Random(SyntheticDataGeneratorBase.DEFAULT_SEED);
+        planNames = new String[NB_LOOKUPS];
+        for (int i = 0; i < NB_LOOKUPS; i++) {
+            planNames[i] = SyntheticCatalogGenerator.planName(random.nextInt(nbPlans));
+        }
+
+        requestedDate = SyntheticCatalogGenerator.versionEffectiveDate(nbVersions - 1).plusMonths(6);
+        subscriptionStartDate = SyntheticCatalogGenerator.versionEffectiveDate(0).plusMonths(6);
+    }
+
+    @Benchmark
+    public Plan findPlan() throws CatalogApiException {
+        return catalog.findPlan(nextPlanName(), requestedDate, subscriptionStartDate);
+    }
+
+    @Benchmark
+    public Plan findCurrentPlan() throws CatalogApiException {
+        return catalog.findPlan(nextPlanName(), requestedDate);
+    }
+
+    private String nextPlanName() {
+        lookupIndex = (lookupIndex + 1) & (NB_LOOKUPS - 1);
+        return planNames[lookupIndex];
+    }
+}
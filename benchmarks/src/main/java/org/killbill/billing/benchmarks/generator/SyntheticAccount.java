@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks.generator;
+
+import java.util.List;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.invoice.MockBillingEventSet;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.subscription.api.SubscriptionBase;
+
+/**
+ * An account with its subscriptions, billing events and invoice history, as seen by the invoice generator.
+ */
+public class SyntheticAccount {
+
+    private final Account account;
+    private final List<SubscriptionBase> subscriptions;
+    private final MockBillingEventSet billingEvents;
+    private final List<Invoice> invoices;
+    private final LocalDate targetDate;
+
+    public SyntheticAccount(final Account account, final List<SubscriptionBase> subscriptions, final MockBillingEventSet billingEvents,
+                            final List<Invoice> invoices, final LocalDate targetDate) {
+        this.account = account;
+        this.subscriptions = subscriptions;
+        this.billingEvents = billingEvents;
+        this.invoices = invoices;
+        this.targetDate = targetDate;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public List<SubscriptionBase> getSubscriptions() {
+        return subscriptions;
+    }
+
+    public MockBillingEventSet getBillingEvents() {
+        return billingEvents;
+    }
+
+    // Existing invoices, one per month since the start of the history
+    public List<Invoice> getInvoices() {
+        return invoices;
+    }
+
+    // First day not yet invoiced
+    public LocalDate getTargetDate() {
+        return targetDate;
+    }
+}
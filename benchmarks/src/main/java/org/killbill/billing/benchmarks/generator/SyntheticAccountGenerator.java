@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks.generator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.catalog.MockPlan;
+import org.killbill.billing.catalog.api.BillingMode;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.entitlement.api.BlockingState;
+import org.killbill.billing.entitlement.api.BlockingStateType;
+import org.killbill.billing.invoice.MockBillingEventSet;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.model.DefaultInvoice;
+import org.killbill.billing.invoice.model.RecurringInvoiceItem;
+import org.killbill.billing.junction.DefaultBlockingState;
+import org.killbill.billing.junction.plumbing.billing.DefaultBillingEvent;
+import org.killbill.billing.mock.MockAccountBuilder;
+import org.killbill.billing.subscription.api.SubscriptionBase;
+import org.killbill.billing.subscription.api.SubscriptionBaseTransitionType;
+
+/**
+ * Generates accounts with N monthly subscriptions (grouped by bundles) and M years of history: each subscription
+ * changes plan on every anniversary and every past month has been invoiced.
+ */
+public class SyntheticAccountGenerator extends SyntheticDataGeneratorBase {
+
+    public static final Currency CURRENCY = Currency.USD;
+
+    private static final int SUBSCRIPTIONS_PER_BUNDLE = 3;
+    private static final int BILL_CYCLE_DAY = 1;
+    private static final String OVERDUE_SERVICE_NAME = "overdue-service";
+    private static final String OVERDUE_BLOCKED_STATE_NAME = "OD1";
+    private static final String OVERDUE_CLEAR_STATE_NAME = "__KILLBILL__CLEAR__OVERDUE_STATE__";
+
+    private final MockPlan[] plans;
+    private final BigDecimal[] prices;
+
+    private long totalOrdering = 0;
+
+    public SyntheticAccountGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    public SyntheticAccountGenerator(final long seed) {
+        super(seed);
+        this.plans = new MockPlan[]{new MockPlan("basic-monthly"), new MockPlan("standard-monthly"), new MockPlan("premium-monthly")};
+        this.prices = new BigDecimal[]{new BigDecimal("9.99"), new BigDecimal("24.95"), new BigDecimal("49.00")};
+    }
+
+    public SyntheticAccount generate(final int nbSubscriptions, final int nbYears) {
+        final Account account = new MockAccountBuilder(nextUUID()).name("synthetic")
+                                                                  .firstNameLength(9)
+                                                                  .externalKey("synthetic-" + random.nextInt(Integer.MAX_VALUE))
+                                                                  .currency(CURRENCY)
+                                                                  .billingCycleDayLocal(BILL_CYCLE_DAY)
+                                                                  .timeZone(DateTimeZone.UTC)
+                                                                  .isNotifiedForInvoices(false)
+                                                                  .build();
+
+        // One invoice per month
+        final List<Invoice> invoices = new ArrayList<Invoice>(nbYears * 12);
+        for (int month = 0; month < nbYears * 12; month++) {
+            final LocalDate invoiceDate = START_DATE.plusMonths(month);
+            invoices.add(new DefaultInvoice(nextUUID(), account.getId(), month + 1, invoiceDate, invoiceDate, CURRENCY, false));
+        }
+
+        final List<SubscriptionBase> subscriptions = new ArrayList<SubscriptionBase>(nbSubscriptions);
+        final MockBillingEventSet billingEvents = new MockBillingEventSet();
+        UUID bundleId = null;
+        for (int i = 0; i < nbSubscriptions; i++) {
+            if (i % SUBSCRIPTIONS_PER_BUNDLE == 0) {
+                bundleId = nextUUID();
+            }
+            final SubscriptionBase subscription = createSubscription(nextUUID(), bundleId);
+            subscriptions.add(subscription);
+
+            for (int year = 0; year < nbYears; year++) {
+                final int planIndex = (i + year) % plans.length;
+                final MockPlan plan = plans[planIndex];
+                final PlanPhase phase = plan.getFinalPhase();
+                final BigDecimal price = prices[planIndex];
+                final LocalDate effectiveDate = START_DATE.plusYears(year);
+                final SubscriptionBaseTransitionType type = year == 0 ? SubscriptionBaseTransitionType.CREATE : SubscriptionBaseTransitionType.CHANGE;
+
+                billingEvents.add(new DefaultBillingEvent(account, subscription, effectiveDate.toDateTimeAtStartOfDay(DateTimeZone.UTC), plan, phase,
+                                                          null, price, CURRENCY, BillingPeriod.MONTHLY, BILL_CYCLE_DAY, BillingMode.IN_ADVANCE,
+                                                          type.toString(), totalOrdering++, type, DateTimeZone.UTC));
+
+                for (int month = 0; month < 12; month++) {
+                    final Invoice invoice = invoices.get(year * 12 + month);
+                    final LocalDate startDate = effectiveDate.plusMonths(month);
+                    invoice.addInvoiceItem(new RecurringInvoiceItem(invoice.getId(), account.getId(), bundleId, subscription.getId(), plan.getName(), phase.getName(),
+                                                                    startDate, startDate.plusMonths(1), price, price, CURRENCY));
+                }
+            }
+        }
+
+        return new SyntheticAccount(account, subscriptions, billingEvents, invoices, START_DATE.plusYears(nbYears));
+    }
+
+    /**
+     * @return account level overdue blocking states: nbBlockedPeriods periods of 15 days during which billing is blocked,
+     * evenly spread over the history of the account
+     */
+    public List<BlockingState> generateOverdueBlockingStates(final SyntheticAccount syntheticAccount, final int nbBlockedPeriods) {
+        final UUID accountId = syntheticAccount.getAccount().getId();
+        final int nbDays = Days.daysBetween(START_DATE, syntheticAccount.getTargetDate()).getDays();
+
+        final List<BlockingState> blockingStates = new ArrayList<BlockingState>(2 * nbBlockedPeriods);
+        for (int i = 0; i < nbBlockedPeriods; i++) {
+            final LocalDate blockedDate = START_DATE.plusDays(45 + (i * nbDays) / nbBlockedPeriods);
+            blockingStates.add(new DefaultBlockingState(accountId, BlockingStateType.ACCOUNT, OVERDUE_BLOCKED_STATE_NAME, OVERDUE_SERVICE_NAME,
+                                                        true, true, true, blockedDate.toDateTimeAtStartOfDay(DateTimeZone.UTC)));
+            blockingStates.add(new DefaultBlockingState(accountId, BlockingStateType.ACCOUNT, OVERDUE_CLEAR_STATE_NAME, OVERDUE_SERVICE_NAME,
+                                                        false, false, false, blockedDate.plusDays(15).toDateTimeAtStartOfDay(DateTimeZone.UTC)));
+        }
+        return blockingStates;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks.generator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.VersionedCatalog;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.catalog.io.VersionedCatalogLoader;
+import org.killbill.clock.Clock;
+import org.killbill.clock.DefaultClock;
+
+/**
+ * Generates large catalogs: nbPlans plans (one product each, with a 30 days trial and a monthly evergreen phase)
+ * and nbVersions yearly versions, loaded the same way as the per-tenant catalogs.
+ */
+public class SyntheticCatalogGenerator extends SyntheticDataGeneratorBase {
+
+    public static final String CATALOG_NAME = "SyntheticCatalog";
+    public static final String PRICE_LIST_NAME = "DEFAULT";
+
+    private static final Long TENANT_RECORD_ID = 1L;
+
+    private final Clock clock;
+
+    public SyntheticCatalogGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    public SyntheticCatalogGenerator(final long seed) {
+        super(seed);
+        this.clock = new DefaultClock();
+    }
+
+    // Note that plan names should not end with a number, as they would be mistaken for custom plans
+    public static String planName(final int planIndex) {
+        return "product" + planIndex + "-monthly";
+    }
+
+    public static DateTime versionEffectiveDate(final int version) {
+        return START_DATE.plusYears(version).toDateTimeAtStartOfDay(DateTimeZone.UTC);
+    }
+
+    public VersionedCatalog generate(final int nbPlans, final int nbVersions) throws CatalogApiException {
+        final List<String> catalogXMLs = new ArrayList<String>(nbVersions);
+        for (int version = 0; version < nbVersions; version++) {
+            catalogXMLs.add(generateCatalogXML(nbPlans, versionEffectiveDate(version)));
+        }
+        return new VersionedCatalogLoader(clock, null, null).load(catalogXMLs, TENANT_RECORD_ID);
+    }
+
+    public String generateCatalogXML(final int nbPlans, final DateTime effectiveDate) {
+        final StringBuilder xml = new StringBuilder(nbPlans * 1024);
+        xml.append("<catalog>\n")
+           .append("    <effectiveDate>").append(effectiveDate).append("</effectiveDate>\n")
+           .append("    <catalogName>").append(CATALOG_NAME).append("</catalogName>\n")
+           .append("    <recurringBillingMode>IN_ADVANCE</recurringBillingMode>\n")
+           .append("    <currencies>\n")
+           .append("        <currency>USD</currency>\n")
+           .append("    </currencies>\n");
+
+        xml.append("    <products>\n");
+        for (int i = 0; i < nbPlans; i++) {
+            xml.append("        <product name=\"Product").append(i).append("\">\n")
+               .append("            <category>BASE</category>\n")
+               .append("        </product>\n");
+        }
+        xml.append("    </products>\n");
+
+        xml.append("    <rules>\n")
+           .append("        <changePolicy><changePolicyCase><policy>IMMEDIATE</policy></changePolicyCase></changePolicy>\n")
+           .append("        <changeAlignment><changeAlignmentCase><alignment>START_OF_BUNDLE</alignment></changeAlignmentCase></changeAlignment>\n")
+           .append("        <cancelPolicy><cancelPolicyCase><policy>IMMEDIATE</policy></cancelPolicyCase></cancelPolicy>\n")
+           .append("        <createAlignment><createAlignmentCase><alignment>START_OF_BUNDLE</alignment></createAlignmentCase></createAlignment>\n")
+           .append("        <billingAlignment><billingAlignmentCase><alignment>ACCOUNT</alignment></billingAlignmentCase></billingAlignment>\n")
+           .append("        <priceList><priceListCase><toPriceList>").append(PRICE_LIST_NAME).append("</toPriceList></priceListCase></priceList>\n")
+           .append("    </rules>\n");
+
+        xml.append("    <plans>\n");
+        for (int i = 0; i < nbPlans; i++) {
+            final BigDecimal price = new BigDecimal(1 + random.nextInt(50000)).movePointLeft(2);
+            xml.append("        <plan name=\"").append(planName(i)).append("\">\n")
+               .append("            <product>Product").append(i).append("</product>\n")
+               .append("            <initialPhases>\n")
+               .append("                <phase type=\"TRIAL\">\n")
+               .append("                    <duration><unit>DAYS</unit><number>30</number></duration>\n")
+               .append("                    <fixed><fixedPrice></fixedPrice></fixed>\n")
+               .append("                </phase>\n")
+               .append("            </initialPhases>\n")
+               .append("            <finalPhase type=\"EVERGREEN\">\n")
+               .append("                <duration><unit>UNLIMITED</unit></duration>\n")
+               .append("                <recurring>\n")
+               .append("                    <billingPeriod>MONTHLY</billingPeriod>\n")
+               .append("                    <recurringPrice><price><currency>USD</currency><value>").append(price).append("</value></price></recurringPrice>\n")
+               .append("                </recurring>\n")
+               .append("            </finalPhase>\n")
+               .append("        </plan>\n");
+        }
+        xml.append("    </plans>\n");
+
+        xml.append("    <priceLists>\n")
+           .append("        <defaultPriceList name=\"").append(PRICE_LIST_NAME).append("\">\n")
+           .append("            <plans>\n");
+        for (int i = 0; i < nbPlans; i++) {
+            xml.append("                <plan>").append(planName(i)).append("</plan>\n");
+        }
+        xml.append("            </plans>\n")
+           .append("        </defaultPriceList>\n")
+           .append("    </priceLists>\n")
+           .append("</catalog>\n");
+        return xml.toString();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks.generator;
+
+import java.util.Random;
+import java.util.UUID;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.subscription.api.SubscriptionBase;
+import org.mockito.Mockito;
+
+/**
+ * Synthetic data is generated from a fixed seed, so that all runs (and all forks) of a benchmark work on the same data set.
+ */
+public abstract class SyntheticDataGeneratorBase {
+
+    public static final long DEFAULT_SEED = 42L;
+
+    // All the generated histories start at that date
+    public static final LocalDate START_DATE = new LocalDate(2010, 1, 1);
+
+    protected final Random random;
+
+    protected SyntheticDataGeneratorBase(final long seed) {
+        this.random = new Random(seed);
+    }
+
+    protected UUID nextUUID() {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+
+    protected SubscriptionBase createSubscription(final UUID subscriptionId, final UUID bundleId) {
+        // Stub only: we don't want Mockito to record the invocations made during the benchmarks
+        final SubscriptionBase subscription = Mockito.mock(SubscriptionBase.class, Mockito.withSettings().stubOnly());
+        Mockito.when(subscription.getId()).thenReturn(subscriptionId);
+        Mockito.when(subscription.getBundleId()).thenReturn(bundleId);
+        return subscription;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks.generator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.generator.InvoiceDateUtils;
+import org.killbill.billing.invoice.model.RecurringInvoiceItem;
+import org.killbill.billing.invoice.model.RepairAdjInvoiceItem;
+import org.killbill.billing.util.currency.KillBillMoney;
+
+/**
+ * Generates the invoice items of a single monthly subscription over M years. The subscription is upgraded in the middle
+ * of a period once a year, which is invoiced the way the invoice generator does it: the existing item is repaired
+ * for the rest of the period and a new pro-rated item is added.
+ */
+public class SyntheticInvoiceItemGenerator extends SyntheticDataGeneratorBase {
+
+    private static final Currency CURRENCY = Currency.USD;
+    private static final BigDecimal RATE_INCREMENT = new BigDecimal("5.00");
+
+    // Upgrade in the middle of June
+    private static final int UPGRADE_MONTH = 5;
+    private static final int UPGRADE_DAY_OF_MONTH = 15;
+
+    private final UUID accountId;
+    private final UUID bundleId;
+    private final UUID subscriptionId;
+
+    public SyntheticInvoiceItemGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    public SyntheticInvoiceItemGenerator(final long seed) {
+        super(seed);
+        this.accountId = nextUUID();
+        this.bundleId = nextUUID();
+        this.subscriptionId = nextUUID();
+    }
+
+    public UUID getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    /**
+     * @return the items on disk for nbYears of history (one invoice per period)
+     */
+    public List<InvoiceItem> generateExistingItems(final int nbYears) {
+        return generateItems(nbYears, true);
+    }
+
+    /**
+     * @return the items proposed by the invoice generator for the same history, including the next period
+     */
+    public List<InvoiceItem> generateProposedItems(final int nbYears) {
+        return generateItems(nbYears, false);
+    }
+
+    private List<InvoiceItem> generateItems(final int nbYears, final boolean existing) {
+        final List<InvoiceItem> items = new ArrayList<InvoiceItem>(nbYears * 14 + 1);
+
+        BigDecimal rate = new BigDecimal("10.00");
+        String planName = planName(0);
+        for (int month = 0; month < nbYears * 12; month++) {
+            final UUID invoiceId = nextUUID();
+            final LocalDate startDate = START_DATE.plusMonths(month);
+            final LocalDate endDate = startDate.plusMonths(1);
+            if (month % 12 != UPGRADE_MONTH) {
+                items.add(recurringItem(invoiceId, planName, startDate, endDate, rate, rate));
+                continue;
+            }
+
+            final LocalDate upgradeDate = startDate.withDayOfMonth(UPGRADE_DAY_OF_MONTH);
+            final BigDecimal newRate = rate.add(RATE_INCREMENT);
+            final String newPlanName = planName(month / 12 + 1);
+            if (existing) {
+                final InvoiceItem initialItem = recurringItem(invoiceId, planName, startDate, endDate, rate, rate);
+                items.add(initialItem);
+
+                final UUID upgradeInvoiceId = nextUUID();
+                items.add(new RepairAdjInvoiceItem(upgradeInvoiceId, accountId, upgradeDate, endDate,
+                                                   prorate(rate, startDate, endDate, upgradeDate, endDate).negate(), CURRENCY, initialItem.getId()));
+                items.add(recurringItem(upgradeInvoiceId, newPlanName, upgradeDate, endDate, prorate(newRate, startDate, endDate, upgradeDate, endDate), newRate));
+            } else {
+                items.add(recurringItem(invoiceId, planName, startDate, upgradeDate, prorate(rate, startDate, endDate, startDate, upgradeDate), rate));
+                items.add(recurringItem(invoiceId, newPlanName, upgradeDate, endDate, prorate(newRate, startDate, endDate, upgradeDate, endDate), newRate));
+            }
+
+            rate = newRate;
+            planName = newPlanName;
+        }
+
+        if (!existing) {
+            final LocalDate startDate = START_DATE.plusYears(nbYears);
+            items.add(recurringItem(nextUUID(), planName, startDate, startDate.plusMonths(1), rate, rate));
+        }
+
+        return items;
+    }
+
+    private InvoiceItem recurringItem(final UUID invoiceId, final String planName, final LocalDate startDate, final LocalDate endDate,
+                                      final BigDecimal amount, final BigDecimal rate) {
+        return new RecurringInvoiceItem(invoiceId, accountId, bundleId, subscriptionId, planName, planName + "-evergreen",
+                                        startDate, endDate, amount, rate, CURRENCY);
+    }
+
+    // Same pro-ration as the one used by the item tree
+    private BigDecimal prorate(final BigDecimal amount, final LocalDate periodStartDate, final LocalDate periodEndDate,
+                               final LocalDate startDate, final LocalDate endDate) {
+        final int nbTotalDays = Days.daysBetween(periodStartDate, periodEndDate).getDays();
+        return KillBillMoney.of(InvoiceDateUtils.calculateProrationBetweenDates(startDate, endDate, nbTotalDays).multiply(amount), CURRENCY);
+    }
+
+    private String planName(final int version) {
+        return "plan-v" + version + "-monthly";
+    }
+}
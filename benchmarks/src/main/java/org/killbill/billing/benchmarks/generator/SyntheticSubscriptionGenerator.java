@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks.generator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.ProductCategory;
+import org.killbill.billing.subscription.api.user.DefaultSubscriptionBase;
+import org.killbill.billing.subscription.api.user.SubscriptionBuilder;
+import org.killbill.billing.subscription.api.user.SubscriptionEvents;
+import org.killbill.billing.subscription.events.SubscriptionBaseEvent;
+import org.killbill.billing.subscription.events.phase.PhaseEventData;
+import org.killbill.billing.subscription.events.user.ApiEventBuilder;
+import org.killbill.billing.subscription.events.user.ApiEventChange;
+import org.killbill.billing.subscription.events.user.ApiEventCreate;
+
+/**
+ * Generates subscriptions on a synthetic catalog (see SyntheticCatalogGenerator) and their event streams: a creation
+ * in trial, the phase event to evergreen and then one plan change per year.
+ */
+public class SyntheticSubscriptionGenerator extends SyntheticDataGeneratorBase {
+
+    private static final int TRIAL_DAYS = 30;
+
+    private final int nbPlans;
+
+    private long totalOrdering = 0;
+
+    public SyntheticSubscriptionGenerator(final int nbPlans) {
+        this(DEFAULT_SEED, nbPlans);
+    }
+
+    public SyntheticSubscriptionGenerator(final long seed, final int nbPlans) {
+        super(seed);
+        this.nbPlans = nbPlans;
+    }
+
+    public DefaultSubscriptionBase generateSubscription() {
+        final DateTime startDate = START_DATE.toDateTimeAtStartOfDay(DateTimeZone.UTC);
+        final SubscriptionBuilder builder = new SubscriptionBuilder().setId(nextUUID())
+                                                                     .setBundleId(nextUUID())
+                                                                     .setCategory(ProductCategory.BASE)
+                                                                     .setBundleStartDate(startDate)
+                                                                     .setAlignStartDate(startDate)
+                                                                     .setCreatedDate(startDate)
+                                                                     .setUpdatedDate(startDate)
+                                                                     .setActiveVersion(SubscriptionEvents.INITIAL_VERSION);
+        return new DefaultSubscriptionBase(builder);
+    }
+
+    public List<SubscriptionBaseEvent> generateEvents(final DefaultSubscriptionBase subscription, final int nbChanges) {
+        final List<SubscriptionBaseEvent> events = new ArrayList<SubscriptionBaseEvent>(nbChanges + 2);
+
+        final DateTime startDate = subscription.getAlignStartDate();
+        final String initialPlanName = SyntheticCatalogGenerator.planName(random.nextInt(nbPlans));
+        events.add(new ApiEventCreate(apiEventBuilder(subscription.getId(), startDate, initialPlanName, initialPlanName + "-trial")));
+
+        final DateTime phaseDate = startDate.plusDays(TRIAL_DAYS);
+        final SubscriptionBaseEvent phaseEvent = PhaseEventData.createNextPhaseEvent(subscription.getId(), SubscriptionEvents.INITIAL_VERSION,
+                                                                                     initialPlanName + "-evergreen", phaseDate, phaseDate);
+        events.add(phaseEvent);
+
+        for (int i = 1; i <= nbChanges; i++) {
+            final DateTime changeDate = startDate.plusYears(i).plusDays(random.nextInt(28));
+            final String planName = SyntheticCatalogGenerator.planName(random.nextInt(nbPlans));
+            events.add(new ApiEventChange(apiEventBuilder(subscription.getId(), changeDate, planName, planName + "-evergreen")));
+        }
+
+        return events;
+    }
+
+    private ApiEventBuilder apiEventBuilder(final UUID subscriptionId, final DateTime effectiveDate, final String planName, final String phaseName) {
+        return new ApiEventBuilder().setSubscriptionId(subscriptionId)
+                                    .setEventPlan(planName)
+                                    .setEventPlanPhase(phaseName)
+                                    .setEventPriceList(SyntheticCatalogGenerator.PRICE_LIST_NAME)
+                                    .setRequestedDate(effectiveDate)
+                                    .setEffectiveDate(effectiveDate)
+                                    .setProcessedDate(effectiveDate)
+                                    .setCreatedDate(effectiveDate)
+                                    .setUpdatedDate(effectiveDate)
+                                    .setTotalOrdering(totalOrdering++)
+                                    .setActiveVersion(SubscriptionEvents.INITIAL_VERSION)
+                                    .setFromDisk(true);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.benchmarks.generator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.catalog.DefaultInternationalPrice;
+import org.killbill.billing.catalog.DefaultPrice;
+import org.killbill.billing.catalog.DefaultTier;
+import org.killbill.billing.catalog.DefaultTieredBlock;
+import org.killbill.billing.catalog.DefaultUnit;
+import org.killbill.billing.catalog.DefaultUsage;
+import org.killbill.billing.catalog.MockPlan;
+import org.killbill.billing.catalog.api.BillingMode;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.UsageType;
+import org.killbill.billing.junction.BillingEvent;
+import org.killbill.billing.junction.plumbing.billing.DefaultBillingEvent;
+import org.killbill.billing.mock.MockAccountBuilder;
+import org.killbill.billing.subscription.api.SubscriptionBase;
+import org.killbill.billing.subscription.api.SubscriptionBaseTransitionType;
+import org.killbill.billing.usage.RawUsage;
+import org.killbill.billing.usage.api.svcs.DefaultRawUsage;
+
+/**
+ * Generates a monthly consumable in arrear usage section (tiered, with several unit types) and K raw usage records
+ * for a subscription, evenly spread over its history.
+ */
+public class SyntheticUsageGenerator extends SyntheticDataGeneratorBase {
+
+    public static final String USAGE_NAME = "synthetic-usage";
+    public static final Currency CURRENCY = Currency.USD;
+
+    private static final int BILL_CYCLE_DAY = 1;
+    private static final double BLOCK_SIZE = 100;
+    // Maximum number of blocks per tier (the last tier is unbounded)
+    private static final double BLOCKS_PER_TIER = 1000;
+
+    private final String[] unitTypes;
+
+    public SyntheticUsageGenerator(final int nbUnitTypes) {
+        this(DEFAULT_SEED, nbUnitTypes);
+    }
+
+    public SyntheticUsageGenerator(final long seed, final int nbUnitTypes) {
+        super(seed);
+        this.unitTypes = new String[nbUnitTypes];
+        for (int i = 0; i < nbUnitTypes; i++) {
+            unitTypes[i] = "unit" + i;
+        }
+    }
+
+    public DefaultUsage generateConsumableUsage(final int nbTiers) {
+        final DefaultTier[] tiers = new DefaultTier[nbTiers];
+        for (int i = 0; i < nbTiers; i++) {
+            final DefaultTieredBlock[] blocks = new DefaultTieredBlock[unitTypes.length];
+            for (int j = 0; j < unitTypes.length; j++) {
+                // Cheaper blocks in the upper tiers
+                final BigDecimal blockPrice = new BigDecimal(nbTiers - i).add(new BigDecimal(j)).setScale(2);
+                blocks[j] = createTieredBlock(unitTypes[j], blockPrice, i == nbTiers - 1 ? Integer.MAX_VALUE : BLOCKS_PER_TIER);
+            }
+            tiers[i] = new DefaultTier().setBlocks(blocks);
+        }
+
+        final DefaultUsage usage = new DefaultUsage();
+        usage.setName(USAGE_NAME);
+        usage.setBillingMode(BillingMode.IN_ARREAR);
+        usage.setUsageType(UsageType.CONSUMABLE);
+        usage.setBillingPeriod(BillingPeriod.MONTHLY);
+        usage.setTiers(tiers);
+        return usage;
+    }
+
+    /**
+     * @return the (CREATE) billing event of a new subscription on the usage plan
+     */
+    public BillingEvent generateBillingEvent(final LocalDate effectiveDate) {
+        final Account account = new MockAccountBuilder(nextUUID()).currency(CURRENCY)
+                                                                  .billingCycleDayLocal(BILL_CYCLE_DAY)
+                                                                  .timeZone(DateTimeZone.UTC)
+                                                                  .build();
+        final SubscriptionBase subscription = createSubscription(nextUUID(), nextUUID());
+        final MockPlan plan = new MockPlan("usage-monthly");
+        return new DefaultBillingEvent(account, subscription, effectiveDate.toDateTimeAtStartOfDay(DateTimeZone.UTC), plan, plan.getFinalPhase(),
+                                       null, null, CURRENCY, BillingPeriod.NO_BILLING_PERIOD, BILL_CYCLE_DAY, BillingMode.IN_ARREAR,
+                                       "CREATE", 1L, SubscriptionBaseTransitionType.CREATE, DateTimeZone.UTC);
+    }
+
+    /**
+     * @return nbRecords raw usage records between startDate (inclusive) and endDate (exclusive), ordered by date as returned by the usage api
+     */
+    public List<RawUsage> generateRawUsage(final UUID subscriptionId, final LocalDate startDate, final LocalDate endDate, final int nbRecords) {
+        final int nbDays = Days.daysBetween(startDate, endDate).getDays();
+
+        final List<RawUsage> rawUsages = new ArrayList<RawUsage>(nbRecords);
+        for (int i = 0; i < nbRecords; i++) {
+            final LocalDate recordDate = startDate.plusDays((int) (((long) i * nbDays) / nbRecords));
+            final String unitType = unitTypes[random.nextInt(unitTypes.length)];
+            rawUsages.add(new DefaultRawUsage(subscriptionId, recordDate, unitType, (long) (1 + random.nextInt(1000))));
+        }
+        return rawUsages;
+    }
+
+    private DefaultTieredBlock createTieredBlock(final String unitType, final BigDecimal price, final double max) {
+        final DefaultPrice[] prices = new DefaultPrice[1];
+        prices[0] = new DefaultPrice();
+        prices[0].setCurrency(CURRENCY).setValue(price);
+
+        final DefaultTieredBlock block = new DefaultTieredBlock();
+        block.setUnit(new DefaultUnit().setName(unitType));
+        block.setSize(BLOCK_SIZE);
+        block.setPrice(new DefaultInternationalPrice().setPrices(prices));
+        block.setMax(max);
+        return block;
+    }
+}
@@ -16,7 +16,11 @@
 
 package org.killbill.billing.catalog;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -48,6 +52,9 @@ public class DefaultPriceList extends ValidatingConfig<StandaloneCatalog> implem
     @XmlElement(name = "plan", required = true)
     private DefaultPlan[] plans;
 
+    // Plans grouped by product name (in declaration order), built on first lookup and reset when the plans are replaced
+    private volatile Map<String, List<DefaultPlan>> plansByProductName;
+
     public DefaultPriceList() {
     }
 
@@ -79,7 +86,11 @@ public class DefaultPriceList extends ValidatingConfig<StandaloneCatalog> implem
       */
     @Override
     public DefaultPlan findPlan(final Product product, final BillingPeriod period) {
-        for (final DefaultPlan cur : getPlans()) {
+        final List<DefaultPlan> candidates = getPlansByProductName().get(product.getName());
+        if (candidates == null) {
+            return null;
+        }
+        for (final DefaultPlan cur : candidates) {
             if (cur.getProduct().equals(product) &&
                     (cur.getRecurringBillingPeriod() == null || cur.getRecurringBillingPeriod().equals(period))) {
                 return cur;
@@ -88,6 +99,23 @@ public class DefaultPriceList extends ValidatingConfig<StandaloneCatalog> implem
         return null;
     }
 
+    private Map<String, List<DefaultPlan>> getPlansByProductName() {
+        Map<String, List<DefaultPlan>> result = plansByProductName;
+        if (result == null) {
+            result = new HashMap<String, List<DefaultPlan>>();
+            for (final DefaultPlan cur : getPlans()) {
+                List<DefaultPlan> plansForProduct = result.get(cur.getProduct().getName());
+                if (plansForProduct == null) {
+                    plansForProduct = new ArrayList<DefaultPlan>(1);
+                    result.put(cur.getProduct().getName(), plansForProduct);
+                }
+                plansForProduct.add(cur);
+            }
+            plansByProductName = result;
+        }
+        return result;
+    }
+
     @Override
     public ValidationErrors validate(final StandaloneCatalog catalog, final ValidationErrors errors) {
         for (final DefaultPlan cur : getPlans()) {
@@ -103,8 +131,12 @@ public class DefaultPriceList extends ValidatingConfig<StandaloneCatalog> implem
     }
 
     private int findNumberOfPlans(final Product product, final BillingPeriod period) {
+        final List<DefaultPlan> candidates = getPlansByProductName().get(product.getName());
+        if (candidates == null) {
+            return 0;
+        }
         int count = 0;
-        for (final DefaultPlan cur : getPlans()) {
+        for (final DefaultPlan cur : candidates) {
             if (cur.getProduct().equals(product) &&
                     (cur.getRecurringBillingPeriod() == null || cur.getRecurringBillingPeriod().equals(period))) {
                 count++;
@@ -125,6 +157,7 @@ public class DefaultPriceList extends ValidatingConfig<StandaloneCatalog> implem
 
     public DefaultPriceList setPlans(final DefaultPlan[] plans) {
         this.plans = plans;
+        this.plansByProductName = null;
         return this;
     }
 
@@ -20,7 +20,9 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 import javax.xml.bind.annotation.XmlAccessType;
@@ -90,6 +92,10 @@ public class StandaloneCatalog extends ValidatingConfig<StandaloneCatalog> imple
 
     private URI catalogURI;
 
+    // Name indexes, built at load time or on first lookup, and reset when the underlying arrays are replaced
+    private volatile Map<String, DefaultPlan> plansByName;
+    private volatile Map<String, DefaultProduct> productsByName;
+
     public StandaloneCatalog() {
     }
 
@@ -179,15 +185,21 @@ public class StandaloneCatalog extends ValidatingConfig<StandaloneCatalog> imple
 
     @Override
     public DefaultPlan findCurrentPlan(final String name) throws CatalogApiException {
-        if (name == null || plans == null) {
+        final DefaultPlan plan = findCurrentPlanIfExists(name);
+        if (plan == null) {
             throw new CatalogApiException(ErrorCode.CAT_NO_SUCH_PLAN, name);
         }
-        for (final DefaultPlan p : plans) {
-            if (p.getName().equals(name)) {
-                return p;
-            }
+        return plan;
+    }
+
+    /**
+     * Same as findCurrentPlan, but returns null instead of throwing when the plan doesn't exist in this version
+     */
+    public DefaultPlan findCurrentPlanIfExists(@Nullable final String name) {
+        if (name == null || plans == null) {
+            return null;
         }
-        throw new CatalogApiException(ErrorCode.CAT_NO_SUCH_PLAN, name);
+        return getPlansByName().get(name);
     }
 
     @Override
@@ -195,12 +207,11 @@ public class StandaloneCatalog extends ValidatingConfig<StandaloneCatalog> imple
         if (name == null || products == null) {
             throw new CatalogApiException(ErrorCode.CAT_NO_SUCH_PRODUCT, name);
         }
-        for (final DefaultProduct p : products) {
-            if (p.getName().equals(name)) {
-                return p;
-            }
+        final DefaultProduct product = getProductsByName().get(name);
+        if (product == null) {
+            throw new CatalogApiException(ErrorCode.CAT_NO_SUCH_PRODUCT, name);
         }
-        throw new CatalogApiException(ErrorCode.CAT_NO_SUCH_PRODUCT, name);
+        return product;
     }
 
     @Override
@@ -281,7 +292,51 @@ public class StandaloneCatalog extends ValidatingConfig<StandaloneCatalog> imple
         for (final DefaultPlan p : plans) {
             p.initialize(catalog, sourceURI);
         }
+        plansByName = buildPlansByName(plans);
+        productsByName = buildProductsByName(products);
+    }
+
+    private Map<String, DefaultPlan> getPlansByName() {
+        Map<String, DefaultPlan> result = plansByName;
+        if (result == null) {
+            result = buildPlansByName(plans);
+            plansByName = result;
+        }
+        return result;
+    }
+
+    private Map<String, DefaultProduct> getProductsByName() {
+        Map<String, DefaultProduct> result = productsByName;
+        if (result == null) {
+            result = buildProductsByName(products);
+            productsByName = result;
+        }
+        return result;
+    }
+
+    // In case of duplicate names (rejected by validation), the first entry wins, as with the former linear scan
+    private static Map<String, DefaultPlan> buildPlansByName(@Nullable final DefaultPlan[] plans) {
+        final Map<String, DefaultPlan> result = new HashMap<String, DefaultPlan>();
+        if (plans != null) {
+            for (final DefaultPlan p : plans) {
+                if (!result.containsKey(p.getName())) {
+                    result.put(p.getName(), p);
+                }
+            }
+        }
+        return result;
+    }
 
+    private static Map<String, DefaultProduct> buildProductsByName(@Nullable final DefaultProduct[] products) {
+        final Map<String, DefaultProduct> result = new HashMap<String, DefaultProduct>();
+        if (products != null) {
+            for (final DefaultProduct p : products) {
+                if (!result.containsKey(p.getName())) {
+                    result.put(p.getName(), p);
+                }
+            }
+        }
+        return result;
     }
 
     //////////////////////////////////////////////////////////////////////////////
@@ -298,6 +353,7 @@ public class StandaloneCatalog extends ValidatingConfig<StandaloneCatalog> imple
 
     public StandaloneCatalog setProducts(final DefaultProduct[] products) {
         this.products = products;
+        this.productsByName = null;
         return this;
     }
 
@@ -308,6 +364,7 @@ public class StandaloneCatalog extends ValidatingConfig<StandaloneCatalog> imple
 
     public StandaloneCatalog setPlans(final DefaultPlan[] plans) {
         this.plans = plans;
+        this.plansByName = null;
         return this;
     }
 
@@ -101,23 +101,25 @@ public class VersionedCatalog extends ValidatingConfig<StandaloneCatalogWithPric
         return versions.get(indexOfVersionForDate(date.toDate()));
     }
 
-    private List<StandaloneCatalogWithPriceOverride> versionsBeforeDate(final Date date) throws CatalogApiException {
-        final List<StandaloneCatalogWithPriceOverride> result = new ArrayList<StandaloneCatalogWithPriceOverride>();
-        final int index = indexOfVersionForDate(date);
-        for (int i = 0; i <= index; i++) {
-            result.add(versions.get(i));
-        }
-        return result;
-    }
-
+    // Versions are kept sorted by effective date (see add): find the last one effective on or before the date
     private int indexOfVersionForDate(final Date date) throws CatalogApiException {
-        for (int i = versions.size() - 1; i >= 0; i--) {
-            final StandaloneCatalogWithPriceOverride c = versions.get(i);
-            if (c.getEffectiveDate().getTime() <= date.getTime()) {
-                return i;
+        final long time = date.getTime();
+        int low = 0;
+        int high = versions.size() - 1;
+        int result = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (versions.get(mid).getEffectiveDate().getTime() <= time) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
         }
-        throw new CatalogApiException(ErrorCode.CAT_NO_CATALOG_FOR_GIVEN_DATE, date.toString());
+        if (result < 0) {
+            throw new CatalogApiException(ErrorCode.CAT_NO_CATALOG_FOR_GIVEN_DATE, date.toString());
+        }
+        return result;
     }
 
     private class PlanRequestWrapper {
@@ -142,7 +144,7 @@ public class VersionedCatalog extends ValidatingConfig<StandaloneCatalogWithPric
 
         public Plan findPlan(final StandaloneCatalogWithPriceOverride catalog) throws CatalogApiException {
             if (name != null) {
-                return catalog.findCurrentPlan(name);
+                return catalog.findCurrentPlanIfExists(name);
             } else {
                 return catalog.createOrFindCurrentPlan(productName, bp, priceListName, overrides);
             }
@@ -153,23 +155,13 @@ public class VersionedCatalog extends ValidatingConfig<StandaloneCatalogWithPric
                           final DateTime requestedDate,
                           final DateTime subscriptionStartDate)
             throws CatalogApiException {
-        final List<StandaloneCatalogWithPriceOverride> catalogs = versionsBeforeDate(requestedDate.toDate());
-        if (catalogs.size() == 0) {
-            throw new CatalogApiException(ErrorCode.CAT_NO_CATALOG_FOR_GIVEN_DATE, requestedDate.toDate().toString());
-        }
-
-        for (int i = catalogs.size() - 1; i >= 0; i--) { // Working backwards to find the latest applicable plan
-            final StandaloneCatalogWithPriceOverride c = catalogs.get(i);
-            Plan plan;
-            try {
-                plan = wrapper.findPlan(c);
-            } catch (CatalogApiException e) {
-                if (e.getCode() != ErrorCode.CAT_NO_SUCH_PLAN.getCode()) {
-                    throw e;
-                } else {
-                    // If we can't find an entry it probably means the plan has been retired so we keep looking...
-                    continue;
-                }
+        final int index = indexOfVersionForDate(requestedDate.toDate());
+        for (int i = index; i >= 0; i--) { // Working backwards to find the latest applicable plan
+            final StandaloneCatalogWithPriceOverride c = versions.get(i);
+            final Plan plan = wrapper.findPlan(c);
+            if (plan == null) {
+                // If we can't find an entry it probably means the plan has been retired so we keep looking...
+                continue;
             }
 
             DateTime catalogEffectiveDate = new DateTime(c.getEffectiveDate());
@@ -37,6 +37,7 @@ import org.killbill.billing.util.cache.CacheController;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.killbill.billing.util.cache.CacheLoaderArgument;
 import org.killbill.billing.util.cache.TenantCatalogCacheLoader.LoaderCallback;
+import org.killbill.billing.util.cache.TenantPluginCatalogCacheLoader;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
 import org.slf4j.Logger;
@@ -50,8 +51,10 @@ public class EhCacheCatalogCache implements CatalogCache {
     private final Logger logger = LoggerFactory.getLogger(EhCacheCatalogCache.class);
 
     private final CacheController cacheController;
+    private final CacheController pluginCatalogCacheController;
     private final VersionedCatalogLoader loader;
     private final CacheLoaderArgument cacheLoaderArgument;
+    private final CacheLoaderArgument pluginCatalogCacheLoaderArgument;
     private final OSGIServiceRegistration<CatalogPluginApi> pluginRegistry;
     private final VersionedCatalogMapper versionedCatalogMapper;
     private final InternalCallContextFactory internalCallContextFactory;
@@ -67,9 +70,11 @@ public class EhCacheCatalogCache implements CatalogCache {
         this.pluginRegistry = pluginRegistry;
         this.versionedCatalogMapper = versionedCatalogMapper;
         this.cacheController = cacheControllerDispatcher.getCacheController(CacheType.TENANT_CATALOG);
+        this.pluginCatalogCacheController = cacheControllerDispatcher.getCacheController(CacheType.TENANT_PLUGIN_CATALOG);
         this.loader = loader;
         this.internalCallContextFactory = internalCallContextFactory;
         this.cacheLoaderArgument = initializeCacheLoaderArgument(this);
+        this.pluginCatalogCacheLoaderArgument = initializePluginCatalogCacheLoaderArgument(this);
         setDefaultCatalog();
     }
 
@@ -82,8 +87,6 @@ public class EhCacheCatalogCache implements CatalogCache {
 
     @Override
     public VersionedCatalog getCatalog(final InternalTenantContext tenantContext) throws CatalogApiException {
-
-        // STEPH TODO what are the possibilities for caching here ?
         final VersionedCatalog pluginVersionedCatalog = getCatalogFromPlugins(tenantContext);
         if (pluginVersionedCatalog != null) {
             return pluginVersionedCatalog;
@@ -110,12 +113,21 @@ public class EhCacheCatalogCache implements CatalogCache {
 
     @Override
     public void clearCatalog(final InternalTenantContext tenantContext) {
+        pluginCatalogCacheController.remove(tenantContext.getTenantRecordId());
         if (tenantContext.getTenantRecordId() != InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID) {
             cacheController.remove(tenantContext.getTenantRecordId());
         }
     }
 
     private VersionedCatalog getCatalogFromPlugins(final InternalTenantContext internalTenantContext) {
+        // Most deployments don't have any catalog plugin, no need to go through the cache
+        if (pluginRegistry.getAllServices().isEmpty()) {
+            return null;
+        }
+        return (VersionedCatalog) pluginCatalogCacheController.get(internalTenantContext.getTenantRecordId(), pluginCatalogCacheLoaderArgument);
+    }
+
+    private VersionedCatalog loadCatalogFromPlugins(final InternalTenantContext internalTenantContext) {
         final TenantContext tenantContext = internalCallContextFactory.createTenantContext(internalTenantContext);
         for (final String service : pluginRegistry.getAllServices()) {
             final CatalogPluginApi plugin = pluginRegistry.getServiceForName(service);
@@ -148,6 +160,21 @@ public class EhCacheCatalogCache implements CatalogCache {
         return new CacheLoaderArgument(irrelevant, args, notUsed);
     }
 
+    // This is a contract between the TenantPluginCatalogCacheLoader and the EhCacheCatalogCache
+    private CacheLoaderArgument initializePluginCatalogCacheLoaderArgument(final EhCacheCatalogCache parentCache) {
+        final TenantPluginCatalogCacheLoader.LoaderCallback loaderCallback = new TenantPluginCatalogCacheLoader.LoaderCallback() {
+            @Override
+            public Object loadPluginCatalog(final InternalTenantContext tenantContext) {
+                return parentCache.loadCatalogFromPlugins(tenantContext);
+            }
+        };
+        final Object[] args = new Object[1];
+        args[0] = loaderCallback;
+        final ObjectType irrelevant = null;
+        final InternalTenantContext notUsed = null;
+        return new CacheLoaderArgument(irrelevant, args, notUsed);
+    }
+
     @VisibleForTesting
     void setDefaultCatalog() {
         try {
@@ -19,6 +19,7 @@ package org.killbill.billing.catalog;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import org.killbill.billing.ErrorCode;
 import org.killbill.billing.catalog.api.CatalogApiException;
 import org.killbill.billing.catalog.api.PhaseType;
 
@@ -45,4 +46,34 @@ public class TestStandaloneCatalog extends CatalogTestSuiteNoDB {
         Assert.assertEquals(cat.findCurrentPhase("TestPlan1-trial"), phaseTrial1);
         Assert.assertEquals(cat.findCurrentPhase("TestPlan2-trial"), phaseTrial2);
     }
+
+    @Test(groups = "fast")
+    public void testFindPlanAndProductAfterReplacingArrays() throws CatalogApiException {
+        final DefaultPlan plan1 = new MockPlan("TestPlan1");
+        final DefaultPlan plan2 = new MockPlan("TestPlan2");
+        final StandaloneCatalog cat = new MockCatalog().setPlans(new DefaultPlan[]{plan1});
+
+        Assert.assertEquals(cat.findCurrentPlan("TestPlan1"), plan1);
+        Assert.assertNull(cat.findCurrentPlanIfExists("TestPlan2"));
+        try {
+            cat.findCurrentPlan("TestPlan2");
+            Assert.fail();
+        } catch (final CatalogApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.CAT_NO_SUCH_PLAN.getCode());
+        }
+
+        // The lookup index must reflect the new plans
+        cat.setPlans(new DefaultPlan[]{plan1, plan2});
+        Assert.assertEquals(cat.findCurrentPlan("TestPlan2"), plan2);
+
+        final DefaultProduct product = new MockProduct();
+        cat.setProducts(new DefaultProduct[]{product});
+        Assert.assertEquals(cat.findCurrentProduct(product.getName()), product);
+        try {
+            cat.findCurrentProduct("NotAProduct");
+            Assert.fail();
+        } catch (final CatalogApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.CAT_NO_SUCH_PRODUCT.getCode());
+        }
+    }
 }
@@ -24,14 +24,24 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.CatalogTestSuiteNoDB;
 import org.killbill.billing.catalog.DefaultProduct;
 import org.killbill.billing.catalog.VersionedCatalog;
+import org.killbill.billing.catalog.api.BillingMode;
 import org.killbill.billing.catalog.api.Catalog;
 import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.catalog.plugin.TestModelVersionedPluginCatalog;
+import org.killbill.billing.catalog.plugin.api.CatalogPluginApi;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.osgi.api.OSGIServiceDescriptor;
+import org.killbill.billing.osgi.api.OSGIServiceRegistration;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.util.callcontext.TenantContext;
 import org.killbill.xmlloader.UriAccessor;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
@@ -43,9 +53,13 @@ import org.testng.annotations.Test;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Resources;
+import com.google.inject.Inject;
 
 public class TestEhCacheCatalogCache extends CatalogTestSuiteNoDB {
 
+    @Inject
+    protected OSGIServiceRegistration<CatalogPluginApi> pluginRegistry;
+
     private InternalTenantContext multiTenantContext;
     private InternalTenantContext otherMultiTenantContext;
 
@@ -174,4 +188,72 @@ public class TestEhCacheCatalogCache extends CatalogTestSuiteNoDB {
         // Verify the lookup with the other tenant
         Assert.assertEquals(catalogCache.getCatalog(otherMultiTenantContext), otherResult);
     }
+
+    //
+    // Verify CatalogCache returns the catalog from the plugins, per tenant:
+    // 1. The plugin is only queried once per tenant, whether it returns a catalog or not (negative entry)
+    // 2. Clearing the catalog of a tenant invalidates its entry, the plugin is queried again on the next lookup
+    //
+    @Test(groups = "fast")
+    public void testCatalogFromPlugins() throws CatalogApiException {
+        // Fall back on the default catalog for tenants without any plugin catalog
+        Mockito.reset(tenantInternalApi);
+        Mockito.when(tenantInternalApi.getTenantCatalogs(Mockito.any(InternalTenantContext.class))).thenReturn(ImmutableList.<String>of());
+
+        final AtomicBoolean shouldReturnCatalog = new AtomicBoolean(true);
+        final AtomicInteger nbPluginCalls = new AtomicInteger(0);
+        final VersionedPluginCatalog versionedPluginCatalog = new TestModelVersionedPluginCatalog("PluginCatalog", BillingMode.IN_ADVANCE, ImmutableList.<StandalonePluginCatalog>of());
+        final CatalogPluginApi catalogPluginApi = Mockito.mock(CatalogPluginApi.class);
+        Mockito.when(catalogPluginApi.getVersionedPluginCatalog(Mockito.<Iterable<PluginProperty>>any(), Mockito.any(TenantContext.class))).thenAnswer(new Answer<VersionedPluginCatalog>() {
+            @Override
+            public VersionedPluginCatalog answer(final InvocationOnMock invocation) throws Throwable {
+                nbPluginCalls.incrementAndGet();
+                return shouldReturnCatalog.get() ? versionedPluginCatalog : null;
+            }
+        });
+
+        final OSGIServiceDescriptor desc = new OSGIServiceDescriptor() {
+            @Override
+            public String getPluginSymbolicName() {
+                return "TestCatalogPluginApi";
+            }
+
+            @Override
+            public String getRegistrationName() {
+                return "TestCatalogPluginApi";
+            }
+        };
+        pluginRegistry.registerService(desc, catalogPluginApi);
+        try {
+            // Cache miss, then cache hit
+            final VersionedCatalog result = catalogCache.getCatalog(multiTenantContext);
+            Assert.assertEquals(result.getCatalogName(), "PluginCatalog");
+            Assert.assertEquals(nbPluginCalls.get(), 1);
+            Assert.assertEquals(catalogCache.getCatalog(multiTenantContext), result);
+            Assert.assertEquals(nbPluginCalls.get(), 1);
+
+            // No plugin catalog for the other tenant: the negative entry prevents the plugin from being queried again
+            shouldReturnCatalog.set(false);
+            Assert.assertEquals(catalogCache.getCatalog(otherMultiTenantContext).getCatalogName(), "EmptyCatalog");
+            Assert.assertEquals(nbPluginCalls.get(), 2);
+            shouldReturnCatalog.set(true);
+            Assert.assertEquals(catalogCache.getCatalog(otherMultiTenantContext).getCatalogName(), "EmptyCatalog");
+            Assert.assertEquals(nbPluginCalls.get(), 2);
+
+            // Invalidation of the negative entry
+            catalogCache.clearCatalog(otherMultiTenantContext);
+            Assert.assertEquals(catalogCache.getCatalog(otherMultiTenantContext).getCatalogName(), "PluginCatalog");
+            Assert.assertEquals(nbPluginCalls.get(), 3);
+
+            // Invalidation of the plugin catalog, the first tenant is unaffected so far
+            Assert.assertEquals(catalogCache.getCatalog(multiTenantContext), result);
+            Assert.assertEquals(nbPluginCalls.get(), 3);
+            shouldReturnCatalog.set(false);
+            catalogCache.clearCatalog(multiTenantContext);
+            Assert.assertEquals(catalogCache.getCatalog(multiTenantContext).getCatalogName(), "EmptyCatalog");
+            Assert.assertEquals(nbPluginCalls.get(), 4);
+        } finally {
+            pluginRegistry.unregisterService(desc.getRegistrationName());
+        }
+    }
 }
@@ -59,6 +59,11 @@ public class DefaultInternalBlockingApi implements BlockingInternalApi {
         return dao.getBlockingAllForAccountRecordId(context);
     }
 
+    @Override
+    public List<BlockingState> getBlockingStatesForService(final BlockingStateType blockingStateType, final String serviceName, final InternalTenantContext context) {
+        return dao.getBlockingStatesForService(blockingStateType, serviceName, context);
+    }
+
     @Override
     public void setBlockingState(final BlockingState state, final InternalCallContext context) {
         entitlementUtils.setBlockingStateAndPostBlockingTransitionEvent(state, context);
@@ -58,6 +58,16 @@ public interface BlockingStateDao extends EntityDao<BlockingStateModelDao, Block
      */
     public List<BlockingState> getBlockingAllForAccountRecordId(InternalTenantContext context);
 
+    /**
+     * Returns the current state for that specific service, for all the blockable objects of that type in the tenant
+     *
+     * @param blockingStateType blockable object type
+     * @param serviceName       name of the service
+     * @param context           call context
+     * @return list of current blocking states, one per blockable object
+     */
+    public List<BlockingState> getBlockingStatesForService(BlockingStateType blockingStateType, String serviceName, InternalTenantContext context);
+
     /**
      * Sets a new state for a specific service.
      *
@@ -48,6 +48,12 @@ public interface BlockingStateSqlDao extends EntitySqlDao<BlockingStateModelDao,
                                                                  @Bind("effectiveDate") Date effectiveDate,
                                                                  @BindBean final InternalTenantContext context);
 
+    @SqlQuery
+    public abstract List<BlockingStateModelDao> getBlockingStatesForService(@Bind("service") String serviceName,
+                                                                            @Bind("type") String blockingStateType,
+                                                                            @Bind("effectiveDate") Date effectiveDate,
+                                                                            @BindBean final InternalTenantContext context);
+
     @SqlQuery
     public abstract List<BlockingStateModelDao> getBlockingHistoryForService(@Bind("blockableId") UUID blockableId,
                                                                              @Bind("service") String serviceName,
@@ -228,6 +228,11 @@ public class ProxyBlockingStateDao implements BlockingStateDao {
         return addBlockingStatesNotOnDisk(statesOnDisk, context);
     }
 
+    @Override
+    public List<BlockingState> getBlockingStatesForService(final BlockingStateType blockingStateType, final String serviceName, final InternalTenantContext context) {
+        return delegate.getBlockingStatesForService(blockingStateType, serviceName, context);
+    }
+
     @Override
     public void setBlockingState(final BlockingState state, final Clock clock, final InternalCallContext context) {
         delegate.setBlockingState(state, clock, context);
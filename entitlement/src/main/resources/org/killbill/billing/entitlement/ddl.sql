@@ -23,3 +23,4 @@ CREATE TABLE blocking_states (
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 CREATE INDEX blocking_states_id ON blocking_states(blockable_id);
 CREATE INDEX blocking_states_tenant_account_record_id ON blocking_states(tenant_record_id, account_record_id);
+CREATE INDEX blocking_states_tenant_record_id_service ON blocking_states(tenant_record_id, service);
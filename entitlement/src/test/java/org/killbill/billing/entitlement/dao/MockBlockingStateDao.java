@@ -81,6 +81,18 @@ public class MockBlockingStateDao extends MockEntityDaoBase<BlockingStateModelDa
         return Objects.firstNonNull(blockingStatesPerAccountRecordId.get(context.getAccountRecordId()), ImmutableList.<BlockingState>of());
     }
 
+    @Override
+    public List<BlockingState> getBlockingStatesForService(final BlockingStateType blockingStateType, final String serviceName, final InternalTenantContext context) {
+        final List<BlockingState> result = new ArrayList<BlockingState>();
+        for (final UUID blockableId : blockingStates.keySet()) {
+            final BlockingState state = getBlockingStateForService(blockableId, blockingStateType, serviceName, context);
+            if (state != null && state.getType().equals(blockingStateType)) {
+                result.add(state);
+            }
+        }
+        return result;
+    }
+
     @Override
     public synchronized void setBlockingState(final BlockingState state, final Clock clock, final InternalCallContext context) {
         if (blockingStates.get(state.getBlockedId()) == null) {
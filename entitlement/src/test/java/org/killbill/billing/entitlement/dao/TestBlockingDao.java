@@ -95,4 +95,39 @@ public class TestBlockingDao extends EntitlementTestSuiteWithEmbeddedDB {
         Assert.assertEquals(history2.get(0).getStateName(), overdueStateName);
         Assert.assertEquals(history2.get(1).getStateName(), overdueStateName2);
     }
+
+    @Test(groups = "slow", description = "Check BlockingStateDao returns the current state of each blockable for a service")
+    public void testGetBlockingStatesForService() throws Exception {
+        final String service = "TEST";
+        final UUID uuid1 = UUID.randomUUID();
+        final UUID uuid2 = UUID.randomUUID();
+        final UUID uuidOtherService = UUID.randomUUID();
+        final UUID uuidFuture = UUID.randomUUID();
+
+        clock.setDay(new LocalDate(2012, 4, 1));
+
+        blockingStateDao.setBlockingState(new DefaultBlockingState(uuid1, BlockingStateType.ACCOUNT, "OD1", service, false, false, false, clock.getUTCNow()), clock, internalCallContext);
+        blockingStateDao.setBlockingState(new DefaultBlockingState(uuid2, BlockingStateType.ACCOUNT, "OD1", service, false, false, false, clock.getUTCNow()), clock, internalCallContext);
+        blockingStateDao.setBlockingState(new DefaultBlockingState(uuidOtherService, BlockingStateType.ACCOUNT, "OD1", "TEST2", false, false, false, clock.getUTCNow()), clock, internalCallContext);
+
+        clock.addDays(1);
+
+        // Only the latest state of uuid1 should be returned
+        blockingStateDao.setBlockingState(new DefaultBlockingState(uuid1, BlockingStateType.ACCOUNT, "OD2", service, true, false, false, clock.getUTCNow()), clock, internalCallContext);
+        // Not effective yet
+        blockingStateDao.setBlockingState(new DefaultBlockingState(uuidFuture, BlockingStateType.ACCOUNT, "OD1", service, false, false, false, clock.getUTCNow().plusDays(5)), clock, internalCallContext);
+
+        final List<BlockingState> states = blockingStateDao.getBlockingStatesForService(BlockingStateType.ACCOUNT, service, internalCallContext);
+        Assert.assertEquals(states.size(), 2);
+        for (final BlockingState state : states) {
+            if (state.getBlockedId().equals(uuid1)) {
+                Assert.assertEquals(state.getStateName(), "OD2");
+            } else {
+                Assert.assertEquals(state.getBlockedId(), uuid2);
+                Assert.assertEquals(state.getStateName(), "OD1");
+            }
+        }
+
+        Assert.assertEquals(blockingStateDao.getBlockingStatesForService(BlockingStateType.SUBSCRIPTION, service, internalCallContext).size(), 0);
+    }
 }
@@ -67,6 +67,7 @@ import org.killbill.billing.invoice.dao.InvoiceDao;
 import org.killbill.billing.invoice.dao.InvoiceItemModelDao;
 import org.killbill.billing.invoice.dao.InvoiceModelDao;
 import org.killbill.billing.invoice.generator.BillingIntervalDetail;
+import org.killbill.billing.invoice.generator.InvoiceBillingWatermarks;
 import org.killbill.billing.invoice.generator.InvoiceGenerator;
 import org.killbill.billing.invoice.model.DefaultInvoice;
 import org.killbill.billing.invoice.model.FixedPriceInvoiceItem;
@@ -266,14 +267,20 @@ public class InvoiceDispatcher {
 
             final Currency targetCurrency = account.getCurrency();
 
+            // In incremental mode, only subscriptions whose billing events or items changed since the last run are re-evaluated
+            final InvoiceBillingWatermarks billingWatermarks = invoiceConfig.isIncrementalGenerationEnabled() && !billingEvents.isAccountAutoInvoiceOff() ?
+                                                               new InvoiceBillingWatermarks(billingEvents, invoiceDao.getBillingWatermarks(context)) :
+                                                               null;
+
             final LocalDate targetDate = (dateAndTimeZoneContext != null && targetDateTime != null) ? dateAndTimeZoneContext.computeTargetDate(targetDateTime) : null;
-            final Invoice invoice = targetDate != null ? generator.generateInvoice(account, billingEvents, invoices, targetDate, targetCurrency, context) : null;
+            final Invoice invoice = targetDate != null ? generator.generateInvoice(account, billingEvents, invoices, targetDate, targetCurrency, billingWatermarks, context) : null;
             //
             // If invoice comes back null, there is nothing new to generate, we can bail early
             //
             if (invoice == null) {
                 log.info("Generated null invoice for accountId {} and targetDate {} (targetDateTime {})", new Object[]{accountId, targetDate, targetDateTime});
                 if (!isDryRun) {
+                    updateBillingWatermarks(billingWatermarks, context);
                     final BusInternalEvent event = new DefaultNullInvoiceEvent(accountId, clock.getUTCToday(),
                                                                                context.getAccountRecordId(), context.getTenantRecordId(), context.getUserToken());
                     postEvent(event, accountId, context);
@@ -294,6 +301,7 @@ public class InvoiceDispatcher {
             invoice.addInvoiceItems(invoicePluginDispatcher.getAdditionalInvoiceItems(invoice, callContext));
             if (!isDryRun) {
                 commitInvoiceStateAndNotifyAccountIfConfigured(account, invoice, billingEvents, dateAndTimeZoneContext, targetDate, context);
+                updateBillingWatermarks(billingWatermarks, context);
             }
             return invoice;
         } catch (final AccountApiException e) {
@@ -382,6 +390,15 @@ public class InvoiceDispatcher {
         }
     }
 
+    // Watermarks are written once the invoice has been committed: if this fails, the items fingerprints won't match on the next run
+    // and the subscriptions will simply be re-evaluated
+    private void updateBillingWatermarks(@Nullable final InvoiceBillingWatermarks billingWatermarks, final InternalCallContext context) {
+        if (billingWatermarks == null) {
+            return;
+        }
+        invoiceDao.setBillingWatermarks(billingWatermarks.getUpdatedWatermarks(), context);
+    }
+
     private InvoiceItem computeCBAOnExistingInvoice(final Invoice invoice, final InternalCallContext context) throws InvoiceApiException {
         // Transformation to Invoice -> InvoiceModelDao
         final InvoiceModelDao invoiceModelDao = new InvoiceModelDao(invoice);
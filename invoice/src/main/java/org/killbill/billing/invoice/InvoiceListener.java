@@ -35,6 +35,7 @@ import org.killbill.billing.util.callcontext.UserType;
 import org.killbill.billing.events.EffectiveEntitlementInternalEvent;
 import org.killbill.billing.events.EffectiveSubscriptionInternalEvent;
 import org.killbill.billing.events.RepairSubscriptionInternalEvent;
+import org.killbill.billing.invoice.notification.CoalescedInvoiceRunNotifier;
 import org.killbill.billing.util.config.InvoiceConfig;
 
 import com.google.common.eventbus.AllowConcurrentEvents;
@@ -49,14 +50,16 @@ public class InvoiceListener {
     private final InternalCallContextFactory internalCallContextFactory;
     private final AccountInternalApi accountApi;
     private final InvoiceConfig invoiceConfig;
+    private final CoalescedInvoiceRunNotifier coalescedInvoiceRunNotifier;
     private final Clock clock;
 
     @Inject
     public InvoiceListener(final AccountInternalApi accountApi, final Clock clock, final InternalCallContextFactory internalCallContextFactory,
-                           final InvoiceConfig invoiceConfig, final InvoiceDispatcher dispatcher) {
+                           final InvoiceConfig invoiceConfig, final InvoiceDispatcher dispatcher, final CoalescedInvoiceRunNotifier coalescedInvoiceRunNotifier) {
         this.accountApi = accountApi;
         this.dispatcher = dispatcher;
         this.invoiceConfig = invoiceConfig;
+        this.coalescedInvoiceRunNotifier = coalescedInvoiceRunNotifier;
         this.internalCallContextFactory = internalCallContextFactory;
         this.clock = clock;
     }
@@ -98,7 +101,7 @@ public class InvoiceListener {
 
         try {
             final InternalCallContext context = internalCallContextFactory.createInternalCallContext(event.getSearchKey2(), event.getSearchKey1(), "SubscriptionBaseTransition", CallOrigin.INTERNAL, UserType.SYSTEM, event.getUserToken());
-            dispatcher.processAccount(event.getAccountId(), event.getEffectiveTransitionTime(), null, context);
+            processAccount(event.getAccountId(), event.getEffectiveTransitionTime(), context);
         } catch (InvoiceApiException e) {
             log.error(e.getMessage());
         }
@@ -116,7 +119,7 @@ public class InvoiceListener {
         try {
             final InternalCallContext context = internalCallContextFactory.createInternalCallContext(event.getSearchKey2(), event.getSearchKey1(), "SubscriptionBaseTransition", CallOrigin.INTERNAL, UserType.SYSTEM, event.getUserToken());
             final UUID accountId = accountApi.getByRecordId(event.getSearchKey1(), context);
-            dispatcher.processAccount(accountId, clock.getUTCNow(), null, context);
+            processAccount(accountId, clock.getUTCNow(), context);
         } catch (InvoiceApiException e) {
             log.error(e.getMessage());
         } catch (AccountApiException e) {
@@ -124,6 +127,13 @@ public class InvoiceListener {
         }
     }
 
+    // Entitlement and blocking transitions tend to come in bursts for the same account (e.g. bundle operations), collapse them if configured to
+    private void processAccount(final UUID accountId, final DateTime targetDate, final InternalCallContext context) throws InvoiceApiException {
+        if (!coalescedInvoiceRunNotifier.coalesceInvoiceRun(accountId, targetDate, context)) {
+            dispatcher.processAccount(accountId, targetDate, null, context);
+        }
+    }
+
     public void handleNextBillingDateEvent(final UUID subscriptionId, final DateTime eventDateTime, final UUID userToken, final Long accountRecordId, final Long tenantRecordId) {
         try {
             final InternalCallContext context = internalCallContextFactory.createInternalCallContext(tenantRecordId, accountRecordId, "Next Billing Date", CallOrigin.INTERNAL, UserType.SYSTEM, userToken);
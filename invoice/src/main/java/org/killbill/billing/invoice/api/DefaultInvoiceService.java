@@ -18,12 +18,20 @@
 
 package org.killbill.billing.invoice.api;
 
+import javax.inject.Named;
+
 import org.killbill.bus.api.PersistentBus;
 import org.killbill.billing.invoice.InvoiceListener;
 import org.killbill.billing.invoice.InvoiceTagHandler;
+import org.killbill.billing.invoice.glue.DefaultInvoiceModule;
+import org.killbill.billing.invoice.notification.CoalescedInvoiceRunNotifier;
+import org.killbill.billing.invoice.notification.EmailInvoiceNotifier;
 import org.killbill.billing.invoice.notification.NextBillingDateNotifier;
 import org.killbill.billing.platform.api.LifecycleHandlerType;
 import org.killbill.billing.platform.api.LifecycleHandlerType.LifecycleLevel;
+import org.killbill.billing.tenant.api.TenantInternalApi;
+import org.killbill.billing.tenant.api.TenantInternalApi.CacheInvalidationCallback;
+import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.killbill.notificationq.api.NotificationQueueService.NoSuchNotificationQueue;
 import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueAlreadyExists;
 
@@ -33,16 +41,25 @@ public class DefaultInvoiceService implements InvoiceService {
 
     public static final String INVOICE_SERVICE_NAME = "invoice-service";
     private final NextBillingDateNotifier dateNotifier;
+    private final InvoiceNotifier invoiceNotifier;
+    private final CoalescedInvoiceRunNotifier coalescedInvoiceRunNotifier;
     private final InvoiceListener invoiceListener;
     private final InvoiceTagHandler tagHandler;
     private final PersistentBus eventBus;
+    private final TenantInternalApi tenantInternalApi;
+    private final CacheInvalidationCallback cacheInvalidationCallback;
 
     @Inject
-    public DefaultInvoiceService(final InvoiceListener invoiceListener, final InvoiceTagHandler tagHandler, final PersistentBus eventBus, final NextBillingDateNotifier dateNotifier) {
+    public DefaultInvoiceService(final InvoiceListener invoiceListener, final InvoiceTagHandler tagHandler, final PersistentBus eventBus, final NextBillingDateNotifier dateNotifier,
+                                 final InvoiceNotifier invoiceNotifier, final CoalescedInvoiceRunNotifier coalescedInvoiceRunNotifier, final TenantInternalApi tenantInternalApi, @Named(DefaultInvoiceModule.INVOICE_INVALIDATION_CALLBACK) final CacheInvalidationCallback cacheInvalidationCallback) {
         this.invoiceListener = invoiceListener;
         this.tagHandler = tagHandler;
         this.eventBus = eventBus;
         this.dateNotifier = dateNotifier;
+        this.invoiceNotifier = invoiceNotifier;
+        this.coalescedInvoiceRunNotifier = coalescedInvoiceRunNotifier;
+        this.tenantInternalApi = tenantInternalApi;
+        this.cacheInvalidationCallback = cacheInvalidationCallback;
     }
 
     @Override
@@ -59,11 +76,24 @@ public class DefaultInvoiceService implements InvoiceService {
             throw new RuntimeException("Unable to register to the EventBus!", e);
         }
         dateNotifier.initialize();
+        coalescedInvoiceRunNotifier.initialize();
+        if (invoiceNotifier instanceof EmailInvoiceNotifier) {
+            ((EmailInvoiceNotifier) invoiceNotifier).initialize();
+        }
+
+        tenantInternalApi.initializeCacheInvalidationCallback(TenantKey.INVOICE_TEMPLATE, cacheInvalidationCallback);
+        tenantInternalApi.initializeCacheInvalidationCallback(TenantKey.INVOICE_MP_TEMPLATE, cacheInvalidationCallback);
+        tenantInternalApi.initializeCacheInvalidationCallback(TenantKey.INVOICE_TRANSLATION_, cacheInvalidationCallback);
+        tenantInternalApi.initializeCacheInvalidationCallback(TenantKey.CATALOG_TRANSLATION_, cacheInvalidationCallback);
     }
 
     @LifecycleHandlerType(LifecycleLevel.START_SERVICE)
     public void start() {
         dateNotifier.start();
+        coalescedInvoiceRunNotifier.start();
+        if (invoiceNotifier instanceof EmailInvoiceNotifier) {
+            ((EmailInvoiceNotifier) invoiceNotifier).start();
+        }
     }
 
     @LifecycleHandlerType(LifecycleLevel.STOP_SERVICE)
@@ -75,5 +105,9 @@ public class DefaultInvoiceService implements InvoiceService {
             throw new RuntimeException("Unable to unregister to the EventBus!", e);
         }
         dateNotifier.stop();
+        coalescedInvoiceRunNotifier.stop();
+        if (invoiceNotifier instanceof EmailInvoiceNotifier) {
+            ((EmailInvoiceNotifier) invoiceNotifier).stop();
+        }
     }
 }
@@ -19,7 +19,9 @@
 package org.killbill.billing.invoice.api.svcs;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -33,6 +35,7 @@ import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceAccountBalance;
 import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceApiHelper;
 import org.killbill.billing.invoice.api.InvoiceInternalApi;
@@ -40,10 +43,12 @@ import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.InvoicePayment;
 import org.killbill.billing.invoice.api.InvoicePaymentType;
 import org.killbill.billing.invoice.api.WithAccountLock;
+import org.killbill.billing.invoice.dao.InvoiceAccountBalanceModelDao;
 import org.killbill.billing.invoice.dao.InvoiceDao;
 import org.killbill.billing.invoice.dao.InvoiceModelDao;
 import org.killbill.billing.invoice.dao.InvoicePaymentModelDao;
 import org.killbill.billing.invoice.model.DefaultInvoice;
+import org.killbill.billing.invoice.model.DefaultInvoiceAccountBalance;
 import org.killbill.billing.invoice.model.DefaultInvoicePayment;
 import org.killbill.billing.util.callcontext.CallContext;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
@@ -52,6 +57,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -93,6 +99,59 @@ public class DefaultInvoiceInternalApi implements InvoiceInternalApi {
         return dao.getAccountBalance(accountId, context);
     }
 
+    @Override
+    public InvoiceAccountBalance getAccountBalanceSummary(final UUID accountId, final LocalDate upToDate, final InternalTenantContext context) {
+        return new DefaultInvoiceAccountBalance(dao.getAccountBalanceSummary(accountId, upToDate, context));
+    }
+
+    @Override
+    public Iterable<Invoice> getInvoicesByAccountInBatches(final int batchSize, final InternalTenantContext context) {
+        return new Iterable<Invoice>() {
+            @Override
+            public Iterator<Invoice> iterator() {
+                return new AbstractIterator<Invoice>() {
+
+                    private Iterator<InvoiceModelDao> currentBatch = ImmutableList.<InvoiceModelDao>of().iterator();
+                    private Long lastRecordId = 0L;
+                    private boolean lastBatch = false;
+
+                    @Override
+                    protected Invoice computeNext() {
+                        if (!currentBatch.hasNext() && !lastBatch) {
+                            final List<InvoiceModelDao> invoices = dao.getInvoicesByAccountAfterRecordId(lastRecordId, batchSize, context);
+                            lastBatch = invoices.size() < batchSize;
+                            if (!invoices.isEmpty()) {
+                                lastRecordId = invoices.get(invoices.size() - 1).getRecordId();
+                            }
+                            currentBatch = invoices.iterator();
+                        }
+                        return currentBatch.hasNext() ? new DefaultInvoice(currentBatch.next()) : endOfData();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public List<InvoiceAccountBalance> getAccountBalanceSummariesWithUnpaidInvoices(final InternalTenantContext context) {
+        final List<InvoiceAccountBalanceModelDao> accountBalances = dao.getAccountBalancesWithUnpaidInvoices(context);
+        final List<InvoiceAccountBalance> result = new ArrayList<InvoiceAccountBalance>(accountBalances.size());
+        for (final InvoiceAccountBalanceModelDao accountBalance : accountBalances) {
+            result.add(new DefaultInvoiceAccountBalance(accountBalance));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean rebuildAccountBalance(final UUID accountId, final boolean dryRun, final InternalCallContext context) {
+        return dao.rebuildAccountBalance(accountId, dryRun, context);
+    }
+
+    @Override
+    public int backfillAccountBalances(final InternalCallContext context) {
+        return dao.backfillAccountBalances(context);
+    }
+
     @Override
     public void notifyOfPayment(final UUID invoiceId, final BigDecimal amount, final Currency currency, final Currency processedCurrency, final UUID paymentId, final DateTime paymentDate, final InternalCallContext context) throws InvoiceApiException {
         final InvoicePayment invoicePayment = new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, paymentId, invoiceId, paymentDate, amount, currency, processedCurrency);
@@ -104,9 +163,31 @@ public class DefaultInvoiceInternalApi implements InvoiceInternalApi {
         dao.notifyOfPayment(new InvoicePaymentModelDao(invoicePayment), context);
     }
 
+    @Override
+    public void notifyOfPayments(final UUID paymentId, final Map<UUID, BigDecimal> invoiceIdsWithAmounts, final Currency currency, final Currency processedCurrency, final DateTime paymentDate, final InternalCallContext context) throws InvoiceApiException {
+        final List<InvoicePaymentModelDao> invoicePayments = new ArrayList<InvoicePaymentModelDao>(invoiceIdsWithAmounts.size());
+        for (final Map.Entry<UUID, BigDecimal> invoiceIdWithAmount : invoiceIdsWithAmounts.entrySet()) {
+            final InvoicePayment invoicePayment = new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, paymentId, invoiceIdWithAmount.getKey(), paymentDate, invoiceIdWithAmount.getValue(), currency, processedCurrency);
+            invoicePayments.add(new InvoicePaymentModelDao(invoicePayment));
+        }
+        dao.notifyOfPayments(invoicePayments, context);
+    }
+
     @Override
     public InvoicePayment getInvoicePaymentForAttempt(final UUID paymentId, final InternalTenantContext context) throws InvoiceApiException {
-        return getInvoicePayment(paymentId, InvoicePaymentType.ATTEMPT, context);
+        final List<InvoicePaymentModelDao> attempts = ImmutableList.<InvoicePaymentModelDao>copyOf(Iterables.filter(dao.getInvoicePayments(paymentId, context), new Predicate<InvoicePaymentModelDao>() {
+            @Override
+            public boolean apply(final InvoicePaymentModelDao input) {
+                return input.getType() == InvoicePaymentType.ATTEMPT;
+            }
+        }));
+        if (attempts.isEmpty()) {
+            return null;
+        } else if (attempts.size() > 1) {
+            // Bulk payment spread across several invoices: there is no single attempt to return
+            throw new InvoiceApiException(ErrorCode.INVOICE_PAYMENT_BY_ATTEMPT_NOT_FOUND, paymentId);
+        }
+        return new DefaultInvoicePayment(attempts.get(0));
     }
 
     @Override
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.caching;
+
+import javax.inject.Inject;
+
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.tenant.api.TenantInternalApi.CacheInvalidationCallback;
+import org.killbill.billing.tenant.api.TenantKV.TenantKey;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invalidates the per tenant (and per locale) invoice templates and translation bundles
+ * when the matching tenant key is updated or deleted.
+ */
+public class InvoiceCacheInvalidationCallback implements CacheInvalidationCallback {
+
+    private final Logger log = LoggerFactory.getLogger(InvoiceCacheInvalidationCallback.class);
+
+    private final CacheController<Object, Object> templateCache;
+    private final CacheController<Object, Object> translationCache;
+
+    @Inject
+    public InvoiceCacheInvalidationCallback(final CacheControllerDispatcher cacheControllerDispatcher) {
+        this.templateCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT_INVOICE_TEMPLATE);
+        this.translationCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT_TRANSLATION);
+    }
+
+    @Override
+    public void invalidateCache(final TenantKey key, final Object cookie, final InternalTenantContext tenantContext) {
+        // The cookie is the remaining part of the tenant key (i.e. the locale)
+        final String tenantKey = cookie != null ? key.toString() + cookie : key.toString();
+        final String cacheKey = getCacheKey(tenantKey, tenantContext);
+        log.info("Invalidate invoice template and translation cache for key {}", cacheKey);
+        templateCache.remove(cacheKey);
+        translationCache.remove(cacheKey);
+    }
+
+    public static String getCacheKey(final String tenantKey, final InternalTenantContext tenantContext) {
+        return tenantKey + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + tenantContext.getTenantRecordId();
+    }
+}
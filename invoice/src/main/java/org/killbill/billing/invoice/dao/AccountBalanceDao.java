@@ -0,0 +1,388 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.dao;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.entity.EntityPersistenceException;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Ordering;
+
+/**
+ * Maintains the per-account ledger (balance, CBA and unpaid invoices summary), so that readers don't have
+ * to reload all invoices, items and payments for the account.
+ * <p/>
+ * The ledger is refreshed in the same transaction as the invoice, item and payment writes (see DefaultInvoiceDao): callers
+ * capture the balance of the invoices they are about to modify, and only the difference is applied to the ledger.
+ */
+public class AccountBalanceDao {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountBalanceDao.class);
+
+    private static final Ordering<InvoiceModelDao> INVOICE_DATE_ORDERING = Ordering.from(new Comparator<InvoiceModelDao>() {
+        @Override
+        public int compare(final InvoiceModelDao i1, final InvoiceModelDao i2) {
+            return i1.getInvoiceDate().compareTo(i2.getInvoiceDate());
+        }
+    });
+
+    private static final Ordering<InvoiceModelDao> TARGET_DATE_ORDERING = Ordering.from(new Comparator<InvoiceModelDao>() {
+        @Override
+        public int compare(final InvoiceModelDao i1, final InvoiceModelDao i2) {
+            return i1.getTargetDate().compareTo(i2.getTargetDate());
+        }
+    });
+
+    private final InvoiceDaoHelper invoiceDaoHelper;
+
+    public AccountBalanceDao() {
+        this.invoiceDaoHelper = new InvoiceDaoHelper();
+    }
+
+    /**
+     * @return the persisted ledger for the account, or null if it has never been computed
+     */
+    public InvoiceAccountBalanceModelDao getAccountBalanceFromTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                                         final InternalTenantContext context) {
+        final List<InvoiceAccountBalanceModelDao> accountBalances = entitySqlDaoWrapperFactory.become(InvoiceAccountBalanceSqlDao.class).getByAccountRecordId(context);
+        return accountBalances.isEmpty() ? null : accountBalances.get(0);
+    }
+
+    /**
+     * Retrieve the ledger for the account, only taking into account unpaid invoices whose target date is on or before upToDate.
+     * The persisted ledger is used unless it contains unpaid invoices past upToDate, in which case we recompute it.
+     */
+    public InvoiceAccountBalanceModelDao getAccountBalanceFromTransaction(final UUID accountId,
+                                                                         @Nullable final LocalDate upToDate,
+                                                                         final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                                         final InternalTenantContext context) {
+        final InvoiceAccountBalanceModelDao accountBalance = getAccountBalanceFromTransaction(entitySqlDaoWrapperFactory, context);
+        if (accountBalance != null &&
+            (upToDate == null || accountBalance.getLatestUnpaidTargetDate() == null || !accountBalance.getLatestUnpaidTargetDate().isAfter(upToDate))) {
+            return accountBalance;
+        }
+
+        final List<InvoiceModelDao> invoices = invoiceDaoHelper.getAllInvoicesByAccountFromTransaction(entitySqlDaoWrapperFactory, context);
+        return computeAccountBalance(accountId, invoices, upToDate);
+    }
+
+    /**
+     * Capture the balance of the invoices about to be modified, before any write. The result is meant to be passed to
+     * {@link #refreshAccountBalanceFromTransaction(InvoiceBalancesBeforeUpdate, EntitySqlDaoWrapperFactory, InternalCallContext)}
+     * once the writes are done, within the same transaction.
+     */
+    public InvoiceBalancesBeforeUpdate getInvoiceBalancesBeforeUpdateFromTransaction(final Iterable<UUID> invoiceIds,
+                                                                                   final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                                                   final InternalTenantContext context) {
+        final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate = new InvoiceBalancesBeforeUpdate();
+        for (final UUID invoiceId : invoiceIds) {
+            final InvoiceModelDao invoice = getInvoiceFromTransaction(invoiceId, entitySqlDaoWrapperFactory, context);
+            if (invoice == null) {
+                invoiceBalancesBeforeUpdate.addNewInvoice(invoiceId);
+            } else {
+                invoiceBalancesBeforeUpdate.addInvoice(invoice);
+            }
+        }
+        return invoiceBalancesBeforeUpdate;
+    }
+
+    /**
+     * Apply to the ledger the change in balance of the invoices captured in invoiceBalancesBeforeUpdate. Only these invoices
+     * are reloaded: the rest of the account history is only looked at when the ledger doesn't exist yet (accounts created before
+     * the ledger), or when the earliest (resp. latest) unpaid invoice just got paid and we need to find the next one.
+     */
+    public void refreshAccountBalanceFromTransaction(final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate,
+                                                     final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                     final InternalCallContext context) throws EntityPersistenceException {
+        final InvoiceAccountBalanceModelDao accountBalance = getAccountBalanceFromTransaction(entitySqlDaoWrapperFactory, context);
+        if (accountBalance == null) {
+            // Lazy backfill: this is the first write since the ledger was introduced (or the very first invoice of the account)
+            final List<InvoiceModelDao> invoices = invoiceDaoHelper.getAllInvoicesByAccountFromTransaction(entitySqlDaoWrapperFactory, context);
+            if (!invoices.isEmpty()) {
+                saveAccountBalanceFromTransaction(computeAccountBalance(invoices.get(0).getAccountId(), invoices, null), entitySqlDaoWrapperFactory, context);
+            }
+            return;
+        }
+
+        BigDecimal invoicesBalanceDelta = BigDecimal.ZERO;
+        BigDecimal cbaDelta = BigDecimal.ZERO;
+        int unpaidInvoiceCount = accountBalance.getUnpaidInvoiceCount();
+        BigDecimal unpaidInvoiceBalance = accountBalance.getUnpaidInvoiceBalance();
+        // Earliest and latest unpaid invoices amongst the ones which have been modified
+        InvoiceModelDao earliestUnpaidInvoice = null;
+        LocalDate latestUnpaidTargetDate = null;
+        boolean isEarliestUnpaidInvoicePaid = false;
+        boolean isLatestUnpaidInvoicePaid = false;
+
+        for (final UUID invoiceId : invoiceBalancesBeforeUpdate.getInvoiceIds()) {
+            final InvoiceModelDao invoice = getInvoiceFromTransaction(invoiceId, entitySqlDaoWrapperFactory, context);
+            if (invoice == null) {
+                // Shell invoice, nothing was written
+                continue;
+            }
+
+            final BigDecimal balanceBefore = invoiceBalancesBeforeUpdate.getBalance(invoiceId);
+            final BigDecimal balanceAfter = InvoiceModelDaoHelper.getBalance(invoice);
+            invoicesBalanceDelta = invoicesBalanceDelta.add(balanceAfter.subtract(balanceBefore));
+            cbaDelta = cbaDelta.add(InvoiceModelDaoHelper.getCBAAmount(invoice).subtract(invoiceBalancesBeforeUpdate.getCBA(invoiceId)));
+
+            if (isUnpaid(balanceBefore)) {
+                unpaidInvoiceCount--;
+                unpaidInvoiceBalance = unpaidInvoiceBalance.subtract(balanceBefore);
+            }
+            if (isUnpaid(balanceAfter)) {
+                unpaidInvoiceCount++;
+                unpaidInvoiceBalance = unpaidInvoiceBalance.add(balanceAfter);
+                if (earliestUnpaidInvoice == null || invoice.getInvoiceDate().isBefore(earliestUnpaidInvoice.getInvoiceDate())) {
+                    earliestUnpaidInvoice = invoice;
+                }
+                if (latestUnpaidTargetDate == null || invoice.getTargetDate().isAfter(latestUnpaidTargetDate)) {
+                    latestUnpaidTargetDate = invoice.getTargetDate();
+                }
+            } else if (isUnpaid(balanceBefore)) {
+                isEarliestUnpaidInvoicePaid = isEarliestUnpaidInvoicePaid || invoice.getId().equals(accountBalance.getEarliestUnpaidInvoiceId());
+                isLatestUnpaidInvoicePaid = isLatestUnpaidInvoicePaid || invoice.getTargetDate().equals(accountBalance.getLatestUnpaidTargetDate());
+            }
+        }
+
+        UUID earliestUnpaidInvoiceId = accountBalance.getEarliestUnpaidInvoiceId();
+        LocalDate earliestUnpaidInvoiceDate = accountBalance.getEarliestUnpaidInvoiceDate();
+        LocalDate newLatestUnpaidTargetDate = accountBalance.getLatestUnpaidTargetDate();
+        if (unpaidInvoiceCount == 0) {
+            earliestUnpaidInvoiceId = null;
+            earliestUnpaidInvoiceDate = null;
+            newLatestUnpaidTargetDate = null;
+        } else {
+            if (isEarliestUnpaidInvoicePaid) {
+                final InvoiceModelDao nextEarliestUnpaidInvoice = findEarliestUnpaidInvoiceFromTransaction(accountBalance.getEarliestUnpaidInvoiceDate(), entitySqlDaoWrapperFactory, context);
+                earliestUnpaidInvoiceId = nextEarliestUnpaidInvoice == null ? null : nextEarliestUnpaidInvoice.getId();
+                earliestUnpaidInvoiceDate = nextEarliestUnpaidInvoice == null ? null : nextEarliestUnpaidInvoice.getInvoiceDate();
+            }
+            if (earliestUnpaidInvoice != null && (earliestUnpaidInvoiceDate == null || earliestUnpaidInvoice.getInvoiceDate().isBefore(earliestUnpaidInvoiceDate))) {
+                earliestUnpaidInvoiceId = earliestUnpaidInvoice.getId();
+                earliestUnpaidInvoiceDate = earliestUnpaidInvoice.getInvoiceDate();
+            }
+
+            if (isLatestUnpaidInvoicePaid) {
+                newLatestUnpaidTargetDate = findLatestUnpaidTargetDateFromTransaction(accountBalance.getLatestUnpaidTargetDate(), entitySqlDaoWrapperFactory, context);
+            }
+            if (latestUnpaidTargetDate != null && (newLatestUnpaidTargetDate == null || latestUnpaidTargetDate.isAfter(newLatestUnpaidTargetDate))) {
+                newLatestUnpaidTargetDate = latestUnpaidTargetDate;
+            }
+        }
+
+        final InvoiceAccountBalanceModelDao updatedAccountBalance = new InvoiceAccountBalanceModelDao(accountBalance.getAccountId(),
+                                                                                                      accountBalance.getCurrency(),
+                                                                                                      accountBalance.getBalance().add(invoicesBalanceDelta).subtract(cbaDelta),
+                                                                                                      accountBalance.getCba().add(cbaDelta),
+                                                                                                      unpaidInvoiceCount,
+                                                                                                      unpaidInvoiceBalance,
+                                                                                                      earliestUnpaidInvoiceId,
+                                                                                                      earliestUnpaidInvoiceDate,
+                                                                                                      newLatestUnpaidTargetDate);
+        saveAccountBalanceFromTransaction(updatedAccountBalance, entitySqlDaoWrapperFactory, context);
+    }
+
+    /**
+     * Recompute the ledger from the invoices and compare it against the persisted one.
+     *
+     * @param accountId                  the account id
+     * @param dryRun                     if true, the persisted ledger is left untouched
+     * @param entitySqlDaoWrapperFactory the EntitySqlDaoWrapperFactory from the current transaction
+     * @param context                    the call callcontext
+     * @return true if the persisted ledger was out of sync
+     */
+    public boolean rebuildAccountBalanceFromTransaction(final UUID accountId,
+                                                        final boolean dryRun,
+                                                        final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                        final InternalCallContext context) throws EntityPersistenceException {
+        final List<InvoiceModelDao> invoices = invoiceDaoHelper.getAllInvoicesByAccountFromTransaction(entitySqlDaoWrapperFactory, context);
+        final InvoiceAccountBalanceModelDao persistedAccountBalance = getAccountBalanceFromTransaction(entitySqlDaoWrapperFactory, context);
+        if (invoices.isEmpty() && persistedAccountBalance == null) {
+            return false;
+        }
+
+        final InvoiceAccountBalanceModelDao computedAccountBalance = computeAccountBalance(accountId, invoices, null);
+        final boolean hasDrifted = !computedAccountBalance.isSameLedgerAs(persistedAccountBalance);
+        if (hasDrifted) {
+            log.warn("Invoice ledger out of sync for accountId='{}': persisted={}, computed={}", accountId, persistedAccountBalance, computedAccountBalance);
+            if (!dryRun) {
+                saveAccountBalanceFromTransaction(computedAccountBalance, entitySqlDaoWrapperFactory, context);
+            }
+        }
+        return hasDrifted;
+    }
+
+    public InvoiceAccountBalanceModelDao computeAccountBalance(final UUID accountId, final Iterable<InvoiceModelDao> invoices, @Nullable final LocalDate upToDate) {
+        BigDecimal invoicesBalance = BigDecimal.ZERO;
+        BigDecimal cba = BigDecimal.ZERO;
+        int unpaidInvoiceCount = 0;
+        BigDecimal unpaidInvoiceBalance = BigDecimal.ZERO;
+        InvoiceModelDao earliestUnpaidInvoice = null;
+        LocalDate latestUnpaidTargetDate = null;
+        Currency currency = null;
+
+        for (final InvoiceModelDao invoice : invoices) {
+            currency = invoice.getCurrency();
+            final BigDecimal invoiceBalance = InvoiceModelDaoHelper.getBalance(invoice);
+            invoicesBalance = invoicesBalance.add(invoiceBalance);
+            cba = cba.add(InvoiceModelDaoHelper.getCBAAmount(invoice));
+
+            // Same definition of unpaid as InvoiceDaoHelper#getUnpaidInvoicesByAccountFromTransaction
+            if (invoiceBalance.compareTo(BigDecimal.ZERO) <= 0 || (upToDate != null && invoice.getTargetDate().isAfter(upToDate))) {
+                continue;
+            }
+            unpaidInvoiceCount++;
+            unpaidInvoiceBalance = unpaidInvoiceBalance.add(invoiceBalance);
+            if (earliestUnpaidInvoice == null || invoice.getInvoiceDate().isBefore(earliestUnpaidInvoice.getInvoiceDate())) {
+                earliestUnpaidInvoice = invoice;
+            }
+            if (latestUnpaidTargetDate == null || invoice.getTargetDate().isAfter(latestUnpaidTargetDate)) {
+                latestUnpaidTargetDate = invoice.getTargetDate();
+            }
+        }
+
+        return new InvoiceAccountBalanceModelDao(accountId,
+                                                 currency,
+                                                 invoicesBalance.subtract(cba),
+                                                 cba,
+                                                 unpaidInvoiceCount,
+                                                 unpaidInvoiceBalance,
+                                                 earliestUnpaidInvoice == null ? null : earliestUnpaidInvoice.getId(),
+                                                 earliestUnpaidInvoice == null ? null : earliestUnpaidInvoice.getInvoiceDate(),
+                                                 latestUnpaidTargetDate);
+    }
+
+    // Invoices are scanned from the previous earliest unpaid invoice onwards: the ones before it were paid and haven't been modified
+    private InvoiceModelDao findEarliestUnpaidInvoiceFromTransaction(final LocalDate fromInvoiceDate,
+                                                                     final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                                     final InternalTenantContext context) {
+        final List<InvoiceModelDao> invoices = INVOICE_DATE_ORDERING.sortedCopy(entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getByAccountRecordId(context));
+        for (final InvoiceModelDao invoice : invoices) {
+            if (invoice.getInvoiceDate().isBefore(fromInvoiceDate)) {
+                continue;
+            }
+            populateChildrenFromTransaction(invoice, entitySqlDaoWrapperFactory, context);
+            if (isUnpaid(InvoiceModelDaoHelper.getBalance(invoice))) {
+                return invoice;
+            }
+        }
+        return null;
+    }
+
+    // Invoices are scanned from the previous latest unpaid target date backwards: the ones after it were paid and haven't been modified
+    private LocalDate findLatestUnpaidTargetDateFromTransaction(final LocalDate fromTargetDate,
+                                                                final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                                final InternalTenantContext context) {
+        final List<InvoiceModelDao> invoices = TARGET_DATE_ORDERING.reverse().sortedCopy(entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getByAccountRecordId(context));
+        for (final InvoiceModelDao invoice : invoices) {
+            if (invoice.getTargetDate().isAfter(fromTargetDate)) {
+                continue;
+            }
+            populateChildrenFromTransaction(invoice, entitySqlDaoWrapperFactory, context);
+            if (isUnpaid(InvoiceModelDaoHelper.getBalance(invoice))) {
+                return invoice.getTargetDate();
+            }
+        }
+        return null;
+    }
+
+    // Unlike InvoiceDaoHelper#populateChildren, only look at the rows of that invoice
+    private InvoiceModelDao getInvoiceFromTransaction(final UUID invoiceId,
+                                                      final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                      final InternalTenantContext context) {
+        final InvoiceModelDao invoice = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getById(invoiceId.toString(), context);
+        if (invoice != null) {
+            populateChildrenFromTransaction(invoice, entitySqlDaoWrapperFactory, context);
+        }
+        return invoice;
+    }
+
+    private void populateChildrenFromTransaction(final InvoiceModelDao invoice,
+                                                 final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                 final InternalTenantContext context) {
+        invoice.addInvoiceItems(entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class).getInvoiceItemsByInvoice(invoice.getId().toString(), context));
+        invoice.addPayments(entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class).getPaymentsForInvoice(invoice.getId().toString(), context));
+    }
+
+    // Same definition of unpaid as InvoiceDaoHelper#getUnpaidInvoicesByAccountFromTransaction
+    private static boolean isUnpaid(final BigDecimal invoiceBalance) {
+        return invoiceBalance.compareTo(BigDecimal.ZERO) > 0;
+    }
+
+    private void saveAccountBalanceFromTransaction(final InvoiceAccountBalanceModelDao accountBalance,
+                                                   final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
+                                                   final InternalCallContext context) throws EntityPersistenceException {
+        final InvoiceAccountBalanceSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoiceAccountBalanceSqlDao.class);
+        if (transactional.updateBalance(accountBalance, context) == 0) {
+            transactional.create(accountBalance, context);
+        }
+    }
+
+    /**
+     * Balance and CBA of the invoices about to be modified by the current transaction
+     */
+    public static final class InvoiceBalancesBeforeUpdate {
+
+        private final Map<UUID, BigDecimal> balances = new LinkedHashMap<UUID, BigDecimal>();
+        private final Map<UUID, BigDecimal> cbas = new HashMap<UUID, BigDecimal>();
+
+        // The invoice must be populated with its items and payments
+        public void addInvoice(final InvoiceModelDao invoice) {
+            if (!balances.containsKey(invoice.getId())) {
+                balances.put(invoice.getId(), InvoiceModelDaoHelper.getBalance(invoice));
+                cbas.put(invoice.getId(), InvoiceModelDaoHelper.getCBAAmount(invoice));
+            }
+        }
+
+        public void addNewInvoice(final UUID invoiceId) {
+            if (!balances.containsKey(invoiceId)) {
+                balances.put(invoiceId, BigDecimal.ZERO);
+                cbas.put(invoiceId, BigDecimal.ZERO);
+            }
+        }
+
+        Iterable<UUID> getInvoiceIds() {
+            return balances.keySet();
+        }
+
+        BigDecimal getBalance(final UUID invoiceId) {
+            return balances.get(invoiceId);
+        }
+
+        BigDecimal getCBA(final UUID invoiceId) {
+            return cbas.get(invoiceId);
+        }
+    }
+}
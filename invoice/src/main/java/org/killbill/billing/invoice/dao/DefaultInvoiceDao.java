@@ -19,11 +19,14 @@
 package org.killbill.billing.invoice.dao;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -31,6 +34,7 @@ import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.killbill.billing.ErrorCode;
+import org.killbill.billing.ObjectType;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Currency;
@@ -42,6 +46,7 @@ import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceItemType;
 import org.killbill.billing.invoice.api.InvoicePaymentType;
 import org.killbill.billing.invoice.api.user.DefaultInvoiceAdjustmentEvent;
+import org.killbill.billing.invoice.dao.AccountBalanceDao.InvoiceBalancesBeforeUpdate;
 import org.killbill.billing.invoice.notification.NextBillingDatePoster;
 import org.killbill.billing.util.UUIDs;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
@@ -49,7 +54,7 @@ import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.config.InvoiceConfig;
 import org.killbill.billing.util.dao.NonEntityDao;
 import org.killbill.billing.util.entity.Pagination;
-import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.PaginationIteratorBuilder;
+import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.KeysetPaginationIteratorBuilder;
 import org.killbill.billing.util.entity.dao.EntityDaoBase;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
@@ -67,6 +72,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.inject.Inject;
 
@@ -93,6 +99,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
     private final InternalCallContextFactory internalCallContextFactory;
     private final InvoiceDaoHelper invoiceDaoHelper;
     private final CBADao cbaDao;
+    private final AccountBalanceDao accountBalanceDao;
     private final InvoiceConfig invoiceConfig;
     private final Clock clock;
 
@@ -112,6 +119,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         this.internalCallContextFactory = internalCallContextFactory;
         this.invoiceDaoHelper = new InvoiceDaoHelper();
         this.cbaDao = new CBADao();
+        this.accountBalanceDao = new AccountBalanceDao();
         this.clock = clock;
     }
 
@@ -151,6 +159,21 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         });
     }
 
+    @Override
+    public List<InvoiceModelDao> getInvoicesByAccountAfterRecordId(final Long fromRecordId, final int maxNbRecords, final InternalTenantContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<InvoiceModelDao>>() {
+            @Override
+            public List<InvoiceModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                final List<InvoiceModelDao> invoices = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getByAccountRecordIdAfterRecordId(fromRecordId, maxNbRecords, context);
+                if (!invoices.isEmpty()) {
+                    final Long toRecordId = invoices.get(invoices.size() - 1).getRecordId();
+                    invoiceDaoHelper.populateChildrenForInvoiceRecordIdRange(invoices, fromRecordId, toRecordId, entitySqlDaoWrapperFactory, context);
+                }
+                return invoices;
+            }
+        });
+    }
+
     @Override
     public List<InvoiceModelDao> getInvoicesByAccount(final LocalDate fromDate, final InternalTenantContext context) {
         return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<InvoiceModelDao>>() {
@@ -243,6 +266,13 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
 
                 final InvoiceModelDao currentInvoice = transactional.getById(invoice.getId().toString(), context);
                 if (currentInvoice == null) {
+                    final Set<UUID> modifiedInvoiceIds = new HashSet<UUID>();
+                    modifiedInvoiceIds.add(invoice.getId());
+                    for (final InvoiceItemModelDao invoiceItemModelDao : invoiceItems) {
+                        modifiedInvoiceIds.add(invoiceItemModelDao.getInvoiceId());
+                    }
+                    final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate = accountBalanceDao.getInvoiceBalancesBeforeUpdateFromTransaction(modifiedInvoiceIds, entitySqlDaoWrapperFactory, context);
+
                     // We only want to insert that invoice if there are real invoiceItems associated to it -- if not, this is just
                     // a shell invoice and we only need to insert the invoiceItems -- for the already existing invoices
                     if (isRealInvoice) {
@@ -255,6 +285,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                         createInvoiceItemFromTransaction(transInvoiceItemSqlDao, invoiceItemModelDao, context);
                     }
                     cbaDao.addCBAComplexityFromTransaction(invoice, entitySqlDaoWrapperFactory, context);
+                    accountBalanceDao.refreshAccountBalanceFromTransaction(invoiceBalancesBeforeUpdate, entitySqlDaoWrapperFactory, context);
                     notifyOfFutureBillingEvents(entitySqlDaoWrapperFactory, invoice.getAccountId(), callbackDateTimePerSubscriptions, context);
                 }
                 return null;
@@ -270,7 +301,14 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                 final InvoiceSqlDao invoiceSqlDao = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class);
                 final InvoiceItemSqlDao transInvoiceItemSqlDao = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class);
 
+                final Set<UUID> modifiedInvoiceIds = new HashSet<UUID>();
+                for (final InvoiceModelDao invoiceModelDao : invoices) {
+                    modifiedInvoiceIds.add(invoiceModelDao.getId());
+                }
+                final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate = accountBalanceDao.getInvoiceBalancesBeforeUpdateFromTransaction(modifiedInvoiceIds, entitySqlDaoWrapperFactory, context);
+
                 final List<InvoiceItemModelDao> createdInvoiceItems = new LinkedList<InvoiceItemModelDao>();
+                boolean madeChangesOnAccount = false;
                 for (final InvoiceModelDao invoiceModelDao : invoices) {
                     boolean madeChanges = false;
 
@@ -290,6 +328,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     }
 
                     if (madeChanges) {
+                        madeChangesOnAccount = true;
                         cbaDao.addCBAComplexityFromTransaction(invoiceModelDao.getId(), entitySqlDaoWrapperFactory, context);
 
                         // Notify the bus since the balance of the invoice changed
@@ -298,6 +337,10 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     }
                 }
 
+                if (madeChangesOnAccount) {
+                    accountBalanceDao.refreshAccountBalanceFromTransaction(invoiceBalancesBeforeUpdate, entitySqlDaoWrapperFactory, context);
+                }
+
                 return createdInvoiceItems;
             }
         });
@@ -328,7 +371,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
 
         final Integer invoiceNumber = invoiceNumberParsed;
         return paginationHelper.getPagination(InvoiceSqlDao.class,
-                                              new PaginationIteratorBuilder<InvoiceModelDao, Invoice, InvoiceSqlDao>() {
+                                              new KeysetPaginationIteratorBuilder<InvoiceModelDao, Invoice, InvoiceSqlDao>("search", searchKey) {
                                                   @Override
                                                   public Long getCount(final InvoiceSqlDao invoiceSqlDao, final InternalTenantContext context) {
                                                       return invoiceNumber != null ? 1L : invoiceSqlDao.getSearchCount(searchKey, String.format("%%%s%%", searchKey), context);
@@ -344,6 +387,14 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                                                           return Iterators.<InvoiceModelDao>emptyIterator();
                                                       }
                                                   }
+
+                                                  @Override
+                                                  public Iterator<InvoiceModelDao> build(final InvoiceSqlDao invoiceSqlDao, final Long fromRecordId, final Long limit, final InternalTenantContext context) {
+                                                      // When searching by invoice number, the single result was returned in the first page
+                                                      return invoiceNumber != null ?
+                                                             Iterators.<InvoiceModelDao>emptyIterator() :
+                                                             invoiceSqlDao.searchFromRecordId(searchKey, String.format("%%%s%%", searchKey), fromRecordId, limit, context);
+                                                  }
                                               },
                                               offset,
                                               limit,
@@ -356,15 +407,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<BigDecimal>() {
             @Override
             public BigDecimal inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
-                BigDecimal cba = BigDecimal.ZERO;
-
-                BigDecimal accountBalance = BigDecimal.ZERO;
-                final List<InvoiceModelDao> invoices = invoiceDaoHelper.getAllInvoicesByAccountFromTransaction(entitySqlDaoWrapperFactory, context);
-                for (final InvoiceModelDao cur : invoices) {
-                    accountBalance = accountBalance.add(InvoiceModelDaoHelper.getBalance(cur));
-                    cba = cba.add(InvoiceModelDaoHelper.getCBAAmount(cur));
-                }
-                return accountBalance.subtract(cba);
+                return accountBalanceDao.getAccountBalanceFromTransaction(accountId, null, entitySqlDaoWrapperFactory, context).getBalance();
             }
         });
     }
@@ -374,9 +417,57 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<BigDecimal>() {
             @Override
             public BigDecimal inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
-                return cbaDao.getAccountCBAFromTransaction(accountId, entitySqlDaoWrapperFactory, context);
+                return accountBalanceDao.getAccountBalanceFromTransaction(accountId, null, entitySqlDaoWrapperFactory, context).getCba();
+            }
+        });
+    }
+
+    @Override
+    public InvoiceAccountBalanceModelDao getAccountBalanceSummary(final UUID accountId, @Nullable final LocalDate upToDate, final InternalTenantContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<InvoiceAccountBalanceModelDao>() {
+            @Override
+            public InvoiceAccountBalanceModelDao inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return accountBalanceDao.getAccountBalanceFromTransaction(accountId, upToDate, entitySqlDaoWrapperFactory, context);
+            }
+        });
+    }
+
+    @Override
+    public List<InvoiceAccountBalanceModelDao> getAccountBalancesWithUnpaidInvoices(final InternalTenantContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<InvoiceAccountBalanceModelDao>>() {
+            @Override
+            public List<InvoiceAccountBalanceModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(InvoiceAccountBalanceSqlDao.class).getAccountBalancesWithUnpaidInvoices(context);
+            }
+        });
+    }
+
+    @Override
+    public boolean rebuildAccountBalance(final UUID accountId, final boolean dryRun, final InternalCallContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Boolean>() {
+            @Override
+            public Boolean inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return accountBalanceDao.rebuildAccountBalanceFromTransaction(accountId, dryRun, entitySqlDaoWrapperFactory, context);
+            }
+        });
+    }
+
+    @Override
+    public int backfillAccountBalances(final InternalCallContext context) {
+        final List<UUID> accountIds = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<UUID>>() {
+            @Override
+            public List<UUID> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(InvoiceAccountBalanceSqlDao.class).getAccountIdsWithoutBalance(context);
             }
         });
+
+        // One transaction per account, to avoid holding locks on the whole tenant
+        for (final UUID accountId : accountIds) {
+            final InternalCallContext accountContext = internalCallContextFactory.createInternalCallContext(accountId, ObjectType.ACCOUNT, context.getCreatedBy(), context.getCallOrigin(),
+                                                                                                            context.getContextUserType(), context.getUserToken(), context.getTenantRecordId());
+            rebuildAccountBalance(accountId, false, accountContext);
+        }
+        return accountIds.size();
     }
 
     @Override
@@ -390,11 +481,16 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
     }
 
     @Override
-    public UUID getInvoiceIdByPaymentId(final UUID paymentId, final InternalTenantContext context) {
-        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<UUID>() {
+    public UUID getInvoiceIdByPaymentId(final UUID paymentId, final InternalTenantContext context) throws InvoiceApiException {
+        return transactionalSqlDao.execute(InvoiceApiException.class, new EntitySqlDaoTransactionWrapper<UUID>() {
             @Override
             public UUID inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
-                return entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getInvoiceIdByPaymentId(paymentId.toString(), context);
+                final List<UUID> invoiceIds = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getInvoiceIdsByPaymentId(paymentId.toString(), context);
+                if (invoiceIds.size() > 1) {
+                    // Bulk payment spread across several invoices (see InvoicePaymentControlPluginApi)
+                    throw new InvoiceApiException(ErrorCode.INVOICE_PAYMENT_BY_ATTEMPT_NOT_FOUND, paymentId);
+                }
+                return invoiceIds.isEmpty() ? null : invoiceIds.get(0);
             }
         });
     }
@@ -433,15 +529,17 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                 final InvoiceSqlDao transInvoiceDao = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class);
 
                 final List<InvoicePaymentModelDao> paymentsForId = transactional.getByPaymentId(paymentId.toString(), context);
-                final InvoicePaymentModelDao payment = Iterables.tryFind(paymentsForId, new Predicate<InvoicePaymentModelDao>() {
+                final List<InvoicePaymentModelDao> attempts = ImmutableList.<InvoicePaymentModelDao>copyOf(Iterables.filter(paymentsForId, new Predicate<InvoicePaymentModelDao>() {
                     @Override
                     public boolean apply(final InvoicePaymentModelDao input) {
                         return input.getType() == InvoicePaymentType.ATTEMPT;
                     }
-                }).orNull();
-                if (payment == null) {
+                }));
+                // A bulk payment spread across several invoices can't be refunded against a single one
+                if (attempts.size() != 1) {
                     throw new InvoiceApiException(ErrorCode.INVOICE_PAYMENT_BY_ATTEMPT_NOT_FOUND, paymentId);
                 }
+                final InvoicePaymentModelDao payment = attempts.get(0);
 
                 // Retrieve the amounts to adjust, if needed
                 final Map<UUID, BigDecimal> invoiceItemIdsWithAmounts = invoiceDaoHelper.computeItemAdjustments(payment.getInvoiceId().toString(),
@@ -459,6 +557,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     return existingRefund;
                 }
 
+                final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate = accountBalanceDao.getInvoiceBalancesBeforeUpdateFromTransaction(ImmutableList.<UUID>of(payment.getInvoiceId()), entitySqlDaoWrapperFactory, context);
+
                 final InvoicePaymentModelDao refund = new InvoicePaymentModelDao(UUIDs.randomUUID(), context.getCreatedDate(), InvoicePaymentType.REFUND,
                                                                                  payment.getInvoiceId(), paymentId,
                                                                                  context.getCreatedDate(), requestedPositiveAmount.negate(),
@@ -501,6 +601,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                 }
 
                 cbaDao.addCBAComplexityFromTransaction(invoice, entitySqlDaoWrapperFactory, context);
+                accountBalanceDao.refreshAccountBalanceFromTransaction(invoiceBalancesBeforeUpdate, entitySqlDaoWrapperFactory, context);
 
                 // Notify the bus since the balance of the invoice changed
                 notifyBusOfInvoiceAdjustment(entitySqlDaoWrapperFactory, invoice.getId(), invoice.getAccountId(), context.getUserToken(), context);
@@ -518,21 +619,29 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                 final InvoicePaymentSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class);
 
                 final List<InvoicePaymentModelDao> invoicePayments = transactional.getByPaymentId(paymentId.toString(), context);
-                final InvoicePaymentModelDao invoicePayment = Iterables.tryFind(invoicePayments, new Predicate<InvoicePaymentModelDao>() {
+                final List<InvoicePaymentModelDao> attempts = ImmutableList.<InvoicePaymentModelDao>copyOf(Iterables.filter(invoicePayments, new Predicate<InvoicePaymentModelDao>() {
                     @Override
                     public boolean apply(final InvoicePaymentModelDao input) {
                         return input.getType() == InvoicePaymentType.ATTEMPT;
                     }
-                }).orNull();
-                if (invoicePayment == null) {
+                }));
+                if (attempts.isEmpty()) {
                     throw new InvoiceApiException(ErrorCode.PAYMENT_NO_SUCH_PAYMENT, paymentId);
                 }
                 // We expect the code to correctly pass the account currency -- the payment code, more generic accept chargeBack in different currencies,
                 // but this is only for direct payment (no invoice)
-                Preconditions.checkArgument(invoicePayment.getCurrency() == currency);
-
-                final UUID invoicePaymentId = invoicePayment.getId();
-                final BigDecimal maxChargedBackAmount = invoiceDaoHelper.getRemainingAmountPaidFromTransaction(invoicePaymentId, entitySqlDaoWrapperFactory, context);
+                Preconditions.checkArgument(attempts.get(0).getCurrency() == currency);
+
+                // A bulk payment (see InvoicePaymentControlPluginApi) has one attempt per invoice it paid: the chargeback is spread across them,
+                // starting with the last invoice paid, so that a partial chargeback re-opens the most recent invoices first
+                final List<InvoicePaymentModelDao> attemptsToChargeBack = Lists.reverse(attempts);
+                final List<BigDecimal> remainingAmountsPaid = new ArrayList<BigDecimal>(attemptsToChargeBack.size());
+                BigDecimal maxChargedBackAmount = BigDecimal.ZERO;
+                for (final InvoicePaymentModelDao attempt : attemptsToChargeBack) {
+                    final BigDecimal remainingAmountPaid = invoiceDaoHelper.getRemainingAmountPaidFromTransaction(attempt.getId(), entitySqlDaoWrapperFactory, context);
+                    remainingAmountsPaid.add(remainingAmountPaid);
+                    maxChargedBackAmount = maxChargedBackAmount.add(remainingAmountPaid);
+                }
                 final BigDecimal requestedChargedBackAmount = (amount == null) ? maxChargedBackAmount : amount;
                 if (requestedChargedBackAmount.compareTo(BigDecimal.ZERO) <= 0) {
                     throw new InvoiceApiException(ErrorCode.CHARGE_BACK_AMOUNT_IS_NEGATIVE);
@@ -541,24 +650,45 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     throw new InvoiceApiException(ErrorCode.CHARGE_BACK_AMOUNT_TOO_HIGH, requestedChargedBackAmount, maxChargedBackAmount);
                 }
 
-                final InvoicePaymentModelDao payment = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class).getById(invoicePaymentId.toString(), context);
-                if (payment == null) {
-                    throw new InvoiceApiException(ErrorCode.INVOICE_PAYMENT_NOT_FOUND, invoicePaymentId.toString());
+                final List<UUID> invoiceIds = new ArrayList<UUID>(attemptsToChargeBack.size());
+                for (final InvoicePaymentModelDao attempt : attemptsToChargeBack) {
+                    invoiceIds.add(attempt.getInvoiceId());
                 }
-                final InvoicePaymentModelDao chargeBack = new InvoicePaymentModelDao(UUIDs.randomUUID(), context.getCreatedDate(), InvoicePaymentType.CHARGED_BACK,
-                                                                                     payment.getInvoiceId(), payment.getPaymentId(), context.getCreatedDate(),
-                                                                                     requestedChargedBackAmount.negate(), payment.getCurrency(), payment.getProcessedCurrency(),
-                                                                                     null, payment.getId());
-                transactional.create(chargeBack, context);
-
-                // Notify the bus since the balance of the invoice changed
-                final UUID accountId = transactional.getAccountIdFromInvoicePaymentId(chargeBack.getId().toString(), context);
+                final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate = accountBalanceDao.getInvoiceBalancesBeforeUpdateFromTransaction(invoiceIds, entitySqlDaoWrapperFactory, context);
+
+                InvoicePaymentModelDao firstChargeBack = null;
+                UUID accountId = null;
+                final List<UUID> chargedBackInvoiceIds = new LinkedList<UUID>();
+                BigDecimal amountLeftToChargeBack = requestedChargedBackAmount;
+                for (int i = 0; i < attemptsToChargeBack.size() && amountLeftToChargeBack.compareTo(BigDecimal.ZERO) > 0; i++) {
+                    final InvoicePaymentModelDao payment = attemptsToChargeBack.get(i);
+                    final BigDecimal chargedBackAmount = amountLeftToChargeBack.min(remainingAmountsPaid.get(i));
+                    if (chargedBackAmount.compareTo(BigDecimal.ZERO) <= 0) {
+                        continue;
+                    }
 
-                cbaDao.addCBAComplexityFromTransaction(payment.getInvoiceId(), entitySqlDaoWrapperFactory, context);
+                    final InvoicePaymentModelDao chargeBack = new InvoicePaymentModelDao(UUIDs.randomUUID(), context.getCreatedDate(), InvoicePaymentType.CHARGED_BACK,
+                                                                                         payment.getInvoiceId(), payment.getPaymentId(), context.getCreatedDate(),
+                                                                                         chargedBackAmount.negate(), payment.getCurrency(), payment.getProcessedCurrency(),
+                                                                                         null, payment.getId());
+                    transactional.create(chargeBack, context);
+                    amountLeftToChargeBack = amountLeftToChargeBack.subtract(chargedBackAmount);
+                    chargedBackInvoiceIds.add(payment.getInvoiceId());
+
+                    if (firstChargeBack == null) {
+                        firstChargeBack = chargeBack;
+                        accountId = transactional.getAccountIdFromInvoicePaymentId(chargeBack.getId().toString(), context);
+                    }
+                    cbaDao.addCBAComplexityFromTransaction(payment.getInvoiceId(), entitySqlDaoWrapperFactory, context);
+                }
+                accountBalanceDao.refreshAccountBalanceFromTransaction(invoiceBalancesBeforeUpdate, entitySqlDaoWrapperFactory, context);
 
-                notifyBusOfInvoiceAdjustment(entitySqlDaoWrapperFactory, payment.getInvoiceId(), accountId, context.getUserToken(), context);
+                // Notify the bus since the balance of the invoices changed
+                for (final UUID invoiceId : chargedBackInvoiceIds) {
+                    notifyBusOfInvoiceAdjustment(entitySqlDaoWrapperFactory, invoiceId, accountId, context.getUserToken(), context);
+                }
 
-                return chargeBack;
+                return firstChargeBack;
             }
         });
     }
@@ -651,19 +781,44 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
 
     @Override
     public void notifyOfPayment(final InvoicePaymentModelDao invoicePayment, final InternalCallContext context) {
+        notifyOfPayments(ImmutableList.<InvoicePaymentModelDao>of(invoicePayment), context);
+    }
+
+    @Override
+    public void notifyOfPayments(final List<InvoicePaymentModelDao> invoicePayments, final InternalCallContext context) {
+        if (invoicePayments.isEmpty()) {
+            return;
+        }
+
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
                 final InvoicePaymentSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class);
-                final List<InvoicePaymentModelDao> invoicePayments = transactional.getInvoicePayments(invoicePayment.getPaymentId().toString(), context);
-                final InvoicePaymentModelDao existingAttempt = Iterables.tryFind(invoicePayments, new Predicate<InvoicePaymentModelDao>() {
-                    @Override
-                    public boolean apply(final InvoicePaymentModelDao input) {
-                        return input.getType() == InvoicePaymentType.ATTEMPT;
+                final UUID paymentId = invoicePayments.get(0).getPaymentId();
+                final List<InvoicePaymentModelDao> existingInvoicePayments = transactional.getInvoicePayments(paymentId.toString(), context);
+
+                final List<InvoicePaymentModelDao> invoicePaymentsToCreate = new LinkedList<InvoicePaymentModelDao>();
+                final Set<UUID> modifiedInvoiceIds = new HashSet<UUID>();
+                for (final InvoicePaymentModelDao invoicePayment : invoicePayments) {
+                    Preconditions.checkArgument(paymentId.equals(invoicePayment.getPaymentId()), "All invoice payments should be for payment " + paymentId);
+                    final InvoicePaymentModelDao existingAttempt = Iterables.tryFind(existingInvoicePayments, new Predicate<InvoicePaymentModelDao>() {
+                        @Override
+                        public boolean apply(final InvoicePaymentModelDao input) {
+                            return input.getType() == InvoicePaymentType.ATTEMPT && input.getInvoiceId().equals(invoicePayment.getInvoiceId());
+                        }
+                    }).orNull();
+                    if (existingAttempt == null) {
+                        invoicePaymentsToCreate.add(invoicePayment);
+                        modifiedInvoiceIds.add(invoicePayment.getInvoiceId());
+                    }
+                }
+
+                if (!invoicePaymentsToCreate.isEmpty()) {
+                    final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate = accountBalanceDao.getInvoiceBalancesBeforeUpdateFromTransaction(modifiedInvoiceIds, entitySqlDaoWrapperFactory, context);
+                    for (final InvoicePaymentModelDao invoicePayment : invoicePaymentsToCreate) {
+                        transactional.create(invoicePayment, context);
                     }
-                }).orNull();
-                if (existingAttempt == null) {
-                    transactional.create(invoicePayment, context);
+                    accountBalanceDao.refreshAccountBalanceFromTransaction(invoiceBalancesBeforeUpdate, entitySqlDaoWrapperFactory, context);
                 }
                 return null;
             }
@@ -705,6 +860,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     throw new InvoiceApiException(ErrorCode.INVOICE_ITEM_NOT_FOUND, invoiceItemId);
                 }
 
+                final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate = accountBalanceDao.getInvoiceBalancesBeforeUpdateFromTransaction(ImmutableList.<UUID>of(invoice.getId()), entitySqlDaoWrapperFactory, context);
+
                 // First, adjust the same invoice with the CBA amount to "delete"
                 final InvoiceItemModelDao cbaAdjItem = new InvoiceItemModelDao(context.getCreatedDate(), InvoiceItemType.CBA_ADJ, invoice.getId(), invoice.getAccountId(),
                                                                                null, null, null, null, null, null, context.getCreatedDate().toLocalDate(),
@@ -762,6 +919,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                         }
 
                         // Add the adjustment on that invoice
+                        invoiceBalancesBeforeUpdate.addInvoice(invoiceFollowing);
                         final InvoiceItemModelDao nextCBAAdjItem = new InvoiceItemModelDao(context.getCreatedDate(), InvoiceItemType.CBA_ADJ, invoiceFollowing.getId(),
                                                                                            invoice.getAccountId(), null, null, null, null, null, null,
                                                                                            context.getCreatedDate().toLocalDate(), null,
@@ -773,6 +931,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     }
                 }
 
+                accountBalanceDao.refreshAccountBalanceFromTransaction(invoiceBalancesBeforeUpdate, entitySqlDaoWrapperFactory, context);
                 return null;
             }
         });
@@ -782,8 +941,47 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                // Only the invoices with a non zero balance can get a CBA item below
+                final InvoiceBalancesBeforeUpdate invoiceBalancesBeforeUpdate = new InvoiceBalancesBeforeUpdate();
+                for (final InvoiceModelDao invoice : invoiceDaoHelper.getAllInvoicesByAccountFromTransaction(entitySqlDaoWrapperFactory, context)) {
+                    if (InvoiceModelDaoHelper.getBalance(invoice).compareTo(BigDecimal.ZERO) != 0) {
+                        invoiceBalancesBeforeUpdate.addInvoice(invoice);
+                    }
+                }
+
                 // In theory we should only have to call useExistingCBAFromTransaction but just to be safe we also check for credit generation
                 cbaDao.addCBAComplexityFromTransaction(entitySqlDaoWrapperFactory, context);
+                accountBalanceDao.refreshAccountBalanceFromTransaction(invoiceBalancesBeforeUpdate, entitySqlDaoWrapperFactory, context);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<InvoiceBillingWatermarkModelDao> getBillingWatermarks(final InternalTenantContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<InvoiceBillingWatermarkModelDao>>() {
+            @Override
+            public List<InvoiceBillingWatermarkModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(InvoiceBillingWatermarkSqlDao.class).getByAccountRecordId(context);
+            }
+        });
+    }
+
+    @Override
+    public void setBillingWatermarks(final List<InvoiceBillingWatermarkModelDao> watermarks, final InternalCallContext context) {
+        if (watermarks.isEmpty()) {
+            return;
+        }
+
+        transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
+            @Override
+            public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                final InvoiceBillingWatermarkSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoiceBillingWatermarkSqlDao.class);
+                for (final InvoiceBillingWatermarkModelDao watermark : watermarks) {
+                    if (transactional.updateWatermark(watermark, context) == 0) {
+                        transactional.create(watermark, context);
+                    }
+                }
                 return null;
             }
         });
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.dao;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.util.UUIDs;
+import org.killbill.billing.util.currency.KillBillMoney;
+import org.killbill.billing.util.dao.TableName;
+import org.killbill.billing.util.entity.Entity;
+import org.killbill.billing.util.entity.dao.EntityModelDao;
+import org.killbill.billing.util.entity.dao.EntityModelDaoBase;
+
+public class InvoiceAccountBalanceModelDao extends EntityModelDaoBase implements EntityModelDao<Entity> {
+
+    private UUID accountId;
+    private Currency currency;
+    private BigDecimal balance;
+    private BigDecimal cba;
+    private Integer unpaidInvoiceCount;
+    private BigDecimal unpaidInvoiceBalance;
+    private UUID earliestUnpaidInvoiceId;
+    private LocalDate earliestUnpaidInvoiceDate;
+    private LocalDate latestUnpaidTargetDate;
+
+    public InvoiceAccountBalanceModelDao() { /* For the DAO mapper */ }
+
+    public InvoiceAccountBalanceModelDao(final UUID id, final DateTime createdDate, final DateTime updatedDate, final UUID accountId,
+                                         final Currency currency, final BigDecimal balance, final BigDecimal cba, final Integer unpaidInvoiceCount,
+                                         final BigDecimal unpaidInvoiceBalance, final UUID earliestUnpaidInvoiceId,
+                                         final LocalDate earliestUnpaidInvoiceDate, final LocalDate latestUnpaidTargetDate) {
+        super(id, createdDate, updatedDate);
+        this.accountId = accountId;
+        this.currency = currency;
+        this.balance = balance;
+        this.cba = cba;
+        this.unpaidInvoiceCount = unpaidInvoiceCount;
+        this.unpaidInvoiceBalance = unpaidInvoiceBalance;
+        this.earliestUnpaidInvoiceId = earliestUnpaidInvoiceId;
+        this.earliestUnpaidInvoiceDate = earliestUnpaidInvoiceDate;
+        this.latestUnpaidTargetDate = latestUnpaidTargetDate;
+    }
+
+    public InvoiceAccountBalanceModelDao(final UUID accountId, final Currency currency, final BigDecimal balance, final BigDecimal cba,
+                                         final Integer unpaidInvoiceCount, final BigDecimal unpaidInvoiceBalance, final UUID earliestUnpaidInvoiceId,
+                                         final LocalDate earliestUnpaidInvoiceDate, final LocalDate latestUnpaidTargetDate) {
+        this(UUIDs.randomUUID(), null, null, accountId, currency, balance, cba, unpaidInvoiceCount, unpaidInvoiceBalance,
+             earliestUnpaidInvoiceId, earliestUnpaidInvoiceDate, latestUnpaidTargetDate);
+    }
+
+    public UUID getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(final UUID accountId) {
+        this.accountId = accountId;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(final Currency currency) {
+        this.currency = currency;
+    }
+
+    public BigDecimal getBalance() {
+        return withCurrencyScale(balance);
+    }
+
+    public void setBalance(final BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    public BigDecimal getCba() {
+        return withCurrencyScale(cba);
+    }
+
+    public void setCba(final BigDecimal cba) {
+        this.cba = cba;
+    }
+
+    public Integer getUnpaidInvoiceCount() {
+        return unpaidInvoiceCount;
+    }
+
+    public void setUnpaidInvoiceCount(final Integer unpaidInvoiceCount) {
+        this.unpaidInvoiceCount = unpaidInvoiceCount;
+    }
+
+    public BigDecimal getUnpaidInvoiceBalance() {
+        return withCurrencyScale(unpaidInvoiceBalance);
+    }
+
+    public void setUnpaidInvoiceBalance(final BigDecimal unpaidInvoiceBalance) {
+        this.unpaidInvoiceBalance = unpaidInvoiceBalance;
+    }
+
+    public UUID getEarliestUnpaidInvoiceId() {
+        return earliestUnpaidInvoiceId;
+    }
+
+    public void setEarliestUnpaidInvoiceId(final UUID earliestUnpaidInvoiceId) {
+        this.earliestUnpaidInvoiceId = earliestUnpaidInvoiceId;
+    }
+
+    public LocalDate getEarliestUnpaidInvoiceDate() {
+        return earliestUnpaidInvoiceDate;
+    }
+
+    public void setEarliestUnpaidInvoiceDate(final LocalDate earliestUnpaidInvoiceDate) {
+        this.earliestUnpaidInvoiceDate = earliestUnpaidInvoiceDate;
+    }
+
+    public LocalDate getLatestUnpaidTargetDate() {
+        return latestUnpaidTargetDate;
+    }
+
+    public void setLatestUnpaidTargetDate(final LocalDate latestUnpaidTargetDate) {
+        this.latestUnpaidTargetDate = latestUnpaidTargetDate;
+    }
+
+    // Compare the computed values only (not the entity metadata), to detect drift between the ledger and the invoices
+    public boolean isSameLedgerAs(final InvoiceAccountBalanceModelDao that) {
+        return that != null &&
+               compare(balance, that.balance) &&
+               compare(cba, that.cba) &&
+               compare(unpaidInvoiceBalance, that.unpaidInvoiceBalance) &&
+               (unpaidInvoiceCount != null ? unpaidInvoiceCount.equals(that.unpaidInvoiceCount) : that.unpaidInvoiceCount == null) &&
+               (earliestUnpaidInvoiceDate != null ? earliestUnpaidInvoiceDate.compareTo(that.earliestUnpaidInvoiceDate) == 0 : that.earliestUnpaidInvoiceDate == null) &&
+               (latestUnpaidTargetDate != null ? latestUnpaidTargetDate.compareTo(that.latestUnpaidTargetDate) == 0 : that.latestUnpaidTargetDate == null);
+    }
+
+    // The amounts are persisted with the maximum scale: return them with the scale of the invoice balances they are computed from
+    private BigDecimal withCurrencyScale(final BigDecimal amount) {
+        return amount == null || currency == null ? amount : KillBillMoney.of(amount, currency);
+    }
+
+    private static boolean compare(final BigDecimal a, final BigDecimal b) {
+        return a != null ? (b != null && a.compareTo(b) == 0) : b == null;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("InvoiceAccountBalanceModelDao");
+        sb.append("{accountId=").append(accountId);
+        sb.append(", currency=").append(currency);
+        sb.append(", balance=").append(balance);
+        sb.append(", cba=").append(cba);
+        sb.append(", unpaidInvoiceCount=").append(unpaidInvoiceCount);
+        sb.append(", unpaidInvoiceBalance=").append(unpaidInvoiceBalance);
+        sb.append(", earliestUnpaidInvoiceId=").append(earliestUnpaidInvoiceId);
+        sb.append(", earliestUnpaidInvoiceDate=").append(earliestUnpaidInvoiceDate);
+        sb.append(", latestUnpaidTargetDate=").append(latestUnpaidTargetDate);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InvoiceAccountBalanceModelDao)) {
+            return false;
+        }
+        if (!super.equals(o)) {
+            return false;
+        }
+
+        final InvoiceAccountBalanceModelDao that = (InvoiceAccountBalanceModelDao) o;
+
+        if (accountId != null ? !accountId.equals(that.accountId) : that.accountId != null) {
+            return false;
+        }
+        if (currency != that.currency) {
+            return false;
+        }
+        if (earliestUnpaidInvoiceId != null ? !earliestUnpaidInvoiceId.equals(that.earliestUnpaidInvoiceId) : that.earliestUnpaidInvoiceId != null) {
+            return false;
+        }
+
+        return isSameLedgerAs(that);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (accountId != null ? accountId.hashCode() : 0);
+        result = 31 * result + (currency != null ? currency.hashCode() : 0);
+        result = 31 * result + (unpaidInvoiceCount != null ? unpaidInvoiceCount.hashCode() : 0);
+        result = 31 * result + (earliestUnpaidInvoiceId != null ? earliestUnpaidInvoiceId.hashCode() : 0);
+        result = 31 * result + (earliestUnpaidInvoiceDate != null ? earliestUnpaidInvoiceDate.hashCode() : 0);
+        result = 31 * result + (latestUnpaidTargetDate != null ? latestUnpaidTargetDate.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public TableName getTableName() {
+        return TableName.INVOICE_ACCOUNT_BALANCES;
+    }
+
+    @Override
+    public TableName getHistoryTableName() {
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.dao;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.entity.Entity;
+import org.killbill.billing.util.entity.dao.EntitySqlDao;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoStringTemplate;
+import org.skife.jdbi.v2.sqlobject.BindBean;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+
+@EntitySqlDaoStringTemplate
+public interface InvoiceAccountBalanceSqlDao extends EntitySqlDao<InvoiceAccountBalanceModelDao, Entity> {
+
+    // Not audited: the ledger is derived data, it can always be rebuilt from the invoices, items and payments
+    @SqlUpdate
+    public int updateBalance(@BindBean final InvoiceAccountBalanceModelDao accountBalance,
+                             @BindBean final InternalCallContext context);
+
+    @SqlQuery
+    public List<InvoiceAccountBalanceModelDao> getAccountBalancesWithUnpaidInvoices(@BindBean final InternalTenantContext context);
+
+    @SqlQuery
+    public List<UUID> getAccountIdsWithoutBalance(@BindBean final InternalTenantContext context);
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.dao;
+
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.killbill.billing.util.UUIDs;
+import org.killbill.billing.util.dao.TableName;
+import org.killbill.billing.util.entity.Entity;
+import org.killbill.billing.util.entity.dao.EntityModelDao;
+import org.killbill.billing.util.entity.dao.EntityModelDaoBase;
+
+public class InvoiceBillingWatermarkModelDao extends EntityModelDaoBase implements EntityModelDao<Entity> {
+
+    private UUID subscriptionId;
+    private String eventsFingerprint;
+    private Long itemsFingerprint;
+    private LocalDate nextEvaluationDate;
+
+    public InvoiceBillingWatermarkModelDao() { /* For the DAO mapper */ }
+
+    public InvoiceBillingWatermarkModelDao(final UUID id, final DateTime createdDate, final DateTime updatedDate, final UUID subscriptionId,
+                                           final String eventsFingerprint, final Long itemsFingerprint, final LocalDate nextEvaluationDate) {
+        super(id, createdDate, updatedDate);
+        this.subscriptionId = subscriptionId;
+        this.eventsFingerprint = eventsFingerprint;
+        this.itemsFingerprint = itemsFingerprint;
+        this.nextEvaluationDate = nextEvaluationDate;
+    }
+
+    public InvoiceBillingWatermarkModelDao(final UUID subscriptionId, final String eventsFingerprint, final Long itemsFingerprint, final LocalDate nextEvaluationDate) {
+        this(UUIDs.randomUUID(), null, null, subscriptionId, eventsFingerprint, itemsFingerprint, nextEvaluationDate);
+    }
+
+    public UUID getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public void setSubscriptionId(final UUID subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public String getEventsFingerprint() {
+        return eventsFingerprint;
+    }
+
+    public void setEventsFingerprint(final String eventsFingerprint) {
+        this.eventsFingerprint = eventsFingerprint;
+    }
+
+    public Long getItemsFingerprint() {
+        return itemsFingerprint;
+    }
+
+    public void setItemsFingerprint(final Long itemsFingerprint) {
+        this.itemsFingerprint = itemsFingerprint;
+    }
+
+    public LocalDate getNextEvaluationDate() {
+        return nextEvaluationDate;
+    }
+
+    public void setNextEvaluationDate(final LocalDate nextEvaluationDate) {
+        this.nextEvaluationDate = nextEvaluationDate;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("InvoiceBillingWatermarkModelDao");
+        sb.append("{subscriptionId=").append(subscriptionId);
+        sb.append(", eventsFingerprint='").append(eventsFingerprint).append('\'');
+        sb.append(", itemsFingerprint=").append(itemsFingerprint);
+        sb.append(", nextEvaluationDate=").append(nextEvaluationDate);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InvoiceBillingWatermarkModelDao)) {
+            return false;
+        }
+        if (!super.equals(o)) {
+            return false;
+        }
+
+        final InvoiceBillingWatermarkModelDao that = (InvoiceBillingWatermarkModelDao) o;
+
+        if (subscriptionId != null ? !subscriptionId.equals(that.subscriptionId) : that.subscriptionId != null) {
+            return false;
+        }
+        if (eventsFingerprint != null ? !eventsFingerprint.equals(that.eventsFingerprint) : that.eventsFingerprint != null) {
+            return false;
+        }
+        if (itemsFingerprint != null ? !itemsFingerprint.equals(that.itemsFingerprint) : that.itemsFingerprint != null) {
+            return false;
+        }
+        if (nextEvaluationDate != null ? nextEvaluationDate.compareTo(that.nextEvaluationDate) != 0 : that.nextEvaluationDate != null) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (subscriptionId != null ? subscriptionId.hashCode() : 0);
+        result = 31 * result + (eventsFingerprint != null ? eventsFingerprint.hashCode() : 0);
+        result = 31 * result + (itemsFingerprint != null ? itemsFingerprint.hashCode() : 0);
+        result = 31 * result + (nextEvaluationDate != null ? nextEvaluationDate.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public TableName getTableName() {
+        return TableName.INVOICE_BILLING_WATERMARKS;
+    }
+
+    @Override
+    public TableName getHistoryTableName() {
+        return null;
+    }
+}
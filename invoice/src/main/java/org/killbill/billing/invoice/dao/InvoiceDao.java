@@ -56,7 +56,7 @@ public interface InvoiceDao extends EntityDao<InvoiceModelDao, Invoice, InvoiceA
 
     Pagination<InvoiceModelDao> searchInvoices(String searchKey, Long offset, Long limit, InternalTenantContext context);
 
-    UUID getInvoiceIdByPaymentId(UUID paymentId, InternalTenantContext context);
+    UUID getInvoiceIdByPaymentId(UUID paymentId, InternalTenantContext context) throws InvoiceApiException;
 
     List<InvoicePaymentModelDao> getInvoicePayments(UUID paymentId, InternalTenantContext context);
 
@@ -66,11 +66,48 @@ public interface InvoiceDao extends EntityDao<InvoiceModelDao, Invoice, InvoiceA
 
     BigDecimal getAccountCBA(UUID accountId, InternalTenantContext context);
 
+    /**
+     * @param accountId the account id
+     * @param upToDate  only unpaid invoices with a target date on or before that date are taken into account (null for all)
+     * @param context   the tenant context
+     * @return the account ledger (balance, CBA and unpaid invoices summary)
+     */
+    InvoiceAccountBalanceModelDao getAccountBalanceSummary(UUID accountId, @Nullable LocalDate upToDate, InternalTenantContext context);
+
+    /**
+     * Retrieve the persisted ledgers of all the accounts of the tenant with unpaid invoices (not filtered by target date).
+     *
+     * @param context the tenant context
+     * @return the account ledgers
+     */
+    List<InvoiceAccountBalanceModelDao> getAccountBalancesWithUnpaidInvoices(InternalTenantContext context);
+
+    /**
+     * Recompute the account ledger from the invoices, items and payments and fix the persisted one if needed.
+     *
+     * @param accountId the account id
+     * @param dryRun    if true, only detect drift
+     * @param context   the callcontext
+     * @return true if the persisted ledger was out of sync
+     */
+    boolean rebuildAccountBalance(UUID accountId, boolean dryRun, InternalCallContext context);
+
+    /**
+     * Compute the ledger of the accounts of the tenant with invoices but without a persisted ledger.
+     *
+     * @param context the tenant callcontext
+     * @return the number of accounts backfilled
+     */
+    int backfillAccountBalances(InternalCallContext context);
+
     List<InvoiceModelDao> getUnpaidInvoicesByAccountId(UUID accountId, @Nullable LocalDate upToDate, InternalTenantContext context);
 
     // Include migrated invoices
     List<InvoiceModelDao> getAllInvoicesByAccount(InternalTenantContext context);
 
+    // Next (non migrated) invoices of the account by record_id, with their children
+    List<InvoiceModelDao> getInvoicesByAccountAfterRecordId(Long fromRecordId, int maxNbRecords, InternalTenantContext context);
+
     InvoicePaymentModelDao postChargeback(UUID paymentId, BigDecimal amount, Currency currency, InternalCallContext context) throws InvoiceApiException;
 
     InvoiceItemModelDao doCBAComplexity(InvoiceModelDao invoice, InternalCallContext context) throws InvoiceApiException;
@@ -129,9 +166,32 @@ public interface InvoiceDao extends EntityDao<InvoiceModelDao, Invoice, InvoiceA
 
     void notifyOfPayment(InvoicePaymentModelDao invoicePayment, InternalCallContext context);
 
+    /**
+     * Record the invoice payments (ATTEMPT) resulting from a single payment spread across several invoices, in one transaction.
+     * Invoice payments already recorded for the same payment and invoice are ignored.
+     *
+     * @param invoicePayments the invoice payments, all for the same payment
+     * @param context         the call context
+     */
+    void notifyOfPayments(List<InvoicePaymentModelDao> invoicePayments, InternalCallContext context);
+
     /**
      * @param accountId the account for which we need to rebalance the CBA
      * @param context   the callcontext
      */
     public void consumeExstingCBAOnAccountWithUnpaidInvoices(final UUID accountId, final InternalCallContext context);
+
+    /**
+     * @param context the tenant context (account record id is required)
+     * @return the billing watermarks for all the subscriptions of the account
+     */
+    List<InvoiceBillingWatermarkModelDao> getBillingWatermarks(InternalTenantContext context);
+
+    /**
+     * Insert or update billing watermarks, used for incremental invoice generation.
+     *
+     * @param watermarks the new watermarks
+     * @param context    the callcontext
+     */
+    void setBillingWatermarks(List<InvoiceBillingWatermarkModelDao> watermarks, InternalCallContext context);
 }
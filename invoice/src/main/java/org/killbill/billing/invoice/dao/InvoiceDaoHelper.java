@@ -216,6 +216,13 @@ public class InvoiceDaoHelper {
         getInvoicePaymentsWithinTransaction(invoices, entitySqlDaoWrapperFactory, context);
     }
 
+    // Only load the children of the invoices whose record_id is in ]fromInvoiceRecordId, toInvoiceRecordId]
+    public void populateChildrenForInvoiceRecordIdRange(final Iterable<InvoiceModelDao> invoices, final Long fromInvoiceRecordId, final Long toInvoiceRecordId,
+                                                        final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
+        setInvoiceItems(invoices, entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class).getByInvoiceRecordIdRange(fromInvoiceRecordId, toInvoiceRecordId, context));
+        setInvoicePayments(invoices, entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class).getByInvoiceRecordIdRange(fromInvoiceRecordId, toInvoiceRecordId, context));
+    }
+
     public List<InvoiceModelDao> getAllInvoicesByAccountFromTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
         final List<InvoiceModelDao> invoices = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getByAccountRecordId(context);
         populateChildren(invoices, entitySqlDaoWrapperFactory, context);
@@ -229,8 +236,10 @@ public class InvoiceDaoHelper {
 
     private void getInvoiceItemsWithinTransaction(final Iterable<InvoiceModelDao> invoices, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
         final InvoiceItemSqlDao invoiceItemSqlDao = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class);
-        final List<InvoiceItemModelDao> invoiceItemsForAccount = invoiceItemSqlDao.getByAccountRecordId(context);
+        setInvoiceItems(invoices, invoiceItemSqlDao.getByAccountRecordId(context));
+    }
 
+    private void setInvoiceItems(final Iterable<InvoiceModelDao> invoices, final List<InvoiceItemModelDao> invoiceItemsForAccount) {
         final Map<UUID, List<InvoiceItemModelDao>> invoiceItemsPerInvoiceId = new HashMap<UUID, List<InvoiceItemModelDao>>();
         for (final InvoiceItemModelDao item : invoiceItemsForAccount) {
             if (invoiceItemsPerInvoiceId.get(item.getInvoiceId()) == null) {
@@ -248,8 +257,10 @@ public class InvoiceDaoHelper {
 
     private void getInvoicePaymentsWithinTransaction(final Iterable<InvoiceModelDao> invoices, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
         final InvoicePaymentSqlDao invoicePaymentSqlDao = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class);
-        final List<InvoicePaymentModelDao> invoicePaymentsForAccount = invoicePaymentSqlDao.getByAccountRecordId(context);
+        setInvoicePayments(invoices, invoicePaymentSqlDao.getByAccountRecordId(context));
+    }
 
+    private void setInvoicePayments(final Iterable<InvoiceModelDao> invoices, final List<InvoicePaymentModelDao> invoicePaymentsForAccount) {
         final Map<UUID, List<InvoicePaymentModelDao>> invoicePaymentsPerInvoiceId = new HashMap<UUID, List<InvoicePaymentModelDao>>();
         for (final InvoicePaymentModelDao invoicePayment : invoicePaymentsForAccount) {
             if (invoicePaymentsPerInvoiceId.get(invoicePayment.getInvoiceId()) == null) {
@@ -37,4 +37,9 @@ public interface InvoiceItemSqlDao extends EntitySqlDao<InvoiceItemModelDao, Inv
     @SqlQuery
     List<InvoiceItemModelDao> getInvoiceItemsBySubscription(@Bind("subscriptionId") final String subscriptionId,
                                                             @BindBean final InternalTenantContext context);
+
+    @SqlQuery
+    List<InvoiceItemModelDao> getByInvoiceRecordIdRange(@Bind("fromInvoiceRecordId") final Long fromInvoiceRecordId,
+                                                        @Bind("toInvoiceRecordId") final Long toInvoiceRecordId,
+                                                        @BindBean final InternalTenantContext context);
 }
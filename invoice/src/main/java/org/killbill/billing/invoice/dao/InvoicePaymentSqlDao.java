@@ -64,4 +64,9 @@ public interface InvoicePaymentSqlDao extends EntitySqlDao<InvoicePaymentModelDa
     @SqlQuery
     List<InvoicePaymentModelDao> getChargebacksByPaymentId(@Bind("paymentId") final String paymentId,
                                                            @BindBean final InternalTenantContext context);
+
+    @SqlQuery
+    List<InvoicePaymentModelDao> getByInvoiceRecordIdRange(@Bind("fromInvoiceRecordId") final Long fromInvoiceRecordId,
+                                                           @Bind("toInvoiceRecordId") final Long toInvoiceRecordId,
+                                                           @BindBean final InternalTenantContext context);
 }
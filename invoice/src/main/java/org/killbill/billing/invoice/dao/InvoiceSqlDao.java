@@ -36,7 +36,11 @@ public interface InvoiceSqlDao extends EntitySqlDao<InvoiceModelDao, Invoice> {
                                                     @BindBean final InternalTenantContext context);
 
     @SqlQuery
-    UUID getInvoiceIdByPaymentId(@Bind("paymentId") final String paymentId,
-                                 @BindBean final InternalTenantContext context);
-}
+    List<UUID> getInvoiceIdsByPaymentId(@Bind("paymentId") final String paymentId,
+                                        @BindBean final InternalTenantContext context);
 
+    @SqlQuery
+    List<InvoiceModelDao> getByAccountRecordIdAfterRecordId(@Bind("fromRecordId") final Long fromRecordId,
+                                                            @Bind("maxNbRecords") final int maxNbRecords,
+                                                            @BindBean final InternalTenantContext context);
+}
@@ -25,6 +25,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -68,6 +69,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
@@ -95,6 +97,16 @@ public class DefaultInvoiceGenerator implements InvoiceGenerator {
                                    @Nullable final List<Invoice> existingInvoices,
                                    final LocalDate targetDate,
                                    final Currency targetCurrency, final InternalCallContext context) throws InvoiceApiException {
+        return generateInvoice(account, events, existingInvoices, targetDate, targetCurrency, null, context);
+    }
+
+    @Override
+    public Invoice generateInvoice(final Account account, @Nullable final BillingEventSet events,
+                                   @Nullable final List<Invoice> existingInvoices,
+                                   final LocalDate targetDate,
+                                   final Currency targetCurrency,
+                                   @Nullable final InvoiceBillingWatermarks billingWatermarks,
+                                   final InternalCallContext context) throws InvoiceApiException {
         if ((events == null) || (events.size() == 0) || events.isAccountAutoInvoiceOff()) {
             return null;
         }
@@ -105,7 +117,7 @@ public class DefaultInvoiceGenerator implements InvoiceGenerator {
         final Invoice invoice = new DefaultInvoice(account.getId(), new LocalDate(clock.getUTCNow(), account.getTimeZone()), adjustedTargetDate, targetCurrency);
         final UUID invoiceId = invoice.getId();
 
-        final List<InvoiceItem> inAdvanceItems = generateInAdvanceInvoiceItems(account.getId(), invoiceId, events, existingInvoices, adjustedTargetDate, targetCurrency);
+        final List<InvoiceItem> inAdvanceItems = generateInAdvanceInvoiceItems(account.getId(), invoiceId, events, existingInvoices, adjustedTargetDate, targetCurrency, billingWatermarks);
         invoice.addInvoiceItems(inAdvanceItems);
 
         final List<InvoiceItem> usageItems = generateUsageConsumableInArrearItems(account, invoiceId, events, existingInvoices, targetDate, context);
@@ -211,7 +223,7 @@ public class DefaultInvoiceGenerator implements InvoiceGenerator {
 
     private List<InvoiceItem> generateInAdvanceInvoiceItems(final UUID accountId, final UUID invoiceId, final BillingEventSet eventSet,
                                                             @Nullable final List<Invoice> existingInvoices, final LocalDate targetDate,
-                                                            final Currency targetCurrency) throws InvoiceApiException {
+                                                            final Currency targetCurrency, @Nullable final InvoiceBillingWatermarks billingWatermarks) throws InvoiceApiException {
         final AccountItemTree accountItemTree = new AccountItemTree(accountId, invoiceId);
         if (existingInvoices != null) {
             for (final Invoice invoice : existingInvoices) {
@@ -225,11 +237,21 @@ public class DefaultInvoiceGenerator implements InvoiceGenerator {
             }
         }
 
+        // In incremental mode, subscriptions whose events and items didn't change since the last run (and not yet due) are left untouched
+        final Set<UUID> upToDateSubscriptionIds = billingWatermarks != null ?
+                                                  billingWatermarks.getUpToDateSubscriptionIds(accountItemTree, targetDate) :
+                                                  ImmutableSet.<UUID>of();
+
         // Generate list of proposed invoice items based on billing events from junction-- proposed items are ALL items since beginning of time
-        final List<InvoiceItem> proposedItems = generateInAdvanceInvoiceItems(invoiceId, accountId, eventSet, targetDate, targetCurrency);
+        final List<InvoiceItem> proposedItems = generateInAdvanceInvoiceItems(invoiceId, accountId, eventSet, upToDateSubscriptionIds, targetDate, targetCurrency);
+
+        accountItemTree.mergeWithProposedItems(proposedItems, upToDateSubscriptionIds);
+        final List<InvoiceItem> resultingItems = accountItemTree.getResultingItemList();
 
-        accountItemTree.mergeWithProposedItems(proposedItems);
-        return accountItemTree.getResultingItemList();
+        if (billingWatermarks != null) {
+            billingWatermarks.recordEvaluation(accountItemTree, proposedItems, upToDateSubscriptionIds, targetDate);
+        }
+        return resultingItems;
     }
 
     private void validateTargetDate(final LocalDate targetDate) throws InvoiceApiException {
@@ -256,7 +278,8 @@ public class DefaultInvoiceGenerator implements InvoiceGenerator {
     }
 
     private List<InvoiceItem> generateInAdvanceInvoiceItems(final UUID invoiceId, final UUID accountId, final BillingEventSet events,
-                                                            final LocalDate targetDate, final Currency currency) throws InvoiceApiException {
+                                                            final Set<UUID> upToDateSubscriptionIds, final LocalDate targetDate,
+                                                            final Currency currency) throws InvoiceApiException {
         final List<InvoiceItem> items = new ArrayList<InvoiceItem>();
 
         if (events.size() == 0) {
@@ -275,12 +298,15 @@ public class DefaultInvoiceGenerator implements InvoiceGenerator {
             final BillingEvent thisEvent = nextEvent;
             nextEvent = eventIt.next();
             if (!events.getSubscriptionIdsWithAutoInvoiceOff().
-                    contains(thisEvent.getSubscription().getId())) { // don't consider events for subscriptions that have auto_invoice_off
+                    contains(thisEvent.getSubscription().getId()) && // don't consider events for subscriptions that have auto_invoice_off
+                !upToDateSubscriptionIds.contains(thisEvent.getSubscription().getId())) { // nor for subscriptions that are already fully invoiced
                 final BillingEvent adjustedNextEvent = (thisEvent.getSubscription().getId() == nextEvent.getSubscription().getId()) ? nextEvent : null;
                 items.addAll(processInAdvanceEvents(invoiceId, accountId, thisEvent, adjustedNextEvent, targetDate, currency, logStringBuilder));
             }
         }
-        items.addAll(processInAdvanceEvents(invoiceId, accountId, nextEvent, null, targetDate, currency, logStringBuilder));
+        if (!upToDateSubscriptionIds.contains(nextEvent.getSubscription().getId())) {
+            items.addAll(processInAdvanceEvents(invoiceId, accountId, nextEvent, null, targetDate, currency, logStringBuilder));
+        }
 
         log.info(logStringBuilder.toString());
 
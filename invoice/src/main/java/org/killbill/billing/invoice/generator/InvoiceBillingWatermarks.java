@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.generator;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.dao.InvoiceBillingWatermarkModelDao;
+import org.killbill.billing.invoice.tree.AccountItemTree;
+import org.killbill.billing.junction.BillingEvent;
+import org.killbill.billing.junction.BillingEventSet;
+import org.killbill.billing.util.UUIDs;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+/**
+ * Per-subscription billing watermarks, used for incremental invoice generation.
+ * <p/>
+ * <p>For each subscription, the watermark records a fingerprint of its billing events, a fingerprint of its invoice items
+ * (as they will be on disk once the generated invoice is committed) and the next date at which a new item may be generated.
+ * As long as both fingerprints match and the target date is prior to that date, the subscription is known to be fully
+ * invoiced and its <tt>SubscriptionItemTree</tt> doesn't need to be built.
+ * <p/>
+ * <p>The class is not thread safe and is valid for a single invoice run.
+ */
+public class InvoiceBillingWatermarks {
+
+    private final Map<UUID, InvoiceBillingWatermarkModelDao> existingWatermarks;
+    private final Map<UUID, SubscriptionBillingEvents> subscriptionBillingEvents;
+    private final Set<UUID> subscriptionIdsWithAutoInvoiceOff;
+    private final Map<UUID, InvoiceBillingWatermarkModelDao> updatedWatermarks;
+
+    public InvoiceBillingWatermarks(final BillingEventSet billingEvents, final Iterable<InvoiceBillingWatermarkModelDao> watermarks) {
+        this.existingWatermarks = new HashMap<UUID, InvoiceBillingWatermarkModelDao>();
+        for (final InvoiceBillingWatermarkModelDao watermark : watermarks) {
+            existingWatermarks.put(watermark.getSubscriptionId(), watermark);
+        }
+
+        this.subscriptionBillingEvents = new HashMap<UUID, SubscriptionBillingEvents>();
+        for (final BillingEvent event : billingEvents) {
+            final UUID subscriptionId = event.getSubscription().getId();
+            SubscriptionBillingEvents events = subscriptionBillingEvents.get(subscriptionId);
+            if (events == null) {
+                events = new SubscriptionBillingEvents();
+                subscriptionBillingEvents.put(subscriptionId, events);
+            }
+            events.add(event);
+        }
+
+        this.subscriptionIdsWithAutoInvoiceOff = ImmutableSet.<UUID>copyOf(billingEvents.getSubscriptionIdsWithAutoInvoiceOff());
+        this.updatedWatermarks = new HashMap<UUID, InvoiceBillingWatermarkModelDao>();
+    }
+
+    /**
+     * @param accountItemTree the tree populated with the existing items (prior the merge)
+     * @param targetDate      the (adjusted) target date of the invoice run
+     * @return the subscriptions whose billing events and invoice items didn't change and which don't need to be invoiced yet
+     */
+    public Set<UUID> getUpToDateSubscriptionIds(final AccountItemTree accountItemTree, final LocalDate targetDate) {
+        final ImmutableSet.Builder<UUID> result = ImmutableSet.<UUID>builder();
+        for (final UUID subscriptionId : subscriptionBillingEvents.keySet()) {
+            if (subscriptionIdsWithAutoInvoiceOff.contains(subscriptionId)) {
+                continue;
+            }
+
+            final InvoiceBillingWatermarkModelDao watermark = existingWatermarks.get(subscriptionId);
+            if (watermark != null &&
+                watermark.getEventsFingerprint().equals(subscriptionBillingEvents.get(subscriptionId).getFingerprint()) &&
+                watermark.getItemsFingerprint() == accountItemTree.getItemsFingerprint(subscriptionId) &&
+                (watermark.getNextEvaluationDate() == null || targetDate.isBefore(watermark.getNextEvaluationDate()))) {
+                result.add(subscriptionId);
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * Record the new watermarks for all subscriptions which have been evaluated during that run.
+     *
+     * @param accountItemTree         the tree, once the resulting list of items has been computed
+     * @param proposedItems           the proposed items generated from the billing events
+     * @param upToDateSubscriptionIds the subscriptions which have been skipped
+     * @param targetDate              the (adjusted) target date of the invoice run
+     */
+    public void recordEvaluation(final AccountItemTree accountItemTree, final List<InvoiceItem> proposedItems,
+                                 final Set<UUID> upToDateSubscriptionIds, final LocalDate targetDate) {
+        final Map<UUID, LocalDate> billedThroughDates = new HashMap<UUID, LocalDate>();
+        for (final InvoiceItem item : proposedItems) {
+            if (item.getInvoiceItemType() == InvoiceItemType.RECURRING) {
+                final LocalDate billedThroughDate = billedThroughDates.get(item.getSubscriptionId());
+                if (billedThroughDate == null || billedThroughDate.isBefore(item.getEndDate())) {
+                    billedThroughDates.put(item.getSubscriptionId(), item.getEndDate());
+                }
+            }
+        }
+
+        for (final UUID subscriptionId : subscriptionBillingEvents.keySet()) {
+            if (subscriptionIdsWithAutoInvoiceOff.contains(subscriptionId) || upToDateSubscriptionIds.contains(subscriptionId)) {
+                continue;
+            }
+
+            final SubscriptionBillingEvents events = subscriptionBillingEvents.get(subscriptionId);
+            final BillingEvent lastPastEvent = events.getLastEventOnOrBefore(targetDate);
+            final LocalDate nextEventDate = events.getFirstEventDateAfter(targetDate);
+
+            final LocalDate nextEvaluationDate;
+            if (lastPastEvent == null ||
+                lastPastEvent.getBillingPeriod() == BillingPeriod.NO_BILLING_PERIOD ||
+                lastPastEvent.getRecurringPrice() == null) {
+                // Nothing more to bill until the next billing event
+                nextEvaluationDate = nextEventDate;
+            } else {
+                final LocalDate billedThroughDate = billedThroughDates.get(subscriptionId);
+                if (billedThroughDate == null) {
+                    // Unexpected, don't take any chance and always evaluate that subscription
+                    continue;
+                }
+                nextEvaluationDate = (nextEventDate != null && nextEventDate.isBefore(billedThroughDate)) ? nextEventDate : billedThroughDate;
+            }
+
+            final InvoiceBillingWatermarkModelDao existingWatermark = existingWatermarks.get(subscriptionId);
+            final InvoiceBillingWatermarkModelDao newWatermark = new InvoiceBillingWatermarkModelDao(existingWatermark != null ? existingWatermark.getId() : UUIDs.randomUUID(),
+                                                                                                     null,
+                                                                                                     null,
+                                                                                                     subscriptionId,
+                                                                                                     events.getFingerprint(),
+                                                                                                     accountItemTree.getItemsFingerprint(subscriptionId),
+                                                                                                     nextEvaluationDate);
+            if (existingWatermark == null ||
+                !existingWatermark.getEventsFingerprint().equals(newWatermark.getEventsFingerprint()) ||
+                !existingWatermark.getItemsFingerprint().equals(newWatermark.getItemsFingerprint()) ||
+                !isSameDate(existingWatermark.getNextEvaluationDate(), newWatermark.getNextEvaluationDate())) {
+                updatedWatermarks.put(subscriptionId, newWatermark);
+            }
+        }
+    }
+
+    /**
+     * @return the watermarks which need to be written to disk, once the invoice has been committed
+     */
+    public List<InvoiceBillingWatermarkModelDao> getUpdatedWatermarks() {
+        return ImmutableList.<InvoiceBillingWatermarkModelDao>copyOf(updatedWatermarks.values());
+    }
+
+    private static boolean isSameDate(@Nullable final LocalDate date1, @Nullable final LocalDate date2) {
+        return date1 == null ? date2 == null : (date2 != null && date1.compareTo(date2) == 0);
+    }
+
+    private static final class SubscriptionBillingEvents {
+
+        // Events are ordered per subscription in the BillingEventSet
+        private final List<BillingEvent> events = new LinkedList<BillingEvent>();
+        private final StringBuilder fingerprintBuilder = new StringBuilder();
+        private String fingerprint;
+
+        public void add(final BillingEvent event) {
+            events.add(event);
+            fingerprintBuilder.append(event.getEffectiveDate())
+                              .append('|').append(event.getTransitionType())
+                              .append('|').append(event.getPlan() != null ? event.getPlan().getName() : null)
+                              .append('|').append(event.getPlanPhase() != null ? event.getPlanPhase().getName() : null)
+                              .append('|').append(event.getBillingPeriod())
+                              .append('|').append(event.getBillingMode())
+                              .append('|').append(event.getBillCycleDayLocal())
+                              .append('|').append(event.getFixedPrice())
+                              .append('|').append(event.getRecurringPrice())
+                              .append('|').append(event.getCurrency())
+                              .append('|').append(event.getTimeZone())
+                              .append('|').append(event.getTotalOrdering())
+                              .append('\n');
+        }
+
+        public String getFingerprint() {
+            if (fingerprint == null) {
+                fingerprint = Hashing.md5().hashString(fingerprintBuilder, Charsets.UTF_8).toString();
+            }
+            return fingerprint;
+        }
+
+        public BillingEvent getLastEventOnOrBefore(final LocalDate targetDate) {
+            BillingEvent result = null;
+            for (final BillingEvent event : events) {
+                if (getEventLocalDate(event).isAfter(targetDate)) {
+                    break;
+                }
+                result = event;
+            }
+            return result;
+        }
+
+        public LocalDate getFirstEventDateAfter(final LocalDate targetDate) {
+            for (final BillingEvent event : events) {
+                final LocalDate eventLocalDate = getEventLocalDate(event);
+                if (eventLocalDate.isAfter(targetDate)) {
+                    return eventLocalDate;
+                }
+            }
+            return null;
+        }
+
+        private LocalDate getEventLocalDate(final BillingEvent event) {
+            return new LocalDate(event.getEffectiveDate(), event.getTimeZone());
+        }
+    }
+}
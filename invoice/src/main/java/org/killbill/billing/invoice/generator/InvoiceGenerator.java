@@ -34,4 +34,11 @@ public interface InvoiceGenerator {
 
     public Invoice generateInvoice(Account account, @Nullable BillingEventSet events, @Nullable List<Invoice> existingInvoices,
                                    LocalDate targetDate, Currency targetCurrency, final InternalCallContext context) throws InvoiceApiException;
+
+    /**
+     * @param billingWatermarks if not null, subscriptions which are up to date are skipped and the watermarks of the evaluated subscriptions are updated
+     */
+    public Invoice generateInvoice(Account account, @Nullable BillingEventSet events, @Nullable List<Invoice> existingInvoices,
+                                   LocalDate targetDate, Currency targetCurrency, @Nullable InvoiceBillingWatermarks billingWatermarks,
+                                   final InternalCallContext context) throws InvoiceApiException;
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.model;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.invoice.api.InvoiceAccountBalance;
+import org.killbill.billing.invoice.dao.InvoiceAccountBalanceModelDao;
+
+public class DefaultInvoiceAccountBalance implements InvoiceAccountBalance {
+
+    private final UUID accountId;
+    private final BigDecimal balance;
+    private final BigDecimal cba;
+    private final int numberOfUnpaidInvoices;
+    private final BigDecimal unpaidInvoiceBalance;
+    private final LocalDate dateOfEarliestUnpaidInvoice;
+    private final UUID idOfEarliestUnpaidInvoice;
+    private final LocalDate latestTargetDateOfUnpaidInvoices;
+
+    public DefaultInvoiceAccountBalance(final InvoiceAccountBalanceModelDao accountBalanceModelDao) {
+        this.accountId = accountBalanceModelDao.getAccountId();
+        this.balance = accountBalanceModelDao.getBalance();
+        this.cba = accountBalanceModelDao.getCba();
+        this.numberOfUnpaidInvoices = accountBalanceModelDao.getUnpaidInvoiceCount();
+        this.unpaidInvoiceBalance = accountBalanceModelDao.getUnpaidInvoiceBalance();
+        this.dateOfEarliestUnpaidInvoice = accountBalanceModelDao.getEarliestUnpaidInvoiceDate();
+        this.idOfEarliestUnpaidInvoice = accountBalanceModelDao.getEarliestUnpaidInvoiceId();
+        this.latestTargetDateOfUnpaidInvoices = accountBalanceModelDao.getLatestUnpaidTargetDate();
+    }
+
+    @Override
+    public UUID getAccountId() {
+        return accountId;
+    }
+
+    @Override
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    @Override
+    public BigDecimal getCBA() {
+        return cba;
+    }
+
+    @Override
+    public int getNumberOfUnpaidInvoices() {
+        return numberOfUnpaidInvoices;
+    }
+
+    @Override
+    public BigDecimal getUnpaidInvoiceBalance() {
+        return unpaidInvoiceBalance;
+    }
+
+    @Override
+    public LocalDate getDateOfEarliestUnpaidInvoice() {
+        return dateOfEarliestUnpaidInvoice;
+    }
+
+    @Override
+    public UUID getIdOfEarliestUnpaidInvoice() {
+        return idOfEarliestUnpaidInvoice;
+    }
+
+    @Override
+    public LocalDate getLatestTargetDateOfUnpaidInvoices() {
+        return latestTargetDateOfUnpaidInvoices;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("DefaultInvoiceAccountBalance{");
+        sb.append("accountId=").append(accountId);
+        sb.append(", balance=").append(balance);
+        sb.append(", cba=").append(cba);
+        sb.append(", numberOfUnpaidInvoices=").append(numberOfUnpaidInvoices);
+        sb.append(", unpaidInvoiceBalance=").append(unpaidInvoiceBalance);
+        sb.append(", dateOfEarliestUnpaidInvoice=").append(dateOfEarliestUnpaidInvoice);
+        sb.append(", idOfEarliestUnpaidInvoice=").append(idOfEarliestUnpaidInvoice);
+        sb.append(", latestTargetDateOfUnpaidInvoices=").append(latestTargetDateOfUnpaidInvoices);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.notification;
+
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.killbill.notificationq.DefaultUUIDNotificationKey;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class CoalescedInvoiceRunNotificationKey extends DefaultUUIDNotificationKey {
+
+    // Latest target date of the events absorbed by the run
+    private final DateTime targetDate;
+
+    @JsonCreator
+    public CoalescedInvoiceRunNotificationKey(@JsonProperty("uuidKey") final UUID accountId,
+                                              @JsonProperty("targetDate") final DateTime targetDate) {
+        super(accountId);
+        this.targetDate = targetDate;
+    }
+
+    public DateTime getTargetDate() {
+        return targetDate;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.notification;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.invoice.InvoiceDispatcher;
+import org.killbill.billing.invoice.api.DefaultInvoiceService;
+import org.killbill.billing.invoice.api.InvoiceApiException;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.callcontext.CallOrigin;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.UserType;
+import org.killbill.billing.util.config.InvoiceConfig;
+import org.killbill.billing.util.dao.NonEntityDao;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.killbill.billing.util.globallocker.LockerType;
+import org.killbill.clock.Clock;
+import org.killbill.commons.locker.GlobalLock;
+import org.killbill.commons.locker.GlobalLocker;
+import org.killbill.commons.locker.LockFailedException;
+import org.killbill.notificationq.api.NotificationEvent;
+import org.killbill.notificationq.api.NotificationEventWithMetadata;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.killbill.notificationq.api.NotificationQueueService;
+import org.killbill.notificationq.api.NotificationQueueService.NoSuchNotificationQueue;
+import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueAlreadyExists;
+import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueHandler;
+import org.skife.jdbi.v2.IDBI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+/**
+ * Collapses bursts of invoice runs triggered by bus events for the same account: when a coalescing window is configured,
+ * the first event records an invoice run at the end of the window and the following ones are absorbed by it. The run uses the
+ * latest target date of the events it absorbed.
+ */
+public class CoalescedInvoiceRunNotifier {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescedInvoiceRunNotifier.class);
+
+    public static final String COALESCED_INVOICE_RUN_QUEUE = "coalesced-invoice-run-queue";
+
+    private static final int LOCK_NB_RETRIES = 3;
+
+    private final NotificationQueueService notificationQueueService;
+    private final InvoiceConfig invoiceConfig;
+    private final InvoiceDispatcher dispatcher;
+    private final InternalCallContextFactory internalCallContextFactory;
+    private final GlobalLocker locker;
+    private final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
+    private final Clock clock;
+
+    private NotificationQueue coalescedInvoiceRunQueue;
+
+    @Inject
+    public CoalescedInvoiceRunNotifier(final NotificationQueueService notificationQueueService,
+                                       final InvoiceConfig invoiceConfig,
+                                       final InvoiceDispatcher dispatcher,
+                                       final InternalCallContextFactory internalCallContextFactory,
+                                       final GlobalLocker locker,
+                                       final IDBI dbi,
+                                       final CacheControllerDispatcher cacheControllerDispatcher,
+                                       final NonEntityDao nonEntityDao,
+                                       final Clock clock) {
+        this.notificationQueueService = notificationQueueService;
+        this.invoiceConfig = invoiceConfig;
+        this.dispatcher = dispatcher;
+        this.internalCallContextFactory = internalCallContextFactory;
+        this.locker = locker;
+        this.transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, cacheControllerDispatcher, nonEntityDao);
+        this.clock = clock;
+    }
+
+    public void initialize() throws NotificationQueueAlreadyExists {
+        final NotificationQueueHandler notificationQueueHandler = new NotificationQueueHandler() {
+            @Override
+            public void handleReadyNotification(final NotificationEvent notificationKey, final DateTime eventDate, final UUID userToken, final Long accountRecordId, final Long tenantRecordId) {
+                if (!(notificationKey instanceof CoalescedInvoiceRunNotificationKey)) {
+                    log.error("Coalesced invoice run queue received an unexpected event type {}", notificationKey.getClass().getName());
+                    return;
+                }
+
+                final CoalescedInvoiceRunNotificationKey key = (CoalescedInvoiceRunNotificationKey) notificationKey;
+                // Runs recorded without target date (before it was stored) fall back to the end of the window, which covers all the absorbed events
+                final DateTime targetDate = key.getTargetDate() != null ? key.getTargetDate() : eventDate;
+                final InternalCallContext context = internalCallContextFactory.createInternalCallContext(tenantRecordId, accountRecordId, "CoalescedInvoiceRun", CallOrigin.INTERNAL, UserType.SYSTEM, userToken);
+                try {
+                    dispatcher.processAccount(key.getUuidKey(), targetDate, null, context);
+                } catch (final InvoiceApiException e) {
+                    log.error(e.getMessage());
+                }
+            }
+        };
+
+        coalescedInvoiceRunQueue = notificationQueueService.createNotificationQueue(DefaultInvoiceService.INVOICE_SERVICE_NAME,
+                                                                                    COALESCED_INVOICE_RUN_QUEUE,
+                                                                                    notificationQueueHandler);
+    }
+
+    public void start() {
+        coalescedInvoiceRunQueue.startQueue();
+    }
+
+    public void stop() throws NoSuchNotificationQueue {
+        if (coalescedInvoiceRunQueue != null) {
+            coalescedInvoiceRunQueue.stopQueue();
+            notificationQueueService.deleteNotificationQueue(coalescedInvoiceRunQueue.getServiceName(), coalescedInvoiceRunQueue.getQueueName());
+        }
+    }
+
+    /**
+     * The check for a pending run and the insertion happen in a single transaction, under a per-account lock, so that concurrent
+     * bus events (on one or several nodes) can't record the run twice.
+     *
+     * @return true if the invoice run for that account and target date was recorded (or absorbed by a pending one),
+     * false if the caller should run it right away
+     */
+    public boolean coalesceInvoiceRun(final UUID accountId, final DateTime targetDate, final InternalCallContext context) {
+        final long windowMillis = invoiceConfig.getCoalescingWindow().getMillis();
+        if (windowMillis <= 0 || coalescedInvoiceRunQueue == null || targetDate == null) {
+            return false;
+        }
+
+        final DateTime endOfWindow = clock.getUTCNow().plus(windowMillis);
+        if (targetDate.isAfter(endOfWindow)) {
+            return false;
+        }
+
+        GlobalLock lock = null;
+        try {
+            lock = locker.lockWithNumberOfTries(LockerType.COALESCED_INVOICE_RUN.toString(), accountId.toString(), LOCK_NB_RETRIES);
+            return transactionalSqlDao.execute(IOException.class, new EntitySqlDaoTransactionWrapper<Boolean>() {
+                @Override
+                public Boolean inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                    final Connection connection = entitySqlDaoWrapperFactory.getHandle().getConnection();
+                    final List<NotificationEventWithMetadata<CoalescedInvoiceRunNotificationKey>> pendingRuns = coalescedInvoiceRunQueue.getFutureNotificationFromTransactionForSearchKeys(context.getAccountRecordId(),
+                                                                                                                                                                                        context.getTenantRecordId(),
+                                                                                                                                                                                        connection);
+                    DateTime runDate = endOfWindow;
+                    for (final NotificationEventWithMetadata<CoalescedInvoiceRunNotificationKey> pendingRun : pendingRuns) {
+                        final DateTime pendingTargetDate = pendingRun.getEvent().getTargetDate() != null ? pendingRun.getEvent().getTargetDate() : pendingRun.getEffectiveDate();
+                        if (!targetDate.isAfter(pendingTargetDate)) {
+                            log.debug("Coalescing invoice run for accountId {} and targetDate {} with pending run at {}", accountId, targetDate, pendingRun.getEffectiveDate());
+                            return true;
+                        }
+
+                        // The pending run is replaced by one with the later target date, at the same time (the window isn't extended)
+                        coalescedInvoiceRunQueue.removeNotificationFromTransaction(connection, pendingRun.getRecordId());
+                        if (pendingRun.getEffectiveDate().isBefore(runDate)) {
+                            runDate = pendingRun.getEffectiveDate();
+                        }
+                    }
+
+                    coalescedInvoiceRunQueue.recordFutureNotificationFromTransaction(connection, runDate, new CoalescedInvoiceRunNotificationKey(accountId, targetDate), context.getUserToken(),
+                                                                                     context.getAccountRecordId(), context.getTenantRecordId());
+                    return true;
+                }
+            });
+        } catch (final LockFailedException e) {
+            // Another event for that account is being coalesced: run this one right away rather than risking to lose it
+            log.info("Unable to lock the coalesced invoice run for accountId {}, running it right away", accountId);
+            return false;
+        } catch (final IOException e) {
+            log.warn("Failed to record coalesced invoice run for accountId " + accountId, e);
+            return false;
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+}
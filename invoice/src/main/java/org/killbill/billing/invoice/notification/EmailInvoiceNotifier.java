@@ -21,50 +21,134 @@ package org.killbill.billing.invoice.notification;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.joda.time.DateTime;
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.ObjectType;
 import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.account.api.AccountEmail;
 import org.killbill.billing.account.api.AccountInternalApi;
 import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.invoice.api.DefaultInvoiceService;
 import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceNotifier;
+import org.killbill.billing.invoice.dao.InvoiceDao;
+import org.killbill.billing.invoice.model.DefaultInvoice;
 import org.killbill.billing.invoice.template.HtmlInvoice;
 import org.killbill.billing.invoice.template.HtmlInvoiceGenerator;
 import org.killbill.billing.tag.TagInternalApi;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
-import org.killbill.billing.util.email.DefaultEmailSender;
 import org.killbill.billing.util.email.EmailApiException;
 import org.killbill.billing.util.email.EmailConfig;
 import org.killbill.billing.util.email.EmailSender;
 import org.killbill.billing.util.tag.ControlTagType;
 import org.killbill.billing.util.tag.Tag;
+import org.killbill.clock.Clock;
+import org.killbill.notificationq.api.NotificationEvent;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.killbill.notificationq.api.NotificationQueueService;
+import org.killbill.notificationq.api.NotificationQueueService.NoSuchNotificationQueue;
+import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueAlreadyExists;
+import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueHandler;
+import org.skife.config.TimeSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.RateLimiter;
 import com.google.inject.Inject;
 
+/**
+ * Invoice emails are not sent on the invoice generation path: notify() only records an entry in the invoice email
+ * notification queue, and the email is rendered and sent when the entry is dispatched (retrying on failure).
+ */
 public class EmailInvoiceNotifier implements InvoiceNotifier {
 
+    private static final Logger log = LoggerFactory.getLogger(EmailInvoiceNotifier.class);
+
+    public static final String INVOICE_EMAIL_QUEUE = "invoice-email-queue";
+
+    // Delay before re-trying to send an email when the tenant went over its rate
+    private static final long RATE_LIMITED_DELAY_MSEC = 1000L;
+
     private final AccountInternalApi accountApi;
     private final TagInternalApi tagUserApi;
     private final HtmlInvoiceGenerator generator;
     private final EmailConfig config;
+    private final EmailSender emailSender;
+    private final InvoiceDao invoiceDao;
+    private final NotificationQueueService notificationQueueService;
     private final InternalCallContextFactory internalCallContextFactory;
+    private final Clock clock;
+    private final ConcurrentMap<Long, RateLimiter> rateLimitersPerTenant;
+
+    private final Timer deliveryTimer;
+    private final Meter failuresMeter;
+    private final Meter retriesMeter;
+
+    private NotificationQueue emailQueue;
 
     @Inject
     public EmailInvoiceNotifier(final AccountInternalApi accountApi,
                                 final TagInternalApi tagUserApi,
                                 final HtmlInvoiceGenerator generator,
                                 final EmailConfig config,
-                                final InternalCallContextFactory internalCallContextFactory) {
+                                final EmailSender emailSender,
+                                final InvoiceDao invoiceDao,
+                                final NotificationQueueService notificationQueueService,
+                                final InternalCallContextFactory internalCallContextFactory,
+                                final MetricRegistry metricRegistry,
+                                final Clock clock) {
         this.accountApi = accountApi;
         this.tagUserApi = tagUserApi;
         this.generator = generator;
         this.config = config;
+        this.emailSender = emailSender;
+        this.invoiceDao = invoiceDao;
+        this.notificationQueueService = notificationQueueService;
         this.internalCallContextFactory = internalCallContextFactory;
+        this.clock = clock;
+        this.rateLimitersPerTenant = new ConcurrentHashMap<Long, RateLimiter>();
+        this.deliveryTimer = metricRegistry.timer(MetricRegistry.name(EmailInvoiceNotifier.class, "delivery"));
+        this.failuresMeter = metricRegistry.meter(MetricRegistry.name(EmailInvoiceNotifier.class, "failures"));
+        this.retriesMeter = metricRegistry.meter(MetricRegistry.name(EmailInvoiceNotifier.class, "retries"));
+    }
+
+    public void initialize() throws NotificationQueueAlreadyExists {
+        final NotificationQueueHandler notificationQueueHandler = new NotificationQueueHandler() {
+            @Override
+            public void handleReadyNotification(final NotificationEvent notificationKey, final DateTime eventDate, final UUID userToken, final Long accountRecordId, final Long tenantRecordId) {
+                if (!(notificationKey instanceof InvoiceEmailNotificationKey)) {
+                    log.error("Invoice email queue received an unexpected event type {}", notificationKey.getClass().getName());
+                    return;
+                }
+                deliverInvoiceEmail((InvoiceEmailNotificationKey) notificationKey, userToken, accountRecordId, tenantRecordId);
+            }
+        };
+
+        emailQueue = notificationQueueService.createNotificationQueue(DefaultInvoiceService.INVOICE_SERVICE_NAME,
+                                                                      INVOICE_EMAIL_QUEUE,
+                                                                      notificationQueueHandler);
+    }
+
+    public void start() {
+        emailQueue.startQueue();
+    }
+
+    public void stop() throws NoSuchNotificationQueue {
+        if (emailQueue != null) {
+            emailQueue.stopQueue();
+            notificationQueueService.deleteNotificationQueue(emailQueue.getServiceName(), emailQueue.getQueueName());
+        }
     }
 
     @Override
@@ -74,6 +158,74 @@ public class EmailInvoiceNotifier implements InvoiceNotifier {
         }
 
         final InternalTenantContext internalTenantContext = internalCallContextFactory.createInternalTenantContext(account.getId(), context);
+        final InvoiceEmailNotificationKey key = new InvoiceEmailNotificationKey(invoice.getId(), account.getId(), 0);
+        try {
+            emailQueue.recordFutureNotification(clock.getUTCNow(), key, null, internalTenantContext.getAccountRecordId(), internalTenantContext.getTenantRecordId());
+        } catch (final IOException e) {
+            throw new InvoiceApiException(e, ErrorCode.EMAIL_SENDING_FAILED);
+        }
+    }
+
+    private void deliverInvoiceEmail(final InvoiceEmailNotificationKey key, final UUID userToken, final Long accountRecordId, final Long tenantRecordId) {
+        if (!getRateLimiter(tenantRecordId).tryAcquire()) {
+            // Don't hold the queue thread, try again a bit later
+            reschedule(key, key.getAttemptNumber(), clock.getUTCNow().plus(RATE_LIMITED_DELAY_MSEC), userToken, accountRecordId, tenantRecordId);
+            return;
+        }
+
+        final InternalTenantContext internalTenantContext = internalCallContextFactory.createInternalTenantContext(tenantRecordId, accountRecordId);
+        final Timer.Context timerContext = deliveryTimer.time();
+        try {
+            final Account account = accountApi.getAccountById(key.getAccountId(), internalTenantContext);
+            final Invoice invoice = new DefaultInvoice(invoiceDao.getById(key.getUuidKey(), internalTenantContext));
+            sendInvoiceEmail(account, invoice, internalTenantContext);
+        } catch (final AccountApiException e) {
+            onDeliveryFailure(key, e, userToken, accountRecordId, tenantRecordId);
+        } catch (final InvoiceApiException e) {
+            onDeliveryFailure(key, e, userToken, accountRecordId, tenantRecordId);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    private void onDeliveryFailure(final InvoiceEmailNotificationKey key, final Exception e, final UUID userToken, final Long accountRecordId, final Long tenantRecordId) {
+        failuresMeter.mark();
+
+        final List<TimeSpan> retries = config.getEmailRetries();
+        final int attemptNumber = key.getAttemptNumber() == null ? 0 : key.getAttemptNumber();
+        if (attemptNumber >= retries.size()) {
+            log.warn(String.format("Giving up sending email for invoice %s after %s attempts", key.getUuidKey(), attemptNumber + 1), e);
+            return;
+        }
+
+        log.info(String.format("Failed to send email for invoice %s, will retry", key.getUuidKey()), e);
+        retriesMeter.mark();
+        reschedule(key, attemptNumber + 1, clock.getUTCNow().plus(retries.get(attemptNumber).getMillis()), userToken, accountRecordId, tenantRecordId);
+    }
+
+    private void reschedule(final InvoiceEmailNotificationKey key, final Integer attemptNumber, final DateTime effectiveDate, final UUID userToken, final Long accountRecordId, final Long tenantRecordId) {
+        final InvoiceEmailNotificationKey newKey = new InvoiceEmailNotificationKey(key.getUuidKey(), key.getAccountId(), attemptNumber);
+        try {
+            emailQueue.recordFutureNotification(effectiveDate, newKey, userToken, accountRecordId, tenantRecordId);
+        } catch (final IOException e) {
+            log.warn("Failed to reschedule email for invoice " + key.getUuidKey(), e);
+        }
+    }
+
+    private RateLimiter getRateLimiter(final Long tenantRecordId) {
+        RateLimiter rateLimiter = rateLimitersPerTenant.get(tenantRecordId);
+        if (rateLimiter == null) {
+            final int maxEmailsPerSecond = config.getMaxEmailsPerSecondPerTenant();
+            final RateLimiter newRateLimiter = RateLimiter.create(maxEmailsPerSecond > 0 ? maxEmailsPerSecond : Double.MAX_VALUE);
+            rateLimiter = rateLimitersPerTenant.putIfAbsent(tenantRecordId, newRateLimiter);
+            if (rateLimiter == null) {
+                rateLimiter = newRateLimiter;
+            }
+        }
+        return rateLimiter;
+    }
+
+    private void sendInvoiceEmail(final Account account, final Invoice invoice, final InternalTenantContext internalTenantContext) throws InvoiceApiException {
         final List<String> to = new ArrayList<String>();
         to.add(account.getEmail());
 
@@ -106,9 +258,8 @@ public class EmailInvoiceNotifier implements InvoiceNotifier {
             subject = config.getInvoiceEmailSubject();
         }
 
-        final EmailSender sender = new DefaultEmailSender(config);
         try {
-            sender.sendHTMLEmail(to, cc, subject, htmlInvoice.getBody());
+            emailSender.sendHTMLEmail(to, cc, subject, htmlInvoice.getBody());
         } catch (final EmailApiException e) {
             throw new InvoiceApiException(e, ErrorCode.EMAIL_SENDING_FAILED);
         } catch (final IOException e) {
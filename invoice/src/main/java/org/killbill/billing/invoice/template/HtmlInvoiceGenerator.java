@@ -23,9 +23,12 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 
+import org.killbill.billing.ObjectType;
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.currency.api.CurrencyConversionApi;
@@ -34,10 +37,18 @@ import org.killbill.billing.invoice.api.formatters.InvoiceFormatter;
 import org.killbill.billing.invoice.api.formatters.InvoiceFormatterFactory;
 import org.killbill.billing.invoice.api.formatters.ResourceBundleFactory;
 import org.killbill.billing.invoice.api.formatters.ResourceBundleFactory.ResourceBundleType;
+import org.killbill.billing.invoice.caching.InvoiceCacheInvalidationCallback;
 import org.killbill.billing.invoice.template.translator.DefaultInvoiceTranslator;
 import org.killbill.billing.tenant.api.TenantInternalApi;
+import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.killbill.billing.util.LocaleUtils;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.CacheLoaderArgument;
+import org.killbill.billing.util.cache.TenantInvoiceTemplateCacheLoader.LoaderCallback;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.email.templates.CompiledTemplate;
 import org.killbill.billing.util.email.templates.TemplateEngine;
 import org.killbill.billing.util.io.IOUtils;
 import org.killbill.billing.util.template.translation.TranslatorConfig;
@@ -54,6 +65,9 @@ public class HtmlInvoiceGenerator {
     private final TemplateEngine templateEngine;
     private final TenantInternalApi tenantApi;
     private final ResourceBundleFactory bundleFactory;
+    private final CacheController<Object, Object> templateCache;
+    // Default templates, by template name
+    private final ConcurrentMap<String, CompiledTemplate> defaultTemplates;
 
     @Inject
     public HtmlInvoiceGenerator(final InvoiceFormatterFactory factory,
@@ -61,13 +75,16 @@ public class HtmlInvoiceGenerator {
                                 final TranslatorConfig config,
                                 final CurrencyConversionApi currencyConversionApi,
                                 final ResourceBundleFactory bundleFactory,
-                                final TenantInternalApi tenantInternalApi) {
+                                final TenantInternalApi tenantInternalApi,
+                                final CacheControllerDispatcher cacheControllerDispatcher) {
         this.factory = factory;
         this.config = config;
         this.currencyConversionApi = currencyConversionApi;
         this.templateEngine = templateEngine;
         this.bundleFactory = bundleFactory;
         this.tenantApi = tenantInternalApi;
+        this.templateCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT_INVOICE_TEMPLATE);
+        this.defaultTemplates = new ConcurrentHashMap<String, CompiledTemplate>();
     }
 
     public HtmlInvoice generateInvoice(final Account account, @Nullable final Invoice invoice, final boolean manualPay, final InternalTenantContext context) throws IOException {
@@ -94,30 +111,51 @@ public class HtmlInvoiceGenerator {
         data.put("invoice", formattedInvoice);
 
         invoiceData.setSubject(invoiceTranslator.getInvoiceEmailSubject());
-        final String templateText = getTemplateText(locale, manualPay, context);
-        invoiceData.setBody(templateEngine.executeTemplateText(templateText, data));
+        final CompiledTemplate template = getTemplate(locale, manualPay, context);
+        invoiceData.setBody(template.execute(data));
         return invoiceData;
     }
 
-    private String getTemplateText(final Locale locale, final boolean manualPay, final InternalTenantContext context) throws IOException {
+    private CompiledTemplate getTemplate(final Locale locale, final boolean manualPay, final InternalTenantContext context) throws IOException {
 
         if (context.getTenantRecordId() == InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID) {
             return getDefaultTemplate(manualPay ? config.getManualPayTemplateName() : config.getTemplateName());
         }
-        final String template = manualPay ?
-                                tenantApi.getManualPayInvoiceTemplate(locale, context) :
-                                tenantApi.getInvoiceTemplate(locale, context);
+        final CompiledTemplate template = getTenantTemplate(locale, manualPay, context);
         return template == null ?
                getDefaultTemplate(manualPay ? config.getManualPayTemplateName() : config.getTemplateName()) :
                template;
     }
 
-    private String getDefaultTemplate(final String templateName) throws IOException {
+    private CompiledTemplate getTenantTemplate(final Locale locale, final boolean manualPay, final InternalTenantContext context) {
+        final String tenantKey = LocaleUtils.localeString(locale, manualPay ? TenantKey.INVOICE_MP_TEMPLATE.toString() : TenantKey.INVOICE_TEMPLATE.toString());
+        final LoaderCallback loaderCallback = new LoaderCallback() {
+            @Override
+            public Object loadInvoiceTemplate(final String tenantKey, final InternalTenantContext internalTenantContext) {
+                final String templateText = manualPay ?
+                                            tenantApi.getManualPayInvoiceTemplate(locale, internalTenantContext) :
+                                            tenantApi.getInvoiceTemplate(locale, internalTenantContext);
+                return templateText == null ? null : templateEngine.compileTemplate(templateText);
+            }
+        };
+        final CacheLoaderArgument cacheLoaderArgument = new CacheLoaderArgument(ObjectType.TENANT_KVS, new Object[]{loaderCallback}, context);
+        return (CompiledTemplate) templateCache.get(InvoiceCacheInvalidationCallback.getCacheKey(tenantKey, context), cacheLoaderArgument);
+    }
+
+    private CompiledTemplate getDefaultTemplate(final String templateName) throws IOException {
+        final CompiledTemplate cachedTemplate = defaultTemplates.get(templateName);
+        if (cachedTemplate != null) {
+            return cachedTemplate;
+        }
+
+        final CompiledTemplate template;
         try {
             final InputStream templateStream = UriAccessor.accessUri(templateName);
-            return IOUtils.toString(templateStream);
+            template = templateEngine.compileTemplate(IOUtils.toString(templateStream));
         } catch (URISyntaxException e) {
             throw new IOException(e);
         }
+        defaultTemplates.put(templateName, template);
+        return template;
     }
 }
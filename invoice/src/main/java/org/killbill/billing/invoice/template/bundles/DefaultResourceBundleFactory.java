@@ -25,12 +25,23 @@ import java.util.Locale;
 import java.util.MissingResourceException;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 
+import org.killbill.billing.ObjectType;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.invoice.api.formatters.ResourceBundleFactory;
+import org.killbill.billing.invoice.caching.InvoiceCacheInvalidationCallback;
 import org.killbill.billing.tenant.api.TenantInternalApi;
+import org.killbill.billing.tenant.api.TenantKV.TenantKey;
+import org.killbill.billing.util.LocaleUtils;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.CacheLoaderArgument;
+import org.killbill.billing.util.cache.TenantTranslationCacheLoader.LoaderCallback;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.xmlloader.UriAccessor;
 import org.slf4j.Logger;
@@ -43,10 +54,15 @@ public class DefaultResourceBundleFactory implements ResourceBundleFactory {
     private static final Logger logger = LoggerFactory.getLogger(DefaultResourceBundleFactory.class);
 
     private final TenantInternalApi tenantApi;
+    private final CacheController<Object, Object> translationCache;
+    // Bundles read from properties files never change, keep them around (there are only a handful of them)
+    private final ConcurrentMap<String, ResourceBundle> propertiesFileBundles;
 
     @Inject
-    public DefaultResourceBundleFactory(final TenantInternalApi tenantApi) {
+    public DefaultResourceBundleFactory(final TenantInternalApi tenantApi, final CacheControllerDispatcher cacheControllerDispatcher) {
         this.tenantApi = tenantApi;
+        this.translationCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT_TRANSLATION);
+        this.propertiesFileBundles = new ConcurrentHashMap<String, ResourceBundle>();
     }
 
     @Override
@@ -54,16 +70,47 @@ public class DefaultResourceBundleFactory implements ResourceBundleFactory {
         if (tenantContext.getTenantRecordId() == InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID) {
             return getGlobalBundle(locale, bundlePath);
         }
-        final String bundle = getTenantBundleForType(locale, type, tenantContext);
-        if (bundle != null) {
-            try {
-                return new PropertyResourceBundle(new ByteArrayInputStream(bundle.getBytes(Charsets.UTF_8)));
-            } catch (IOException e) {
-                logger.warn("Failed to de-serialize the property bundle for tenant {} and locale {}", tenantContext.getTenantRecordId(), locale);
-                // Fall through...
+        final ResourceBundle bundle = getTenantBundle(locale, type, tenantContext);
+        return bundle != null ? bundle : getGlobalBundle(locale, bundlePath);
+    }
+
+    private ResourceBundle getTenantBundle(final Locale locale, final ResourceBundleType type, final InternalTenantContext tenantContext) {
+        final String tenantKey = getTenantKeyForType(locale, type);
+        if (tenantKey == null) {
+            return null;
+        }
+
+        final LoaderCallback loaderCallback = new LoaderCallback() {
+            @Override
+            public Object loadTranslation(final String tenantKey, final InternalTenantContext internalTenantContext) {
+                final String bundle = getTenantBundleForType(locale, type, internalTenantContext);
+                if (bundle == null) {
+                    return null;
+                }
+                try {
+                    return new PropertyResourceBundle(new ByteArrayInputStream(bundle.getBytes(Charsets.UTF_8)));
+                } catch (IOException e) {
+                    logger.warn("Failed to de-serialize the property bundle for tenant {} and locale {}", internalTenantContext.getTenantRecordId(), locale);
+                    return null;
+                }
             }
+        };
+        final CacheLoaderArgument cacheLoaderArgument = new CacheLoaderArgument(ObjectType.TENANT_KVS, new Object[]{loaderCallback}, tenantContext);
+        return (ResourceBundle) translationCache.get(InvoiceCacheInvalidationCallback.getCacheKey(tenantKey, tenantContext), cacheLoaderArgument);
+    }
+
+    private String getTenantKeyForType(final Locale locale, final ResourceBundleType type) {
+        switch (type) {
+            case CATALOG_TRANSLATION:
+                return LocaleUtils.localeString(locale, TenantKey.CATALOG_TRANSLATION_.toString());
+
+            case INVOICE_TRANSLATION:
+                return LocaleUtils.localeString(locale, TenantKey.INVOICE_TRANSLATION_.toString());
+
+            default:
+                logger.warn("Unexpected bundle type {} ", type);
+                return null;
         }
-        return getGlobalBundle(locale, bundlePath);
     }
 
     private String getTenantBundleForType(final Locale locale, final ResourceBundleType type, final InternalTenantContext tenantContext) {
@@ -100,6 +147,19 @@ public class DefaultResourceBundleFactory implements ResourceBundleFactory {
     }
 
     private ResourceBundle getBundleFromPropertiesFile(final String propertiesFileName) {
+        final ResourceBundle cachedBundle = propertiesFileBundles.get(propertiesFileName);
+        if (cachedBundle != null) {
+            return cachedBundle;
+        }
+
+        final ResourceBundle bundle = loadBundleFromPropertiesFile(propertiesFileName);
+        if (bundle != null) {
+            propertiesFileBundles.put(propertiesFileName, bundle);
+        }
+        return bundle;
+    }
+
+    private ResourceBundle loadBundleFromPropertiesFile(final String propertiesFileName) {
         try {
             final InputStream inputStream = UriAccessor.accessUri(propertiesFileName);
             if (inputStream == null) {
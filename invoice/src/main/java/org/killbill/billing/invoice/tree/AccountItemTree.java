@@ -23,14 +23,14 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.InvoiceItemType;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableSet;
 
 /**
  * Tree of invoice items for a given account.
@@ -52,8 +52,10 @@ public class AccountItemTree {
     private final UUID accountId;
     private final UUID targetInvoiceId;
     private final Map<UUID, SubscriptionItemTree> subscriptionItemTree;
-    private final List<InvoiceItem> allExistingItems;
+    private final Map<UUID, InvoiceItem> allExistingItems;
+    private final Map<UUID, Long> itemsFingerprints;
     private List<InvoiceItem> pendingItemAdj;
+    private List<InvoiceItem> resultingItems;
 
     private boolean isBuilt;
 
@@ -62,7 +64,8 @@ public class AccountItemTree {
         this.targetInvoiceId = targetInvoiceId;
         this.subscriptionItemTree = new HashMap<UUID, SubscriptionItemTree>();
         this.isBuilt = false;
-        this.allExistingItems = new LinkedList<InvoiceItem>();
+        this.allExistingItems = new HashMap<UUID, InvoiceItem>();
+        this.itemsFingerprints = new HashMap<UUID, Long>();
         this.pendingItemAdj = new LinkedList<InvoiceItem>();
     }
 
@@ -72,16 +75,20 @@ public class AccountItemTree {
     public void build() {
         Preconditions.checkState(!isBuilt);
 
+        addPendingItemAdjustments();
+        for (SubscriptionItemTree tree : subscriptionItemTree.values()) {
+            tree.build();
+        }
+        isBuilt = true;
+    }
+
+    private void addPendingItemAdjustments() {
         if (pendingItemAdj.size() > 0) {
             for (InvoiceItem item : pendingItemAdj) {
                 addExistingItem(item, true);
             }
             pendingItemAdj.clear();
         }
-        for (SubscriptionItemTree tree : subscriptionItemTree.values()) {
-            tree.build();
-        }
-        isBuilt = true;
     }
 
     /**
@@ -96,8 +103,10 @@ public class AccountItemTree {
     private void addExistingItem(final InvoiceItem existingItem, final boolean failOnMissingSubscription) {
         Preconditions.checkState(!isBuilt);
 
-        // Only used to retrieve the original item for linked items
-        allExistingItems.add(existingItem);
+        // Only used to retrieve the original item for linked items (pending item adjustments are added twice)
+        if (!allExistingItems.containsKey(existingItem.getId())) {
+            allExistingItems.put(existingItem.getId(), existingItem);
+        }
 
         switch (existingItem.getInvoiceItemType()) {
             case EXTERNAL_CHARGE:
@@ -143,6 +152,7 @@ public class AccountItemTree {
         }
         final SubscriptionItemTree tree = subscriptionItemTree.get(subscriptionId);
         tree.addItem(existingItem);
+        addItemFingerprint(subscriptionId, existingItem);
     }
 
     /**
@@ -151,7 +161,18 @@ public class AccountItemTree {
      * @param proposedItems list of proposed item that should be merged with current existing view
      */
     public void mergeWithProposedItems(final List<InvoiceItem> proposedItems) {
+        mergeWithProposedItems(proposedItems, ImmutableSet.<UUID>of());
+    }
 
+    /**
+     * Rebuild the new tree by merging current on-disk existing view with new proposed list, leaving some subscriptions untouched.
+     *
+     * @param proposedItems           list of proposed item that should be merged with current existing view
+     * @param excludedSubscriptionIds subscriptions for which the tree should neither be built nor merged (no resulting items)
+     */
+    public void mergeWithProposedItems(final List<InvoiceItem> proposedItems, final Set<UUID> excludedSubscriptionIds) {
+
+        subscriptionItemTree.keySet().removeAll(excludedSubscriptionIds);
         build();
         for (SubscriptionItemTree tree : subscriptionItemTree.values()) {
             tree.flatten(true);
@@ -176,21 +197,52 @@ public class AccountItemTree {
      * @return the resulting list of items that should be written to disk
      */
     public List<InvoiceItem> getResultingItemList() {
+        // The view generates new repair items (with new ids) each time, so compute it only once
+        if (resultingItems != null) {
+            return resultingItems;
+        }
+
         final List<InvoiceItem> result = new ArrayList<InvoiceItem>();
         for (SubscriptionItemTree tree : subscriptionItemTree.values()) {
             final List<InvoiceItem> simplifiedView = tree.getView();
             if (simplifiedView.size() > 0) {
                 result.addAll(simplifiedView);
+                for (final InvoiceItem item : simplifiedView) {
+                    addItemFingerprint(tree.getSubscriptionId(), item);
+                }
             }
         }
+        resultingItems = result;
         return result;
     }
 
+    /**
+     * The fingerprint only depends on the set of items associated with the subscription (in any order): before the merge
+     * it reflects the existing items on disk, once the resulting list has been computed it also includes the new items.
+     *
+     * @param subscriptionId the subscription id
+     * @return the fingerprint of the items associated with that subscription
+     */
+    public long getItemsFingerprint(final UUID subscriptionId) {
+        if (!isBuilt) {
+            addPendingItemAdjustments();
+        }
+        final Long fingerprint = itemsFingerprints.get(subscriptionId);
+        return fingerprint != null ? fingerprint : 0L;
+    }
+
     public UUID getAccountId() {
         return accountId;
     }
 
-    private UUID getSubscriptionId(final InvoiceItem item, final List<InvoiceItem> allItems) {
+    private void addItemFingerprint(final UUID subscriptionId, final InvoiceItem item) {
+        // Invoice items are immutable once written to disk, so their id is enough to detect any change
+        final long itemFingerprint = 31 * item.getId().getMostSignificantBits() + item.getId().getLeastSignificantBits();
+        final Long fingerprint = itemsFingerprints.get(subscriptionId);
+        itemsFingerprints.put(subscriptionId, fingerprint != null ? fingerprint + itemFingerprint : itemFingerprint);
+    }
+
+    private UUID getSubscriptionId(final InvoiceItem item, final Map<UUID, InvoiceItem> allItems) {
         if (item.getInvoiceItemType() == InvoiceItemType.RECURRING ||
             item.getInvoiceItemType() == InvoiceItemType.FIXED) {
             return item.getSubscriptionId();
@@ -200,12 +252,7 @@ public class AccountItemTree {
         }
     }
 
-    private InvoiceItem getLinkedInvoiceItem(final InvoiceItem item, final Iterable<InvoiceItem> allItems) {
-        return Iterables.tryFind(allItems, new Predicate<InvoiceItem>() {
-            @Override
-            public boolean apply(final InvoiceItem input) {
-                return input.getId().equals(item.getLinkedItemId());
-            }
-        }).orNull();
+    private InvoiceItem getLinkedInvoiceItem(final InvoiceItem item, final Map<UUID, InvoiceItem> allItems) {
+        return item.getLinkedItemId() != null ? allItems.get(item.getLinkedItemId()) : null;
     }
 }
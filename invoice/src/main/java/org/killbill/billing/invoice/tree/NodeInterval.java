@@ -16,23 +16,32 @@
 
 package org.killbill.billing.invoice.tree;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.joda.time.LocalDate;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 
 public class NodeInterval {
 
     protected NodeInterval parent;
-    protected NodeInterval leftChild;
-    protected NodeInterval rightSibling;
+    // Children ordered by start date
+    protected List<NodeInterval> children;
 
     protected LocalDate start;
     protected LocalDate end;
 
+    // Whether both the start and end dates of the children are strictly increasing, which is what addNode maintains and
+    // what allows to locate a new node using binary searches instead of a scan (removeChild may break it, see below)
+    private boolean sortedChildren;
+
+    // Set when this node was removed and its children were promoted in promotedTo, see removeChild
+    private NodeInterval promotedTo;
+    private NodeInterval firstPromotedChild;
+
     public NodeInterval() {
         this(null, null, null);
     }
@@ -41,8 +50,8 @@ public class NodeInterval {
         this.start = startDate;
         this.end = endDate;
         this.parent = parent;
-        this.leftChild = null;
-        this.rightSibling = null;
+        this.children = new ArrayList<NodeInterval>();
+        this.sortedChildren = true;
     }
 
     /**
@@ -55,21 +64,19 @@ public class NodeInterval {
 
         Preconditions.checkNotNull(callback);
 
-        if (leftChild == null) {
+        if (children.isEmpty()) {
             callback.onLastNode(this);
             return;
         }
 
         LocalDate curDate = start;
-        NodeInterval curChild = leftChild;
-        while (curChild != null) {
+        for (final NodeInterval curChild : children) {
             if (curChild.getStart().compareTo(curDate) > 0) {
                 callback.onMissingInterval(this, curDate, curChild.getStart());
             }
             curChild.build(callback);
             // Note that skip to child endDate, meaning that we always consider the child [start end]
             curDate = curChild.getEnd();
-            curChild = curChild.getRightSibling();
         }
 
         // Finally if there is a hole at the end, we build the missing piece from ourselves
@@ -99,50 +106,30 @@ public class NodeInterval {
         computeRootInterval(newNode);
 
         newNode.parent = this;
-        if (leftChild == null) {
-            if (callback.shouldInsertNode(this)) {
-                leftChild = newNode;
-                return true;
-            } else {
-                return false;
-            }
-        }
 
-        NodeInterval prevChild = null;
-        NodeInterval curChild = leftChild;
-        while (curChild != null) {
+        // First child that either contains the new node, is covered by it, or starts after it
+        final int index = findChildIndex(newNode);
+        if (index < children.size()) {
+            final NodeInterval curChild = children.get(index);
             if (curChild.isItemContained(newNode)) {
                 return curChild.addNode(newNode, callback);
             }
 
             if (curChild.isItemOverlap(newNode)) {
                 if (callback.shouldInsertNode(this)) {
-                    rebalance(newNode);
-                    return true;
-                } else {
-                    return false;
-                }
-            }
-
-            if (newNode.getStart().compareTo(curChild.getStart()) < 0) {
-                if (callback.shouldInsertNode(this)) {
-                    newNode.rightSibling = curChild;
-                    if (prevChild == null) {
-                        leftChild = newNode;
-                    } else {
-                        prevChild.rightSibling = newNode;
-                    }
+                    rebalance(index, newNode);
                     return true;
                 } else {
                     return false;
                 }
             }
-            prevChild = curChild;
-            curChild = curChild.rightSibling;
         }
 
         if (callback.shouldInsertNode(this)) {
-            prevChild.rightSibling = newNode;
+            children.add(index, newNode);
+            if (newNode.getStart().compareTo(newNode.getEnd()) > 0) {
+                sortedChildren = false;
+            }
             return true;
         } else {
             return false;
@@ -150,57 +137,81 @@ public class NodeInterval {
     }
 
     public void removeChild(final NodeInterval toBeRemoved) {
-        NodeInterval prevChild = null;
-        NodeInterval curChild = leftChild;
-        while (curChild != null) {
-            if (curChild.isSame(toBeRemoved)) {
-                if (prevChild == null) {
-                    if (curChild.getLeftChild() == null) {
-                        leftChild = curChild.getRightSibling();
-                    } else {
-                        leftChild = curChild.getLeftChild();
-                        adjustRightMostChildSibling(curChild);
-                    }
+        if (promotedTo != null) {
+            removePromotedChild(toBeRemoved);
+            return;
+        }
+
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).isSame(toBeRemoved)) {
+                removeChildAt(i);
+                break;
+            }
+        }
+    }
+
+    private void removeChildAt(final int i) {
+        final NodeInterval curChild = children.remove(i);
+        if (!curChild.children.isEmpty()) {
+            // The children of the removed node take its place. Note that their parent isn't updated: they keep pointing to the removed node,
+            // which keeps seeing them as its children (see removePromotedChild)
+            children.addAll(i, curChild.children);
+            sortedChildren = sortedChildren &&
+                             curChild.sortedChildren &&
+                             isSortedAt(i - 1) &&
+                             isSortedAt(i + curChild.children.size() - 1);
+            curChild.promotedTo = this;
+            curChild.firstPromotedChild = curChild.children.get(0);
+            curChild.children = new ArrayList<NodeInterval>();
+        }
+    }
+
+    //
+    // Removal of a child of a node which was itself removed (the child being found through its parent pointer, e.g. when pruning the tree). The children
+    // of such a node used to be the tail of the children of promotedTo, starting at firstPromotedChild: removing that first child only unlinks it
+    // from the removed node (the child stays in the tree), while removing one of the next ones takes it out of promotedTo.
+    //
+    private void removePromotedChild(final NodeInterval toBeRemoved) {
+        final List<NodeInterval> siblings = promotedTo.getPromotedSiblings();
+        int first = 0;
+        while (first < siblings.size() && siblings.get(first) != firstPromotedChild) {
+            first++;
+        }
+
+        for (int i = first; i < siblings.size(); i++) {
+            if (siblings.get(i).isSame(toBeRemoved)) {
+                if (i == first) {
+                    firstPromotedChild = i + 1 < siblings.size() ? siblings.get(i + 1) : null;
                 } else {
-                    if (curChild.getLeftChild() == null) {
-                        prevChild.rightSibling = curChild.getRightSibling();
-                    } else {
-                        prevChild.rightSibling = curChild.getLeftChild();
-                        adjustRightMostChildSibling(curChild);
-                    }
+                    promotedTo.getPromotedSiblingsOwner().removeChildAt(i);
                 }
                 break;
             }
-            prevChild = curChild;
-            curChild = curChild.getRightSibling();
         }
     }
 
-    private void adjustRightMostChildSibling(final NodeInterval curNode) {
-        NodeInterval tmpChild = curNode.getLeftChild();
-        NodeInterval preTmpChild = null;
-        while (tmpChild != null) {
-            preTmpChild = tmpChild;
-            tmpChild = tmpChild.getRightSibling();
-        }
-        preTmpChild.rightSibling = curNode.getRightSibling();
+    // Node whose children hold the children promoted in this node (itself, unless this node was removed as well)
+    private NodeInterval getPromotedSiblingsOwner() {
+        return promotedTo == null ? this : promotedTo.getPromotedSiblingsOwner();
+    }
+
+    private List<NodeInterval> getPromotedSiblings() {
+        return getPromotedSiblingsOwner().children;
     }
 
     @JsonIgnore
     public boolean isPartitionedByChildren() {
 
-        if (leftChild == null) {
+        if (children.isEmpty()) {
             return false;
         }
 
         LocalDate curDate = start;
-        NodeInterval curChild = leftChild;
-        while (curChild != null) {
+        for (final NodeInterval curChild : children) {
             if (curChild.getStart().compareTo(curDate) > 0) {
                 return false;
             }
             curDate = curChild.getEnd();
-            curChild = curChild.getRightSibling();
         }
         return (curDate.compareTo(end) == 0);
     }
@@ -221,8 +232,7 @@ public class NodeInterval {
             return null;
         }
 
-        NodeInterval curChild = leftChild;
-        while (curChild != null) {
+        for (final NodeInterval curChild : children) {
             if (curChild.getStart().compareTo(targetDate) <= 0 && curChild.getEnd().compareTo(targetDate) >= 0) {
                 if (callback.isMatch(curChild)) {
                     return curChild;
@@ -232,7 +242,6 @@ public class NodeInterval {
                     return result;
                 }
             }
-            curChild = curChild.getRightSibling();
         }
         return null;
     }
@@ -250,13 +259,11 @@ public class NodeInterval {
             return this;
         }
 
-        NodeInterval curChild = leftChild;
-        while (curChild != null) {
+        for (final NodeInterval curChild : children) {
             final NodeInterval result = curChild.findNode(callback);
             if (result != null) {
                 return result;
             }
-            curChild = curChild.getRightSibling();
         }
         return null;
     }
@@ -276,10 +283,14 @@ public class NodeInterval {
         Preconditions.checkNotNull(callback);
         callback.onCurrentNode(depth, this, parent);
 
-        NodeInterval curChild = leftChild;
-        while (curChild != null) {
+        int i = 0;
+        while (i < children.size()) {
+            final NodeInterval curChild = children.get(i);
             curChild.walkTreeWithDepth(callback, (depth + 1));
-            curChild = curChild.getRightSibling();
+            // The callback may have removed the current child (e.g. when pruning the tree), in which case the next child is now at the same index
+            if (i < children.size() && children.get(i) == curChild) {
+                i++;
+            }
         }
     }
 
@@ -322,70 +333,135 @@ public class NodeInterval {
         return parent;
     }
 
+    @JsonIgnore
+    public List<NodeInterval> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
     @JsonIgnore
     public NodeInterval getLeftChild() {
-        return leftChild;
+        if (promotedTo != null) {
+            return firstPromotedChild;
+        }
+        return children.isEmpty() ? null : children.get(0);
     }
 
+    /**
+     * Siblings are stored in the parent's children array (or in the array they were promoted to, if the parent was removed), so this is a
+     * linear scan of it (O(number of siblings)): to walk all the children of a node, iterate over getChildren() instead.
+     *
+     * @return the next sibling, or null if this node is the last child (or the root)
+     */
     @JsonIgnore
     public NodeInterval getRightSibling() {
-        return rightSibling;
+        if (parent == null) {
+            return null;
+        }
+        final List<NodeInterval> siblings = parent.getPromotedSiblings();
+        for (int i = 0; i < siblings.size() - 1; i++) {
+            if (siblings.get(i) == this) {
+                return siblings.get(i + 1);
+            }
+        }
+        return null;
     }
 
     @JsonIgnore
     public int getNbChildren() {
-        int result = 0;
-        NodeInterval curChild = leftChild;
-        while (curChild != null) {
-            result++;
-            curChild = curChild.rightSibling;
-        }
-        return result;
+        return children.size();
     }
 
     /**
      * Since items may be added out of order, there is no guarantee that we don't suddenly have a new node
      * whose interval emcompasses cuurent node(s). In which case we need to rebalance the tree.
      *
+     * @param index   index of the first child covered by the new node
      * @param newNode node that triggered a rebalance operation
      */
-    private void rebalance(final NodeInterval newNode) {
+    private void rebalance(final int index, final NodeInterval newNode) {
 
-        NodeInterval prevRebalanced = null;
-        NodeInterval curChild = leftChild;
-        List<NodeInterval> toBeRebalanced = Lists.newLinkedList();
-        do {
-            if (curChild.isItemOverlap(newNode)) {
-                toBeRebalanced.add(curChild);
-            } else {
-                if (toBeRebalanced.size() > 0) {
-                    break;
+        int lastIndex = index + 1;
+        while (lastIndex < children.size() && children.get(lastIndex).isItemOverlap(newNode)) {
+            lastIndex++;
+        }
+
+        final List<NodeInterval> toBeRebalanced = children.subList(index, lastIndex);
+        newNode.children = new ArrayList<NodeInterval>(toBeRebalanced);
+        for (final NodeInterval cur : newNode.children) {
+            cur.parent = newNode;
+        }
+        newNode.sortedChildren = sortedChildren || newNode.isSortedAt(0, newNode.children.size() - 1);
+        toBeRebalanced.clear();
+
+        newNode.parent = this;
+        children.add(index, newNode);
+    }
+
+    //
+    // The sibling intervals never contain each other (a node contained in a child is added to that child, and a node covering children
+    // becomes their parent), so when the children are sorted both by start and by end date, whether a child stops the scan in addNode
+    // (i.e. either contains, is covered by, or starts after the new node) boils down to child.start >= newNode.start || child.end >= newNode.end.
+    // Both sides are monotonic, so the first such child is found with two binary searches, and the tree stays sorted after the insertion.
+    //
+    private int findChildIndex(final NodeInterval newNode) {
+        if (!sortedChildren || newNode.getStart().compareTo(newNode.getEnd()) > 0) {
+            for (int i = 0; i < children.size(); i++) {
+                final NodeInterval curChild = children.get(i);
+                if (curChild.isItemContained(newNode) ||
+                    curChild.isItemOverlap(newNode) ||
+                    newNode.getStart().compareTo(curChild.getStart()) < 0) {
+                    return i;
                 }
-                prevRebalanced = curChild;
             }
-            curChild = curChild.rightSibling;
-        } while (curChild != null);
+            return children.size();
+        }
 
-        newNode.parent = this;
-        final NodeInterval lastNodeToRebalance = toBeRebalanced.get(toBeRebalanced.size() - 1);
-        newNode.rightSibling = lastNodeToRebalance.rightSibling;
-        lastNodeToRebalance.rightSibling = null;
-        if (prevRebalanced == null) {
-            leftChild = newNode;
-        } else {
-            prevRebalanced.rightSibling = newNode;
+        // Fast path for items added in order
+        if (children.isEmpty() || isBefore(children.get(children.size() - 1), newNode)) {
+            return children.size();
         }
 
-        NodeInterval prev = null;
-        for (NodeInterval cur : toBeRebalanced) {
-            cur.parent = newNode;
-            if (prev == null) {
-                newNode.leftChild = cur;
+        int low = 0;
+        int high = children.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (children.get(mid).getStart().compareTo(newNode.getStart()) < 0) {
+                low = mid + 1;
             } else {
-                prev.rightSibling = cur;
+                high = mid;
+            }
+        }
+        final int firstNotStartingBefore = low;
+
+        low = 0;
+        high = firstNotStartingBefore;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (children.get(mid).getEnd().compareTo(newNode.getEnd()) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean isBefore(final NodeInterval curChild, final NodeInterval newNode) {
+        return curChild.getStart().compareTo(newNode.getStart()) < 0 && curChild.getEnd().compareTo(newNode.getEnd()) < 0;
+    }
+
+    // Whether the children at index i and i + 1 (if any) are in order
+    private boolean isSortedAt(final int i) {
+        return i < 0 || i + 1 >= children.size() || isBefore(children.get(i), children.get(i + 1));
+    }
+
+    private boolean isSortedAt(final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (!isSortedAt(i)) {
+                return false;
             }
-            prev = cur;
         }
+        return true;
     }
 
     private void computeRootInterval(final NodeInterval newNode) {
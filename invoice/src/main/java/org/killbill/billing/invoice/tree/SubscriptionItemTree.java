@@ -49,7 +49,8 @@ public class SubscriptionItemTree {
     private ItemsNodeInterval root;
     private boolean isBuilt;
     private List<Item> items;
-    private List<InvoiceItem> existingFixedItems;
+    // Matching fixed items share the same start date
+    private Map<LocalDate, List<InvoiceItem>> existingFixedItems;
     private Map<LocalDate, InvoiceItem> remainingFixedItems;
     private List<InvoiceItem> pendingItemAdj;
 
@@ -78,7 +79,7 @@ public class SubscriptionItemTree {
         this.targetInvoiceId = targetInvoiceId;
         this.root = new ItemsNodeInterval(targetInvoiceId);
         this.items = new LinkedList<Item>();
-        this.existingFixedItems = new LinkedList<InvoiceItem>();
+        this.existingFixedItems = new HashMap<LocalDate, List<InvoiceItem>>();
         this.remainingFixedItems = new HashMap<LocalDate, InvoiceItem>();
         this.pendingItemAdj = new LinkedList<InvoiceItem>();
         this.isBuilt = false;
@@ -141,7 +142,12 @@ public class SubscriptionItemTree {
                 break;
 
             case FIXED:
-                existingFixedItems.add(invoiceItem);
+                List<InvoiceItem> existingFixedItemsForDate = existingFixedItems.get(invoiceItem.getStartDate());
+                if (existingFixedItemsForDate == null) {
+                    existingFixedItemsForDate = new LinkedList<InvoiceItem>();
+                    existingFixedItems.put(invoiceItem.getStartDate(), existingFixedItemsForDate);
+                }
+                existingFixedItemsForDate.add(invoiceItem);
                 break;
 
             case ITEM_ADJ:
@@ -170,7 +176,8 @@ public class SubscriptionItemTree {
                 break;
 
             case FIXED:
-                final InvoiceItem existingItem = Iterables.tryFind(existingFixedItems, new Predicate<InvoiceItem>() {
+                final List<InvoiceItem> existingFixedItemsForDate = existingFixedItems.get(invoiceItem.getStartDate());
+                final InvoiceItem existingItem = existingFixedItemsForDate == null ? null : Iterables.tryFind(existingFixedItemsForDate, new Predicate<InvoiceItem>() {
                     @Override
                     public boolean apply(final InvoiceItem input) {
                         return input.matches(invoiceItem);
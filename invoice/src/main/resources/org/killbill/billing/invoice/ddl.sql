@@ -70,7 +70,52 @@ CREATE TABLE invoice_payments (
     PRIMARY KEY(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 CREATE UNIQUE INDEX invoice_payments_id ON invoice_payments(id);
-CREATE UNIQUE INDEX idx_invoice_payments ON invoice_payments(payment_id, type);
+CREATE UNIQUE INDEX idx_invoice_payments ON invoice_payments(payment_id, type, invoice_id);
 CREATE INDEX invoice_payments_invoice_id ON invoice_payments(invoice_id);
 CREATE INDEX invoice_payments_reversals ON invoice_payments(linked_invoice_payment_id);
 CREATE INDEX invoice_payments_tenant_account_record_id ON invoice_payments(tenant_record_id, account_record_id);
+
+DROP TABLE IF EXISTS invoice_billing_watermarks;
+CREATE TABLE invoice_billing_watermarks (
+    record_id serial unique,
+    id varchar(36) NOT NULL,
+    subscription_id varchar(36) NOT NULL,
+    events_fingerprint varchar(64) NOT NULL,
+    items_fingerprint bigint NOT NULL,
+    next_evaluation_date date,
+    created_by varchar(50) NOT NULL,
+    created_date datetime NOT NULL,
+    updated_by varchar(50) NOT NULL,
+    updated_date datetime NOT NULL,
+    account_record_id bigint /*! unsigned */ not null,
+    tenant_record_id bigint /*! unsigned */ not null default 0,
+    PRIMARY KEY(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+CREATE UNIQUE INDEX invoice_billing_watermarks_id ON invoice_billing_watermarks(id);
+CREATE UNIQUE INDEX invoice_billing_watermarks_subscription_id ON invoice_billing_watermarks(subscription_id);
+CREATE INDEX invoice_billing_watermarks_tenant_account_record_id ON invoice_billing_watermarks(tenant_record_id, account_record_id);
+
+DROP TABLE IF EXISTS invoice_account_balances;
+CREATE TABLE invoice_account_balances (
+    record_id serial unique,
+    id varchar(36) NOT NULL,
+    account_id varchar(36) NOT NULL,
+    currency varchar(3) DEFAULT NULL,
+    balance numeric(15,9) NOT NULL,
+    cba numeric(15,9) NOT NULL,
+    unpaid_invoice_count int NOT NULL,
+    unpaid_invoice_balance numeric(15,9) NOT NULL,
+    earliest_unpaid_invoice_id varchar(36),
+    earliest_unpaid_invoice_date date,
+    latest_unpaid_target_date date,
+    created_by varchar(50) NOT NULL,
+    created_date datetime NOT NULL,
+    updated_by varchar(50) NOT NULL,
+    updated_date datetime NOT NULL,
+    account_record_id bigint /*! unsigned */ not null,
+    tenant_record_id bigint /*! unsigned */ not null default 0,
+    PRIMARY KEY(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+CREATE UNIQUE INDEX invoice_account_balances_id ON invoice_account_balances(id);
+CREATE UNIQUE INDEX invoice_account_balances_account_record_id ON invoice_account_balances(account_record_id);
+CREATE INDEX invoice_account_balances_tenant_account_record_id ON invoice_account_balances(tenant_record_id, account_record_id);
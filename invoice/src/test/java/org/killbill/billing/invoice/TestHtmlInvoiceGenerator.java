@@ -54,17 +54,30 @@ public class TestHtmlInvoiceGenerator extends InvoiceTestSuiteNoDB {
         final TranslatorConfig config = new ConfigurationObjectFactory(skifeConfigSource).build(TranslatorConfig.class);
         final TemplateEngine templateEngine = new MustacheTemplateEngine();
         final InvoiceFormatterFactory factory = new DefaultInvoiceFormatterFactory();
-        g = new HtmlInvoiceGenerator(factory, templateEngine, config, null, resourceBundleFactory, null);
+        g = new HtmlInvoiceGenerator(factory, templateEngine, config, null, resourceBundleFactory, null, controllerDispatcher);
     }
 
     @Test(groups = "fast")
     public void testGenerateInvoice() throws Exception {
-        final HtmlInvoice output = g.generateInvoice(createAccount(), createInvoice(), false, internalCallContext);
+        final HtmlInvoice output = g.generateInvoice(createAccount(), createInvoice(42), false, internalCallContext);
         Assert.assertNotNull(output);
         Assert.assertNotNull(output.getBody());
         Assert.assertEquals(output.getSubject(), "Your invoice");
     }
 
+    @Test(groups = "fast")
+    public void testGenerateInvoiceWithCompiledTemplate() throws Exception {
+        final Account account = createAccount();
+
+        final HtmlInvoice firstOutput = g.generateInvoice(account, createInvoice(42), false, internalCallContext);
+        checkRenderedInvoice(firstOutput, 42);
+
+        // The second rendering uses the cached compiled template, with the data of the new invoice
+        final HtmlInvoice secondOutput = g.generateInvoice(account, createInvoice(43), false, internalCallContext);
+        checkRenderedInvoice(secondOutput, 43);
+        Assert.assertFalse(secondOutput.getBody().contains("<td>42</td>"), secondOutput.getBody());
+    }
+
     @Test(groups = "fast")
     public void testGenerateEmptyInvoice() throws Exception {
         final Invoice invoice = Mockito.mock(Invoice.class);
@@ -80,6 +93,32 @@ public class TestHtmlInvoiceGenerator extends InvoiceTestSuiteNoDB {
         Assert.assertNull(output);
     }
 
+    private void checkRenderedInvoice(final HtmlInvoice output, final Integer invoiceNumber) {
+        Assert.assertEquals(output.getSubject(), "Your invoice");
+
+        final String body = output.getBody();
+        // Translated labels
+        Assert.assertTrue(body.contains("<h1>INVOICE</h1>"), body);
+        Assert.assertTrue(body.contains("<td align=right>Invoice #</td>"), body);
+        Assert.assertTrue(body.contains("<td align=right><strong>New Charges</strong></td>"), body);
+        // Account and invoice
+        Assert.assertTrue(body.contains("<td>" + invoiceNumber + "</td>"), body);
+        Assert.assertTrue(body.contains("<td>Jim Smith</td>"), body);
+        Assert.assertTrue(body.contains("<td>jim.smith@mail.com</td>"), body);
+        // One row per item
+        Assert.assertTrue(body.contains("<td>Domain 1</td>"), body);
+        Assert.assertTrue(body.contains("<td>ning-plus</td>"), body);
+        Assert.assertTrue(body.contains("<td>USD 29.95</td>"), body);
+        Assert.assertTrue(body.contains("<td>Domain 2</td>"), body);
+        Assert.assertTrue(body.contains("<td>ning-pro</td>"), body);
+        Assert.assertTrue(body.contains("<td>USD 59.95</td>"), body);
+        // Charged amount and balance
+        Assert.assertTrue(body.contains("<td align=right><strong>89.90</strong></td>"), body);
+        Assert.assertTrue(body.contains("<td align=right><strong>0.00</strong></td>"), body);
+        // All the tags were rendered
+        Assert.assertFalse(body.contains("{{"), body);
+    }
+
     private Account createAccount() {
         final Account account = Mockito.mock(Account.class);
         Mockito.when(account.getExternalKey()).thenReturn("1234abcd");
@@ -98,7 +137,7 @@ public class TestHtmlInvoiceGenerator extends InvoiceTestSuiteNoDB {
         return account;
     }
 
-    private Invoice createInvoice() {
+    private Invoice createInvoice(final Integer invoiceNumber) {
         final LocalDate startDate = new LocalDate(new DateTime().minusMonths(1), DateTimeZone.UTC);
         final LocalDate endDate = new LocalDate(DateTimeZone.UTC);
 
@@ -106,7 +145,7 @@ public class TestHtmlInvoiceGenerator extends InvoiceTestSuiteNoDB {
         final BigDecimal price2 = new BigDecimal("59.95");
         final Invoice dummyInvoice = Mockito.mock(Invoice.class);
         Mockito.when(dummyInvoice.getInvoiceDate()).thenReturn(startDate);
-        Mockito.when(dummyInvoice.getInvoiceNumber()).thenReturn(42);
+        Mockito.when(dummyInvoice.getInvoiceNumber()).thenReturn(invoiceNumber);
         Mockito.when(dummyInvoice.getCurrency()).thenReturn(Currency.USD);
         Mockito.when(dummyInvoice.getChargedAmount()).thenReturn(price1.add(price2));
         Mockito.when(dummyInvoice.getPaidAmount()).thenReturn(BigDecimal.ZERO);
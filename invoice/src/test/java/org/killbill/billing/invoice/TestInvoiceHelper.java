@@ -248,6 +248,8 @@ public class TestInvoiceHelper {
 
     public void createInvoiceItem(final InvoiceItem invoiceItem, final InternalCallContext internalCallContext) throws EntityPersistenceException {
         invoiceItemSqlDao.create(new InvoiceItemModelDao(invoiceItem), internalCallContext);
+        // Rows inserted directly bypass the DAO, so the account ledger needs to be refreshed
+        invoiceDao.rebuildAccountBalance(invoiceItem.getAccountId(), false, internalCallContext);
     }
 
     public InvoiceItemModelDao getInvoiceItemById(final UUID invoiceItemId, final InternalCallContext internalCallContext) {
@@ -292,6 +294,7 @@ public class TestInvoiceHelper {
     public void createPayment(final InvoicePayment invoicePayment, final InternalCallContext internalCallContext) {
         try {
             invoicePaymentSqlDao.create(new InvoicePaymentModelDao(invoicePayment), internalCallContext);
+            invoiceDao.rebuildAccountBalance(invoiceDao.getById(invoicePayment.getInvoiceId(), internalCallContext).getAccountId(), false, internalCallContext);
         } catch (final EntityPersistenceException e) {
             Assert.fail(e.getMessage());
         }
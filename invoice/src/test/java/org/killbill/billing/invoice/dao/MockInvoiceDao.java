@@ -29,6 +29,7 @@ import java.util.UUID;
 
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
+import org.killbill.billing.ErrorCode;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Currency;
@@ -43,6 +44,7 @@ import org.killbill.bus.api.PersistentBus;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 
 public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice, InvoiceApiException> implements InvoiceDao {
@@ -199,15 +201,19 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
     }
 
     @Override
-    public UUID getInvoiceIdByPaymentId(final UUID paymentId, final InternalTenantContext context) {
+    public UUID getInvoiceIdByPaymentId(final UUID paymentId, final InternalTenantContext context) throws InvoiceApiException {
+        UUID invoiceId = null;
         synchronized (monitor) {
             for (final InvoicePaymentModelDao payment : payments.values()) {
                 if (paymentId.equals(payment.getPaymentId())) {
-                    return payment.getInvoiceId();
+                    if (invoiceId != null && !invoiceId.equals(payment.getInvoiceId())) {
+                        throw new InvoiceApiException(ErrorCode.INVOICE_PAYMENT_BY_ATTEMPT_NOT_FOUND, paymentId);
+                    }
+                    invoiceId = payment.getInvoiceId();
                 }
             }
         }
-        return null;
+        return invoiceId;
     }
 
     @Override
@@ -247,6 +253,15 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
         }
     }
 
+    @Override
+    public void notifyOfPayments(final List<InvoicePaymentModelDao> invoicePayments, final InternalCallContext context) {
+        synchronized (monitor) {
+            for (final InvoicePaymentModelDao invoicePayment : invoicePayments) {
+                payments.put(invoicePayment.getId(), invoicePayment);
+            }
+        }
+    }
+
     @Override
     public void consumeExstingCBAOnAccountWithUnpaidInvoices(final UUID accountId, final InternalCallContext context) {
     }
@@ -292,6 +307,11 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
         return result;
     }
 
+    @Override
+    public List<InvoiceModelDao> getInvoicesByAccountAfterRecordId(final Long fromRecordId, final int maxNbRecords, final InternalTenantContext context) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public InvoicePaymentModelDao postChargeback(final UUID invoicePaymentId, final BigDecimal amount, final Currency currency, final InternalCallContext context) throws InvoiceApiException {
         throw new UnsupportedOperationException();
@@ -343,6 +363,47 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
         return null;
     }
 
+    @Override
+    public InvoiceAccountBalanceModelDao getAccountBalanceSummary(final UUID accountId, final LocalDate upToDate, final InternalTenantContext context) {
+        final List<InvoiceModelDao> invoices = new ArrayList<InvoiceModelDao>();
+        for (final InvoiceModelDao invoice : getAll(context)) {
+            if (accountId.equals(invoice.getAccountId())) {
+                invoices.add(invoice);
+            }
+        }
+        return new AccountBalanceDao().computeAccountBalance(accountId, invoices, upToDate);
+    }
+
+    @Override
+    public List<InvoiceAccountBalanceModelDao> getAccountBalancesWithUnpaidInvoices(final InternalTenantContext context) {
+        final Map<UUID, List<InvoiceModelDao>> invoicesPerAccount = new LinkedHashMap<UUID, List<InvoiceModelDao>>();
+        for (final InvoiceModelDao invoice : getAll(context)) {
+            if (invoicesPerAccount.get(invoice.getAccountId()) == null) {
+                invoicesPerAccount.put(invoice.getAccountId(), new ArrayList<InvoiceModelDao>());
+            }
+            invoicesPerAccount.get(invoice.getAccountId()).add(invoice);
+        }
+
+        final List<InvoiceAccountBalanceModelDao> result = new ArrayList<InvoiceAccountBalanceModelDao>();
+        for (final UUID accountId : invoicesPerAccount.keySet()) {
+            final InvoiceAccountBalanceModelDao accountBalance = new AccountBalanceDao().computeAccountBalance(accountId, invoicesPerAccount.get(accountId), null);
+            if (accountBalance.getUnpaidInvoiceCount() > 0) {
+                result.add(accountBalance);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean rebuildAccountBalance(final UUID accountId, final boolean dryRun, final InternalCallContext context) {
+        return false;
+    }
+
+    @Override
+    public int backfillAccountBalances(final InternalCallContext context) {
+        return 0;
+    }
+
     @Override
     public InvoicePaymentModelDao createRefund(final UUID paymentId, final BigDecimal amount, final boolean isInvoiceAdjusted,
                                                final Map<UUID, BigDecimal> invoiceItemIdsWithAmounts, final String transactionExternalKey,
@@ -355,4 +416,13 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
     public void deleteCBA(final UUID accountId, final UUID invoiceId, final UUID invoiceItemId, final InternalCallContext context) throws InvoiceApiException {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    public List<InvoiceBillingWatermarkModelDao> getBillingWatermarks(final InternalTenantContext context) {
+        return ImmutableList.<InvoiceBillingWatermarkModelDao>of();
+    }
+
+    @Override
+    public void setBillingWatermarks(final List<InvoiceBillingWatermarkModelDao> watermarks, final InternalCallContext context) {
+    }
 }
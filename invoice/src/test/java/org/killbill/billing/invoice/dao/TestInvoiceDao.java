@@ -68,13 +68,17 @@ import org.killbill.billing.subscription.api.SubscriptionBaseTransitionType;
 import org.killbill.billing.util.currency.KillBillMoney;
 import org.killbill.clock.ClockMock;
 import org.mockito.Mockito;
+import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.exceptions.TransactionFailedException;
+import org.skife.jdbi.v2.tweak.HandleCallback;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 
 import static org.killbill.billing.invoice.TestInvoiceHelper.FIVE;
 import static org.killbill.billing.invoice.TestInvoiceHelper.TEN;
@@ -527,6 +531,254 @@ public class TestInvoiceDao extends InvoiceTestSuiteWithEmbeddedDB {
         assertEquals(balance.compareTo(rate1.add(rate2).subtract(payment1)), 0);
     }
 
+    @Test(groups = "slow")
+    public void testAccountBalanceLedger() throws EntityPersistenceException {
+        final UUID accountId = account.getId();
+        final UUID bundleId = UUID.randomUUID();
+        final LocalDate startDate = new LocalDate(2011, 3, 1);
+        final LocalDate endDate = startDate.plusMonths(1);
+
+        final LocalDate targetDate1 = new LocalDate(2011, 10, 6);
+        final Invoice invoice1 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate1, Currency.USD);
+        invoice1.addInvoiceItem(new RecurringInvoiceItem(invoice1.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase A", startDate,
+                                                         endDate, TEN, TEN, Currency.USD));
+        invoiceUtil.createInvoice(invoice1, true, context);
+
+        final LocalDate targetDate2 = targetDate1.plusMonths(1);
+        final Invoice invoice2 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate2, Currency.USD);
+        invoice2.addInvoiceItem(new RecurringInvoiceItem(invoice2.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase B", startDate,
+                                                         endDate, FIVE, FIVE, Currency.USD));
+        invoiceUtil.createInvoice(invoice2, true, context);
+
+        // Both invoices are unpaid
+        InvoiceAccountBalanceModelDao accountBalance = invoiceDao.getAccountBalanceSummary(accountId, null, context);
+        assertEquals(accountBalance.getBalance().compareTo(TEN.add(FIVE)), 0);
+        assertEquals(accountBalance.getCba().compareTo(BigDecimal.ZERO), 0);
+        assertEquals(accountBalance.getUnpaidInvoiceCount(), (Integer) 2);
+        assertEquals(accountBalance.getUnpaidInvoiceBalance().compareTo(TEN.add(FIVE)), 0);
+
+        // Only the first invoice is due as of its target date
+        accountBalance = invoiceDao.getAccountBalanceSummary(accountId, targetDate1, context);
+        assertEquals(accountBalance.getUnpaidInvoiceCount(), (Integer) 1);
+        assertEquals(accountBalance.getUnpaidInvoiceBalance().compareTo(TEN), 0);
+        assertEquals(accountBalance.getEarliestUnpaidInvoiceId(), invoice1.getId());
+
+        // Pay the first invoice
+        final InvoicePayment payment = new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, UUID.randomUUID(), invoice1.getId(), clock.getUTCNow(), TEN, Currency.USD, Currency.USD);
+        invoiceDao.notifyOfPayment(new InvoicePaymentModelDao(payment), context);
+
+        accountBalance = invoiceDao.getAccountBalanceSummary(accountId, null, context);
+        assertEquals(accountBalance.getBalance().compareTo(FIVE), 0);
+        assertEquals(accountBalance.getUnpaidInvoiceCount(), (Integer) 1);
+        assertEquals(accountBalance.getEarliestUnpaidInvoiceId(), invoice2.getId());
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(FIVE), 0);
+
+        // The ledger was maintained by the DAO, no drift expected
+        Assert.assertFalse(invoiceDao.rebuildAccountBalance(accountId, true, context));
+    }
+
+    @Test(groups = "slow")
+    public void testAccountBalanceLedgerDeltas() throws EntityPersistenceException, InvoiceApiException {
+        final UUID accountId = account.getId();
+        final UUID bundleId = UUID.randomUUID();
+        final LocalDate startDate = new LocalDate(2011, 3, 1);
+        final LocalDate endDate = startDate.plusMonths(1);
+
+        final LocalDate targetDate1 = new LocalDate(2011, 10, 6);
+        final Invoice invoice1 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate1, Currency.USD);
+        invoice1.addInvoiceItem(new RecurringInvoiceItem(invoice1.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase A", startDate,
+                                                         endDate, TEN, TEN, Currency.USD));
+        invoiceUtil.createInvoice(invoice1, true, context);
+
+        final LocalDate targetDate2 = targetDate1.plusMonths(1);
+        final Invoice invoice2 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate2, Currency.USD);
+        invoice2.addInvoiceItem(new RecurringInvoiceItem(invoice2.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase B", startDate,
+                                                         endDate, FIVE, FIVE, Currency.USD));
+        invoiceUtil.createInvoice(invoice2, true, context);
+
+        // Pay the invoice with the latest target date
+        final UUID paymentId = UUID.randomUUID();
+        final InvoicePayment payment = new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, paymentId, invoice2.getId(), clock.getUTCNow(), FIVE, Currency.USD, Currency.USD);
+        invoiceDao.notifyOfPayment(new InvoicePaymentModelDao(payment), context);
+
+        InvoiceAccountBalanceModelDao accountBalance = invoiceDao.getAccountBalanceSummary(accountId, null, context);
+        assertEquals(accountBalance.getBalance().compareTo(TEN), 0);
+        assertEquals(accountBalance.getUnpaidInvoiceCount(), (Integer) 1);
+        assertEquals(accountBalance.getUnpaidInvoiceBalance().compareTo(TEN), 0);
+        assertEquals(accountBalance.getEarliestUnpaidInvoiceId(), invoice1.getId());
+        assertEquals(accountBalance.getLatestUnpaidTargetDate(), targetDate1);
+
+        // Refund it: the invoice is unpaid again
+        invoiceDao.createRefund(paymentId, FIVE, false, ImmutableMap.<UUID, BigDecimal>of(), UUID.randomUUID().toString(), context);
+
+        accountBalance = invoiceDao.getAccountBalanceSummary(accountId, null, context);
+        assertEquals(accountBalance.getBalance().compareTo(TEN.add(FIVE)), 0);
+        assertEquals(accountBalance.getUnpaidInvoiceCount(), (Integer) 2);
+        assertEquals(accountBalance.getUnpaidInvoiceBalance().compareTo(TEN.add(FIVE)), 0);
+        assertEquals(accountBalance.getEarliestUnpaidInvoiceId(), invoice1.getId());
+        assertEquals(accountBalance.getLatestUnpaidTargetDate(), targetDate2);
+        Assert.assertFalse(invoiceDao.rebuildAccountBalance(accountId, true, context));
+    }
+
+    @Test(groups = "slow")
+    public void testAccountBalanceLedgerBackfill() throws EntityPersistenceException {
+        final UUID accountId = account.getId();
+        final LocalDate targetDate = new LocalDate(2011, 10, 6);
+        final Invoice invoice = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate, Currency.USD);
+        invoice.addInvoiceItem(new RecurringInvoiceItem(invoice.getId(), accountId, UUID.randomUUID(), UUID.randomUUID(), "test plan", "test phase A", targetDate,
+                                                        targetDate.plusMonths(1), TEN, TEN, Currency.USD));
+        invoiceUtil.createInvoice(invoice, true, context);
+
+        // Simulate an account created before the ledger
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                handle.execute("delete from invoice_account_balances where account_record_id = ?", context.getAccountRecordId());
+                return null;
+            }
+        });
+        Assert.assertFalse(hasLedger(invoiceDao.getAccountBalancesWithUnpaidInvoices(context), accountId));
+        // Single account reads fall back to the invoices
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(TEN), 0);
+
+        Assert.assertTrue(invoiceDao.backfillAccountBalances(context) >= 1);
+        Assert.assertTrue(hasLedger(invoiceDao.getAccountBalancesWithUnpaidInvoices(context), accountId));
+        assertEquals(invoiceDao.backfillAccountBalances(context), 0);
+        Assert.assertFalse(invoiceDao.rebuildAccountBalance(accountId, true, context));
+    }
+
+    private boolean hasLedger(final Iterable<InvoiceAccountBalanceModelDao> accountBalances, final UUID accountId) {
+        return Iterables.any(accountBalances, new Predicate<InvoiceAccountBalanceModelDao>() {
+            @Override
+            public boolean apply(final InvoiceAccountBalanceModelDao input) {
+                return input.getAccountId().equals(accountId);
+            }
+        });
+    }
+
+    @Test(groups = "slow")
+    public void testSinglePaymentForMultipleInvoices() throws EntityPersistenceException, InvoiceApiException {
+        final UUID accountId = account.getId();
+        final UUID bundleId = UUID.randomUUID();
+        final LocalDate startDate = new LocalDate(2011, 3, 1);
+        final LocalDate endDate = startDate.plusMonths(1);
+
+        final LocalDate targetDate1 = new LocalDate(2011, 10, 6);
+        final Invoice invoice1 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate1, Currency.USD);
+        invoice1.addInvoiceItem(new RecurringInvoiceItem(invoice1.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase A", startDate,
+                                                         endDate, TEN, TEN, Currency.USD));
+        invoiceUtil.createInvoice(invoice1, true, context);
+
+        final Invoice invoice2 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate1.plusMonths(1), Currency.USD);
+        invoice2.addInvoiceItem(new RecurringInvoiceItem(invoice2.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase B", startDate,
+                                                         endDate, FIVE, FIVE, Currency.USD));
+        invoiceUtil.createInvoice(invoice2, true, context);
+
+        // One payment covering both invoices, the second one partially
+        final UUID paymentId = UUID.randomUUID();
+        final List<InvoicePaymentModelDao> invoicePayments = ImmutableList.<InvoicePaymentModelDao>of(new InvoicePaymentModelDao(new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, paymentId, invoice1.getId(), clock.getUTCNow(), TEN, Currency.USD, Currency.USD)),
+                                                                                                   new InvoicePaymentModelDao(new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, paymentId, invoice2.getId(), clock.getUTCNow(), BigDecimal.ONE, Currency.USD, Currency.USD)));
+        invoiceDao.notifyOfPayments(invoicePayments, context);
+
+        assertEquals(invoiceDao.getInvoicePayments(paymentId, context).size(), 2);
+        assertEquals(InvoiceModelDaoHelper.getBalance(invoiceDao.getById(invoice1.getId(), context)).compareTo(BigDecimal.ZERO), 0);
+        assertEquals(InvoiceModelDaoHelper.getBalance(invoiceDao.getById(invoice2.getId(), context)).compareTo(FIVE.subtract(BigDecimal.ONE)), 0);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(FIVE.subtract(BigDecimal.ONE)), 0);
+
+        // Notifying again (e.g. completion by the Janitor) is a no-op
+        invoiceDao.notifyOfPayments(invoicePayments, context);
+        assertEquals(invoiceDao.getInvoicePayments(paymentId, context).size(), 2);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(FIVE.subtract(BigDecimal.ONE)), 0);
+        Assert.assertFalse(invoiceDao.rebuildAccountBalance(accountId, true, context));
+
+        // There is no single invoice to look up or refund against
+        try {
+            invoiceDao.getInvoiceIdByPaymentId(paymentId, context);
+            Assert.fail();
+        } catch (final InvoiceApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.INVOICE_PAYMENT_BY_ATTEMPT_NOT_FOUND.getCode());
+        }
+        try {
+            invoiceDao.createRefund(paymentId, BigDecimal.ONE, false, ImmutableMap.<UUID, BigDecimal>of(), UUID.randomUUID().toString(), context);
+            Assert.fail();
+        } catch (final InvoiceApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.INVOICE_PAYMENT_BY_ATTEMPT_NOT_FOUND.getCode());
+        }
+        assertEquals(invoiceDao.getInvoicePayments(paymentId, context).size(), 2);
+    }
+
+    @Test(groups = "slow")
+    public void testChargebackForSinglePaymentForMultipleInvoices() throws EntityPersistenceException, InvoiceApiException {
+        final UUID accountId = account.getId();
+        final UUID bundleId = UUID.randomUUID();
+        final LocalDate startDate = new LocalDate(2011, 3, 1);
+        final LocalDate endDate = startDate.plusMonths(1);
+
+        final LocalDate targetDate1 = new LocalDate(2011, 10, 6);
+        final Invoice invoice1 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate1, Currency.USD);
+        invoice1.addInvoiceItem(new RecurringInvoiceItem(invoice1.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase A", startDate,
+                                                         endDate, TEN, TEN, Currency.USD));
+        invoiceUtil.createInvoice(invoice1, true, context);
+
+        final Invoice invoice2 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate1.plusMonths(1), Currency.USD);
+        invoice2.addInvoiceItem(new RecurringInvoiceItem(invoice2.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase B", startDate,
+                                                         endDate, FIVE, FIVE, Currency.USD));
+        invoiceUtil.createInvoice(invoice2, true, context);
+
+        // One payment covering both invoices, the second one partially
+        final UUID paymentId = UUID.randomUUID();
+        invoiceDao.notifyOfPayments(ImmutableList.<InvoicePaymentModelDao>of(new InvoicePaymentModelDao(new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, paymentId, invoice1.getId(), clock.getUTCNow(), TEN, Currency.USD, Currency.USD)),
+                                                                             new InvoicePaymentModelDao(new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, paymentId, invoice2.getId(), clock.getUTCNow(), BigDecimal.ONE, Currency.USD, Currency.USD))),
+                                    context);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(new BigDecimal("4.00")), 0);
+
+        // Can't charge back more than what was paid across both invoices
+        try {
+            invoiceDao.postChargeback(paymentId, new BigDecimal("11.01"), Currency.USD, context);
+            Assert.fail();
+        } catch (final InvoiceApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.CHARGE_BACK_AMOUNT_TOO_HIGH.getCode());
+        }
+
+        // Partial chargeback: the last invoice paid is re-opened first, the rest goes to the first invoice
+        final InvoicePaymentModelDao chargeBack = invoiceDao.postChargeback(paymentId, new BigDecimal("3.00"), Currency.USD, context);
+        assertEquals(chargeBack.getType(), InvoicePaymentType.CHARGED_BACK);
+        assertEquals(chargeBack.getInvoiceId(), invoice2.getId());
+        assertEquals(chargeBack.getAmount().compareTo(BigDecimal.ONE.negate()), 0);
+        assertEquals(getChargedBackAmount(paymentId, invoice1.getId()).compareTo(new BigDecimal("-2.00")), 0);
+        assertEquals(getChargedBackAmount(paymentId, invoice2.getId()).compareTo(BigDecimal.ONE.negate()), 0);
+        assertEquals(InvoiceModelDaoHelper.getBalance(invoiceDao.getById(invoice1.getId(), context)).compareTo(new BigDecimal("2.00")), 0);
+        assertEquals(InvoiceModelDaoHelper.getBalance(invoiceDao.getById(invoice2.getId(), context)).compareTo(FIVE), 0);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(new BigDecimal("7.00")), 0);
+
+        // Second payment settling both invoices again, fully charged back
+        final UUID secondPaymentId = UUID.randomUUID();
+        invoiceDao.notifyOfPayments(ImmutableList.<InvoicePaymentModelDao>of(new InvoicePaymentModelDao(new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, secondPaymentId, invoice1.getId(), clock.getUTCNow(), new BigDecimal("2.00"), Currency.USD, Currency.USD)),
+                                                                             new InvoicePaymentModelDao(new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, secondPaymentId, invoice2.getId(), clock.getUTCNow(), FIVE, Currency.USD, Currency.USD))),
+                                    context);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(BigDecimal.ZERO), 0);
+
+        final InvoicePaymentModelDao secondChargeBack = invoiceDao.postChargeback(secondPaymentId, null, Currency.USD, context);
+        assertEquals(secondChargeBack.getInvoiceId(), invoice2.getId());
+        assertEquals(secondChargeBack.getAmount().compareTo(FIVE.negate()), 0);
+        assertEquals(getChargedBackAmount(secondPaymentId, invoice1.getId()).compareTo(new BigDecimal("-2.00")), 0);
+        assertEquals(getChargedBackAmount(secondPaymentId, invoice2.getId()).compareTo(FIVE.negate()), 0);
+        assertEquals(InvoiceModelDaoHelper.getBalance(invoiceDao.getById(invoice1.getId(), context)).compareTo(new BigDecimal("2.00")), 0);
+        assertEquals(InvoiceModelDaoHelper.getBalance(invoiceDao.getById(invoice2.getId(), context)).compareTo(FIVE), 0);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(new BigDecimal("7.00")), 0);
+        Assert.assertFalse(invoiceDao.rebuildAccountBalance(accountId, true, context));
+    }
+
+    private BigDecimal getChargedBackAmount(final UUID paymentId, final UUID invoiceId) {
+        BigDecimal chargedBackAmount = BigDecimal.ZERO;
+        for (final InvoicePaymentModelDao invoicePayment : invoiceDao.getInvoicePayments(paymentId, context)) {
+            if (invoicePayment.getType() == InvoicePaymentType.CHARGED_BACK && invoicePayment.getInvoiceId().equals(invoiceId)) {
+                chargedBackAmount = chargedBackAmount.add(invoicePayment.getAmount());
+            }
+        }
+        return chargedBackAmount;
+    }
+
     @Test(groups = "slow")
     public void testAccountBalanceWithCredit() throws EntityPersistenceException {
         final UUID accountId = account.getId();
@@ -52,6 +52,7 @@ import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.InvoiceItemType;
 import org.killbill.billing.invoice.api.InvoicePaymentType;
+import org.killbill.billing.invoice.dao.InvoiceBillingWatermarkModelDao;
 import org.killbill.billing.invoice.model.DefaultInvoice;
 import org.killbill.billing.invoice.model.DefaultInvoicePayment;
 import org.killbill.billing.invoice.model.FixedPriceInvoiceItem;
@@ -73,6 +74,8 @@ import org.slf4j.LoggerFactory;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.ImmutableList;
+
 import static org.killbill.billing.invoice.TestInvoiceHelper.EIGHT;
 import static org.killbill.billing.invoice.TestInvoiceHelper.FIFTEEN;
 import static org.killbill.billing.invoice.TestInvoiceHelper.FIVE;
@@ -127,6 +130,16 @@ public class TestDefaultInvoiceGenerator extends InvoiceTestSuiteNoDB {
             public int getMaxRawUsagePreviousPeriod() {
                 return -1;
             }
+
+            @Override
+            public boolean isIncrementalGenerationEnabled() {
+                return false;
+            }
+
+            @Override
+            public TimeSpan getCoalescingWindow() {
+                return new TimeSpan("0s");
+            }
         };
         this.generator = new DefaultInvoiceGenerator(clock, invoiceConfig, null);
         this.account = new MockAccountBuilder().name(UUID.randomUUID().toString().substring(1, 8))
@@ -180,6 +193,44 @@ public class TestDefaultInvoiceGenerator extends InvoiceTestSuiteNoDB {
         assertEquals(invoice.getInvoiceItems().get(0).getSubscriptionId(), sub.getId());
     }
 
+    @Test(groups = "fast")
+    public void testIncrementalGenerationWithBillingWatermarks() throws InvoiceApiException, CatalogApiException {
+        final BillingEventSet events = new MockBillingEventSet();
+
+        final Plan plan = new MockPlan();
+        final PlanPhase phase = createMockMonthlyPlanPhase(TEN);
+        final SubscriptionBase sub1 = createSubscription();
+        events.add(createBillingEvent(sub1.getId(), sub1.getBundleId(), invoiceUtil.buildDate(2011, 9, 1), plan, phase, 1));
+        final SubscriptionBase sub2 = createSubscription();
+        events.add(createBillingEvent(sub2.getId(), sub2.getBundleId(), invoiceUtil.buildDate(2011, 9, 1), plan, phase, 1));
+
+        // First run: no watermark yet, both subscriptions are evaluated
+        final InvoiceBillingWatermarks firstRunWatermarks = new InvoiceBillingWatermarks(events, ImmutableList.<InvoiceBillingWatermarkModelDao>of());
+        final Invoice firstInvoice = generator.generateInvoice(account, events, null, invoiceUtil.buildDate(2011, 9, 1), Currency.USD, firstRunWatermarks, internalCallContext);
+        assertNotNull(firstInvoice);
+        assertEquals(firstInvoice.getNumberOfItems(), 2);
+        final List<InvoiceBillingWatermarkModelDao> watermarks = firstRunWatermarks.getUpdatedWatermarks();
+        assertEquals(watermarks.size(), 2);
+        for (final InvoiceBillingWatermarkModelDao watermark : watermarks) {
+            assertEquals(watermark.getNextEvaluationDate(), invoiceUtil.buildDate(2011, 10, 1));
+        }
+
+        final List<Invoice> existingInvoices = new ArrayList<Invoice>();
+        existingInvoices.add(firstInvoice);
+
+        // Nothing changed and nothing is due yet: both subscriptions are skipped and the watermarks are left untouched
+        final InvoiceBillingWatermarks secondRunWatermarks = new InvoiceBillingWatermarks(events, watermarks);
+        assertNull(generator.generateInvoice(account, events, existingInvoices, invoiceUtil.buildDate(2011, 9, 15), Currency.USD, secondRunWatermarks, internalCallContext));
+        assertEquals(secondRunWatermarks.getUpdatedWatermarks().size(), 0);
+
+        // Both subscriptions are due
+        final InvoiceBillingWatermarks thirdRunWatermarks = new InvoiceBillingWatermarks(events, watermarks);
+        final Invoice thirdInvoice = generator.generateInvoice(account, events, existingInvoices, invoiceUtil.buildDate(2011, 10, 1), Currency.USD, thirdRunWatermarks, internalCallContext);
+        assertNotNull(thirdInvoice);
+        assertEquals(thirdInvoice.getNumberOfItems(), 2);
+        assertEquals(thirdRunWatermarks.getUpdatedWatermarks().size(), 2);
+    }
+
     private SubscriptionBase createSubscription() {
         return createSubscription(UUID.randomUUID(), UUID.randomUUID());
     }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.invoice.InvoiceTestSuiteWithEmbeddedDB;
+import org.killbill.billing.invoice.api.DefaultInvoiceService;
+import org.killbill.billing.platform.api.KillbillConfigSource;
+import org.killbill.commons.concurrent.Executors;
+import org.killbill.notificationq.api.NotificationEventWithMetadata;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+
+public class TestCoalescedInvoiceRunNotifier extends InvoiceTestSuiteWithEmbeddedDB {
+
+    @Inject
+    private CoalescedInvoiceRunNotifier coalescedInvoiceRunNotifier;
+
+    private NotificationQueue coalescedInvoiceRunQueue;
+
+    @Override
+    protected KillbillConfigSource getConfigSource() {
+        return getConfigSource("/resource.properties", ImmutableMap.<String, String>of("org.killbill.invoice.coalescing.window", "1h"));
+    }
+
+    @BeforeMethod(groups = "slow")
+    public void setUpCoalescedInvoiceRunQueue() throws Exception {
+        coalescedInvoiceRunQueue = notificationQueueService.getNotificationQueue(DefaultInvoiceService.INVOICE_SERVICE_NAME, CoalescedInvoiceRunNotifier.COALESCED_INVOICE_RUN_QUEUE);
+    }
+
+    @Test(groups = "slow")
+    public void testBurstIsCoalesced() throws Exception {
+        final UUID accountId = UUID.randomUUID();
+        final DateTime now = clock.getUTCNow();
+
+        Assert.assertTrue(coalescedInvoiceRunNotifier.coalesceInvoiceRun(accountId, now, internalCallContext));
+        List<NotificationEventWithMetadata<CoalescedInvoiceRunNotificationKey>> pendingRuns = getPendingRuns();
+        Assert.assertEquals(pendingRuns.size(), 1);
+        final DateTime runDate = pendingRuns.get(0).getEffectiveDate();
+        Assert.assertFalse(runDate.isBefore(now.plusHours(1)));
+        // The run uses the date of the event, not the end of the window
+        Assert.assertEquals(pendingRuns.get(0).getEvent().getUuidKey(), accountId);
+        Assert.assertEquals(pendingRuns.get(0).getEvent().getTargetDate().compareTo(now), 0);
+
+        // An earlier event is absorbed as is
+        Assert.assertTrue(coalescedInvoiceRunNotifier.coalesceInvoiceRun(accountId, now.minusDays(1), internalCallContext));
+        pendingRuns = getPendingRuns();
+        Assert.assertEquals(pendingRuns.size(), 1);
+        Assert.assertEquals(pendingRuns.get(0).getEvent().getTargetDate().compareTo(now), 0);
+
+        // A later event (within the window) moves the target date, but not the run date
+        Assert.assertTrue(coalescedInvoiceRunNotifier.coalesceInvoiceRun(accountId, now.plusMinutes(30), internalCallContext));
+        pendingRuns = getPendingRuns();
+        Assert.assertEquals(pendingRuns.size(), 1);
+        Assert.assertEquals(pendingRuns.get(0).getEvent().getTargetDate().compareTo(now.plusMinutes(30)), 0);
+        Assert.assertEquals(pendingRuns.get(0).getEffectiveDate().compareTo(runDate), 0);
+
+        // Events past the window are processed directly
+        Assert.assertFalse(coalescedInvoiceRunNotifier.coalesceInvoiceRun(accountId, now.plusDays(1), internalCallContext));
+        Assert.assertEquals(getPendingRuns().size(), 1);
+    }
+
+    @Test(groups = "slow")
+    public void testConcurrentEventsRecordOneRun() throws Exception {
+        final UUID accountId = UUID.randomUUID();
+        final DateTime now = clock.getUTCNow();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(5, "TestCoalescedInvoiceRunNotifier");
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return coalescedInvoiceRunNotifier.coalesceInvoiceRun(accountId, now, internalCallContext);
+                    }
+                }));
+            }
+
+            int nbCoalesced = 0;
+            for (final Future<Boolean> future : futures) {
+                nbCoalesced += future.get() ? 1 : 0;
+            }
+            // Events which couldn't get the lock are processed directly, the other ones share a single run
+            Assert.assertTrue(nbCoalesced > 0);
+            Assert.assertEquals(getPendingRuns().size(), 1);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private List<NotificationEventWithMetadata<CoalescedInvoiceRunNotificationKey>> getPendingRuns() {
+        return coalescedInvoiceRunQueue.getFutureNotificationForSearchKeys(internalCallContext.getAccountRecordId(), internalCallContext.getTenantRecordId());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.notification;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.ErrorCode;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountEmail;
+import org.killbill.billing.account.api.AccountInternalApi;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.invoice.InvoiceTestSuiteNoDB;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.dao.InvoiceDao;
+import org.killbill.billing.invoice.dao.InvoiceModelDao;
+import org.killbill.billing.invoice.model.DefaultInvoice;
+import org.killbill.billing.invoice.template.HtmlInvoice;
+import org.killbill.billing.invoice.template.HtmlInvoiceGenerator;
+import org.killbill.billing.tag.TagInternalApi;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.email.EmailApiException;
+import org.killbill.billing.util.email.EmailConfig;
+import org.killbill.billing.util.email.EmailSender;
+import org.killbill.billing.util.tag.Tag;
+import org.killbill.notificationq.api.NotificationEvent;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.killbill.notificationq.api.NotificationQueueService;
+import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueHandler;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.skife.config.TimeSpan;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+
+public class TestEmailInvoiceNotifier extends InvoiceTestSuiteNoDB {
+
+    private static final Long ACCOUNT_RECORD_ID = 11L;
+    private static final Long TENANT_RECORD_ID = 12L;
+    private static final List<TimeSpan> RETRIES = ImmutableList.<TimeSpan>of(new TimeSpan("5m"), new TimeSpan("1h"));
+
+    private Account account;
+    private InvoiceModelDao invoice;
+    private EmailConfig emailConfig;
+    private EmailSender emailSender;
+    private NotificationQueue emailQueue;
+    private NotificationQueueHandler emailQueueHandler;
+    private EmailInvoiceNotifier notifier;
+
+    @BeforeMethod(groups = "fast")
+    public void setUpEmailInvoiceNotifier() throws Exception {
+        account = Mockito.mock(Account.class);
+        Mockito.when(account.getId()).thenReturn(UUID.randomUUID());
+        Mockito.when(account.getEmail()).thenReturn("john@example.com");
+        invoice = new InvoiceModelDao(account.getId(), clock.getUTCToday(), clock.getUTCToday(), Currency.USD);
+
+        final InternalTenantContext internalTenantContext = Mockito.mock(InternalTenantContext.class);
+        Mockito.when(internalTenantContext.getAccountRecordId()).thenReturn(ACCOUNT_RECORD_ID);
+        Mockito.when(internalTenantContext.getTenantRecordId()).thenReturn(TENANT_RECORD_ID);
+        final InternalCallContextFactory internalCallContextFactory = Mockito.mock(InternalCallContextFactory.class);
+        Mockito.when(internalCallContextFactory.createInternalTenantContext(Mockito.<UUID>any(), Mockito.<TenantContext>any())).thenReturn(internalTenantContext);
+        Mockito.when(internalCallContextFactory.createInternalTenantContext(Mockito.anyLong(), Mockito.anyLong())).thenReturn(internalTenantContext);
+
+        final AccountInternalApi accountApi = Mockito.mock(AccountInternalApi.class);
+        Mockito.when(accountApi.getAccountById(Mockito.<UUID>any(), Mockito.<InternalTenantContext>any())).thenReturn(account);
+        Mockito.when(accountApi.getEmails(Mockito.<UUID>any(), Mockito.<InternalTenantContext>any())).thenReturn(ImmutableList.<AccountEmail>of());
+        final TagInternalApi tagApi = Mockito.mock(TagInternalApi.class);
+        Mockito.when(tagApi.getTags(Mockito.<UUID>any(), Mockito.<ObjectType>any(), Mockito.<InternalTenantContext>any())).thenReturn(ImmutableList.<Tag>of());
+        final InvoiceDao invoiceDao = Mockito.mock(InvoiceDao.class);
+        Mockito.when(invoiceDao.getById(Mockito.eq(invoice.getId()), Mockito.<InternalTenantContext>any())).thenReturn(invoice);
+
+        final HtmlInvoice htmlInvoice = new HtmlInvoice();
+        htmlInvoice.setSubject("Your invoice");
+        htmlInvoice.setBody("<html>invoice</html>");
+        final HtmlInvoiceGenerator generator = Mockito.mock(HtmlInvoiceGenerator.class);
+        Mockito.when(generator.generateInvoice(Mockito.<Account>any(), Mockito.<Invoice>any(), Mockito.anyBoolean(), Mockito.<InternalTenantContext>any())).thenReturn(htmlInvoice);
+
+        emailConfig = Mockito.mock(EmailConfig.class);
+        Mockito.when(emailConfig.getEmailRetries()).thenReturn(RETRIES);
+        emailSender = Mockito.mock(EmailSender.class);
+
+        emailQueue = Mockito.mock(NotificationQueue.class);
+        final NotificationQueueService notificationQueueService = Mockito.mock(NotificationQueueService.class);
+        final ArgumentCaptor<NotificationQueueHandler> handlerCaptor = ArgumentCaptor.forClass(NotificationQueueHandler.class);
+        Mockito.when(notificationQueueService.createNotificationQueue(Mockito.anyString(), Mockito.eq(EmailInvoiceNotifier.INVOICE_EMAIL_QUEUE), handlerCaptor.capture())).thenReturn(emailQueue);
+
+        notifier = new EmailInvoiceNotifier(accountApi, tagApi, generator, emailConfig, emailSender, invoiceDao, notificationQueueService,
+                                            internalCallContextFactory, new MetricRegistry(), clock);
+        notifier.initialize();
+        emailQueueHandler = handlerCaptor.getValue();
+    }
+
+    @Test(groups = "fast")
+    public void testNotifyOnlyEnqueues() throws Exception {
+        final DateTime before = clock.getUTCNow();
+        notifier.notify(account, new DefaultInvoice(invoice), Mockito.mock(TenantContext.class));
+
+        final InvoiceEmailNotificationKey key = captureScheduledNotification(before, clock.getUTCNow());
+        Assert.assertEquals(key.getUuidKey(), invoice.getId());
+        Assert.assertEquals(key.getAccountId(), account.getId());
+        Assert.assertEquals(key.getAttemptNumber(), (Integer) 0);
+        Mockito.verifyZeroInteractions(emailSender);
+    }
+
+    @Test(groups = "fast")
+    public void testDelivery() throws Exception {
+        deliver(0);
+
+        Mockito.verify(emailSender).sendHTMLEmail(ImmutableList.<String>of("john@example.com"), ImmutableList.<String>of(), "Your invoice", "<html>invoice</html>");
+        Mockito.verifyZeroInteractions(emailQueue);
+    }
+
+    @Test(groups = "fast")
+    public void testFailedDeliveryIsRetried() throws Exception {
+        Mockito.doThrow(new EmailApiException(new RuntimeException("Connection refused"), ErrorCode.EMAIL_SENDING_FAILED))
+               .when(emailSender).sendHTMLEmail(Mockito.<List<String>>any(), Mockito.<List<String>>any(), Mockito.anyString(), Mockito.anyString());
+
+        final DateTime before = clock.getUTCNow();
+        deliver(1);
+
+        // Second retry, according to the configured delays
+        final long retryDelay = RETRIES.get(1).getMillis();
+        final InvoiceEmailNotificationKey key = captureScheduledNotification(before.plus(retryDelay), clock.getUTCNow().plus(retryDelay));
+        Assert.assertEquals(key.getUuidKey(), invoice.getId());
+        Assert.assertEquals(key.getAttemptNumber(), (Integer) 2);
+    }
+
+    @Test(groups = "fast")
+    public void testRetriesAreBounded() throws Exception {
+        Mockito.doThrow(new EmailApiException(new RuntimeException("Connection refused"), ErrorCode.EMAIL_SENDING_FAILED))
+               .when(emailSender).sendHTMLEmail(Mockito.<List<String>>any(), Mockito.<List<String>>any(), Mockito.anyString(), Mockito.anyString());
+
+        deliver(RETRIES.size());
+
+        // Out of attempts, the email is dropped
+        Mockito.verify(emailSender).sendHTMLEmail(Mockito.<List<String>>any(), Mockito.<List<String>>any(), Mockito.anyString(), Mockito.anyString());
+        Mockito.verifyZeroInteractions(emailQueue);
+    }
+
+    @Test(groups = "fast")
+    public void testRateLimitDefersDelivery() throws Exception {
+        Mockito.when(emailConfig.getMaxEmailsPerSecondPerTenant()).thenReturn(1);
+
+        deliver(1);
+        deliver(1);
+
+        Mockito.verify(emailSender, Mockito.times(1)).sendHTMLEmail(Mockito.<List<String>>any(), Mockito.<List<String>>any(), Mockito.anyString(), Mockito.anyString());
+        // Same attempt number: being throttled doesn't count as a failed delivery
+        final InvoiceEmailNotificationKey key = captureScheduledNotification(null, null);
+        Assert.assertEquals(key.getAttemptNumber(), (Integer) 1);
+    }
+
+    private void deliver(final int attemptNumber) {
+        emailQueueHandler.handleReadyNotification(new InvoiceEmailNotificationKey(invoice.getId(), account.getId(), attemptNumber), clock.getUTCNow(), UUID.randomUUID(), ACCOUNT_RECORD_ID, TENANT_RECORD_ID);
+    }
+
+    private InvoiceEmailNotificationKey captureScheduledNotification(final DateTime minEffectiveDate, final DateTime maxEffectiveDate) throws Exception {
+        final ArgumentCaptor<DateTime> dateCaptor = ArgumentCaptor.forClass(DateTime.class);
+        final ArgumentCaptor<NotificationEvent> eventCaptor = ArgumentCaptor.forClass(NotificationEvent.class);
+        Mockito.verify(emailQueue, Mockito.times(1)).recordFutureNotification(dateCaptor.capture(), eventCaptor.capture(), Mockito.<UUID>any(), Mockito.eq(ACCOUNT_RECORD_ID), Mockito.eq(TENANT_RECORD_ID));
+        if (minEffectiveDate != null) {
+            Assert.assertFalse(dateCaptor.getValue().isBefore(minEffectiveDate));
+            Assert.assertFalse(dateCaptor.getValue().isAfter(maxEffectiveDate));
+        }
+        Assert.assertTrue(eventCaptor.getValue() instanceof InvoiceEmailNotificationKey);
+        return (InvoiceEmailNotificationKey) eventCaptor.getValue();
+    }
+}
@@ -410,6 +410,10 @@ public class TestNodeInterval /* extends InvoiceTestSuiteNoDB  */ {
 
         top.removeChild(secondChildLevel1);
 
+        // The grand children are now siblings in the parent of the removed node, but still point to the removed node as their parent
+        checkNode(firstChildLevel2, 0, secondChildLevel1, null, secondChildLevel2);
+        checkNode(thirdChildLevel2, 0, secondChildLevel1, null, null);
+
         final List<NodeInterval> expectedNodesAfterRemoval = new ArrayList<NodeInterval>();
         expectedNodesAfterRemoval.add(root);
         expectedNodesAfterRemoval.add(top);
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.invoice.tree;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.invoice.InvoiceTestSuiteNoDB;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.model.FixedPriceInvoiceItem;
+import org.killbill.billing.invoice.model.ItemAdjInvoiceItem;
+import org.killbill.billing.invoice.model.RecurringInvoiceItem;
+import org.killbill.billing.invoice.model.RepairAdjInvoiceItem;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.testng.Assert.assertEquals;
+
+//
+// Verify the tree against the previous implementation (kept as is in the legacy package) on generated subscription histories:
+// both the existing items view and the result of the merge with the proposed items should be identical.
+//
+public class TestSubscriptionItemTreeDifferential extends InvoiceTestSuiteNoDB {
+
+    private static final int NB_HISTORIES = 1000;
+
+    private static final String[] PLAN_NAMES = {"bronze-monthly", "silver-monthly", "gold-monthly", "gold-annual"};
+    private static final String[] PHASE_NAMES = {"bronze-monthly-evergreen", "silver-monthly-evergreen", "gold-monthly-evergreen", "gold-annual-evergreen"};
+    private static final BigDecimal[] RATES = {new BigDecimal("9.95"), new BigDecimal("19.95"), new BigDecimal("29.95"), new BigDecimal("299.95")};
+    private static final int[] NB_MONTHS = {1, 1, 1, 12};
+
+    private final UUID invoiceId = UUID.randomUUID();
+    private final UUID accountId = UUID.randomUUID();
+    private final UUID subscriptionId = UUID.randomUUID();
+    private final UUID bundleId = UUID.randomUUID();
+    private final Currency currency = Currency.USD;
+
+    @Test(groups = "fast")
+    public void testBuildAndMergeAgainstLegacyTree() {
+        for (int seed = 0; seed < NB_HISTORIES; seed++) {
+            final Random random = new Random(seed);
+
+            final List<InvoiceItem> existingItems = new ArrayList<InvoiceItem>();
+            final List<Segment> billedSegments = new ArrayList<Segment>();
+            final InvoiceItem fixedItem = generateExistingItems(random, existingItems, billedSegments);
+            final List<InvoiceItem> proposedItems = generateProposedItems(random, fixedItem, billedSegments);
+            if (random.nextBoolean()) {
+                Collections.shuffle(existingItems, random);
+                Collections.shuffle(proposedItems, random);
+            }
+
+            final Result expected = runLegacyTree(existingItems, proposedItems);
+            final Result actual = runTree(existingItems, proposedItems);
+            checkResult("history " + seed, actual, expected);
+        }
+    }
+
+    //
+    // A node carrying two ADD items (double billing), whose first item was repaired in pieces, and with a fully repaired item nested in one of
+    // the pieces. Pruning removes the pieces and promotes the nested node, which is then found empty: since the promoted node still points to
+    // the removed piece as its parent, that removal is a no-op and the empty node masks the beginning of the second ADD item.
+    //
+    @Test(groups = "fast")
+    public void testBuildWithTwoAddItemsAndNestedFullRepair() {
+        final LocalDate startDate = new LocalDate(2014, 1, 1);
+        final LocalDate splitDate = new LocalDate(2014, 1, 15);
+        final LocalDate nestedEndDate = new LocalDate(2014, 1, 10);
+        final LocalDate endDate = new LocalDate(2014, 2, 1);
+
+        final InvoiceItem first = new RecurringInvoiceItem(invoiceId, accountId, bundleId, subscriptionId, PLAN_NAMES[0], PHASE_NAMES[0], startDate, endDate, new BigDecimal("31.00"), new BigDecimal("31.00"), currency);
+        final InvoiceItem second = new RecurringInvoiceItem(invoiceId, accountId, bundleId, subscriptionId, PLAN_NAMES[1], PHASE_NAMES[1], startDate, endDate, new BigDecimal("62.00"), new BigDecimal("62.00"), currency);
+        final InvoiceItem nested = new RecurringInvoiceItem(invoiceId, accountId, bundleId, subscriptionId, PLAN_NAMES[2], PHASE_NAMES[2], startDate, nestedEndDate, new BigDecimal("9.00"), new BigDecimal("31.00"), currency);
+        final List<InvoiceItem> existingItems = new ArrayList<InvoiceItem>();
+        existingItems.add(first);
+        existingItems.add(second);
+        existingItems.add(new RepairAdjInvoiceItem(invoiceId, accountId, startDate, splitDate, new BigDecimal("-14.00"), currency, first.getId()));
+        existingItems.add(new RepairAdjInvoiceItem(invoiceId, accountId, splitDate, endDate, new BigDecimal("-17.00"), currency, first.getId()));
+        existingItems.add(nested);
+        existingItems.add(new RepairAdjInvoiceItem(invoiceId, accountId, startDate, nestedEndDate, new BigDecimal("-9.00"), currency, nested.getId()));
+
+        final SubscriptionItemTree tree = new SubscriptionItemTree(subscriptionId, invoiceId);
+        for (final InvoiceItem item : existingItems) {
+            tree.addItem(item);
+        }
+        tree.build();
+
+        final List<InvoiceItem> expected = new ArrayList<InvoiceItem>();
+        expected.add(new RecurringInvoiceItem(second.getId(), second.getCreatedDate(), invoiceId, accountId, bundleId, subscriptionId, PLAN_NAMES[1], PHASE_NAMES[1],
+                                              nestedEndDate, endDate, new BigDecimal("44.00"), new BigDecimal("62.00"), currency));
+        checkItems("existing items", tree.getView(), expected);
+
+        final Result legacyResult = runLegacyTree(existingItems, ImmutableList.<InvoiceItem>of(second));
+        checkResult("two ADD items and nested full repair", runTree(existingItems, ImmutableList.<InvoiceItem>of(second)), legacyResult);
+        checkItems("legacy existing items", legacyResult.existingItems, expected);
+    }
+
+    private Result runTree(final List<InvoiceItem> existingItems, final List<InvoiceItem> proposedItems) {
+        final Result result = new Result();
+        try {
+            final SubscriptionItemTree tree = new SubscriptionItemTree(subscriptionId, invoiceId);
+            for (final InvoiceItem item : existingItems) {
+                tree.addItem(item);
+            }
+            tree.build();
+            result.existingItems = tree.getView();
+
+            tree.flatten(true);
+            for (final InvoiceItem item : proposedItems) {
+                tree.mergeProposedItem(item);
+            }
+            tree.buildForMerge();
+            result.mergedItems = tree.getView();
+        } catch (final RuntimeException e) {
+            result.failure = e.getClass();
+        }
+        return result;
+    }
+
+    private Result runLegacyTree(final List<InvoiceItem> existingItems, final List<InvoiceItem> proposedItems) {
+        final Result result = new Result();
+        try {
+            final org.killbill.billing.invoice.tree.legacy.SubscriptionItemTree tree = new org.killbill.billing.invoice.tree.legacy.SubscriptionItemTree(subscriptionId, invoiceId);
+            for (final InvoiceItem item : existingItems) {
+                tree.addItem(item);
+            }
+            tree.build();
+            result.existingItems = tree.getView();
+
+            tree.flatten(true);
+            for (final InvoiceItem item : proposedItems) {
+                tree.mergeProposedItem(item);
+            }
+            tree.buildForMerge();
+            result.mergedItems = tree.getView();
+        } catch (final RuntimeException e) {
+            result.failure = e.getClass();
+        }
+        return result;
+    }
+
+    private void checkResult(final String description, final Result actual, final Result expected) {
+        assertEquals(actual.failure, expected.failure, description);
+        checkItems(description + ", existing items", actual.existingItems, expected.existingItems);
+        checkItems(description + ", merged items", actual.mergedItems, expected.mergedItems);
+    }
+
+    private void checkItems(final String description, final List<InvoiceItem> actual, final List<InvoiceItem> expected) {
+        if (actual == null || expected == null) {
+            assertEquals(actual, expected, description);
+            return;
+        }
+        assertEquals(actual.size(), expected.size(), description);
+        for (int i = 0; i < expected.size(); i++) {
+            final InvoiceItem actualItem = actual.get(i);
+            final InvoiceItem expectedItem = expected.get(i);
+            final String itemDescription = description + ", item " + i;
+            assertEquals(actualItem.getInvoiceItemType(), expectedItem.getInvoiceItemType(), itemDescription);
+            // Repair items are created with a new id every time
+            if (expectedItem.getInvoiceItemType() != InvoiceItemType.REPAIR_ADJ) {
+                assertEquals(actualItem.getId(), expectedItem.getId(), itemDescription);
+            }
+            assertEquals(actualItem.getInvoiceId(), expectedItem.getInvoiceId(), itemDescription);
+            assertEquals(actualItem.getSubscriptionId(), expectedItem.getSubscriptionId(), itemDescription);
+            assertEquals(actualItem.getPlanName(), expectedItem.getPlanName(), itemDescription);
+            assertEquals(actualItem.getPhaseName(), expectedItem.getPhaseName(), itemDescription);
+            assertEquals(actualItem.getStartDate(), expectedItem.getStartDate(), itemDescription);
+            assertEquals(actualItem.getEndDate(), expectedItem.getEndDate(), itemDescription);
+            assertEquals(actualItem.getAmount(), expectedItem.getAmount(), itemDescription);
+            assertEquals(actualItem.getRate(), expectedItem.getRate(), itemDescription);
+            assertEquals(actualItem.getCurrency(), expectedItem.getCurrency(), itemDescription);
+            assertEquals(actualItem.getLinkedItemId(), expectedItem.getLinkedItemId(), itemDescription);
+        }
+    }
+
+    //
+    // Generate the items on disk for a subscription going through plan changes (including billing period changes), cancellation, item adjustments
+    // and full repairs (at once or in pieces). The resulting billed periods are returned in billedSegments, as well as the fixed (trial) item, if any.
+    //
+    private InvoiceItem generateExistingItems(final Random random, final List<InvoiceItem> existingItems, final List<Segment> billedSegments) {
+        LocalDate periodStart = new LocalDate(2014, 1, 1).plusDays(random.nextInt(60));
+
+        InvoiceItem fixedItem = null;
+        if (random.nextBoolean()) {
+            fixedItem = new FixedPriceInvoiceItem(invoiceId, accountId, bundleId, subscriptionId, "trial", "trial", periodStart, new BigDecimal(random.nextInt(20)), currency);
+            existingItems.add(fixedItem);
+        }
+
+        final List<InvoiceItem> recurringItems = new ArrayList<InvoiceItem>();
+        int plan = random.nextInt(PLAN_NAMES.length);
+        final int nbPeriods = 1 + random.nextInt(12);
+        for (int i = 0; i < nbPeriods; i++) {
+            LocalDate periodEnd = periodStart.plusMonths(NB_MONTHS[plan]);
+            Segment curSegment = new Segment(plan, periodStart, periodEnd, periodStart, periodEnd);
+            InvoiceItem curItem = curSegment.toInvoiceItem();
+            existingItems.add(curItem);
+            recurringItems.add(curItem);
+            billedSegments.add(curSegment);
+
+            boolean cancelled = false;
+            switch (random.nextInt(10)) {
+                case 0:
+                case 1:
+                    // Plan change(s) within the period
+                    final int nbChanges = 1 + random.nextInt(2);
+                    for (int j = 0; j < nbChanges && Days.daysBetween(curSegment.start, curSegment.end).getDays() > 1; j++) {
+                        final LocalDate changeDate = curSegment.start.plusDays(1 + random.nextInt(Days.daysBetween(curSegment.start, curSegment.end).getDays() - 1));
+                        existingItems.add(createRepair(curItem, changeDate, curSegment.end));
+                        billedSegments.set(billedSegments.size() - 1, curSegment.truncate(changeDate));
+
+                        plan = (plan + 1 + random.nextInt(PLAN_NAMES.length - 1)) % PLAN_NAMES.length;
+                        if (NB_MONTHS[plan] != curSegment.nbMonths()) {
+                            // Billing period change, the new plan is billed from the change date
+                            periodEnd = changeDate.plusMonths(NB_MONTHS[plan]);
+                            curSegment = new Segment(plan, changeDate, periodEnd, changeDate, periodEnd);
+                        } else {
+                            curSegment = new Segment(plan, curSegment.periodStart, curSegment.periodEnd, changeDate, periodEnd);
+                        }
+                        curItem = curSegment.toInvoiceItem();
+                        existingItems.add(curItem);
+                        recurringItems.add(curItem);
+                        billedSegments.add(curSegment);
+                    }
+                    break;
+
+                case 2:
+                    // Cancellation within the period
+                    final LocalDate cancelDate = curSegment.start.plusDays(random.nextInt(Days.daysBetween(curSegment.start, curSegment.end).getDays()));
+                    if (cancelDate.compareTo(curSegment.start) == 0) {
+                        existingItems.add(createRepair(curItem, curSegment.start, curSegment.end));
+                        billedSegments.remove(billedSegments.size() - 1);
+                    } else {
+                        existingItems.add(createRepair(curItem, cancelDate, curSegment.end));
+                        billedSegments.set(billedSegments.size() - 1, curSegment.truncate(cancelDate));
+                    }
+                    cancelled = true;
+                    break;
+
+                case 3:
+                case 4:
+                    // Full repair (at once or in two pieces) and new invoice for the same period
+                    if (random.nextBoolean() && Days.daysBetween(curSegment.start, curSegment.end).getDays() > 1) {
+                        final LocalDate splitDate = curSegment.start.plusDays(1 + random.nextInt(Days.daysBetween(curSegment.start, curSegment.end).getDays() - 1));
+                        final InvoiceItem firstRepair = createRepair(curItem, curSegment.start, splitDate);
+                        existingItems.add(firstRepair);
+                        existingItems.add(new RepairAdjInvoiceItem(invoiceId, accountId, splitDate, curSegment.end, curItem.getAmount().negate().subtract(firstRepair.getAmount()), currency, curItem.getId()));
+                        if (random.nextInt(4) == 0) {
+                            // Fully repaired item nested in the first piece
+                            final Segment nestedSegment = new Segment(curSegment.plan, curSegment.periodStart, curSegment.periodEnd, curSegment.start, splitDate);
+                            final InvoiceItem nestedItem = nestedSegment.toInvoiceItem();
+                            existingItems.add(nestedItem);
+                            existingItems.add(new RepairAdjInvoiceItem(invoiceId, accountId, nestedItem.getStartDate(), nestedItem.getEndDate(), nestedItem.getAmount().negate(), currency, nestedItem.getId()));
+                        }
+                    } else {
+                        existingItems.add(createRepair(curItem, curSegment.start, curSegment.end));
+                    }
+                    curItem = curSegment.toInvoiceItem();
+                    existingItems.add(curItem);
+                    recurringItems.add(curItem);
+                    break;
+
+                default:
+                    break;
+            }
+
+            if (random.nextInt(6) == 0) {
+                final InvoiceItem adjustedItem = recurringItems.get(random.nextInt(recurringItems.size()));
+                final BigDecimal adjustedAmount = adjustedItem.getAmount().multiply(new BigDecimal(random.nextInt(50) + 1)).movePointLeft(2).setScale(2, BigDecimal.ROUND_DOWN);
+                if (adjustedAmount.compareTo(BigDecimal.ZERO) > 0) {
+                    existingItems.add(new ItemAdjInvoiceItem(adjustedItem, adjustedItem.getStartDate(), adjustedAmount.negate(), currency));
+                }
+            }
+
+            if (cancelled) {
+                break;
+            }
+            periodStart = periodEnd;
+        }
+        return fixedItem;
+    }
+
+    //
+    // Generate the proposed items from the billed segments, after a late plan change or cancellation, or for later periods.
+    //
+    private List<InvoiceItem> generateProposedItems(final Random random, final InvoiceItem fixedItem, final List<Segment> billedSegments) {
+        final List<Segment> proposedSegments = new ArrayList<Segment>(billedSegments);
+        if (!proposedSegments.isEmpty()) {
+            final Segment firstSegment = proposedSegments.get(0);
+            final Segment lastSegment = proposedSegments.get(proposedSegments.size() - 1);
+            final LocalDate effectiveDate = firstSegment.start.plusDays(random.nextInt(Days.daysBetween(firstSegment.start, lastSegment.end).getDays()));
+            switch (random.nextInt(4)) {
+                case 0:
+                    // Plan change from the effective date
+                    final int newPlan = random.nextInt(PLAN_NAMES.length);
+                    proposedSegments.clear();
+                    for (final Segment cur : billedSegments) {
+                        if (cur.end.compareTo(effectiveDate) <= 0) {
+                            proposedSegments.add(cur);
+                        } else if (cur.start.compareTo(effectiveDate) >= 0) {
+                            proposedSegments.add(new Segment(newPlan, cur.periodStart, cur.periodEnd, cur.start, cur.end));
+                        } else {
+                            proposedSegments.add(cur.truncate(effectiveDate));
+                            proposedSegments.add(new Segment(newPlan, cur.periodStart, cur.periodEnd, effectiveDate, cur.end));
+                        }
+                    }
+                    break;
+
+                case 1:
+                    // Cancellation from the effective date
+                    proposedSegments.clear();
+                    for (final Segment cur : billedSegments) {
+                        if (cur.end.compareTo(effectiveDate) <= 0) {
+                            proposedSegments.add(cur);
+                        } else if (cur.start.compareTo(effectiveDate) < 0) {
+                            proposedSegments.add(cur.truncate(effectiveDate));
+                        }
+                    }
+                    break;
+
+                case 2:
+                    // Next periods
+                    final int nbPeriods = 1 + random.nextInt(3);
+                    LocalDate periodStart = lastSegment.periodEnd;
+                    for (int i = 0; i < nbPeriods; i++) {
+                        final LocalDate periodEnd = periodStart.plusMonths(lastSegment.nbMonths());
+                        proposedSegments.add(new Segment(lastSegment.plan, periodStart, periodEnd, periodStart, periodEnd));
+                        periodStart = periodEnd;
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        final List<InvoiceItem> proposedItems = new ArrayList<InvoiceItem>();
+        if (fixedItem != null) {
+            final BigDecimal amount = random.nextInt(4) == 0 ? fixedItem.getAmount().add(BigDecimal.ONE) : fixedItem.getAmount();
+            proposedItems.add(new FixedPriceInvoiceItem(invoiceId, accountId, bundleId, subscriptionId, fixedItem.getPlanName(), fixedItem.getPhaseName(), fixedItem.getStartDate(), amount, currency));
+        }
+        for (final Segment cur : proposedSegments) {
+            proposedItems.add(cur.toInvoiceItem());
+        }
+        return proposedItems;
+    }
+
+    private InvoiceItem createRepair(final InvoiceItem repairedItem, final LocalDate startDate, final LocalDate endDate) {
+        final BigDecimal amount = prorate(repairedItem.getAmount(), startDate, endDate, repairedItem.getStartDate(), repairedItem.getEndDate());
+        return new RepairAdjInvoiceItem(invoiceId, accountId, startDate, endDate, amount.negate(), currency, repairedItem.getId());
+    }
+
+    private static BigDecimal prorate(final BigDecimal amount, final LocalDate startDate, final LocalDate endDate, final LocalDate periodStart, final LocalDate periodEnd) {
+        final BigDecimal nbDays = new BigDecimal(Days.daysBetween(startDate, endDate).getDays());
+        final BigDecimal nbDaysInPeriod = new BigDecimal(Days.daysBetween(periodStart, periodEnd).getDays());
+        return amount.multiply(nbDays).divide(nbDaysInPeriod, 2, BigDecimal.ROUND_HALF_UP);
+    }
+
+    // Billed part [start, end) of the billing period [periodStart, periodEnd) of a plan
+    private final class Segment {
+
+        private final int plan;
+        private final LocalDate periodStart;
+        private final LocalDate periodEnd;
+        private final LocalDate start;
+        private final LocalDate end;
+
+        private Segment(final int plan, final LocalDate periodStart, final LocalDate periodEnd, final LocalDate start, final LocalDate end) {
+            this.plan = plan;
+            this.periodStart = periodStart;
+            this.periodEnd = periodEnd;
+            this.start = start;
+            this.end = end;
+        }
+
+        private Segment truncate(final LocalDate newEnd) {
+            return new Segment(plan, periodStart, periodEnd, start, newEnd);
+        }
+
+        private int nbMonths() {
+            return NB_MONTHS[plan];
+        }
+
+        private InvoiceItem toInvoiceItem() {
+            final BigDecimal amount = prorate(RATES[plan], start, end, periodStart, periodEnd);
+            return new RecurringInvoiceItem(invoiceId, accountId, bundleId, subscriptionId, PLAN_NAMES[plan], PHASE_NAMES[plan], start, end, amount, RATES[plan], currency);
+        }
+    }
+
+    private static final class Result {
+
+        private List<InvoiceItem> existingItems;
+        private List<InvoiceItem> mergedItems;
+        private Class<? extends RuntimeException> failure;
+    }
+}
@@ -23,10 +23,13 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -41,8 +44,10 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
+import org.joda.time.LocalDate;
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.ObjectType;
 import org.killbill.billing.account.api.Account;
@@ -57,6 +62,7 @@ import org.killbill.billing.entitlement.api.SubscriptionApiException;
 import org.killbill.billing.entitlement.api.SubscriptionBundle;
 import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
 import org.killbill.billing.invoice.api.InvoicePayment;
 import org.killbill.billing.invoice.api.InvoicePaymentApi;
 import org.killbill.billing.invoice.api.InvoiceUserApi;
@@ -73,6 +79,8 @@ import org.killbill.billing.jaxrs.json.PaymentJson;
 import org.killbill.billing.jaxrs.json.PaymentMethodJson;
 import org.killbill.billing.jaxrs.json.PaymentTransactionJson;
 import org.killbill.billing.jaxrs.json.TagJson;
+import org.killbill.billing.jaxrs.util.AccountTimelineStreamingOutput;
+import org.killbill.billing.jaxrs.util.AccountTimelineStreamingOutput.TimelineSection;
 import org.killbill.billing.jaxrs.util.Context;
 import org.killbill.billing.jaxrs.util.JaxrsUriBuilder;
 import org.killbill.billing.overdue.OverdueInternalApi;
@@ -82,6 +90,7 @@ import org.killbill.billing.overdue.config.api.OverdueException;
 import org.killbill.billing.payment.api.Payment;
 import org.killbill.billing.payment.api.PaymentApi;
 import org.killbill.billing.payment.api.PaymentApiException;
+import org.killbill.billing.payment.api.PaymentInternalApi;
 import org.killbill.billing.payment.api.PaymentMethod;
 import org.killbill.billing.payment.api.PaymentOptions;
 import org.killbill.billing.payment.api.PluginProperty;
@@ -96,6 +105,7 @@ import org.killbill.billing.util.api.TagDefinitionApiException;
 import org.killbill.billing.util.api.TagUserApi;
 import org.killbill.billing.util.audit.AccountAuditLogs;
 import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
 import org.killbill.billing.util.config.PaymentConfig;
 import org.killbill.billing.util.entity.Pagination;
@@ -130,6 +140,9 @@ public class AccountResource extends JaxRsResourceBase {
     private final InvoicePaymentApi invoicePaymentApi;
     private final OverdueInternalApi overdueApi;
     private final PaymentConfig paymentConfig;
+    private final InvoiceInternalApi invoiceInternalApi;
+    private final PaymentInternalApi paymentInternalApi;
+    private final InternalCallContextFactory internalCallContextFactory;
 
     @Inject
     public AccountResource(final JaxrsUriBuilder uriBuilder,
@@ -144,6 +157,9 @@ public class AccountResource extends JaxRsResourceBase {
                            final OverdueInternalApi overdueApi,
                            final Clock clock,
                            final PaymentConfig paymentConfig,
+                           final InvoiceInternalApi invoiceInternalApi,
+                           final PaymentInternalApi paymentInternalApi,
+                           final InternalCallContextFactory internalCallContextFactory,
                            final Context context) {
         super(uriBuilder, tagUserApi, customFieldUserApi, auditUserApi, accountApi, paymentApi, clock, context);
         this.subscriptionApi = subscriptionApi;
@@ -151,6 +167,9 @@ public class AccountResource extends JaxRsResourceBase {
         this.invoicePaymentApi = invoicePaymentApi;
         this.overdueApi = overdueApi;
         this.paymentConfig = paymentConfig;
+        this.invoiceInternalApi = invoiceInternalApi;
+        this.paymentInternalApi = paymentInternalApi;
+        this.internalCallContextFactory = internalCallContextFactory;
     }
 
     @Timed
@@ -361,12 +380,20 @@ public class AccountResource extends JaxRsResourceBase {
                            @ApiResponse(code = 404, message = "Account not found")})
     public Response getAccountTimeline(@PathParam("accountId") final String accountIdString,
                                        @QueryParam(QUERY_AUDIT) @DefaultValue("NONE") final AuditMode auditMode,
+                                       @QueryParam(QUERY_TIMELINE_STREAMING) @DefaultValue("false") final Boolean streaming,
+                                       @QueryParam(QUERY_TIMELINE_SECTIONS) final String sectionsString,
+                                       @QueryParam(QUERY_START_DATE) final String startDateString,
+                                       @QueryParam(QUERY_END_DATE) final String endDateString,
                                        @javax.ws.rs.core.Context final HttpServletRequest request) throws AccountApiException, PaymentApiException, SubscriptionApiException {
         final TenantContext tenantContext = context.createContext(request);
 
         final UUID accountId = UUID.fromString(accountIdString);
         final Account account = accountUserApi.getAccountById(accountId, tenantContext);
 
+        if (streaming) {
+            return getAccountTimelineStreaming(account, auditMode, sectionsString, startDateString, endDateString, tenantContext);
+        }
+
         // Get the invoices
         final List<Invoice> invoices = invoiceApi.getInvoicesByAccount(account.getId(), tenantContext);
 
@@ -385,6 +412,45 @@ public class AccountResource extends JaxRsResourceBase {
         return Response.status(Status.OK).entity(json).build();
     }
 
+    // The sections and the date range are only honored in streaming mode, to keep the default payload unchanged
+    private Response getAccountTimelineStreaming(final Account account,
+                                                 final AuditMode auditMode,
+                                                 @Nullable final String sectionsString,
+                                                 @Nullable final String startDateString,
+                                                 @Nullable final String endDateString,
+                                                 final TenantContext tenantContext) throws SubscriptionApiException {
+        final Set<TimelineSection> sections;
+        if (sectionsString == null || sectionsString.trim().isEmpty()) {
+            sections = EnumSet.allOf(TimelineSection.class);
+        } else {
+            sections = EnumSet.noneOf(TimelineSection.class);
+            for (final String section : sectionsString.split(",")) {
+                sections.add(TimelineSection.valueOf(section.trim().toUpperCase()));
+            }
+        }
+        final LocalDate startDate = startDateString == null ? null : LOCAL_DATE_FORMATTER.parseLocalDate(startDateString);
+        final LocalDate endDate = endDateString == null ? null : LOCAL_DATE_FORMATTER.parseLocalDate(endDateString);
+
+        final List<SubscriptionBundle> bundles = sections.contains(TimelineSection.BUNDLES) || sections.contains(TimelineSection.INVOICES) ?
+                                                 subscriptionApi.getSubscriptionBundlesForAccountId(account.getId(), tenantContext) :
+                                                 ImmutableList.<SubscriptionBundle>of();
+
+        final StreamingOutput json = new AccountTimelineStreamingOutput(mapper,
+                                                                        account,
+                                                                        bundles,
+                                                                        auditUserApi,
+                                                                        auditMode.getLevel(),
+                                                                        sections,
+                                                                        startDate,
+                                                                        endDate,
+                                                                        invoiceInternalApi,
+                                                                        invoicePaymentApi,
+                                                                        paymentInternalApi,
+                                                                        tenantContext,
+                                                                        internalCallContextFactory.createInternalTenantContext(account.getId(), tenantContext));
+        return Response.status(Status.OK).entity(json).build();
+    }
+
     /*
     * ************************** EMAIL NOTIFICATIONS FOR INVOICES ********************************
     */
@@ -535,6 +601,7 @@ public class AccountResource extends JaxRsResourceBase {
     public Response payAllInvoices(@PathParam("accountId") final String accountId,
                                    @QueryParam(QUERY_PAYMENT_EXTERNAL) @DefaultValue("false") final Boolean externalPayment,
                                    @QueryParam(QUERY_PAYMENT_AMOUNT) final BigDecimal paymentAmount,
+                                   @QueryParam(QUERY_PAYMENT_BULK) @DefaultValue("false") final Boolean bulkPayment,
                                    @QueryParam(QUERY_PLUGIN_PROPERTY) final List<String> pluginPropertiesString,
                                    @HeaderParam(HDR_CREATED_BY) final String createdBy,
                                    @HeaderParam(HDR_REASON) final String reason,
@@ -554,15 +621,28 @@ public class AccountResource extends JaxRsResourceBase {
             }
         }
 
-        for (final Invoice invoice : unpaidInvoices) {
-            final BigDecimal amountToPay = (remainingRequestPayment.compareTo(invoice.getBalance()) >= 0) ?
-                                           invoice.getBalance() : remainingRequestPayment;
+        if (bulkPayment) {
+            // Single payment for all unpaid invoices: the allocation across invoices is done by the invoice payment control plugin
+            BigDecimal totalBalance = BigDecimal.ZERO;
+            for (final Invoice invoice : unpaidInvoices) {
+                totalBalance = totalBalance.add(invoice.getBalance());
+            }
+            final BigDecimal amountToPay = remainingRequestPayment.compareTo(totalBalance) >= 0 ? totalBalance : remainingRequestPayment;
             if (amountToPay.compareTo(BigDecimal.ZERO) > 0) {
-                createPurchaseForInvoice(account, invoice.getId(), amountToPay, externalPayment, pluginProperties, callContext);
+                createPurchaseForAllInvoices(account, amountToPay, externalPayment, pluginProperties, callContext);
             }
             remainingRequestPayment = remainingRequestPayment.subtract(amountToPay);
-            if (remainingRequestPayment.compareTo(BigDecimal.ZERO) == 0) {
-                break;
+        } else {
+            for (final Invoice invoice : unpaidInvoices) {
+                final BigDecimal amountToPay = (remainingRequestPayment.compareTo(invoice.getBalance()) >= 0) ?
+                                               invoice.getBalance() : remainingRequestPayment;
+                if (amountToPay.compareTo(BigDecimal.ZERO) > 0) {
+                    createPurchaseForInvoice(account, invoice.getId(), amountToPay, externalPayment, pluginProperties, callContext);
+                }
+                remainingRequestPayment = remainingRequestPayment.subtract(amountToPay);
+                if (remainingRequestPayment.compareTo(BigDecimal.ZERO) == 0) {
+                    break;
+                }
             }
         }
         //
@@ -22,18 +22,26 @@ import java.util.UUID;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.account.api.AccountUserApi;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
 import org.killbill.billing.jaxrs.json.AdminPaymentJson;
 import org.killbill.billing.jaxrs.util.Context;
 import org.killbill.billing.jaxrs.util.JaxrsUriBuilder;
+import org.killbill.billing.overdue.OverdueInternalApi;
+import org.killbill.billing.overdue.config.api.OverdueException;
 import org.killbill.billing.payment.api.AdminPaymentApi;
 import org.killbill.billing.payment.api.Payment;
 import org.killbill.billing.payment.api.PaymentApi;
@@ -45,10 +53,12 @@ import org.killbill.billing.util.api.AuditUserApi;
 import org.killbill.billing.util.api.CustomFieldUserApi;
 import org.killbill.billing.util.api.TagUserApi;
 import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.clock.Clock;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.inject.Singleton;
 import com.wordnik.swagger.annotations.Api;
@@ -64,11 +74,18 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 public class AdminResource extends JaxRsResourceBase {
 
     private final AdminPaymentApi adminPaymentApi;
+    private final InvoiceInternalApi invoiceInternalApi;
+    private final OverdueInternalApi overdueInternalApi;
+    private final InternalCallContextFactory internalCallContextFactory;
 
     @Inject
-    public AdminResource(final JaxrsUriBuilder uriBuilder, final TagUserApi tagUserApi, final CustomFieldUserApi customFieldUserApi, final AuditUserApi auditUserApi, final AccountUserApi accountUserApi, final PaymentApi paymentApi, final AdminPaymentApi adminPaymentApi, final Clock clock, final Context context) {
+    public AdminResource(final JaxrsUriBuilder uriBuilder, final TagUserApi tagUserApi, final CustomFieldUserApi customFieldUserApi, final AuditUserApi auditUserApi, final AccountUserApi accountUserApi, final PaymentApi paymentApi, final AdminPaymentApi adminPaymentApi,
+                         final InvoiceInternalApi invoiceInternalApi, final OverdueInternalApi overdueInternalApi, final InternalCallContextFactory internalCallContextFactory, final Clock clock, final Context context) {
         super(uriBuilder, tagUserApi, customFieldUserApi, auditUserApi, accountUserApi, paymentApi, clock, context);
         this.adminPaymentApi = adminPaymentApi;
+        this.invoiceInternalApi = invoiceInternalApi;
+        this.overdueInternalApi = overdueInternalApi;
+        this.internalCallContextFactory = internalCallContextFactory;
     }
 
 
@@ -104,4 +121,38 @@ public class AdminResource extends JaxRsResourceBase {
         return Response.status(Status.OK).build();
     }
 
+    @PUT
+    @Produces(APPLICATION_JSON)
+    @Path("/" + ACCOUNTS + "/{accountId:" + UUID_PATTERN + "}/" + INVOICE_BALANCE)
+    @ApiOperation(value = "Verify (and rebuild unless dryRun is set) the invoice balance ledger of an account")
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid account id supplied"),
+                           @ApiResponse(code = 404, message = "Account not found")})
+    public Response rebuildAccountInvoiceBalance(@PathParam("accountId") final String accountIdStr,
+                                                 @QueryParam(QUERY_DRY_RUN) @DefaultValue("true") final Boolean dryRun,
+                                                 @HeaderParam(HDR_CREATED_BY) final String createdBy,
+                                                 @HeaderParam(HDR_REASON) final String reason,
+                                                 @HeaderParam(HDR_COMMENT) final String comment,
+                                                 @javax.ws.rs.core.Context final HttpServletRequest request) throws AccountApiException {
+        final CallContext callContext = context.createContext(createdBy, reason, comment, request);
+
+        final Account account = accountUserApi.getAccountById(UUID.fromString(accountIdStr), callContext);
+        final InternalCallContext internalCallContext = internalCallContextFactory.createInternalCallContext(account.getId(), callContext);
+        final boolean hasDrifted = invoiceInternalApi.rebuildAccountBalance(account.getId(), dryRun, internalCallContext);
+
+        return Response.status(Status.OK).entity(ImmutableMap.<String, Boolean>of("driftDetected", hasDrifted)).build();
+    }
+
+    @PUT
+    @Produces(APPLICATION_JSON)
+    @Path("/" + OVERDUE)
+    @ApiOperation(value = "Evaluate the overdue state of all the accounts of the tenant, and refresh the ones whose state changed")
+    @ApiResponses(value = {})
+    public Response refreshOverdueStates(@HeaderParam(HDR_CREATED_BY) final String createdBy,
+                                         @HeaderParam(HDR_REASON) final String reason,
+                                         @HeaderParam(HDR_COMMENT) final String comment,
+                                         @javax.ws.rs.core.Context final HttpServletRequest request) throws OverdueException {
+        final CallContext callContext = context.createContext(createdBy, reason, comment, request);
+        final int nbAccountsToRefresh = overdueInternalApi.refreshOverdueStates(callContext);
+        return Response.status(Status.OK).entity(ImmutableMap.<String, Integer>of("accountsToRefresh", nbAccountsToRefresh)).build();
+    }
 }
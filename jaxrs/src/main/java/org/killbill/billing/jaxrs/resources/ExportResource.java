@@ -24,10 +24,15 @@ import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.killbill.billing.account.api.AccountUserApi;
@@ -39,6 +44,10 @@ import org.killbill.billing.util.api.CustomFieldUserApi;
 import org.killbill.billing.util.api.ExportUserApi;
 import org.killbill.billing.util.api.TagUserApi;
 import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.export.api.TenantDataExporter;
+import org.killbill.billing.util.export.api.TenantExportManifest;
 import org.killbill.clock.Clock;
 
 import com.codahale.metrics.annotation.Timed;
@@ -48,6 +57,7 @@ import com.wordnik.swagger.annotations.ApiOperation;
 import com.wordnik.swagger.annotations.ApiResponse;
 import com.wordnik.swagger.annotations.ApiResponses;
 
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 
 @Singleton
@@ -56,9 +66,13 @@ import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 public class ExportResource extends JaxRsResourceBase {
 
     private final ExportUserApi exportUserApi;
+    private final TenantDataExporter tenantDataExporter;
+    private final InternalCallContextFactory internalCallContextFactory;
 
     @Inject
     public ExportResource(final ExportUserApi exportUserApi,
+                          final TenantDataExporter tenantDataExporter,
+                          final InternalCallContextFactory internalCallContextFactory,
                           final JaxrsUriBuilder uriBuilder,
                           final TagUserApi tagUserApi,
                           final CustomFieldUserApi customFieldUserApi,
@@ -69,6 +83,8 @@ public class ExportResource extends JaxRsResourceBase {
                           final Context context) {
         super(uriBuilder, tagUserApi, customFieldUserApi, auditUserApi, accountUserApi, paymentApi, clock, context);
         this.exportUserApi = exportUserApi;
+        this.tenantDataExporter = tenantDataExporter;
+        this.internalCallContextFactory = internalCallContextFactory;
     }
 
     @Timed
@@ -92,4 +108,52 @@ public class ExportResource extends JaxRsResourceBase {
             }
         };
     }
+
+    @Timed
+    @POST
+    @Path("/" + EXPORT_TENANT)
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Start an export of all the tenant data", response = TenantExportManifest.class)
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid previous export id supplied")})
+    public Response startTenantExport(@QueryParam(QUERY_EXPORT_SINCE) final String sinceExportId,
+                                      @HeaderParam(HDR_CREATED_BY) final String createdBy,
+                                      @HeaderParam(HDR_REASON) final String reason,
+                                      @HeaderParam(HDR_COMMENT) final String comment,
+                                      @javax.ws.rs.core.Context final HttpServletRequest request) throws IOException {
+        final CallContext callContext = context.createContext(createdBy, reason, comment, request);
+        final TenantExportManifest manifest = tenantDataExporter.startExport(sinceExportId != null ? UUID.fromString(sinceExportId) : null,
+                                                                             internalCallContextFactory.createInternalTenantContext(callContext));
+        return Response.status(Status.ACCEPTED).entity(manifest).build();
+    }
+
+    @Timed
+    @GET
+    @Path("/" + EXPORT_TENANT + "/{exportId:" + UUID_PATTERN + "}")
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Retrieve the manifest of a tenant export", response = TenantExportManifest.class)
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid export id supplied"),
+                           @ApiResponse(code = 404, message = "Export not found")})
+    public Response getTenantExport(@PathParam("exportId") final String exportId,
+                                    @javax.ws.rs.core.Context final HttpServletRequest request) throws IOException {
+        final TenantContext tenantContext = context.createContext(request);
+        final TenantExportManifest manifest = tenantDataExporter.getExport(UUID.fromString(exportId), internalCallContextFactory.createInternalTenantContext(tenantContext));
+        return manifest == null ? Response.status(Status.NOT_FOUND).build() : Response.status(Status.OK).entity(manifest).build();
+    }
+
+    @Timed
+    @PUT
+    @Path("/" + EXPORT_TENANT + "/{exportId:" + UUID_PATTERN + "}/" + RESUME)
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Resume an interrupted tenant export", response = TenantExportManifest.class)
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid export id supplied"),
+                           @ApiResponse(code = 404, message = "Export not found")})
+    public Response resumeTenantExport(@PathParam("exportId") final String exportId,
+                                       @HeaderParam(HDR_CREATED_BY) final String createdBy,
+                                       @HeaderParam(HDR_REASON) final String reason,
+                                       @HeaderParam(HDR_COMMENT) final String comment,
+                                       @javax.ws.rs.core.Context final HttpServletRequest request) throws IOException {
+        final CallContext callContext = context.createContext(createdBy, reason, comment, request);
+        final TenantExportManifest manifest = tenantDataExporter.resumeExport(UUID.fromString(exportId), internalCallContextFactory.createInternalTenantContext(callContext));
+        return manifest == null ? Response.status(Status.NOT_FOUND).build() : Response.status(Status.ACCEPTED).entity(manifest).build();
+    }
 }
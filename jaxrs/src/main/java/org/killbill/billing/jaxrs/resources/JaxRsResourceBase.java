@@ -381,6 +381,25 @@ public abstract class JaxRsResourceBase implements JaxrsResource {
                                                            properties, createInvoicePaymentControlPluginApiPaymentOptions(externalPayment), callContext);
     }
 
+    protected Payment createPurchaseForAllInvoices(final Account account, final BigDecimal amountToPay, final Boolean externalPayment, final Iterable<PluginProperty> pluginProperties, final CallContext callContext) throws PaymentApiException {
+
+        final List<PluginProperty> properties = new ArrayList<PluginProperty>();
+        final Iterator<PluginProperty> pluginPropertyIterator = pluginProperties.iterator();
+        while (pluginPropertyIterator.hasNext()) {
+            properties.add(pluginPropertyIterator.next());
+        }
+
+        final String paymentExternalKey = UUIDs.randomUUID().toString();
+        final String transactionExternalKey = UUIDs.randomUUID().toString();
+        final PluginProperty payAllInvoicesProperty = new PluginProperty("IPCD_PAY_ALL_INVOICES" /* InvoicePaymentControlPluginApi.PROP_IPCD_PAY_ALL_INVOICES (contract with plugin)  */,
+                                                                         Boolean.TRUE.toString(), false);
+        properties.add(payAllInvoicesProperty);
+
+        final UUID paymentMethodId = externalPayment ? null : account.getPaymentMethodId();
+        return paymentApi.createPurchaseWithPaymentControl(account, paymentMethodId, null, amountToPay, account.getCurrency(), paymentExternalKey, transactionExternalKey,
+                                                           properties, createInvoicePaymentControlPluginApiPaymentOptions(externalPayment), callContext);
+    }
+
     protected PaymentOptions createInvoicePaymentControlPluginApiPaymentOptions(final boolean isExternalPayment) {
         return createControlPluginApiPaymentOptions(isExternalPayment, ImmutableList.<String>of("__INVOICE_PAYMENT_CONTROL_PLUGIN__"));
     }
@@ -75,6 +75,7 @@ public interface JaxrsResource {
 
     public static final String QUERY_ACCOUNT_WITH_BALANCE = "accountWithBalance";
     public static final String QUERY_ACCOUNT_WITH_BALANCE_AND_CBA = "accountWithBalanceAndCBA";
+    public static final String QUERY_DRY_RUN = "dryRun";
 
     public static final String QUERY_ACCOUNT_ID = "accountId";
 
@@ -83,6 +84,7 @@ public interface JaxrsResource {
 
     public static final String QUERY_PAYMENT_EXTERNAL = "externalPayment";
     public static final String QUERY_PAYMENT_AMOUNT = "paymentAmount";
+    public static final String QUERY_PAYMENT_BULK = "bulkPayment";
     public static final String QUERY_PAYMENT_WITH_REFUNDS_AND_CHARGEBACKS = "withRefundsAndChargebacks";
     public static final String QUERY_PAYMENT_PLUGIN_NAME = "pluginName";
     public static final String QUERY_PAYMENT_METHOD_ID = "paymentMethodId";
@@ -103,6 +105,7 @@ public interface JaxrsResource {
 
     public static final String QUERY_START_DATE = "startDate";
     public static final String QUERY_END_DATE = "endDate";
+    public static final String QUERY_TRACKING_ID = "trackingId";
 
     public static final String QUERY_DELETE_IF_EXISTS = "deleteIfExists";
 
@@ -113,12 +116,18 @@ public interface JaxrsResource {
 
     public static final String QUERY_AUDIT = "audit";
 
+    public static final String QUERY_TIMELINE_STREAMING = "streaming";
+    public static final String QUERY_TIMELINE_SECTIONS = "sections";
+
     public static final String QUERY_NOTIFICATION_CALLBACK = "cb";
 
+    public static final String QUERY_EXPORT_SINCE = "sinceExportId";
+
     public static final String PAGINATION = "pagination";
 
     public static final String ADMIN = "admin";
     public static final String ADMIN_PATH = PREFIX + "/" + ADMIN;
+    public static final String INVOICE_BALANCE = "invoiceBalance";
 
     public static final String ACCOUNTS = "accounts";
     public static final String ACCOUNTS_PATH = PREFIX + "/" + ACCOUNTS;
@@ -192,9 +201,11 @@ public interface JaxrsResource {
 
     public static final String USAGES = "usages";
     public static final String USAGES_PATH = PREFIX + "/" + USAGES;
+    public static final String BULK = "bulk";
 
     public static final String EXPORT = "export";
     public static final String EXPORT_PATH = PREFIX + "/" + EXPORT;
+    public static final String EXPORT_TENANT = "tenant";
 
     public static final String PLUGINS = "plugins";
     // No PREFIX here!
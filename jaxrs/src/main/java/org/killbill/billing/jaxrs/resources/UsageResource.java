@@ -16,7 +16,9 @@
 
 package org.killbill.billing.jaxrs.resources;
 
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.inject.Inject;
@@ -47,17 +49,21 @@ import org.killbill.billing.jaxrs.util.JaxrsUriBuilder;
 import org.killbill.billing.payment.api.PaymentApi;
 import org.killbill.billing.usage.api.RolledUpUsage;
 import org.killbill.billing.usage.api.SubscriptionUsageRecord;
+import org.killbill.billing.usage.InternalUserApi;
 import org.killbill.billing.usage.api.UsageUserApi;
 import org.killbill.billing.util.api.AuditUserApi;
 import org.killbill.billing.util.api.CustomFieldUserApi;
 import org.killbill.billing.util.api.TagUserApi;
 import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
 import org.killbill.clock.Clock;
 
 import com.codahale.metrics.annotation.Timed;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.inject.Singleton;
 import com.wordnik.swagger.annotations.Api;
 import com.wordnik.swagger.annotations.ApiOperation;
@@ -72,7 +78,9 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 public class UsageResource extends JaxRsResourceBase {
 
     private final UsageUserApi usageUserApi;
+    private final InternalUserApi internalUserApi;
     private final EntitlementApi entitlementApi;
+    private final InternalCallContextFactory internalCallContextFactory;
 
     @Inject
     public UsageResource(final JaxrsUriBuilder uriBuilder,
@@ -81,13 +89,17 @@ public class UsageResource extends JaxRsResourceBase {
                          final AuditUserApi auditUserApi,
                          final AccountUserApi accountUserApi,
                          final UsageUserApi usageUserApi,
+                         final InternalUserApi internalUserApi,
                          final PaymentApi paymentApi,
                          final EntitlementApi entitlementApi,
+                         final InternalCallContextFactory internalCallContextFactory,
                          final Clock clock,
                          final Context context) {
         super(uriBuilder, tagUserApi, customFieldUserApi, auditUserApi, accountUserApi, paymentApi, clock, context);
         this.usageUserApi = usageUserApi;
+        this.internalUserApi = internalUserApi;
         this.entitlementApi = entitlementApi;
+        this.internalCallContextFactory = internalCallContextFactory;
     }
 
     @Timed
@@ -119,6 +131,56 @@ public class UsageResource extends JaxRsResourceBase {
         return Response.status(Status.CREATED).build();
     }
 
+    @Timed
+    @POST
+    @Path("/" + BULK)
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Record usage for multiple subscriptions at once")
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid usage records or subscriptions (e.g. unknown or inactive)"),
+                           @ApiResponse(code = 409, message = "Usage records with this tracking id have already been recorded")})
+    public Response recordUsages(final List<SubscriptionUsageRecordJson> json,
+                                 @QueryParam(QUERY_TRACKING_ID) final String trackingId,
+                                 @HeaderParam(HDR_CREATED_BY) final String createdBy,
+                                 @HeaderParam(HDR_REASON) final String reason,
+                                 @HeaderParam(HDR_COMMENT) final String comment,
+                                 @javax.ws.rs.core.Context final HttpServletRequest request,
+                                 @javax.ws.rs.core.Context final UriInfo uriInfo) {
+        verifyNonNullOrEmpty(json, "SubscriptionUsageRecordJson list body should be specified");
+        for (final SubscriptionUsageRecordJson cur : json) {
+            verifyNonNullOrEmpty(cur.getSubscriptionId(), "SubscriptionUsageRecordJson subscriptionId needs to be set",
+                                 cur.getUnitUsageRecords(), "SubscriptionUsageRecordJson unitUsageRecords needs to be set");
+        }
+
+        final CallContext callContext = context.createContext(createdBy, reason, comment, request);
+        // Verify each subscription exists and is active, as for the single subscription endpoint (once per subscription, the batch may have several records for it)
+        final Set<UUID> subscriptionIds = new LinkedHashSet<UUID>();
+        for (final SubscriptionUsageRecordJson cur : json) {
+            subscriptionIds.add(UUID.fromString(cur.getSubscriptionId()));
+        }
+        for (final UUID subscriptionId : subscriptionIds) {
+            final Entitlement entitlement;
+            try {
+                entitlement = entitlementApi.getEntitlementForId(subscriptionId, callContext);
+            } catch (final EntitlementApiException e) {
+                // Unknown subscription: reject the whole batch, nothing has been recorded yet
+                return Response.status(Status.BAD_REQUEST).build();
+            }
+            if (entitlement.getState() != EntitlementState.ACTIVE) {
+                return Response.status(Status.BAD_REQUEST).build();
+            }
+        }
+
+        final List<SubscriptionUsageRecord> records = ImmutableList.<SubscriptionUsageRecord>copyOf(Iterables.transform(json, new Function<SubscriptionUsageRecordJson, SubscriptionUsageRecord>() {
+            @Override
+            public SubscriptionUsageRecord apply(final SubscriptionUsageRecordJson input) {
+                return input.toSubscriptionUsageRecord();
+            }
+        }));
+        final boolean recorded = internalUserApi.recordRolledUpUsage(records, trackingId, internalCallContextFactory.createInternalCallContext(callContext));
+        return Response.status(recorded ? Status.CREATED : Status.CONFLICT).build();
+    }
+
     @Timed
     @GET
     @Path("/{subscriptionId:" + UUID_PATTERN + "}/{unitType}")
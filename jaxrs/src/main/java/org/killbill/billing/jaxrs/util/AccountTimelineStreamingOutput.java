@@ -0,0 +1,323 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.jaxrs.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.entitlement.api.SubscriptionBundle;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.api.InvoicePayment;
+import org.killbill.billing.invoice.api.InvoicePaymentApi;
+import org.killbill.billing.jaxrs.json.AccountJson;
+import org.killbill.billing.jaxrs.json.BundleJson;
+import org.killbill.billing.jaxrs.json.CreditJson;
+import org.killbill.billing.jaxrs.json.InvoiceJson;
+import org.killbill.billing.jaxrs.json.InvoicePaymentJson;
+import org.killbill.billing.jaxrs.resources.JaxRsResourceBase;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentInternalApi;
+import org.killbill.billing.util.api.AuditLevel;
+import org.killbill.billing.util.api.AuditUserApi;
+import org.killbill.billing.util.audit.AccountAuditLogs;
+import org.killbill.billing.util.audit.AccountAuditLogsForObjectType;
+import org.killbill.billing.util.audit.AuditLog;
+import org.killbill.billing.util.callcontext.TenantContext;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Writes the account timeline (same layout as AccountTimelineJson) section by section: invoices and payments are pulled in batches
+ * from the DAOs and serialized as soon as they are read, so the memory used doesn't grow with the account history.
+ * <p/>
+ * Two differences with AccountTimelineJson follow from that: each invoice only lists its own credits (instead of all the credits
+ * of the account) and the audit logs are looked up object by object, as each object is written (no lookup at all when the audit
+ * level is NONE).
+ */
+public class AccountTimelineStreamingOutput implements StreamingOutput {
+
+    public enum TimelineSection {
+        ACCOUNT,
+        BUNDLES,
+        INVOICES,
+        PAYMENTS
+    }
+
+    private static final int INVOICES_BATCH_SIZE = 100;
+    private static final int PAYMENTS_BATCH_SIZE = 100;
+
+    private final ObjectMapper mapper;
+    private final Account account;
+    private final List<SubscriptionBundle> bundles;
+    private final AccountAuditLogs accountAuditLogs;
+    private final Set<TimelineSection> sections;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+    private final InvoiceInternalApi invoiceInternalApi;
+    private final InvoicePaymentApi invoicePaymentApi;
+    private final PaymentInternalApi paymentInternalApi;
+    private final TenantContext tenantContext;
+    private final InternalTenantContext internalTenantContext;
+
+    public AccountTimelineStreamingOutput(final ObjectMapper mapper,
+                                          final Account account,
+                                          final List<SubscriptionBundle> bundles,
+                                          final AuditUserApi auditUserApi,
+                                          final AuditLevel auditLevel,
+                                          final Set<TimelineSection> sections,
+                                          @Nullable final LocalDate startDate,
+                                          @Nullable final LocalDate endDate,
+                                          final InvoiceInternalApi invoiceInternalApi,
+                                          final InvoicePaymentApi invoicePaymentApi,
+                                          final PaymentInternalApi paymentInternalApi,
+                                          final TenantContext tenantContext,
+                                          final InternalTenantContext internalTenantContext) {
+        this.mapper = mapper;
+        this.account = account;
+        this.bundles = bundles;
+        this.accountAuditLogs = new PerObjectAccountAuditLogs(account.getId(), auditUserApi, auditLevel, tenantContext);
+        this.sections = sections;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.invoiceInternalApi = invoiceInternalApi;
+        this.invoicePaymentApi = invoicePaymentApi;
+        this.paymentInternalApi = paymentInternalApi;
+        this.tenantContext = tenantContext;
+        this.internalTenantContext = internalTenantContext;
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException, WebApplicationException {
+        final JsonGenerator generator = mapper.getFactory().createJsonGenerator(output);
+        generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+        generator.writeStartObject();
+        if (sections.contains(TimelineSection.ACCOUNT)) {
+            generator.writeObjectField("account", new AccountJson(account, null, null, accountAuditLogs));
+        }
+        if (sections.contains(TimelineSection.BUNDLES)) {
+            writeBundles(generator);
+        }
+        if (sections.contains(TimelineSection.INVOICES)) {
+            writeInvoices(generator);
+        }
+        if (sections.contains(TimelineSection.PAYMENTS)) {
+            writePayments(generator);
+        }
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    private void writeBundles(final JsonGenerator generator) throws IOException {
+        generator.writeArrayFieldStart("bundles");
+        for (final SubscriptionBundle bundle : bundles) {
+            generator.writeObject(new BundleJson(bundle, accountAuditLogs));
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeInvoices(final JsonGenerator generator) throws IOException {
+        final Map<UUID, String> bundleExternalKeys = new HashMap<UUID, String>();
+        for (final SubscriptionBundle bundle : bundles) {
+            bundleExternalKeys.put(bundle.getId(), bundle.getExternalKey());
+        }
+
+        generator.writeArrayFieldStart("invoices");
+        // Single pass: the iterable goes back to the database for each batch
+        for (final Invoice invoice : invoiceInternalApi.getInvoicesByAccountInBatches(INVOICES_BATCH_SIZE, internalTenantContext)) {
+            if (!isInDateRange(invoice.getInvoiceDate())) {
+                continue;
+            }
+
+            final List<CreditJson> credits = new ArrayList<CreditJson>();
+            for (final InvoiceItem invoiceItem : invoice.getInvoiceItems()) {
+                if (InvoiceItemType.CREDIT_ADJ.equals(invoiceItem.getInvoiceItemType())) {
+                    credits.add(new CreditJson(invoice, invoiceItem, accountAuditLogs.getAuditLogsForInvoiceItem(invoiceItem.getId())));
+                }
+            }
+
+            generator.writeObject(new InvoiceJson(invoice,
+                                                  getBundleExternalKeys(invoice, bundleExternalKeys),
+                                                  credits,
+                                                  accountAuditLogs.getAuditLogsForInvoice(invoice.getId())));
+        }
+        generator.writeEndArray();
+    }
+
+    private void writePayments(final JsonGenerator generator) throws IOException {
+        // Invoice payments are much smaller than payments (no transactions): fetch them once, rather than once per payment
+        final Map<UUID, List<InvoicePayment>> invoicePaymentsByPaymentId = new HashMap<UUID, List<InvoicePayment>>();
+        for (final InvoicePayment invoicePayment : invoicePaymentApi.getInvoicePaymentsByAccount(account.getId(), tenantContext)) {
+            if (invoicePaymentsByPaymentId.get(invoicePayment.getPaymentId()) == null) {
+                invoicePaymentsByPaymentId.put(invoicePayment.getPaymentId(), new LinkedList<InvoicePayment>());
+            }
+            invoicePaymentsByPaymentId.get(invoicePayment.getPaymentId()).add(invoicePayment);
+        }
+
+        generator.writeArrayFieldStart("payments");
+        for (final Payment payment : paymentInternalApi.getAccountPaymentsInBatches(PAYMENTS_BATCH_SIZE, internalTenantContext)) {
+            if (!isInDateRange(new LocalDate(payment.getCreatedDate(), account.getTimeZone()))) {
+                continue;
+            }
+            final List<InvoicePayment> invoicePayments = Objects.firstNonNull(invoicePaymentsByPaymentId.get(payment.getId()), ImmutableList.<InvoicePayment>of());
+            final UUID invoiceId = JaxRsResourceBase.getInvoiceId(invoicePayments, payment);
+            generator.writeObject(new InvoicePaymentJson(payment, invoiceId, accountAuditLogs));
+        }
+        generator.writeEndArray();
+    }
+
+    private boolean isInDateRange(final LocalDate date) {
+        return (startDate == null || date.compareTo(startDate) >= 0) &&
+               (endDate == null || date.compareTo(endDate) <= 0);
+    }
+
+    // Same format as AccountTimelineJson
+    private String getBundleExternalKeys(final Invoice invoice, final Map<UUID, String> bundleExternalKeys) {
+        final Set<UUID> bundleIds = new HashSet<UUID>();
+        for (final InvoiceItem invoiceItem : invoice.getInvoiceItems()) {
+            bundleIds.add(invoiceItem.getBundleId());
+        }
+
+        final StringBuilder tmp = new StringBuilder();
+        for (final UUID bundleId : bundleIds) {
+            final String externalKey = bundleExternalKeys.get(bundleId);
+            if (externalKey != null) {
+                if (tmp.length() > 0) {
+                    tmp.append(",");
+                }
+                tmp.append(externalKey);
+            }
+        }
+        return tmp.toString();
+    }
+
+    // Looks up the audit logs of each object when it is serialized, instead of loading all the audit logs of the account up front
+    private static final class PerObjectAccountAuditLogs implements AccountAuditLogs {
+
+        private final UUID accountId;
+        private final AuditUserApi auditUserApi;
+        private final AuditLevel auditLevel;
+        private final TenantContext tenantContext;
+
+        private PerObjectAccountAuditLogs(final UUID accountId, final AuditUserApi auditUserApi, final AuditLevel auditLevel, final TenantContext tenantContext) {
+            this.accountId = accountId;
+            this.auditUserApi = auditUserApi;
+            this.auditLevel = auditLevel;
+            this.tenantContext = tenantContext;
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForAccount() {
+            return getAuditLogs(accountId, ObjectType.ACCOUNT);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForBundle(final UUID bundleId) {
+            return getAuditLogs(bundleId, ObjectType.BUNDLE);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForSubscription(final UUID subscriptionId) {
+            return getAuditLogs(subscriptionId, ObjectType.SUBSCRIPTION);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForSubscriptionEvent(final UUID subscriptionEventId) {
+            return getAuditLogs(subscriptionEventId, ObjectType.SUBSCRIPTION_EVENT);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForInvoice(final UUID invoiceId) {
+            return getAuditLogs(invoiceId, ObjectType.INVOICE);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForInvoiceItem(final UUID invoiceItemId) {
+            return getAuditLogs(invoiceItemId, ObjectType.INVOICE_ITEM);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForPayment(final UUID paymentId) {
+            return getAuditLogs(paymentId, ObjectType.PAYMENT);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForPaymentTransaction(final UUID paymentTransactionId) {
+            return getAuditLogs(paymentTransactionId, ObjectType.TRANSACTION);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForPaymentMethod(final UUID paymentMethodId) {
+            return getAuditLogs(paymentMethodId, ObjectType.PAYMENT_METHOD);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForBlockingState(final UUID blockingStateId) {
+            return getAuditLogs(blockingStateId, ObjectType.BLOCKING_STATES);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForInvoicePayment(final UUID invoicePaymentId) {
+            return getAuditLogs(invoicePaymentId, ObjectType.INVOICE_PAYMENT);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForTag(final UUID tagId) {
+            return getAuditLogs(tagId, ObjectType.TAG);
+        }
+
+        @Override
+        public List<AuditLog> getAuditLogsForCustomField(final UUID customFieldId) {
+            return getAuditLogs(customFieldId, ObjectType.CUSTOM_FIELD);
+        }
+
+        @Override
+        public AccountAuditLogsForObjectType getAuditLogs(final ObjectType objectType) {
+            // Not used by the timeline itself: loads the audit logs of the account for that type
+            return auditUserApi.getAccountAuditLogs(accountId, objectType, auditLevel, tenantContext);
+        }
+
+        private List<AuditLog> getAuditLogs(final UUID objectId, final ObjectType objectType) {
+            // No-op (no query) when the audit level is NONE
+            return auditUserApi.getAuditLogs(objectId, objectType, auditLevel, tenantContext);
+        }
+    }
+}
@@ -16,9 +16,11 @@
 
 package org.killbill.billing.jaxrs.util;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.killbill.billing.events.BusInternalEvent;
 import org.killbill.billing.util.userrequest.CompletionUserRequest;
@@ -29,27 +31,53 @@ import com.google.common.eventbus.Subscribe;
 
 public class KillbillEventHandler {
 
-    private final List<CompletionUserRequest> activeWaiters;
+    // Waiters are indexed by user token: a bus event is only dispatched to the waiters of the user request which triggered it
+    private final ConcurrentMap<UUID, Collection<CompletionUserRequest>> activeWaiters;
 
     public KillbillEventHandler() {
-        activeWaiters = new LinkedList<CompletionUserRequest>();
+        activeWaiters = new ConcurrentHashMap<UUID, Collection<CompletionUserRequest>>();
     }
 
     public void registerCompletionUserRequestWaiter(final CompletionUserRequest waiter) {
-        if (waiter == null) {
+        if (waiter == null || waiter.getUserToken() == null) {
             return;
         }
-        synchronized (activeWaiters) {
-            activeWaiters.add(waiter);
+
+        while (true) {
+            Collection<CompletionUserRequest> waiters = activeWaiters.get(waiter.getUserToken());
+            if (waiters == null) {
+                final Collection<CompletionUserRequest> newWaiters = new CopyOnWriteArrayList<CompletionUserRequest>();
+                waiters = activeWaiters.putIfAbsent(waiter.getUserToken(), newWaiters);
+                if (waiters == null) {
+                    waiters = newWaiters;
+                }
+            }
+
+            synchronized (waiters) {
+                // Make sure the entry wasn't removed by a concurrent unregistration in the meantime
+                if (activeWaiters.get(waiter.getUserToken()) == waiters) {
+                    waiters.add(waiter);
+                    return;
+                }
+            }
         }
     }
 
     public void unregisterCompletionUserRequestWaiter(final CompletionUserRequest waiter) {
-        if (waiter == null) {
+        if (waiter == null || waiter.getUserToken() == null) {
+            return;
+        }
+
+        final Collection<CompletionUserRequest> waiters = activeWaiters.get(waiter.getUserToken());
+        if (waiters == null) {
             return;
         }
-        synchronized (activeWaiters) {
-            activeWaiters.remove(waiter);
+
+        synchronized (waiters) {
+            waiters.remove(waiter);
+            if (waiters.isEmpty()) {
+                activeWaiters.remove(waiter.getUserToken(), waiters);
+            }
         }
     }
 
@@ -59,11 +87,12 @@ public class KillbillEventHandler {
     @AllowConcurrentEvents
     @Subscribe
     public void handleSubscriptionevents(final BusInternalEvent event) {
-        final List<CompletionUserRequestNotifier> runningWaiters = new ArrayList<CompletionUserRequestNotifier>();
-        synchronized (activeWaiters) {
-            runningWaiters.addAll(activeWaiters);
+        if (event.getUserToken() == null) {
+            return;
         }
-        if (runningWaiters.size() == 0) {
+
+        final Collection<CompletionUserRequest> runningWaiters = activeWaiters.get(event.getUserToken());
+        if (runningWaiters == null) {
             return;
         }
         for (final CompletionUserRequestNotifier cur : runningWaiters) {
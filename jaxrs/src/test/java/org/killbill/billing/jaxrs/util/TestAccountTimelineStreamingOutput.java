@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.jaxrs.util;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.entitlement.api.SubscriptionBundle;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.api.InvoicePayment;
+import org.killbill.billing.invoice.api.InvoicePaymentApi;
+import org.killbill.billing.invoice.api.InvoicePaymentType;
+import org.killbill.billing.jaxrs.JaxrsTestSuiteNoDB;
+import org.killbill.billing.jaxrs.util.AccountTimelineStreamingOutput.TimelineSection;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentInternalApi;
+import org.killbill.billing.payment.api.PaymentTransaction;
+import org.killbill.billing.util.api.AuditLevel;
+import org.killbill.billing.util.api.AuditUserApi;
+import org.killbill.billing.util.audit.AuditLog;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class TestAccountTimelineStreamingOutput extends JaxrsTestSuiteNoDB {
+
+    private UUID accountId;
+    private Account account;
+    private AuditUserApi auditUserApi;
+    private InvoiceInternalApi invoiceInternalApi;
+    private InvoicePaymentApi invoicePaymentApi;
+    private PaymentInternalApi paymentInternalApi;
+    private TenantContext tenantContext;
+    private InternalTenantContext internalTenantContext;
+
+    @BeforeMethod(groups = "fast")
+    public void setUpMocks() throws Exception {
+        accountId = UUID.randomUUID();
+        account = Mockito.mock(Account.class);
+        Mockito.when(account.getId()).thenReturn(accountId);
+        Mockito.when(account.getTimeZone()).thenReturn(DateTimeZone.UTC);
+
+        auditUserApi = Mockito.mock(AuditUserApi.class);
+        Mockito.when(auditUserApi.getAuditLogs(Mockito.<UUID>any(), Mockito.<ObjectType>any(), Mockito.<AuditLevel>any(), Mockito.<TenantContext>any())).thenReturn(ImmutableList.<AuditLog>of());
+        invoiceInternalApi = Mockito.mock(InvoiceInternalApi.class);
+        invoicePaymentApi = Mockito.mock(InvoicePaymentApi.class);
+        paymentInternalApi = Mockito.mock(PaymentInternalApi.class);
+        tenantContext = Mockito.mock(TenantContext.class);
+        internalTenantContext = Mockito.mock(InternalTenantContext.class);
+    }
+
+    @Test(groups = "fast")
+    public void testInvoicesAreReadInASinglePassWithTheirOwnCredits() throws Exception {
+        final Invoice firstInvoice = createInvoice(new LocalDate(2015, 1, 1));
+        final Invoice secondInvoice = createInvoice(new LocalDate(2015, 2, 1));
+        final CountingIterable<Invoice> invoices = new CountingIterable<Invoice>(ImmutableList.<Invoice>of(firstInvoice, secondInvoice));
+        Mockito.when(invoiceInternalApi.getInvoicesByAccountInBatches(Mockito.anyInt(), Mockito.<InternalTenantContext>any())).thenReturn(invoices);
+
+        final JsonNode json = write(ImmutableSet.<TimelineSection>of(TimelineSection.INVOICES), AuditLevel.FULL, null);
+
+        // The batched iterable goes back to the database on each iteration: it must only be iterated once
+        Assert.assertEquals(invoices.nbIterations.get(), 1);
+
+        final JsonNode invoicesJson = json.get("invoices");
+        Assert.assertEquals(invoicesJson.size(), 2);
+        for (int i = 0; i < 2; i++) {
+            final Invoice invoice = i == 0 ? firstInvoice : secondInvoice;
+            Assert.assertEquals(invoicesJson.get(i).get("invoiceId").asText(), invoice.getId().toString());
+            // Only the credits of that invoice
+            Assert.assertEquals(invoicesJson.get(i).get("credits").size(), 1);
+            Assert.assertEquals(invoicesJson.get(i).get("credits").get(0).get("invoiceId").asText(), invoice.getId().toString());
+        }
+
+        // Audit logs are looked up per object, never for the whole account
+        Mockito.verify(auditUserApi, Mockito.never()).getAccountAuditLogs(Mockito.<UUID>any(), Mockito.<AuditLevel>any(), Mockito.<TenantContext>any());
+        Mockito.verify(auditUserApi, Mockito.times(1)).getAuditLogs(firstInvoice.getId(), ObjectType.INVOICE, AuditLevel.FULL, tenantContext);
+        Mockito.verify(auditUserApi, Mockito.times(1)).getAuditLogs(secondInvoice.getId(), ObjectType.INVOICE, AuditLevel.FULL, tenantContext);
+    }
+
+    @Test(groups = "fast")
+    public void testInvoicesOutsideTheDateRangeAreSkipped() throws Exception {
+        final Invoice oldInvoice = createInvoice(new LocalDate(2015, 1, 1));
+        final Invoice recentInvoice = createInvoice(new LocalDate(2015, 3, 1));
+        Mockito.when(invoiceInternalApi.getInvoicesByAccountInBatches(Mockito.anyInt(), Mockito.<InternalTenantContext>any()))
+               .thenReturn(new CountingIterable<Invoice>(ImmutableList.<Invoice>of(oldInvoice, recentInvoice)));
+
+        final JsonNode json = write(ImmutableSet.<TimelineSection>of(TimelineSection.INVOICES), AuditLevel.NONE, new LocalDate(2015, 2, 1));
+
+        Assert.assertEquals(json.get("invoices").size(), 1);
+        Assert.assertEquals(json.get("invoices").get(0).get("invoiceId").asText(), recentInvoice.getId().toString());
+    }
+
+    @Test(groups = "fast")
+    public void testPaymentsAreReadInBatches() throws Exception {
+        final Payment firstPayment = createPayment();
+        final Payment secondPayment = createPayment();
+        final Payment paymentWithoutInvoice = createPayment();
+        final UUID firstInvoiceId = UUID.randomUUID();
+        final UUID secondInvoiceId = UUID.randomUUID();
+        final CountingIterable<Payment> payments = new CountingIterable<Payment>(ImmutableList.<Payment>of(firstPayment, secondPayment, paymentWithoutInvoice));
+        Mockito.when(paymentInternalApi.getAccountPaymentsInBatches(Mockito.anyInt(), Mockito.<InternalTenantContext>any())).thenReturn(payments);
+        final InvoicePayment firstInvoicePayment = createInvoicePayment(firstPayment.getId(), firstInvoiceId);
+        final InvoicePayment secondInvoicePayment = createInvoicePayment(secondPayment.getId(), secondInvoiceId);
+        Mockito.when(invoicePaymentApi.getInvoicePaymentsByAccount(accountId, tenantContext)).thenReturn(ImmutableList.<InvoicePayment>of(secondInvoicePayment, firstInvoicePayment));
+
+        final JsonNode json = write(ImmutableSet.<TimelineSection>of(TimelineSection.PAYMENTS), AuditLevel.NONE, null);
+
+        Assert.assertEquals(payments.nbIterations.get(), 1);
+        final JsonNode paymentsJson = json.get("payments");
+        Assert.assertEquals(paymentsJson.size(), 3);
+        Assert.assertEquals(paymentsJson.get(0).get("paymentId").asText(), firstPayment.getId().toString());
+        Assert.assertEquals(paymentsJson.get(0).get("targetInvoiceId").asText(), firstInvoiceId.toString());
+        Assert.assertEquals(paymentsJson.get(1).get("paymentId").asText(), secondPayment.getId().toString());
+        Assert.assertEquals(paymentsJson.get(1).get("targetInvoiceId").asText(), secondInvoiceId.toString());
+        Assert.assertEquals(paymentsJson.get(2).get("paymentId").asText(), paymentWithoutInvoice.getId().toString());
+        Assert.assertTrue(paymentsJson.get(2).get("targetInvoiceId").isNull());
+        Mockito.verify(paymentInternalApi, Mockito.never()).getAccountPayments(Mockito.<UUID>any(), Mockito.<InternalTenantContext>any());
+        // A single lookup of the invoice payments for the whole account, none per payment
+        Mockito.verify(invoicePaymentApi, Mockito.times(1)).getInvoicePaymentsByAccount(accountId, tenantContext);
+        Mockito.verify(invoicePaymentApi, Mockito.never()).getInvoicePayments(Mockito.<UUID>any(), Mockito.<TenantContext>any());
+    }
+
+    @Test(groups = "fast")
+    public void testEmptyAccount() throws Exception {
+        Mockito.when(invoiceInternalApi.getInvoicesByAccountInBatches(Mockito.anyInt(), Mockito.<InternalTenantContext>any())).thenReturn(ImmutableList.<Invoice>of());
+        Mockito.when(paymentInternalApi.getAccountPaymentsInBatches(Mockito.anyInt(), Mockito.<InternalTenantContext>any())).thenReturn(ImmutableList.<Payment>of());
+
+        final JsonNode json = write(ImmutableSet.<TimelineSection>of(TimelineSection.BUNDLES, TimelineSection.INVOICES, TimelineSection.PAYMENTS), AuditLevel.NONE, null);
+
+        Assert.assertNull(json.get("account"));
+        Assert.assertEquals(json.get("bundles").size(), 0);
+        Assert.assertEquals(json.get("invoices").size(), 0);
+        Assert.assertEquals(json.get("payments").size(), 0);
+    }
+
+    private JsonNode write(final ImmutableSet<TimelineSection> sections, final AuditLevel auditLevel, @Nullable final LocalDate startDate) throws Exception {
+        final AccountTimelineStreamingOutput output = new AccountTimelineStreamingOutput(mapper,
+                                                                                         account,
+                                                                                         ImmutableList.<SubscriptionBundle>of(),
+                                                                                         auditUserApi,
+                                                                                         auditLevel,
+                                                                                         sections,
+                                                                                         startDate,
+                                                                                         null,
+                                                                                         invoiceInternalApi,
+                                                                                         invoicePaymentApi,
+                                                                                         paymentInternalApi,
+                                                                                         tenantContext,
+                                                                                         internalTenantContext);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        output.write(outputStream);
+        return mapper.readTree(outputStream.toByteArray());
+    }
+
+    private Invoice createInvoice(final LocalDate invoiceDate) {
+        final UUID invoiceId = UUID.randomUUID();
+
+        final InvoiceItem credit = Mockito.mock(InvoiceItem.class);
+        Mockito.when(credit.getId()).thenReturn(UUID.randomUUID());
+        Mockito.when(credit.getInvoiceId()).thenReturn(invoiceId);
+        Mockito.when(credit.getAccountId()).thenReturn(accountId);
+        Mockito.when(credit.getInvoiceItemType()).thenReturn(InvoiceItemType.CREDIT_ADJ);
+        Mockito.when(credit.getAmount()).thenReturn(BigDecimal.ONE.negate());
+        Mockito.when(credit.getStartDate()).thenReturn(invoiceDate);
+
+        final Invoice invoice = Mockito.mock(Invoice.class);
+        Mockito.when(invoice.getId()).thenReturn(invoiceId);
+        Mockito.when(invoice.getAccountId()).thenReturn(accountId);
+        Mockito.when(invoice.getInvoiceDate()).thenReturn(invoiceDate);
+        Mockito.when(invoice.getTargetDate()).thenReturn(invoiceDate);
+        Mockito.when(invoice.getInvoiceNumber()).thenReturn(1);
+        Mockito.when(invoice.getCurrency()).thenReturn(Currency.USD);
+        Mockito.when(invoice.getChargedAmount()).thenReturn(BigDecimal.ZERO);
+        Mockito.when(invoice.getCreditedAmount()).thenReturn(BigDecimal.ONE);
+        Mockito.when(invoice.getRefundedAmount()).thenReturn(BigDecimal.ZERO);
+        Mockito.when(invoice.getBalance()).thenReturn(BigDecimal.ZERO);
+        Mockito.when(invoice.getInvoiceItems()).thenReturn(ImmutableList.<InvoiceItem>of(credit));
+        return invoice;
+    }
+
+    private Payment createPayment() {
+        final Payment payment = Mockito.mock(Payment.class);
+        Mockito.when(payment.getId()).thenReturn(UUID.randomUUID());
+        Mockito.when(payment.getAccountId()).thenReturn(accountId);
+        Mockito.when(payment.getPaymentNumber()).thenReturn(1);
+        Mockito.when(payment.getExternalKey()).thenReturn(UUID.randomUUID().toString());
+        Mockito.when(payment.getCurrency()).thenReturn(Currency.USD);
+        Mockito.when(payment.getCreatedDate()).thenReturn(clock.getUTCNow());
+        Mockito.when(payment.getTransactions()).thenReturn(ImmutableList.<PaymentTransaction>of());
+        return payment;
+    }
+
+    private InvoicePayment createInvoicePayment(final UUID paymentId, final UUID invoiceId) {
+        final InvoicePayment invoicePayment = Mockito.mock(InvoicePayment.class);
+        Mockito.when(invoicePayment.getPaymentId()).thenReturn(paymentId);
+        Mockito.when(invoicePayment.getInvoiceId()).thenReturn(invoiceId);
+        Mockito.when(invoicePayment.getType()).thenReturn(InvoicePaymentType.ATTEMPT);
+        return invoicePayment;
+    }
+
+    private static final class CountingIterable<T> implements Iterable<T> {
+
+        private final AtomicInteger nbIterations = new AtomicInteger();
+        private final List<T> delegate;
+
+        private CountingIterable(final List<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            nbIterations.incrementAndGet();
+            return delegate.iterator();
+        }
+    }
+}
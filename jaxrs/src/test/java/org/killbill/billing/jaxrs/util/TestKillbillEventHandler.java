@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.jaxrs.util;
+
+import java.util.UUID;
+
+import org.killbill.billing.events.BusInternalEvent;
+import org.killbill.billing.jaxrs.JaxrsTestSuiteNoDB;
+import org.killbill.billing.util.userrequest.CompletionUserRequest;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+public class TestKillbillEventHandler extends JaxrsTestSuiteNoDB {
+
+    @Test(groups = "fast")
+    public void testEventsAreOnlyDispatchedToWaitersForTheUserToken() throws Exception {
+        final KillbillEventHandler killbillEventHandler = new KillbillEventHandler();
+
+        final UUID userToken = UUID.randomUUID();
+        final CompletionUserRequest waiter1 = createWaiter(userToken);
+        final CompletionUserRequest waiter2 = createWaiter(userToken);
+        final CompletionUserRequest otherWaiter = createWaiter(UUID.randomUUID());
+        killbillEventHandler.registerCompletionUserRequestWaiter(waiter1);
+        killbillEventHandler.registerCompletionUserRequestWaiter(waiter2);
+        killbillEventHandler.registerCompletionUserRequestWaiter(otherWaiter);
+
+        final BusInternalEvent event = createEvent(userToken);
+        killbillEventHandler.handleSubscriptionevents(event);
+        Mockito.verify(waiter1, Mockito.times(1)).onBusEvent(event);
+        Mockito.verify(waiter2, Mockito.times(1)).onBusEvent(event);
+        Mockito.verify(otherWaiter, Mockito.never()).onBusEvent(Mockito.<BusInternalEvent>any());
+
+        // Events without user token are never dispatched
+        killbillEventHandler.handleSubscriptionevents(createEvent(null));
+        Mockito.verify(waiter1, Mockito.times(1)).onBusEvent(Mockito.<BusInternalEvent>any());
+
+        killbillEventHandler.unregisterCompletionUserRequestWaiter(waiter1);
+        final BusInternalEvent secondEvent = createEvent(userToken);
+        killbillEventHandler.handleSubscriptionevents(secondEvent);
+        Mockito.verify(waiter1, Mockito.never()).onBusEvent(secondEvent);
+        Mockito.verify(waiter2, Mockito.times(1)).onBusEvent(secondEvent);
+
+        // Once all the waiters for that token are gone, new ones can still be registered
+        killbillEventHandler.unregisterCompletionUserRequestWaiter(waiter2);
+        final CompletionUserRequest waiter3 = createWaiter(userToken);
+        killbillEventHandler.registerCompletionUserRequestWaiter(waiter3);
+        final BusInternalEvent thirdEvent = createEvent(userToken);
+        killbillEventHandler.handleSubscriptionevents(thirdEvent);
+        Mockito.verify(waiter2, Mockito.never()).onBusEvent(thirdEvent);
+        Mockito.verify(waiter3, Mockito.times(1)).onBusEvent(thirdEvent);
+    }
+
+    private CompletionUserRequest createWaiter(final UUID userToken) {
+        final CompletionUserRequest waiter = Mockito.mock(CompletionUserRequest.class);
+        Mockito.when(waiter.getUserToken()).thenReturn(userToken);
+        return waiter;
+    }
+
+    private BusInternalEvent createEvent(final UUID userToken) {
+        final BusInternalEvent event = Mockito.mock(BusInternalEvent.class);
+        Mockito.when(event.getUserToken()).thenReturn(userToken);
+        return event;
+    }
+}
@@ -16,7 +16,9 @@
 
 package org.killbill.billing.junction.plumbing.billing;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.UUID;
 
@@ -50,7 +52,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Objects;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
 import com.google.inject.Inject;
 
 public class DefaultInternalBillingApi implements BillingInternalApi {
@@ -140,16 +146,29 @@ public class DefaultInternalBillingApi implements BillingInternalApi {
 
         }
 
+        // Load all subscriptions and bundle tags for the account upfront, instead of issuing queries for each bundle
+        final Map<UUID, List<SubscriptionBase>> subscriptionsForAccount = subscriptionApi.getSubscriptionsForAccount(context);
+        final Multimap<UUID, Tag> bundleTagsForAccount = Multimaps.index(tagApi.getTagsForAccountType(account.getId(), ObjectType.BUNDLE, false, context),
+                                                                         new Function<Tag, UUID>() {
+                                                                             @Override
+                                                                             public UUID apply(final Tag tag) {
+                                                                                 return tag.getObjectId();
+                                                                             }
+                                                                         });
+
         for (final SubscriptionBaseBundle bundle : bundles) {
-            final DryRunArguments dryRunArgumentsForBundle = (dryRunArguments != null &&
-                                                             dryRunArguments.getBundleId() != null &&
-                                                             dryRunArguments.getBundleId().equals(bundle.getId())) ?
-                                                             dryRunArguments : null;
-            final List<SubscriptionBase> subscriptions = subscriptionApi.getSubscriptionsForBundle(bundle.getId(), dryRunArgumentsForBundle, context);
+            final List<SubscriptionBase> subscriptions;
+            if (dryRunArguments != null &&
+                dryRunArguments.getBundleId() != null &&
+                dryRunArguments.getBundleId().equals(bundle.getId())) {
+                // The dryRun events need to be merged with the existing ones for that bundle
+                subscriptions = subscriptionApi.getSubscriptionsForBundle(bundle.getId(), dryRunArguments, context);
+            } else {
+                subscriptions = Objects.firstNonNull(subscriptionsForAccount.get(bundle.getId()), ImmutableList.<SubscriptionBase>of());
+            }
 
             //Check if billing is off for the bundle
-            final List<Tag> bundleTags = tagApi.getTags(bundle.getId(), ObjectType.BUNDLE, context);
-            boolean found_AUTO_INVOICING_OFF = is_AUTO_INVOICING_OFF(bundleTags);
+            final boolean found_AUTO_INVOICING_OFF = is_AUTO_INVOICING_OFF(bundleTagsForAccount.get(bundle.getId()));
             if (found_AUTO_INVOICING_OFF) {
                 for (final SubscriptionBase subscription : subscriptions) { // billing is off so list sub ids in set to be excluded
                     result.getSubscriptionIdsWithAutoInvoiceOff().add(subscription.getId());
@@ -197,7 +216,7 @@ public class DefaultInternalBillingApi implements BillingInternalApi {
         }
     }
 
-    private final boolean is_AUTO_INVOICING_OFF(final List<Tag> tags) {
+    private final boolean is_AUTO_INVOICING_OFF(final Collection<Tag> tags) {
         return ControlTagType.isAutoInvoicingOff(Collections2.transform(tags, new Function<Tag, UUID>() {
             @Nullable
             @Override
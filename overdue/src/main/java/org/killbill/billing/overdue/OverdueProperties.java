@@ -19,6 +19,7 @@ package org.killbill.billing.overdue;
 import org.skife.config.Config;
 import org.skife.config.Default;
 import org.skife.config.Description;
+import org.skife.config.TimeSpan;
 
 import org.killbill.billing.util.config.KillbillConfig;
 
@@ -28,4 +29,14 @@ public interface OverdueProperties extends KillbillConfig {
     @Default("NoOverdueConfig.xml")
     @Description("Overdue configuration location. Either in the classpath or in the filesystem")
     public String getConfigURI();
+
+    @Config("org.killbill.overdue.sweep.interval")
+    @Default("0s")
+    @Description("Interval between two bulk evaluations of the overdue states of a tenant (0 to only run them on demand)")
+    public TimeSpan getSweepInterval();
+
+    @Config("org.killbill.overdue.coalescing.window")
+    @Default("0s")
+    @Description("Window during which overdue refreshes triggered by payment and invoice events of the same account are collapsed into one (0 to refresh right away)")
+    public TimeSpan getCoalescingWindow();
 }
@@ -30,6 +30,8 @@ import org.killbill.billing.overdue.config.DefaultOverdueConfig;
 import org.killbill.billing.overdue.config.api.BillingState;
 import org.killbill.billing.overdue.config.api.OverdueException;
 import org.killbill.billing.overdue.config.api.OverdueStateSet;
+import org.killbill.billing.overdue.notification.OverdueSweepNotifier;
+import org.killbill.billing.overdue.sweeper.OverdueSweeper;
 import org.killbill.billing.overdue.wrapper.OverdueWrapper;
 import org.killbill.billing.overdue.wrapper.OverdueWrapperFactory;
 import org.killbill.billing.util.callcontext.CallContext;
@@ -48,15 +50,21 @@ public class DefaultOverdueInternalApi implements OverdueInternalApi {
     private final BlockingInternalApi accessApi;
     private final InternalCallContextFactory internalCallContextFactory;
     private final OverdueConfigCache overdueConfigCache;
+    private final OverdueSweeper sweeper;
+    private final OverdueSweepNotifier sweepNotifier;
 
     @Inject
     public DefaultOverdueInternalApi(final OverdueWrapperFactory factory,
                                      final BlockingInternalApi accessApi,
                                      final OverdueConfigCache overdueConfigCache,
+                                     final OverdueSweeper sweeper,
+                                     final OverdueSweepNotifier sweepNotifier,
                                      final InternalCallContextFactory internalCallContextFactory) {
         this.factory = factory;
         this.accessApi = accessApi;
         this.overdueConfigCache = overdueConfigCache;
+        this.sweeper = sweeper;
+        this.sweepNotifier = sweepNotifier;
         this.internalCallContextFactory = internalCallContextFactory;
     }
 
@@ -91,6 +99,16 @@ public class DefaultOverdueInternalApi implements OverdueInternalApi {
         return wrapper.refresh(internalCallContext);
     }
 
+    @Override
+    public int refreshOverdueStates(final CallContext context) throws OverdueException {
+        log.info("Refresh of all overdue states requested");
+        final InternalCallContext internalCallContext = internalCallContextFactory.createInternalCallContext(context);
+        final int nbAccountsToRefresh = sweeper.sweep(internalCallContext);
+        // Start the periodic sweep for that tenant, if configured
+        sweepNotifier.scheduleNextSweep(internalCallContext);
+        return nbAccountsToRefresh;
+    }
+
     private InternalCallContext createInternalCallContext(final Account blockable, final CallContext context) {
         return internalCallContextFactory.createInternalCallContext(blockable.getId(), ObjectType.ACCOUNT, context);
     }
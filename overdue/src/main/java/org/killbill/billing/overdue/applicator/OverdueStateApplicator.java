@@ -62,9 +62,7 @@ import org.killbill.billing.tag.TagInternalApi;
 import org.killbill.billing.util.api.TagApiException;
 import org.killbill.billing.util.callcontext.CallContext;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
-import org.killbill.billing.util.email.DefaultEmailSender;
 import org.killbill.billing.util.email.EmailApiException;
-import org.killbill.billing.util.email.EmailConfig;
 import org.killbill.billing.util.email.EmailSender;
 import org.killbill.billing.util.tag.ControlTagType;
 import org.killbill.billing.util.tag.Tag;
@@ -102,7 +100,7 @@ public class OverdueStateApplicator {
                                   final Clock clock,
                                   @Named(DefaultOverdueModule.OVERDUE_NOTIFIER_CHECK_NAMED) final OverduePoster checkPoster,
                                   final OverdueEmailGenerator overdueEmailGenerator,
-                                  final EmailConfig config,
+                                  final EmailSender emailSender,
                                   final PersistentBus bus,
                                   final TagInternalApi tagApi,
                                   final InternalCallContextFactory internalCallContextFactory) {
@@ -115,7 +113,7 @@ public class OverdueStateApplicator {
         this.overdueEmailGenerator = overdueEmailGenerator;
         this.tagApi = tagApi;
         this.internalCallContextFactory = internalCallContextFactory;
-        this.emailSender = new DefaultEmailSender(config);
+        this.emailSender = emailSender;
         this.bus = bus;
     }
 
@@ -24,6 +24,8 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
 
+import javax.annotation.Nullable;
+
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDate;
 
@@ -31,6 +33,7 @@ import org.killbill.billing.account.api.Account;
 import org.killbill.billing.payment.api.PaymentResponse;
 import org.killbill.clock.Clock;
 import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceAccountBalance;
 import org.killbill.billing.overdue.config.api.BillingState;
 import org.killbill.billing.overdue.config.api.OverdueException;
 import org.killbill.billing.callcontext.InternalTenantContext;
@@ -64,17 +67,31 @@ public class BillingStateCalculator {
     }
 
     public BillingState calculateBillingState(final Account account, final InternalTenantContext context) throws OverdueException {
-        final SortedSet<Invoice> unpaidInvoices = unpaidInvoicesForAccount(account.getId(), account.getTimeZone(), context);
-
-        final int numberOfUnpaidInvoices = unpaidInvoices.size();
-        final BigDecimal unpaidInvoiceBalance = sumBalance(unpaidInvoices);
-        LocalDate dateOfEarliestUnpaidInvoice = null;
-        UUID idOfEarliestUnpaidInvoice = null;
-        final Invoice invoice = earliest(unpaidInvoices);
-        if (invoice != null) {
-            dateOfEarliestUnpaidInvoice = invoice.getInvoiceDate();
-            idOfEarliestUnpaidInvoice = invoice.getId();
+        // Read the invoice ledger instead of loading all unpaid invoices
+        final InvoiceAccountBalance accountBalance = invoiceApi.getAccountBalanceSummary(account.getId(), clock.getToday(account.getTimeZone()), context);
+        return toBillingState(account, accountBalance);
+    }
+
+    /**
+     * Compute the billing state from a ledger retrieved in bulk (see InvoiceInternalApi#getAccountBalanceSummariesWithUnpaidInvoices).
+     * The caller is responsible for checking the ledger doesn't contain unpaid invoices with a target date in the future.
+     *
+     * @param account        the account
+     * @param accountBalance the ledger for the account, null if the account doesn't have any unpaid invoice
+     * @return the billing state
+     */
+    public BillingState calculateBillingState(final Account account, @Nullable final InvoiceAccountBalance accountBalance) {
+        if (accountBalance == null) {
+            return new BillingState(account.getId(), 0, BigDecimal.ZERO, null, account.getTimeZone(), null, PaymentResponse.INSUFFICIENT_FUNDS, new Tag[]{});
         }
+        return toBillingState(account, accountBalance);
+    }
+
+    private BillingState toBillingState(final Account account, final InvoiceAccountBalance accountBalance) {
+        final int numberOfUnpaidInvoices = accountBalance.getNumberOfUnpaidInvoices();
+        final BigDecimal unpaidInvoiceBalance = accountBalance.getUnpaidInvoiceBalance();
+        final LocalDate dateOfEarliestUnpaidInvoice = accountBalance.getDateOfEarliestUnpaidInvoice();
+        final UUID idOfEarliestUnpaidInvoice = accountBalance.getIdOfEarliestUnpaidInvoice();
         final PaymentResponse responseForLastFailedPayment = PaymentResponse.INSUFFICIENT_FUNDS; //TODO MDW
         final Tag[] tags = new Tag[]{}; //TODO MDW
 
@@ -38,7 +38,9 @@ import org.killbill.billing.overdue.notification.OverdueCheckNotifier;
 import org.killbill.billing.overdue.notification.OverdueCheckPoster;
 import org.killbill.billing.overdue.notification.OverdueNotifier;
 import org.killbill.billing.overdue.notification.OverduePoster;
+import org.killbill.billing.overdue.notification.OverdueSweepNotifier;
 import org.killbill.billing.overdue.service.DefaultOverdueService;
+import org.killbill.billing.overdue.sweeper.OverdueSweeper;
 import org.killbill.billing.overdue.wrapper.OverdueWrapperFactory;
 import org.killbill.billing.platform.api.KillbillConfigSource;
 import org.killbill.billing.tenant.api.TenantInternalApi.CacheInvalidationCallback;
@@ -78,6 +80,9 @@ public class DefaultOverdueModule extends KillBillModule implements OverdueModul
 
         bind(OverduePoster.class).annotatedWith(Names.named(OVERDUE_NOTIFIER_CHECK_NAMED)).to(OverdueCheckPoster.class).asEagerSingleton();
         bind(OverduePoster.class).annotatedWith(Names.named(OVERDUE_NOTIFIER_ASYNC_BUS_NAMED)).to(OverdueAsyncBusPoster.class).asEagerSingleton();
+
+        bind(OverdueSweeper.class).asEagerSingleton();
+        bind(OverdueSweepNotifier.class).asEagerSingleton();
     }
 
     protected void installOverdueService() {
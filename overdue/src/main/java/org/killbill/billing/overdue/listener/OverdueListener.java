@@ -22,6 +22,7 @@ import java.util.UUID;
 
 import javax.inject.Named;
 
+import org.joda.time.DateTime;
 import org.killbill.billing.ObjectType;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
@@ -30,6 +31,7 @@ import org.killbill.billing.events.ControlTagDeletionInternalEvent;
 import org.killbill.billing.events.InvoiceAdjustmentInternalEvent;
 import org.killbill.billing.events.PaymentErrorInternalEvent;
 import org.killbill.billing.events.PaymentInfoInternalEvent;
+import org.killbill.billing.overdue.OverdueProperties;
 import org.killbill.billing.overdue.OverdueService;
 import org.killbill.billing.overdue.api.OverdueApiException;
 import org.killbill.billing.overdue.api.OverdueConfig;
@@ -60,6 +62,7 @@ public class OverdueListener {
     private final OverduePoster asyncPoster;
     private final Clock clock;
     private final OverdueConfigCache overdueConfigCache;
+    private final OverdueProperties overdueProperties;
 
     private static final Logger log = LoggerFactory.getLogger(OverdueListener.class);
 
@@ -67,10 +70,12 @@ public class OverdueListener {
     public OverdueListener(final Clock clock,
                            @Named(DefaultOverdueModule.OVERDUE_NOTIFIER_ASYNC_BUS_NAMED) final OverduePoster asyncPoster,
                            final OverdueConfigCache overdueConfigCache,
+                           final OverdueProperties overdueProperties,
                            final InternalCallContextFactory internalCallContextFactory) {
         this.asyncPoster = asyncPoster;
         this.clock = clock;
         this.overdueConfigCache = overdueConfigCache;
+        this.overdueProperties = overdueProperties;
         this.internalCallContextFactory = internalCallContextFactory;
     }
 
@@ -117,7 +122,12 @@ public class OverdueListener {
 
         if (shouldInsertNotification) {
             final OverdueAsyncBusNotificationKey notificationKey = new OverdueAsyncBusNotificationKey(accountId, action);
-            asyncPoster.insertOverdueNotification(accountId, clock.getUTCNow(), OverdueAsyncBusNotifier.OVERDUE_ASYNC_BUS_NOTIFIER_QUEUE, notificationKey, createCallContext(event.getUserToken(), event.getSearchKey1(), event.getSearchKey2()));
+            // Delaying the REFRESH notifications by the coalescing window lets the poster absorb the other events of a burst for that account (see OverdueAsyncBusPoster).
+            // A CLEAR (OVERDUE_ENFORCEMENT_OFF set) is applied right away.
+            final DateTime notificationTime = action == OverdueAsyncBusNotificationAction.CLEAR ?
+                                              clock.getUTCNow() :
+                                              clock.getUTCNow().plus(overdueProperties.getCoalescingWindow().getMillis());
+            asyncPoster.insertOverdueNotification(accountId, notificationTime, OverdueAsyncBusNotifier.OVERDUE_ASYNC_BUS_NOTIFIER_QUEUE, notificationKey, createCallContext(event.getUserToken(), event.getSearchKey1(), event.getSearchKey2()));
         }
     }
 
@@ -45,10 +45,22 @@ public class OverdueAsyncBusPoster extends DefaultOverduePosterBase {
     protected <T extends OverdueCheckNotificationKey> boolean cleanupFutureNotificationsFormTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
                                                                                                         final Collection<NotificationEventWithMetadata<T>> futureNotifications,
                                                                                                         final DateTime futureNotificationTime,
+                                                                                                        final T notificationKey,
                                                                                                         final NotificationQueue overdueQueue) {
-        // If we already have notification for that account we don't insert the new one
-        // Note that this is slightly incorrect because we could for instance already have a REFRESH and insert a CLEAR, but if that were the case,
-        // if means overdue state would change very rapidly and the behavior would anyway be non deterministic
-        return futureNotifications.isEmpty();
+        // If we already have a pending notification for that account and action, we don't insert the new one: the pending one
+        // will evaluate the account after all the events of the burst (see org.killbill.overdue.coalescing.window)
+        for (final NotificationEventWithMetadata<T> futureNotification : futureNotifications) {
+            if (isSameAction(futureNotification.getEvent(), notificationKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSameAction(final OverdueCheckNotificationKey existingKey, final OverdueCheckNotificationKey newKey) {
+        if (!(existingKey instanceof OverdueAsyncBusNotificationKey) || !(newKey instanceof OverdueAsyncBusNotificationKey)) {
+            return true;
+        }
+        return ((OverdueAsyncBusNotificationKey) existingKey).getAction() == ((OverdueAsyncBusNotificationKey) newKey).getAction();
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.overdue.notification;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.overdue.OverdueProperties;
+import org.killbill.billing.overdue.config.api.OverdueException;
+import org.killbill.billing.overdue.listener.OverdueDispatcher;
+import org.killbill.billing.overdue.sweeper.OverdueSweeper;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.dao.NonEntityDao;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.killbill.billing.util.globallocker.LockerType;
+import org.killbill.clock.Clock;
+import org.killbill.commons.locker.GlobalLock;
+import org.killbill.commons.locker.GlobalLocker;
+import org.killbill.commons.locker.LockFailedException;
+import org.killbill.notificationq.api.NotificationEvent;
+import org.killbill.notificationq.api.NotificationEventWithMetadata;
+import org.killbill.notificationq.api.NotificationQueueService;
+import org.skife.config.TimeSpan;
+import org.skife.jdbi.v2.IDBI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+/**
+ * Runs the overdue sweep of a tenant every org.killbill.overdue.sweep.interval. Notifications are tenant wide
+ * (the account record id is set to InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID) and there is at most one
+ * pending per tenant.
+ */
+public class OverdueSweepNotifier extends DefaultOverdueNotifierBase implements OverdueNotifier {
+
+    private static final Logger log = LoggerFactory.getLogger(OverdueSweepNotifier.class);
+
+    public static final String OVERDUE_SWEEP_NOTIFIER_QUEUE = "overdue-sweep-queue";
+
+    private static final int SCHEDULE_LOCK_NB_RETRIES = 3;
+
+    private final OverdueSweeper sweeper;
+    private final GlobalLocker locker;
+    private final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
+    private final Clock clock;
+
+    @Inject
+    public OverdueSweepNotifier(final NotificationQueueService notificationQueueService, final OverdueProperties config,
+                                final InternalCallContextFactory internalCallContextFactory,
+                                final OverdueDispatcher dispatcher,
+                                final OverdueSweeper sweeper,
+                                final GlobalLocker locker,
+                                final IDBI dbi,
+                                final CacheControllerDispatcher cacheControllerDispatcher,
+                                final NonEntityDao nonEntityDao,
+                                final Clock clock) {
+        super(notificationQueueService, config, internalCallContextFactory, dispatcher);
+        this.sweeper = sweeper;
+        this.locker = locker;
+        this.transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, cacheControllerDispatcher, nonEntityDao);
+        this.clock = clock;
+    }
+
+    @Override
+    public String getQueueName() {
+        return OVERDUE_SWEEP_NOTIFIER_QUEUE;
+    }
+
+    @Override
+    public void handleReadyNotification(final NotificationEvent notificationKey, final DateTime eventDate, final UUID userToken, final Long accountRecordId, final Long tenantRecordId) {
+        if (!(notificationKey instanceof OverdueSweepNotificationKey)) {
+            log.error("Overdue service received Unexpected notificationKey {}", notificationKey.getClass().getName());
+            return;
+        }
+
+        final InternalCallContext context = createCallContext(userToken, accountRecordId, tenantRecordId);
+        try {
+            sweeper.sweep(context);
+        } catch (final OverdueException e) {
+            log.warn("Error during the overdue sweep for tenantRecordId=" + tenantRecordId, e);
+        } finally {
+            scheduleNextSweep(context);
+        }
+    }
+
+    /**
+     * Schedule the next sweep for the tenant, unless the scheduled sweep is disabled or one is already pending.
+     * <p/>
+     * The check and the insertion happen in a single transaction, under a per-tenant lock, so that concurrent callers
+     * (sweep handlers, refreshOverdueStates calls, on one or several nodes) can't schedule the sweep twice.
+     *
+     * @param context the tenant callcontext
+     */
+    public void scheduleNextSweep(final InternalCallContext context) {
+        final TimeSpan sweepInterval = config.getSweepInterval();
+        if (sweepInterval.getMillis() <= 0) {
+            return;
+        }
+
+        GlobalLock lock = null;
+        try {
+            lock = locker.lockWithNumberOfTries(LockerType.OVERDUE_SWEEP.toString(), context.getTenantRecordId().toString(), SCHEDULE_LOCK_NB_RETRIES);
+            transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
+                @Override
+                public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                    final Connection connection = entitySqlDaoWrapperFactory.getHandle().getConnection();
+                    final List<NotificationEventWithMetadata<OverdueSweepNotificationKey>> pendingSweeps = overdueQueue.getFutureNotificationFromTransactionForSearchKeys(InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID,
+                                                                                                                                                                           context.getTenantRecordId(),
+                                                                                                                                                                           connection);
+                    if (pendingSweeps.isEmpty()) {
+                        overdueQueue.recordFutureNotificationFromTransaction(connection,
+                                                                             clock.getUTCNow().plus(sweepInterval.getMillis()),
+                                                                             new OverdueSweepNotificationKey(getSweepId(context.getTenantRecordId())),
+                                                                             context.getUserToken(),
+                                                                             InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID,
+                                                                             context.getTenantRecordId());
+                    }
+                    return null;
+                }
+            });
+        } catch (final LockFailedException e) {
+            // Someone else is scheduling the sweep for that tenant
+            log.info("Unable to lock the overdue sweep for tenantRecordId={}, skipping scheduling", context.getTenantRecordId());
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    // The same key is used for all the sweeps of a tenant
+    private static UUID getSweepId(final Long tenantRecordId) {
+        return new UUID(0L, tenantRecordId);
+    }
+}
@@ -30,6 +30,7 @@ import org.killbill.billing.overdue.caching.OverdueConfigCache;
 import org.killbill.billing.overdue.glue.DefaultOverdueModule;
 import org.killbill.billing.overdue.listener.OverdueListener;
 import org.killbill.billing.overdue.notification.OverdueNotifier;
+import org.killbill.billing.overdue.notification.OverdueSweepNotifier;
 import org.killbill.billing.platform.api.LifecycleHandlerType;
 import org.killbill.billing.platform.api.LifecycleHandlerType.LifecycleLevel;
 import org.killbill.billing.tenant.api.TenantInternalApi;
@@ -50,6 +51,7 @@ public class DefaultOverdueService implements OverdueService {
     private final OverdueProperties properties;
     private final OverdueNotifier asyncNotifier;
     private final OverdueNotifier checkNotifier;
+    private final OverdueNotifier sweepNotifier;
     private final BusService busService;
     private final OverdueListener listener;
 
@@ -63,6 +65,7 @@ public class DefaultOverdueService implements OverdueService {
     public DefaultOverdueService(final OverdueProperties properties,
                                  @Named(DefaultOverdueModule.OVERDUE_NOTIFIER_CHECK_NAMED) final OverdueNotifier checkNotifier,
                                  @Named(DefaultOverdueModule.OVERDUE_NOTIFIER_ASYNC_BUS_NAMED) final OverdueNotifier asyncNotifier,
+                                 final OverdueSweepNotifier sweepNotifier,
                                  final BusService busService,
                                  final OverdueListener listener,
                                  final OverdueConfigCache overdueConfigCache,
@@ -71,6 +74,7 @@ public class DefaultOverdueService implements OverdueService {
         this.properties = properties;
         this.checkNotifier = checkNotifier;
         this.asyncNotifier = asyncNotifier;
+        this.sweepNotifier = sweepNotifier;
         this.busService = busService;
         this.listener = listener;
         this.isConfigLoaded = false;
@@ -102,6 +106,7 @@ public class DefaultOverdueService implements OverdueService {
         registerForBus();
         checkNotifier.initialize();
         asyncNotifier.initialize();
+        sweepNotifier.initialize();
         tenantInternalApi.initializeCacheInvalidationCallback(TenantKey.OVERDUE_CONFIG, overdueCacheInvalidationCallback);
     }
 
@@ -117,6 +122,7 @@ public class DefaultOverdueService implements OverdueService {
     public void start() {
         checkNotifier.start();
         asyncNotifier.start();
+        sweepNotifier.start();
     }
 
     @LifecycleHandlerType(LifecycleLevel.STOP_SERVICE)
@@ -128,6 +134,7 @@ public class DefaultOverdueService implements OverdueService {
         }
         checkNotifier.stop();
         asyncNotifier.stop();
+        sweepNotifier.stop();
     }
 
     @Override
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.overdue.sweeper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+import javax.inject.Named;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountInternalApi;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.entitlement.api.BlockingState;
+import org.killbill.billing.entitlement.api.BlockingStateType;
+import org.killbill.billing.invoice.api.InvoiceAccountBalance;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
+import org.killbill.billing.junction.BlockingInternalApi;
+import org.killbill.billing.junction.DefaultBlockingState;
+import org.killbill.billing.overdue.OverdueService;
+import org.killbill.billing.overdue.api.OverdueApiException;
+import org.killbill.billing.overdue.api.OverdueState;
+import org.killbill.billing.overdue.calculator.BillingStateCalculator;
+import org.killbill.billing.overdue.config.api.BillingState;
+import org.killbill.billing.overdue.config.api.OverdueException;
+import org.killbill.billing.overdue.config.api.OverdueStateSet;
+import org.killbill.billing.overdue.glue.DefaultOverdueModule;
+import org.killbill.billing.overdue.notification.OverdueCheckNotificationKey;
+import org.killbill.billing.overdue.notification.OverdueCheckNotifier;
+import org.killbill.billing.overdue.notification.OverduePoster;
+import org.killbill.billing.overdue.wrapper.OverdueWrapperFactory;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+/**
+ * Evaluates the overdue state of all the accounts of a tenant at once.
+ * <p/>
+ * Rather than computing the billing state account per account, the unpaid invoices summaries (invoice ledger) and the current
+ * overdue states are retrieved for the whole tenant with one query each, and the overdue conditions are evaluated in memory
+ * while streaming the accounts. Only the accounts whose overdue state changes are posted on the overdue check queue,
+ * which goes through the regular OverdueStateApplicator path.
+ */
+public class OverdueSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(OverdueSweeper.class);
+
+    private final AccountInternalApi accountApi;
+    private final InvoiceInternalApi invoiceApi;
+    private final BlockingInternalApi blockingApi;
+    private final BillingStateCalculator billingStateCalculator;
+    private final OverdueWrapperFactory overdueWrapperFactory;
+    private final OverduePoster checkPoster;
+    private final InternalCallContextFactory internalCallContextFactory;
+    private final Clock clock;
+
+    @Inject
+    public OverdueSweeper(final AccountInternalApi accountApi,
+                          final InvoiceInternalApi invoiceApi,
+                          final BlockingInternalApi blockingApi,
+                          final BillingStateCalculator billingStateCalculator,
+                          final OverdueWrapperFactory overdueWrapperFactory,
+                          @Named(DefaultOverdueModule.OVERDUE_NOTIFIER_CHECK_NAMED) final OverduePoster checkPoster,
+                          final InternalCallContextFactory internalCallContextFactory,
+                          final Clock clock) {
+        this.accountApi = accountApi;
+        this.invoiceApi = invoiceApi;
+        this.blockingApi = blockingApi;
+        this.billingStateCalculator = billingStateCalculator;
+        this.overdueWrapperFactory = overdueWrapperFactory;
+        this.checkPoster = checkPoster;
+        this.internalCallContextFactory = internalCallContextFactory;
+        this.clock = clock;
+    }
+
+    /**
+     * Evaluate the overdue state of all the accounts of the tenant
+     *
+     * @param context the tenant callcontext (the account record id is ignored)
+     * @return the number of accounts whose overdue state changed, and for which an overdue check has been posted
+     */
+    public int sweep(final InternalCallContext context) throws OverdueException {
+        final OverdueStateSet overdueStateSet = overdueWrapperFactory.getOverdueStateSet(context);
+        if (overdueStateSet.size() < 1) { // No configuration available
+            return 0;
+        }
+
+        // Accounts which haven't been modified since the ledger was introduced have no persisted balance yet
+        final int nbAccountsBackfilled = invoiceApi.backfillAccountBalances(context);
+        if (nbAccountsBackfilled > 0) {
+            log.info("Overdue sweep for tenantRecordId='{}': backfilled the invoice balance of {} accounts", context.getTenantRecordId(), nbAccountsBackfilled);
+        }
+
+        final Map<UUID, InvoiceAccountBalance> accountBalances = new HashMap<UUID, InvoiceAccountBalance>();
+        for (final InvoiceAccountBalance accountBalance : invoiceApi.getAccountBalanceSummariesWithUnpaidInvoices(context)) {
+            accountBalances.put(accountBalance.getAccountId(), accountBalance);
+        }
+
+        final Map<UUID, String> overdueStateNames = new HashMap<UUID, String>();
+        for (final BlockingState blockingState : blockingApi.getBlockingStatesForService(BlockingStateType.ACCOUNT, OverdueService.OVERDUE_SERVICE_NAME, context)) {
+            overdueStateNames.put(blockingState.getBlockedId(), blockingState.getStateName());
+        }
+
+        int nbAccounts = 0;
+        int nbAccountsToRefresh = 0;
+        for (final Account account : accountApi.getAccounts(context)) {
+            nbAccounts++;
+            try {
+                if (hasOverdueStateChanged(account, overdueStateSet, accountBalances.get(account.getId()), overdueStateNames.get(account.getId()), context)) {
+                    postOverdueCheck(account, context);
+                    nbAccountsToRefresh++;
+                }
+            } catch (final OverdueApiException e) {
+                log.warn("Unable to evaluate the overdue state of account " + account.getId(), e);
+            }
+        }
+
+        log.info("Overdue sweep for tenantRecordId='{}': {} accounts evaluated, {} to refresh", context.getTenantRecordId(), nbAccounts, nbAccountsToRefresh);
+        return nbAccountsToRefresh;
+    }
+
+    private boolean hasOverdueStateChanged(final Account account,
+                                           final OverdueStateSet overdueStateSet,
+                                           @Nullable final InvoiceAccountBalance accountBalance,
+                                           @Nullable final String overdueStateName,
+                                           final InternalCallContext context) throws OverdueApiException, OverdueException {
+        final LocalDate today = clock.getToday(account.getTimeZone());
+
+        final BillingState billingState;
+        if (accountBalance != null &&
+            accountBalance.getLatestTargetDateOfUnpaidInvoices() != null &&
+            accountBalance.getLatestTargetDateOfUnpaidInvoices().isAfter(today)) {
+            // Some unpaid invoices have a target date in the future, which the persisted ledger doesn't exclude
+            billingState = billingStateCalculator.calculateBillingState(account, internalCallContextFactory.createInternalTenantContext(account.getId(), context));
+        } else {
+            billingState = billingStateCalculator.calculateBillingState(account, accountBalance);
+        }
+
+        final OverdueState currentOverdueState = overdueStateSet.findState(overdueStateName == null ? DefaultBlockingState.CLEAR_STATE_NAME : overdueStateName);
+        final OverdueState nextOverdueState = overdueStateSet.calculateOverdueState(billingState, today);
+        return !currentOverdueState.getName().equals(nextOverdueState.getName());
+    }
+
+    private void postOverdueCheck(final Account account, final InternalCallContext context) {
+        final InternalCallContext accountContext = internalCallContextFactory.createInternalCallContext(account.getId(), ObjectType.ACCOUNT, context.getCreatedBy(), context.getCallOrigin(),
+                                                                                                        context.getContextUserType(), context.getUserToken(), context.getTenantRecordId());
+        final OverdueCheckNotificationKey notificationKey = new OverdueCheckNotificationKey(account.getId());
+        checkPoster.insertOverdueNotification(account.getId(), clock.getUTCNow(), OverdueCheckNotifier.OVERDUE_CHECK_NOTIFIER_QUEUE, notificationKey, accountContext);
+    }
+}
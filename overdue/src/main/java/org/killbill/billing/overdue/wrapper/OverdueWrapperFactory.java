@@ -84,7 +84,7 @@ public class OverdueWrapperFactory {
     }
 
 
-    private OverdueStateSet getOverdueStateSet(final InternalTenantContext context) throws OverdueException {
+    public OverdueStateSet getOverdueStateSet(final InternalTenantContext context) throws OverdueException {
         final OverdueConfig overdueConfig;
         try {
             overdueConfig = overdueConfigCache.getOverdueConfig(context);
@@ -30,6 +30,7 @@ import org.testng.Assert;
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceAccountBalance;
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.entitlement.api.BlockingState;
 import org.killbill.billing.overdue.glue.ApplicatorMockJunctionModule.ApplicatorBlockingApi;
@@ -127,7 +128,8 @@ public class TestOverdueHelper {
         final Invoice invoice = Mockito.mock(Invoice.class);
         Mockito.when(invoice.getInvoiceDate()).thenReturn(dateOfLastUnPaidInvoice);
         Mockito.when(invoice.getBalance()).thenReturn(BigDecimal.TEN);
-        Mockito.when(invoice.getId()).thenReturn(UUID.randomUUID());
+        final UUID invoiceId = UUID.randomUUID();
+        Mockito.when(invoice.getId()).thenReturn(invoiceId);
 
         final InvoiceItem item = Mockito.mock(InvoiceItem.class);
         final List<InvoiceItem> items = new ArrayList<InvoiceItem>();
@@ -139,6 +141,13 @@ public class TestOverdueHelper {
         invoices.add(invoice);
         Mockito.when(invoiceInternalApi.getUnpaidInvoicesByAccountId(Mockito.<UUID>any(), Mockito.<LocalDate>any(), Mockito.<InternalTenantContext>any())).thenReturn(invoices);
 
+        final InvoiceAccountBalance accountBalance = Mockito.mock(InvoiceAccountBalance.class);
+        Mockito.when(accountBalance.getNumberOfUnpaidInvoices()).thenReturn(invoices.size());
+        Mockito.when(accountBalance.getUnpaidInvoiceBalance()).thenReturn(BigDecimal.TEN);
+        Mockito.when(accountBalance.getDateOfEarliestUnpaidInvoice()).thenReturn(dateOfLastUnPaidInvoice);
+        Mockito.when(accountBalance.getIdOfEarliestUnpaidInvoice()).thenReturn(invoiceId);
+        Mockito.when(invoiceInternalApi.getAccountBalanceSummary(Mockito.<UUID>any(), Mockito.<LocalDate>any(), Mockito.<InternalTenantContext>any())).thenReturn(accountBalance);
+
         return account;
     }
 
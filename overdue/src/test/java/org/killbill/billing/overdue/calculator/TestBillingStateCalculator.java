@@ -32,6 +32,7 @@ import org.testng.annotations.Test;
 
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceAccountBalance;
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.overdue.OverdueTestSuiteNoDB;
 import org.killbill.billing.overdue.config.api.BillingState;
@@ -101,4 +102,29 @@ public class TestBillingStateCalculator extends OverdueTestSuiteNoDB {
         final SortedSet<Invoice> invoices = calc.unpaidInvoicesForAccount(new UUID(0L, 0L), DateTimeZone.UTC, internalCallContext);
         Assert.assertEquals(calc.earliest(invoices).getInvoiceDate(), now);
     }
+
+    @Test(groups = "fast")
+    public void testBillingStateFromAccountBalance() throws Exception {
+        final UUID accountId = UUID.randomUUID();
+        final UUID invoiceId = UUID.randomUUID();
+        final LocalDate invoiceDate = new LocalDate(2012, 5, 1);
+
+        final InvoiceAccountBalance accountBalance = Mockito.mock(InvoiceAccountBalance.class);
+        Mockito.when(accountBalance.getNumberOfUnpaidInvoices()).thenReturn(2);
+        Mockito.when(accountBalance.getUnpaidInvoiceBalance()).thenReturn(new BigDecimal("110.0"));
+        Mockito.when(accountBalance.getDateOfEarliestUnpaidInvoice()).thenReturn(invoiceDate);
+        Mockito.when(accountBalance.getIdOfEarliestUnpaidInvoice()).thenReturn(invoiceId);
+        Mockito.when(invoiceApi.getAccountBalanceSummary(Mockito.<UUID>any(), Mockito.<LocalDate>any(), Mockito.<InternalTenantContext>any())).thenReturn(accountBalance);
+
+        final Account account = Mockito.mock(Account.class);
+        Mockito.when(account.getId()).thenReturn(accountId);
+        Mockito.when(account.getTimeZone()).thenReturn(DateTimeZone.UTC);
+
+        final BillingState billingState = new BillingStateCalculator(invoiceApi, clock).calculateBillingState(account, internalCallContext);
+        Assert.assertEquals(billingState.getObjectId(), accountId);
+        Assert.assertEquals(billingState.getNumberOfUnpaidInvoices(), 2);
+        Assert.assertEquals(billingState.getBalanceOfUnpaidInvoices().compareTo(new BigDecimal("110.0")), 0);
+        Assert.assertEquals(billingState.getDateOfEarliestUnpaidInvoice(), invoiceDate);
+        Assert.assertEquals(billingState.getIdOfEarliestUnpaidInvoice(), invoiceId);
+    }
 }
@@ -31,6 +31,8 @@ import org.killbill.billing.platform.api.KillbillConfigSource;
 import org.killbill.billing.util.glue.KillBillModule;
 import org.killbill.clock.ClockMock;
 
+import com.google.common.collect.ImmutableList;
+
 public class ApplicatorMockJunctionModule extends KillBillModule {
 
     public ApplicatorMockJunctionModule(final KillbillConfigSource configSource) {
@@ -64,6 +66,15 @@ public class ApplicatorMockJunctionModule extends KillBillModule {
             throw new UnsupportedOperationException();
         }
 
+        @Override
+        public List<BlockingState> getBlockingStatesForService(final BlockingStateType blockingStateType, final String serviceName, final InternalTenantContext context) {
+            if (blockingState != null && blockingState.getType().equals(blockingStateType) && blockingState.getService().equals(serviceName)) {
+                return ImmutableList.<BlockingState>of(blockingState);
+            } else {
+                return ImmutableList.<BlockingState>of();
+            }
+        }
+
         @Override
         public void setBlockingState(final BlockingState state, final InternalCallContext context) {
             blockingState = state;
@@ -37,6 +37,7 @@ import org.killbill.billing.util.glue.AuditModule;
 import org.killbill.billing.util.glue.CacheModule;
 import org.killbill.billing.util.glue.CallContextModule;
 import org.killbill.billing.util.glue.CustomFieldModule;
+import org.killbill.billing.util.glue.MemoryGlobalLockerModule;
 
 import com.google.inject.name.Names;
 
@@ -55,6 +56,7 @@ public class TestOverdueModule extends DefaultOverdueModule {
         install(new CallContextModule(configSource));
         install(new CustomFieldModule(configSource));
         install(new EmailModule(configSource));
+        install(new MemoryGlobalLockerModule(configSource));
         install(new MockAccountModule(configSource));
         install(new MockEntitlementModule(configSource));
         install(new MockInvoiceModule(configSource));
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.overdue.notification;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.overdue.OverdueTestSuiteWithEmbeddedDB;
+import org.killbill.billing.overdue.notification.OverdueAsyncBusNotificationKey.OverdueAsyncBusNotificationAction;
+import org.killbill.billing.overdue.service.DefaultOverdueService;
+import org.killbill.notificationq.api.NotificationEventWithMetadata;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestOverdueAsyncBusPoster extends OverdueTestSuiteWithEmbeddedDB {
+
+    private NotificationQueue asyncBusQueue;
+
+    @Override
+    @BeforeMethod(groups = "slow")
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+        asyncBusQueue = notificationQueueService.getNotificationQueue(DefaultOverdueService.OVERDUE_SERVICE_NAME,
+                                                                      OverdueAsyncBusNotifier.OVERDUE_ASYNC_BUS_NOTIFIER_QUEUE);
+        Assert.assertTrue(asyncBusQueue.isStarted());
+    }
+
+    @Test(groups = "slow")
+    public void testShouldCoalesceNotificationsPerAction() throws Exception {
+        final UUID accountId = UUID.randomUUID();
+        final DateTime notificationTime = clock.getUTCNow().plusDays(1);
+
+        // A burst of refreshes collapses into a single notification
+        for (int i = 0; i < 5; i++) {
+            asyncPoster.insertOverdueNotification(accountId, notificationTime.plusSeconds(i), OverdueAsyncBusNotifier.OVERDUE_ASYNC_BUS_NOTIFIER_QUEUE,
+                                                  new OverdueAsyncBusNotificationKey(accountId, OverdueAsyncBusNotificationAction.REFRESH), internalCallContext);
+        }
+        List<NotificationEventWithMetadata<OverdueAsyncBusNotificationKey>> notifications = asyncBusQueue.getFutureNotificationForSearchKeys(internalCallContext.getAccountRecordId(), internalCallContext.getTenantRecordId());
+        Assert.assertEquals(notifications.size(), 1);
+        Assert.assertEquals(notifications.get(0).getEffectiveDate().compareTo(notificationTime), 0);
+
+        // A different action isn't absorbed by the pending refresh
+        asyncPoster.insertOverdueNotification(accountId, notificationTime, OverdueAsyncBusNotifier.OVERDUE_ASYNC_BUS_NOTIFIER_QUEUE,
+                                              new OverdueAsyncBusNotificationKey(accountId, OverdueAsyncBusNotificationAction.CLEAR), internalCallContext);
+        notifications = asyncBusQueue.getFutureNotificationForSearchKeys(internalCallContext.getAccountRecordId(), internalCallContext.getTenantRecordId());
+        Assert.assertEquals(notifications.size(), 2);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.overdue.sweeper;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountInternalApi;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.entitlement.api.BlockingState;
+import org.killbill.billing.entitlement.api.BlockingStateType;
+import org.killbill.billing.invoice.api.InvoiceAccountBalance;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
+import org.killbill.billing.junction.BlockingInternalApi;
+import org.killbill.billing.overdue.OverdueService;
+import org.killbill.billing.overdue.OverdueTestSuiteNoDB;
+import org.killbill.billing.overdue.caching.MockOverdueConfigCache;
+import org.killbill.billing.overdue.config.DefaultOverdueConfig;
+import org.killbill.billing.overdue.notification.OverdueCheckNotificationKey;
+import org.killbill.billing.overdue.notification.OverdueCheckNotifier;
+import org.killbill.billing.overdue.notification.OverduePoster;
+import org.killbill.billing.util.callcontext.CallOrigin;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.UserType;
+import org.killbill.billing.util.entity.DefaultPagination;
+import org.killbill.xmlloader.XMLLoader;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestOverdueSweeper extends OverdueTestSuiteNoDB {
+
+    private AccountInternalApi accountInternalApi;
+    private InvoiceInternalApi invoiceInternalApi;
+    private BlockingInternalApi blockingInternalApi;
+    private OverduePoster overduePoster;
+    private OverdueSweeper sweeper;
+
+    @Override
+    @BeforeMethod(groups = "fast")
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        final InputStream is = new ByteArrayInputStream(testOverdueHelper.getConfigXml().getBytes());
+        final DefaultOverdueConfig config = XMLLoader.getObjectFromStreamNoValidation(is, DefaultOverdueConfig.class);
+        ((MockOverdueConfigCache) overdueConfigCache).loadOverwriteDefaultOverdueConfig(config);
+
+        accountInternalApi = Mockito.mock(AccountInternalApi.class);
+        invoiceInternalApi = Mockito.mock(InvoiceInternalApi.class);
+        blockingInternalApi = Mockito.mock(BlockingInternalApi.class);
+        overduePoster = Mockito.mock(OverduePoster.class);
+        // The accounts only exist as mocks, their record ids can't be looked up
+        final InternalCallContextFactory mockInternalCallContextFactory = Mockito.mock(InternalCallContextFactory.class);
+        Mockito.when(mockInternalCallContextFactory.createInternalCallContext(Mockito.<UUID>any(), Mockito.<ObjectType>any(), Mockito.anyString(), Mockito.<CallOrigin>any(),
+                                                                              Mockito.<UserType>any(), Mockito.<UUID>any(), Mockito.anyLong()))
+               .thenReturn(internalCallContext);
+        sweeper = new OverdueSweeper(accountInternalApi, invoiceInternalApi, blockingInternalApi, calculatorBundle, overdueWrapperFactory,
+                                     overduePoster, mockInternalCallContextFactory, clock);
+    }
+
+    @Override
+    @AfterMethod(groups = "fast")
+    public void afterMethod() {
+        ((MockOverdueConfigCache) overdueConfigCache).clearOverwriteDefaultOverdueConfig();
+        super.afterMethod();
+    }
+
+    @Test(groups = "fast")
+    public void testOnlyAccountsWithStateChangesAreRefreshed() throws Exception {
+        final LocalDate today = clock.getUTCToday();
+
+        // Unpaid for 31 days, not yet blocked: OD1 is reached
+        final Account accountEnteringOD1 = createAccount();
+        final InvoiceAccountBalance balanceEnteringOD1 = createAccountBalance(accountEnteringOD1, today.minusDays(31));
+        // Unpaid for 31 days, already blocked: nothing to do
+        final Account accountInOD1 = createAccount();
+        final InvoiceAccountBalance balanceInOD1 = createAccountBalance(accountInOD1, today.minusDays(31));
+        // Unpaid for 5 days, not yet blocked: nothing to do
+        final Account accountNotOverdue = createAccount();
+        final InvoiceAccountBalance balanceNotOverdue = createAccountBalance(accountNotOverdue, today.minusDays(5));
+        // Everything was paid but still blocked: back to clear
+        final Account accountClearingOD1 = createAccount();
+        // Nothing to pay, never blocked: nothing to do
+        final Account accountClear = createAccount();
+
+        final List<Account> accounts = ImmutableList.<Account>of(accountEnteringOD1, accountInOD1, accountNotOverdue, accountClearingOD1, accountClear);
+        Mockito.when(accountInternalApi.getAccounts(Mockito.<InternalTenantContext>any())).thenReturn(new DefaultPagination<Account>((long) accounts.size(), accounts.iterator()));
+        Mockito.when(invoiceInternalApi.getAccountBalanceSummariesWithUnpaidInvoices(Mockito.<InternalTenantContext>any())).thenReturn(ImmutableList.<InvoiceAccountBalance>of(balanceEnteringOD1, balanceInOD1, balanceNotOverdue));
+        final List<BlockingState> blockingStates = ImmutableList.<BlockingState>of(createBlockingState(accountInOD1, "OD1"), createBlockingState(accountClearingOD1, "OD1"));
+        Mockito.when(blockingInternalApi.getBlockingStatesForService(Mockito.eq(BlockingStateType.ACCOUNT), Mockito.eq(OverdueService.OVERDUE_SERVICE_NAME), Mockito.<InternalTenantContext>any()))
+               .thenReturn(blockingStates);
+
+        Assert.assertEquals(sweeper.sweep(internalCallContext), 2);
+
+        Mockito.verify(overduePoster).insertOverdueNotification(Mockito.eq(accountEnteringOD1.getId()), Mockito.<DateTime>any(), Mockito.eq(OverdueCheckNotifier.OVERDUE_CHECK_NOTIFIER_QUEUE),
+                                                                Mockito.<OverdueCheckNotificationKey>any(), Mockito.<InternalCallContext>any());
+        Mockito.verify(overduePoster).insertOverdueNotification(Mockito.eq(accountClearingOD1.getId()), Mockito.<DateTime>any(), Mockito.eq(OverdueCheckNotifier.OVERDUE_CHECK_NOTIFIER_QUEUE),
+                                                                Mockito.<OverdueCheckNotificationKey>any(), Mockito.<InternalCallContext>any());
+        Mockito.verifyNoMoreInteractions(overduePoster);
+        // The missing ledgers are backfilled before the bulk query
+        final InOrder inOrder = Mockito.inOrder(invoiceInternalApi);
+        inOrder.verify(invoiceInternalApi).backfillAccountBalances(Mockito.<InternalCallContext>any());
+        inOrder.verify(invoiceInternalApi).getAccountBalanceSummariesWithUnpaidInvoices(Mockito.<InternalTenantContext>any());
+        // The billing states were computed from the bulk queries only
+        Mockito.verify(invoiceInternalApi, Mockito.never()).getAccountBalanceSummary(Mockito.<UUID>any(), Mockito.<LocalDate>any(), Mockito.<InternalTenantContext>any());
+    }
+
+    private Account createAccount() {
+        final Account account = Mockito.mock(Account.class);
+        final UUID accountId = UUID.randomUUID();
+        Mockito.when(account.getId()).thenReturn(accountId);
+        Mockito.when(account.getTimeZone()).thenReturn(DateTimeZone.UTC);
+        return account;
+    }
+
+    private InvoiceAccountBalance createAccountBalance(final Account account, final LocalDate dateOfEarliestUnpaidInvoice) {
+        // Not inlined in thenReturn: account is a mock too
+        final UUID accountId = account.getId();
+        final InvoiceAccountBalance accountBalance = Mockito.mock(InvoiceAccountBalance.class);
+        Mockito.when(accountBalance.getAccountId()).thenReturn(accountId);
+        Mockito.when(accountBalance.getNumberOfUnpaidInvoices()).thenReturn(1);
+        Mockito.when(accountBalance.getUnpaidInvoiceBalance()).thenReturn(BigDecimal.TEN);
+        Mockito.when(accountBalance.getDateOfEarliestUnpaidInvoice()).thenReturn(dateOfEarliestUnpaidInvoice);
+        Mockito.when(accountBalance.getIdOfEarliestUnpaidInvoice()).thenReturn(UUID.randomUUID());
+        Mockito.when(accountBalance.getLatestTargetDateOfUnpaidInvoices()).thenReturn(dateOfEarliestUnpaidInvoice);
+        return accountBalance;
+    }
+
+    private BlockingState createBlockingState(final Account account, final String stateName) {
+        final UUID accountId = account.getId();
+        final BlockingState blockingState = Mockito.mock(BlockingState.class);
+        Mockito.when(blockingState.getBlockedId()).thenReturn(accountId);
+        Mockito.when(blockingState.getStateName()).thenReturn(stateName);
+        return blockingState;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.payment.api.svcs;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentApiException;
+import org.killbill.billing.payment.api.PaymentInternalApi;
+import org.killbill.billing.payment.api.PaymentMethod;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.core.PaymentMethodProcessor;
+import org.killbill.billing.payment.core.PaymentProcessor;
+import org.killbill.billing.payment.core.PluginControlPaymentProcessor;
+import org.killbill.billing.payment.invoice.InvoicePaymentControlPluginApi;
+import org.killbill.billing.util.UUIDs;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+public class DefaultPaymentInternalApi implements PaymentInternalApi {
+
+    private static final boolean IS_API_PAYMENT = false;
+    private static final boolean WITH_PLUGIN_INFO = false;
+
+    private final PaymentProcessor paymentProcessor;
+    private final PaymentMethodProcessor paymentMethodProcessor;
+    private final PluginControlPaymentProcessor pluginControlPaymentProcessor;
+    private final InternalCallContextFactory internalCallContextFactory;
+
+    @Inject
+    public DefaultPaymentInternalApi(final PaymentProcessor paymentProcessor,
+                                     final PaymentMethodProcessor paymentMethodProcessor,
+                                     final PluginControlPaymentProcessor pluginControlPaymentProcessor,
+                                     final InternalCallContextFactory internalCallContextFactory) {
+        this.paymentProcessor = paymentProcessor;
+        this.paymentMethodProcessor = paymentMethodProcessor;
+        this.pluginControlPaymentProcessor = pluginControlPaymentProcessor;
+        this.internalCallContextFactory = internalCallContextFactory;
+    }
+
+    @Override
+    public Payment createPayment(final Account account, final UUID invoiceId, @Nullable final BigDecimal amount, final Iterable<PluginProperty> properties, final InternalCallContext internalContext) throws PaymentApiException {
+        final PluginProperty invoiceProperty = new PluginProperty(InvoicePaymentControlPluginApi.PROP_IPCD_INVOICE_ID, invoiceId.toString(), false);
+        return pluginControlPaymentProcessor.createPurchase(IS_API_PAYMENT,
+                                                            account,
+                                                            account.getPaymentMethodId(),
+                                                            null,
+                                                            amount,
+                                                            account.getCurrency(),
+                                                            UUIDs.randomUUID().toString(),
+                                                            UUIDs.randomUUID().toString(),
+                                                            Iterables.<PluginProperty>concat(properties, ImmutableList.<PluginProperty>of(invoiceProperty)),
+                                                            ImmutableList.<String>of(InvoicePaymentControlPluginApi.PLUGIN_NAME),
+                                                            internalCallContextFactory.createCallContext(internalContext),
+                                                            internalContext);
+    }
+
+    @Override
+    public Payment getPayment(final UUID paymentId, final Iterable<PluginProperty> properties, final InternalTenantContext context) throws PaymentApiException {
+        return paymentProcessor.getPayment(paymentId, WITH_PLUGIN_INFO, properties, internalCallContextFactory.createTenantContext(context), context);
+    }
+
+    @Override
+    public PaymentMethod getPaymentMethodById(final UUID paymentMethodId, final boolean includedInactive, final Iterable<PluginProperty> properties, final InternalTenantContext context) throws PaymentApiException {
+        return paymentMethodProcessor.getPaymentMethodById(paymentMethodId, includedInactive, WITH_PLUGIN_INFO, properties, internalCallContextFactory.createTenantContext(context), context);
+    }
+
+    @Override
+    public List<Payment> getAccountPayments(final UUID accountId, final InternalTenantContext context) throws PaymentApiException {
+        return paymentProcessor.getAccountPayments(accountId, WITH_PLUGIN_INFO, internalCallContextFactory.createTenantContext(context), context);
+    }
+
+    @Override
+    public Iterable<Payment> getAccountPaymentsInBatches(final int batchSize, final InternalTenantContext context) {
+        return paymentProcessor.getAccountPaymentsInBatches(batchSize, context);
+    }
+
+    @Override
+    public List<PaymentMethod> getPaymentMethods(final Account account, final Iterable<PluginProperty> properties, final InternalTenantContext context) throws PaymentApiException {
+        return paymentMethodProcessor.getPaymentMethods(account.getId(), WITH_PLUGIN_INFO, properties, context);
+    }
+}
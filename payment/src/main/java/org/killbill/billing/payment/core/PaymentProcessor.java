@@ -26,8 +26,15 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -61,6 +68,8 @@ import org.killbill.billing.tag.TagInternalApi;
 import org.killbill.billing.util.callcontext.CallContext;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.config.PaymentConfig;
+import org.killbill.billing.util.entity.DefaultPagination;
 import org.killbill.billing.util.entity.Pagination;
 import org.killbill.billing.util.entity.dao.DefaultPaginationHelper.EntityPaginationBuilder;
 import org.killbill.billing.util.entity.dao.DefaultPaginationHelper.SourcePaginationBuilder;
@@ -70,8 +79,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
@@ -87,6 +99,8 @@ public class PaymentProcessor extends ProcessorBase {
 
     private final PaymentAutomatonRunner paymentAutomatonRunner;
     private final IncompletePaymentTransactionTask incompletePaymentTransactionTask;
+    private final int pluginInfoConcurrency;
+    private final long pluginInfoTimeoutMs;
 
     private static final Logger log = LoggerFactory.getLogger(PaymentProcessor.class);
 
@@ -101,10 +115,13 @@ public class PaymentProcessor extends ProcessorBase {
                             @Named(PLUGIN_EXECUTOR_NAMED) final ExecutorService executor,
                             final PaymentAutomatonRunner paymentAutomatonRunner,
                             final IncompletePaymentTransactionTask incompletePaymentTransactionTask,
+                            final PaymentConfig paymentConfig,
                             final Clock clock) {
         super(pluginRegistry, accountUserApi, paymentDao, tagUserApi, locker, executor, internalCallContextFactory, invoiceApi, clock);
         this.paymentAutomatonRunner = paymentAutomatonRunner;
         this.incompletePaymentTransactionTask = incompletePaymentTransactionTask;
+        this.pluginInfoConcurrency = Math.max(1, paymentConfig.getPaymentPluginInfoConcurrency());
+        this.pluginInfoTimeoutMs = paymentConfig.getPaymentPluginInfoTimeout().getMillis();
     }
 
     public Payment createAuthorization(final boolean isApiPayment, @Nullable final UUID attemptId, final Account account, @Nullable final UUID paymentMethodId, @Nullable final UUID paymentId, final BigDecimal amount, final Currency currency,
@@ -164,34 +181,72 @@ public class PaymentProcessor extends ProcessorBase {
         final List<PaymentModelDao> paymentsModelDao = paymentDao.getPaymentsForAccount(accountId, tenantContext);
         final List<PaymentTransactionModelDao> transactionsModelDao = paymentDao.getTransactionsForAccount(accountId, tenantContext);
 
-        final Map<UUID, PaymentPluginApi> paymentPluginByPaymentMethodId = new HashMap<UUID, PaymentPluginApi>();
-        final Collection<UUID> absentPlugins = new HashSet<UUID>();
+        final Map<UUID, List<PaymentTransactionInfoPlugin>> pluginInfoByPaymentId;
+        if (withPluginInfo) {
+            final Map<UUID, PaymentPluginApi> paymentPluginByPaymentMethodId = new HashMap<UUID, PaymentPluginApi>();
+            final Collection<UUID> absentPlugins = new HashSet<UUID>();
+            pluginInfoByPaymentId = getPaymentTransactionInfoPluginsIfNeeded(paymentsModelDao,
+                                                                             new Function<PaymentModelDao, PaymentPluginApi>() {
+                                                                                 @Override
+                                                                                 public PaymentPluginApi apply(final PaymentModelDao paymentModelDao) {
+                                                                                     PaymentPluginApi pluginApi = paymentPluginByPaymentMethodId.get(paymentModelDao.getPaymentMethodId());
+                                                                                     if (pluginApi == null && !absentPlugins.contains(paymentModelDao.getPaymentMethodId())) {
+                                                                                         try {
+                                                                                             pluginApi = getPaymentProviderPlugin(paymentModelDao.getPaymentMethodId(), tenantContext);
+                                                                                             paymentPluginByPaymentMethodId.put(paymentModelDao.getPaymentMethodId(), pluginApi);
+                                                                                         } catch (final PaymentApiException e) {
+                                                                                             log.warn("Unable to retrieve pluginApi for payment method " + paymentModelDao.getPaymentMethodId());
+                                                                                             absentPlugins.add(paymentModelDao.getPaymentMethodId());
+                                                                                         }
+                                                                                     }
+                                                                                     return pluginApi;
+                                                                                 }
+                                                                             },
+                                                                             context);
+        } else {
+            pluginInfoByPaymentId = ImmutableMap.<UUID, List<PaymentTransactionInfoPlugin>>of();
+        }
+
         return Lists.<PaymentModelDao, Payment>transform(paymentsModelDao,
                                                          new Function<PaymentModelDao, Payment>() {
                                                              @Override
                                                              public Payment apply(final PaymentModelDao paymentModelDao) {
-                                                                 List<PaymentTransactionInfoPlugin> pluginInfo = null;
-
-                                                                 if (withPluginInfo) {
-                                                                     PaymentPluginApi pluginApi = paymentPluginByPaymentMethodId.get(paymentModelDao.getPaymentMethodId());
-                                                                     if (pluginApi == null && !absentPlugins.contains(paymentModelDao.getPaymentMethodId())) {
-                                                                         try {
-                                                                             pluginApi = getPaymentProviderPlugin(paymentModelDao.getPaymentMethodId(), tenantContext);
-                                                                             paymentPluginByPaymentMethodId.put(paymentModelDao.getPaymentMethodId(), pluginApi);
-                                                                         } catch (final PaymentApiException e) {
-                                                                             log.warn("Unable to retrieve pluginApi for payment method " + paymentModelDao.getPaymentMethodId());
-                                                                             absentPlugins.add(paymentModelDao.getPaymentMethodId());
-                                                                         }
-                                                                     }
-
-                                                                     pluginInfo = getPaymentTransactionInfoPluginsIfNeeded(pluginApi, paymentModelDao, context);
-                                                                 }
-
-                                                                 return toPayment(paymentModelDao, transactionsModelDao, pluginInfo, tenantContext);
+                                                                 return toPayment(paymentModelDao, transactionsModelDao, pluginInfoByPaymentId.get(paymentModelDao.getId()), tenantContext);
                                                              }
                                                          });
     }
 
+    // Pages through the payments of the account by record_id, without plugin info: only one batch is kept in memory at a time
+    public Iterable<Payment> getAccountPaymentsInBatches(final int batchSize, final InternalTenantContext tenantContext) {
+        return new Iterable<Payment>() {
+            @Override
+            public Iterator<Payment> iterator() {
+                return new AbstractIterator<Payment>() {
+
+                    private Iterator<PaymentModelDao> currentBatch = ImmutableList.<PaymentModelDao>of().iterator();
+                    private List<PaymentTransactionModelDao> currentBatchTransactions = ImmutableList.<PaymentTransactionModelDao>of();
+                    private Long lastRecordId = 0L;
+                    private boolean lastBatch = false;
+
+                    @Override
+                    protected Payment computeNext() {
+                        if (!currentBatch.hasNext() && !lastBatch) {
+                            final List<PaymentModelDao> payments = paymentDao.getPaymentsForAccountAfterRecordId(lastRecordId, batchSize, tenantContext);
+                            lastBatch = payments.size() < batchSize;
+                            if (!payments.isEmpty()) {
+                                final Long toRecordId = payments.get(payments.size() - 1).getRecordId();
+                                currentBatchTransactions = paymentDao.getTransactionsForPaymentRecordIdRange(lastRecordId, toRecordId, tenantContext);
+                                lastRecordId = toRecordId;
+                            }
+                            currentBatch = payments.iterator();
+                        }
+                        return currentBatch.hasNext() ? toPayment(currentBatch.next(), currentBatchTransactions, null, tenantContext) : endOfData();
+                    }
+                };
+            }
+        };
+    }
+
     public Payment getPayment(final UUID paymentId, final boolean withPluginInfo, final Iterable<PluginProperty> properties, final TenantContext tenantContext, final InternalTenantContext internalTenantContext) throws PaymentApiException {
         final PaymentModelDao paymentModelDao = paymentDao.getPayment(paymentId, internalTenantContext);
         if (paymentModelDao == null) {
@@ -224,20 +279,28 @@ public class PaymentProcessor extends ProcessorBase {
 
     public Pagination<Payment> getPayments(final Long offset, final Long limit, final String pluginName, final boolean withPluginInfo, final Iterable<PluginProperty> properties, final TenantContext tenantContext, final InternalTenantContext internalTenantContext) throws PaymentApiException {
         final PaymentPluginApi pluginApi = withPluginInfo ? getPaymentPluginApi(pluginName) : null;
+        final Map<UUID, List<PaymentTransactionInfoPlugin>> pluginInfoByPaymentId = new HashMap<UUID, List<PaymentTransactionInfoPlugin>>();
 
         return getEntityPagination(limit,
                                    new SourcePaginationBuilder<PaymentModelDao, PaymentApiException>() {
                                        @Override
                                        public Pagination<PaymentModelDao> build() {
                                            // Find all payments for all accounts
-                                           return paymentDao.getPayments(pluginName, offset, limit, internalTenantContext);
+                                           final Pagination<PaymentModelDao> payments = paymentDao.getPayments(pluginName, offset, limit, internalTenantContext);
+                                           if (pluginApi == null) {
+                                               return payments;
+                                           }
+
+                                           // Retrieve the plugin info for the whole page upfront, so that the plugin calls can be issued concurrently
+                                           final List<PaymentModelDao> paymentModelDaos = ImmutableList.<PaymentModelDao>copyOf(payments);
+                                           pluginInfoByPaymentId.putAll(getPaymentTransactionInfoPluginsIfNeeded(paymentModelDaos, Functions.constant(pluginApi), tenantContext));
+                                           return new DefaultPagination<PaymentModelDao>(payments, limit, paymentModelDaos.iterator());
                                        }
                                    },
                                    new Function<PaymentModelDao, Payment>() {
                                        @Override
                                        public Payment apply(final PaymentModelDao paymentModelDao) {
-                                           final List<PaymentTransactionInfoPlugin> pluginInfo = getPaymentTransactionInfoPluginsIfNeeded(pluginApi, paymentModelDao, tenantContext);
-                                           return toPayment(paymentModelDao.getId(), pluginInfo, internalTenantContext);
+                                           return toPayment(paymentModelDao.getId(), pluginInfoByPaymentId.get(paymentModelDao.getId()), internalTenantContext);
                                        }
                                    }
                                   );
@@ -341,7 +404,68 @@ public class PaymentProcessor extends ProcessorBase {
         return getPayment(nonNullPaymentId, true, properties, callContext, internalCallContext);
     }
 
-    // Used in bulk get API (getAccountPayments / getPayments)
+    // Used in bulk get API (getAccountPayments / getPayments): the plugin calls are dispatched on the plugin executor, with at most
+    // pluginInfoConcurrency calls in flight for this request. Payments whose plugin info couldn't be retrieved before the deadline
+    // (or whose plugin call failed) are returned without plugin info.
+    private Map<UUID, List<PaymentTransactionInfoPlugin>> getPaymentTransactionInfoPluginsIfNeeded(final Iterable<PaymentModelDao> paymentModelDaos,
+                                                                                                    final Function<? super PaymentModelDao, PaymentPluginApi> pluginApiFunction,
+                                                                                                    final TenantContext context) {
+        final Map<UUID, List<PaymentTransactionInfoPlugin>> result = new HashMap<UUID, List<PaymentTransactionInfoPlugin>>();
+
+        final CompletionService<List<PaymentTransactionInfoPlugin>> completionService = new ExecutorCompletionService<List<PaymentTransactionInfoPlugin>>(executor);
+        final Map<Future<List<PaymentTransactionInfoPlugin>>, UUID> inFlight = new HashMap<Future<List<PaymentTransactionInfoPlugin>>, UUID>();
+        final Iterator<PaymentModelDao> iterator = paymentModelDaos.iterator();
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pluginInfoTimeoutMs);
+        try {
+            while (true) {
+                while (inFlight.size() < pluginInfoConcurrency && iterator.hasNext()) {
+                    final PaymentModelDao paymentModelDao = iterator.next();
+                    final PaymentPluginApi pluginApi = pluginApiFunction.apply(paymentModelDao);
+                    if (pluginApi == null) {
+                        continue;
+                    }
+                    final Future<List<PaymentTransactionInfoPlugin>> future = completionService.submit(new Callable<List<PaymentTransactionInfoPlugin>>() {
+                        @Override
+                        public List<PaymentTransactionInfoPlugin> call() {
+                            return getPaymentTransactionInfoPluginsIfNeeded(pluginApi, paymentModelDao, context);
+                        }
+                    });
+                    inFlight.put(future, paymentModelDao.getId());
+                }
+
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+
+                final long remainingNanos = deadlineNanos - System.nanoTime();
+                final Future<List<PaymentTransactionInfoPlugin>> completed = remainingNanos > 0 ? completionService.poll(remainingNanos, TimeUnit.NANOSECONDS) : null;
+                if (completed == null) {
+                    log.warn("Timeout while retrieving plugin info, only {} payment(s) will include it", result.size());
+                    break;
+                }
+
+                final UUID paymentId = inFlight.remove(completed);
+                try {
+                    final List<PaymentTransactionInfoPlugin> pluginInfo = completed.get();
+                    if (pluginInfo != null) {
+                        result.put(paymentId, pluginInfo);
+                    }
+                } catch (final ExecutionException e) {
+                    log.warn("Unable to retrieve plugin info for payment " + paymentId, e.getCause());
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while retrieving plugin info, only {} payment(s) will include it", result.size());
+        } finally {
+            for (final Future<List<PaymentTransactionInfoPlugin>> future : inFlight.keySet()) {
+                future.cancel(true);
+            }
+        }
+
+        return result;
+    }
+
     private List<PaymentTransactionInfoPlugin> getPaymentTransactionInfoPluginsIfNeeded(@Nullable final PaymentPluginApi pluginApi, final PaymentModelDao paymentModelDao, final TenantContext context) {
         if (pluginApi == null) {
             return null;
@@ -18,7 +18,16 @@
 package org.killbill.billing.payment.core.janitor;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.account.api.AccountApiException;
@@ -39,6 +48,7 @@ import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
 import org.killbill.billing.util.callcontext.UserType;
 import org.killbill.billing.util.config.PaymentConfig;
+import org.killbill.billing.util.entity.dao.EntityModelDao;
 import org.killbill.billing.util.globallocker.LockerType;
 import org.killbill.clock.Clock;
 import org.killbill.commons.locker.GlobalLock;
@@ -48,7 +58,11 @@ import org.killbill.notificationq.api.NotificationQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-abstract class CompletionTaskBase<T> implements Runnable {
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+abstract class CompletionTaskBase<T extends EntityModelDao<?>> implements Runnable {
 
     protected Logger log = LoggerFactory.getLogger(CompletionTaskBase.class);
 
@@ -61,6 +75,11 @@ abstract class CompletionTaskBase<T> implements Runnable {
     protected final AccountInternalApi accountInternalApi;
     protected final OSGIServiceRegistration<PaymentPluginApi> pluginRegistry;
     protected final GlobalLocker locker;
+    protected final ExecutorService janitorWorkersExecutor;
+
+    // Number of items left to process, as seen at the beginning of the last run
+    private final AtomicLong backlog = new AtomicLong();
+    private final Meter processedItems;
 
     protected NotificationQueue janitorQueue;
 
@@ -69,7 +88,8 @@ abstract class CompletionTaskBase<T> implements Runnable {
     public CompletionTaskBase(final InternalCallContextFactory internalCallContextFactory, final PaymentConfig paymentConfig,
                               final PaymentDao paymentDao, final Clock clock, final PaymentStateMachineHelper paymentStateMachineHelper,
                               final PaymentControlStateMachineHelper retrySMHelper, final AccountInternalApi accountInternalApi,
-                              final OSGIServiceRegistration<PaymentPluginApi> pluginRegistry, final GlobalLocker locker) {
+                              final OSGIServiceRegistration<PaymentPluginApi> pluginRegistry, final GlobalLocker locker,
+                              final ExecutorService janitorWorkersExecutor, final MetricRegistry metricRegistry) {
         this.internalCallContextFactory = internalCallContextFactory;
         this.paymentConfig = paymentConfig;
         this.paymentDao = paymentDao;
@@ -79,7 +99,18 @@ abstract class CompletionTaskBase<T> implements Runnable {
         this.accountInternalApi = accountInternalApi;
         this.pluginRegistry = pluginRegistry;
         this.locker = locker;
+        this.janitorWorkersExecutor = janitorWorkersExecutor;
         this.isStopped = false;
+
+        final String metricPrefix = MetricRegistry.name(Janitor.class, getClass().getSimpleName());
+        this.processedItems = metricRegistry.meter(MetricRegistry.name(metricPrefix, "processed"));
+        metricRegistry.remove(MetricRegistry.name(metricPrefix, "backlog"));
+        metricRegistry.register(MetricRegistry.name(metricPrefix, "backlog"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return backlog.get();
+            }
+        });
     }
 
     @Override
@@ -89,15 +120,108 @@ abstract class CompletionTaskBase<T> implements Runnable {
             return;
         }
         final Iterable<T> items = getItemsForIteration();
+
+        // Each shard is processed sequentially by a janitor worker, and we wait for all of them so that runs don't overlap
+        final List<Future<?>> futures = new LinkedList<Future<?>>();
+        for (final List<T> shard : shardItems(items)) {
+            futures.add(janitorWorkersExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    processShard(shard);
+                }
+            }));
+        }
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.info("Janitor run got interrupted");
+                return;
+            } catch (final ExecutionException e) {
+                log.warn("Janitor failed to process shard", e.getCause());
+            }
+        }
+    }
+
+    //
+    // Items are partitioned by account, so that a given account is only worked on by a single worker at a time. Within each shard,
+    // items are interleaved across tenants, so that a tenant with a large backlog doesn't delay the other ones.
+    //
+    private List<List<T>> shardItems(final Iterable<T> items) {
+        final Map<Long, LinkedList<T>> itemsPerTenant = new LinkedHashMap<Long, LinkedList<T>>();
+        long nbItems = 0;
+        for (final T item : items) {
+            LinkedList<T> itemsForTenant = itemsPerTenant.get(item.getTenantRecordId());
+            if (itemsForTenant == null) {
+                itemsForTenant = new LinkedList<T>();
+                itemsPerTenant.put(item.getTenantRecordId(), itemsForTenant);
+            }
+            itemsForTenant.add(item);
+            nbItems++;
+        }
+        backlog.set(nbItems);
+
+        final int nbShards = Math.max(1, paymentConfig.getJanitorThreadNb());
+        final List<List<T>> shards = new ArrayList<List<T>>(nbShards);
+        for (int i = 0; i < nbShards; i++) {
+            shards.add(new LinkedList<T>());
+        }
+
+        while (!itemsPerTenant.isEmpty()) {
+            final Iterator<LinkedList<T>> iterator = itemsPerTenant.values().iterator();
+            while (iterator.hasNext()) {
+                final LinkedList<T> itemsForTenant = iterator.next();
+                final T item = itemsForTenant.removeFirst();
+                final long accountRecordId = item.getAccountRecordId() != null ? item.getAccountRecordId() : 0L;
+                shards.get((int) (accountRecordId % nbShards)).add(item);
+                if (itemsForTenant.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        final List<List<T>> result = new LinkedList<List<T>>();
+        for (final List<T> shard : shards) {
+            if (!shard.isEmpty()) {
+                result.add(shard);
+            }
+        }
+        return result;
+    }
+
+    private void processShard(final Iterable<T> items) {
         for (final T item : items) {
             if (isStopped) {
                 log.info("Janitor was requested to stop");
                 return;
             }
+
+            // Claim the item, so that janitors running on other nodes skip it: the lock is released when we are done
+            // (or when the database connection goes away, if this node dies)
+            final GlobalLock lock;
             try {
-                doIteration(item);
+                lock = locker.lockWithNumberOfTries(LockerType.PAYMENT_JANITOR.toString(), item.getId().toString(), 1);
+            } catch (final LockFailedException e) {
+                log.debug("Janitor skipping item {}, claimed by another node", item.getId());
+                backlog.decrementAndGet();
+                continue;
+            }
+
+            try {
+                // The item may have been completed since we fetched the page (e.g. by another node, which released its claim in between)
+                final T rehydratedItem = rehydrateItem(item);
+                if (rehydratedItem == null) {
+                    log.debug("Janitor skipping item {}, already completed", item.getId());
+                    continue;
+                }
+                doIteration(rehydratedItem);
             } catch (final IllegalStateException e) {
                 log.warn(e.getMessage());
+            } finally {
+                lock.release();
+                backlog.decrementAndGet();
+                processedItems.mark();
             }
         }
     }
@@ -108,6 +232,9 @@ abstract class CompletionTaskBase<T> implements Runnable {
 
     public abstract Iterable<T> getItemsForIteration();
 
+    // Return the current version of the item, or null if it doesn't need to be processed anymore
+    public abstract T rehydrateItem(final T item);
+
     public abstract void doIteration(final T item);
 
     public abstract void processPaymentEvent(final PaymentInternalEvent event, final NotificationQueue janitorQueue) throws IOException;
@@ -21,9 +21,11 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import org.joda.time.DateTime;
 import org.killbill.billing.account.api.AccountInternalApi;
@@ -41,6 +43,7 @@ import org.killbill.billing.payment.dao.PaymentDao;
 import org.killbill.billing.payment.dao.PaymentMethodModelDao;
 import org.killbill.billing.payment.dao.PaymentModelDao;
 import org.killbill.billing.payment.dao.PaymentTransactionModelDao;
+import org.killbill.billing.payment.glue.PaymentModule;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
@@ -49,12 +52,14 @@ import org.killbill.billing.util.callcontext.CallContext;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
 import org.killbill.billing.util.config.PaymentConfig;
+import org.killbill.billing.util.entity.Pagination;
 import org.killbill.clock.Clock;
 import org.killbill.commons.locker.GlobalLocker;
 import org.killbill.notificationq.api.NotificationEvent;
 import org.killbill.notificationq.api.NotificationQueue;
 import org.skife.config.TimeSpan;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -73,33 +78,68 @@ public class IncompletePaymentTransactionTask extends CompletionTaskBase<Payment
     public IncompletePaymentTransactionTask(final InternalCallContextFactory internalCallContextFactory, final PaymentConfig paymentConfig,
                                             final PaymentDao paymentDao, final Clock clock,
                                             final PaymentStateMachineHelper paymentStateMachineHelper, final PaymentControlStateMachineHelper retrySMHelper, final AccountInternalApi accountInternalApi,
-                                            final OSGIServiceRegistration<PaymentPluginApi> pluginRegistry, final GlobalLocker locker) {
-        super(internalCallContextFactory, paymentConfig, paymentDao, clock, paymentStateMachineHelper, retrySMHelper, accountInternalApi, pluginRegistry, locker);
+                                            final OSGIServiceRegistration<PaymentPluginApi> pluginRegistry, final GlobalLocker locker,
+                                            @Named(PaymentModule.JANITOR_WORKERS_EXECUTOR_NAMED) final ExecutorService janitorWorkersExecutor, final MetricRegistry metricRegistry) {
+        super(internalCallContextFactory, paymentConfig, paymentDao, clock, paymentStateMachineHelper, retrySMHelper, accountInternalApi, pluginRegistry, locker, janitorWorkersExecutor, metricRegistry);
     }
 
+    //
+    // Transactions are mostly fixed through bus events and the janitor notification queue (see processNotification). The periodic run is a safety net for
+    // UNKNOWN transactions for which we missed the event: we only look at the ones past the plugin timeout (the plugin call may still be in flight before that)
+    // and within the notification retry window (past that window, we gave up on the transaction anyway).
+    //
     @Override
     public Iterable<PaymentTransactionModelDao> getItemsForIteration() {
-        // This is not triggered by Janitor proper but instead relies on bus event + notificationQ
-        return ImmutableList.of();
+        final DateTime now = clock.getUTCNow();
+        final DateTime createdBeforeDate = now.minusMillis((int) paymentConfig.getPaymentPluginTimeout().getMillis());
+        long retryWindowMs = 0;
+        for (final TimeSpan retry : paymentConfig.getIncompleteTransactionsRetries()) {
+            retryWindowMs += retry.getMillis();
+        }
+        final DateTime createdAfterDate = now.minus(retryWindowMs);
+
+        final Pagination<PaymentTransactionModelDao> incompleteTransactions = paymentDao.getByTransactionStatusAcrossTenants(ImmutableList.of(TransactionStatus.UNKNOWN), createdBeforeDate, createdAfterDate,
+                                                                                                                              0L, (long) paymentConfig.getJanitorMaxAttemptsPerRun());
+        if (incompleteTransactions.getTotalNbRecords() > 0) {
+            log.info("Janitor IncompletePaymentTransactionTask start run: found {} incomplete transactions", incompleteTransactions.getTotalNbRecords());
+        }
+        return incompleteTransactions;
+    }
+
+    @Override
+    public PaymentTransactionModelDao rehydrateItem(final PaymentTransactionModelDao paymentTransaction) {
+        final InternalTenantContext internalTenantContext = internalCallContextFactory.createInternalTenantContext(paymentTransaction.getTenantRecordId(), paymentTransaction.getAccountRecordId());
+        final PaymentTransactionModelDao rehydratedPaymentTransaction = paymentDao.getPaymentTransaction(paymentTransaction.getId(), internalTenantContext);
+        return rehydratedPaymentTransaction != null && TRANSACTION_STATUSES_TO_CONSIDER.contains(rehydratedPaymentTransaction.getTransactionStatus()) ? rehydratedPaymentTransaction : null;
     }
 
     @Override
     public void doIteration(final PaymentTransactionModelDao paymentTransaction) {
-        // Nothing
+        // No attempt number: the periodic run doesn't schedule notifications, the retry schedule is owned by the notification queue
+        final InternalTenantContext internalTenantContext = internalCallContextFactory.createInternalTenantContext(paymentTransaction.getTenantRecordId(), paymentTransaction.getAccountRecordId());
+        processPaymentTransaction(paymentTransaction.getId(), null, null, internalTenantContext);
     }
 
     public void processNotification(final JanitorNotificationKey notificationKey, final UUID userToken, final Long accountRecordId, final long tenantRecordId) {
-
         final InternalTenantContext internalTenantContext = internalCallContextFactory.createInternalTenantContext(tenantRecordId, accountRecordId);
+        processPaymentTransaction(notificationKey.getUuidKey(), notificationKey.getAttemptNumber(), userToken, internalTenantContext);
+    }
+
+    private void processPaymentTransaction(final UUID paymentTransactionId, @Nullable final Integer attemptNumber, @Nullable final UUID userToken, final InternalTenantContext internalTenantContext) {
         doJanitorOperationWithAccountLock(new JanitorIterationCallback() {
             @Override
             public Void doIteration() {
 
                 // State may have changed since we originally retrieved with no lock
-                final PaymentTransactionModelDao rehydratedPaymentTransaction = paymentDao.getPaymentTransaction(notificationKey.getUuidKey(), internalTenantContext);
+                final PaymentTransactionModelDao rehydratedPaymentTransaction = paymentDao.getPaymentTransaction(paymentTransactionId, internalTenantContext);
 
                 final TenantContext tenantContext = internalCallContextFactory.createTenantContext(internalTenantContext);
                 final PaymentModelDao payment = paymentDao.getPayment(rehydratedPaymentTransaction.getPaymentId(), internalTenantContext);
+                if (isPluginCallInFlight(payment, rehydratedPaymentTransaction)) {
+                    log.info("Janitor IncompletePaymentTransactionTask skipping payment {}, transaction {}: plugin call in flight", payment.getId(), paymentTransactionId);
+                    insertNewNotificationForUnresolvedTransactionIfNeeded(paymentTransactionId, attemptNumber, userToken, internalTenantContext.getAccountRecordId(), internalTenantContext.getTenantRecordId());
+                    return null;
+                }
 
                 final PaymentMethodModelDao paymentMethod = paymentDao.getPaymentMethod(payment.getPaymentMethodId(), internalTenantContext);
                 final PaymentPluginApi paymentPluginApi = getPaymentPluginApi(payment, paymentMethod.getPluginName());
@@ -130,7 +170,7 @@ public class IncompletePaymentTransactionTask extends CompletionTaskBase<Payment
                 } catch (final Exception e) {
                     paymentTransactionInfoPlugin = undefinedPaymentTransaction;
                 }
-                updatePaymentAndTransactionIfNeeded(payment, notificationKey.getAttemptNumber(), userToken, rehydratedPaymentTransaction, paymentTransactionInfoPlugin, internalTenantContext);
+                updatePaymentAndTransactionIfNeeded(payment, attemptNumber, userToken, rehydratedPaymentTransaction, paymentTransactionInfoPlugin, internalTenantContext);
                 return null;
             }
         }, internalTenantContext);
@@ -154,13 +194,19 @@ public class IncompletePaymentTransactionTask extends CompletionTaskBase<Payment
         final Boolean result = doJanitorOperationWithAccountLock(new JanitorIterationCallback() {
             @Override
             public Boolean doIteration() {
-                return updatePaymentAndTransactionInternal(payment, null, null, paymentTransaction, paymentTransactionInfoPlugin, internalTenantContext);
+                // The payment was retrieved with no lock, a plugin call may have started since
+                final PaymentModelDao rehydratedPayment = paymentDao.getPayment(payment.getId(), internalTenantContext);
+                final PaymentTransactionModelDao rehydratedPaymentTransaction = paymentDao.getPaymentTransaction(paymentTransaction.getId(), internalTenantContext);
+                if (!TRANSACTION_STATUSES_TO_CONSIDER.contains(rehydratedPaymentTransaction.getTransactionStatus()) || isPluginCallInFlight(rehydratedPayment, rehydratedPaymentTransaction)) {
+                    return false;
+                }
+                return updatePaymentAndTransactionInternal(rehydratedPayment, null, null, rehydratedPaymentTransaction, paymentTransactionInfoPlugin, internalTenantContext);
             }
         }, internalTenantContext);
         return result != null && result;
     }
 
-    private boolean updatePaymentAndTransactionIfNeeded(final PaymentModelDao payment, final int attemptNumber, final UUID userToken, final PaymentTransactionModelDao paymentTransaction, final PaymentTransactionInfoPlugin paymentTransactionInfoPlugin, final InternalTenantContext internalTenantContext) {
+    private boolean updatePaymentAndTransactionIfNeeded(final PaymentModelDao payment, @Nullable final Integer attemptNumber, @Nullable final UUID userToken, final PaymentTransactionModelDao paymentTransaction, final PaymentTransactionInfoPlugin paymentTransactionInfoPlugin, final InternalTenantContext internalTenantContext) {
         if (!TRANSACTION_STATUSES_TO_CONSIDER.contains(paymentTransaction.getTransactionStatus())) {
             // Nothing to do
             return false;
@@ -219,6 +265,20 @@ public class IncompletePaymentTransactionTask extends CompletionTaskBase<Payment
 
     }
 
+    //
+    // Direct payments call the plugin outside of the account lock, with the transaction row in UNKNOWN (either created for the call, or a PENDING row reserved
+    // for its completion, see PaymentLeavingStateCallback): the plugin result may still come back and would be dropped if we modified the row in the meantime
+    // (see PaymentAutomatonDAOHelper#isPaymentTransactionModifiedSinceReservation). Unlike an UNKNOWN result recorded by the state machine, such a row doesn't
+    // have its payment in the errored state yet. Past the plugin timeout, the call is over: the result was lost (e.g. we couldn't take the lock to record it).
+    // Must be called with the account lock.
+    //
+    private boolean isPluginCallInFlight(final PaymentModelDao payment, final PaymentTransactionModelDao paymentTransaction) {
+        return paymentTransaction.getTransactionStatus() == TransactionStatus.UNKNOWN &&
+               !paymentStateMachineHelper.getErroredStateForTransaction(paymentTransaction.getTransactionType()).equals(payment.getStateName()) &&
+               paymentTransaction.getUpdatedDate() != null &&
+               paymentTransaction.getUpdatedDate().isAfter(clock.getUTCNow().minusMillis((int) paymentConfig.getPaymentPluginTimeout().getMillis()));
+    }
+
     // Keep the existing currentTransactionStatus if we can't obtain a better answer from the plugin; if not, return the newTransactionStatus
     private TransactionStatus computeNewTransactionStatusFromPaymentTransactionInfoPlugin(final PaymentTransactionInfoPlugin input, final TransactionStatus currentTransactionStatus) {
         final TransactionStatus newTransactionStatus = PaymentTransactionInfoPluginConverter.toTransactionStatus(input);
@@ -18,6 +18,7 @@
 package org.killbill.billing.payment.core.janitor;
 
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -50,6 +51,7 @@ public class Janitor {
 
     private final NotificationQueueService notificationQueueService;
     private final ScheduledExecutorService janitorExecutor;
+    private final ExecutorService janitorWorkersExecutor;
     private final PaymentConfig paymentConfig;
     private final IncompletePaymentAttemptTask incompletePaymentAttemptTask;
     private final IncompletePaymentTransactionTask incompletePaymentTransactionTask;
@@ -62,10 +64,12 @@ public class Janitor {
     public Janitor(final PaymentConfig paymentConfig,
                    final NotificationQueueService notificationQueueService,
                    @Named(PaymentModule.JANITOR_EXECUTOR_NAMED) final ScheduledExecutorService janitorExecutor,
+                   @Named(PaymentModule.JANITOR_WORKERS_EXECUTOR_NAMED) final ExecutorService janitorWorkersExecutor,
                    final IncompletePaymentAttemptTask incompletePaymentAttemptTask,
                    final IncompletePaymentTransactionTask incompletePaymentTransactionTask) {
         this.notificationQueueService = notificationQueueService;
         this.janitorExecutor = janitorExecutor;
+        this.janitorWorkersExecutor = janitorWorkersExecutor;
         this.paymentConfig = paymentConfig;
         this.incompletePaymentAttemptTask = incompletePaymentAttemptTask;
         this.incompletePaymentTransactionTask = incompletePaymentTransactionTask;
@@ -129,7 +133,9 @@ public class Janitor {
              * Then, awaitTermination with a timeout is required to ensure tasks completed.
              */
             janitorExecutor.shutdown();
-            final boolean success = janitorExecutor.awaitTermination(TERMINATION_TIMEOUT_SEC, TimeUnit.SECONDS);
+            janitorWorkersExecutor.shutdown();
+            final boolean success = janitorExecutor.awaitTermination(TERMINATION_TIMEOUT_SEC, TimeUnit.SECONDS) &&
+                                    janitorWorkersExecutor.awaitTermination(TERMINATION_TIMEOUT_SEC, TimeUnit.SECONDS);
             if (!success) {
                 log.warn("Janitor failed to complete termination within " + TERMINATION_TIMEOUT_SEC + "sec");
             }
@@ -55,13 +55,32 @@ public abstract class OperationCallbackBase<CallbackOperationResult, CallbackOpe
     // callback to eventually throw a OperationException, that will be used to drive the state machine in the right direction.
     //
     protected <ExceptionType extends Exception> OperationResult dispatchWithAccountLockAndTimeout(final WithAccountLockCallback<PluginDispatcherReturnType<OperationResult>, ExceptionType> callback) throws OperationException {
+        final Account account = paymentStateContext.getAccount();
+        final Callable<PluginDispatcherReturnType<OperationResult>> task = new CallableWithAccountLock<OperationResult, ExceptionType>(locker,
+                                                                                                                                       account.getExternalKey(),
+                                                                                                                                       callback);
+        return dispatch(task);
+    }
+
+    //
+    // Same as above, without taking the account lock: the caller is responsible for reserving the payment transaction (under lock)
+    // before the plugin call and for reconciling its result afterwards (see LockedPaymentLeavingStateCallback and LockedPaymentEnteringStateCallback).
+    //
+    protected <ExceptionType extends Exception> OperationResult dispatchWithTimeout(final WithAccountLockCallback<PluginDispatcherReturnType<OperationResult>, ExceptionType> callback) throws OperationException {
+        final Callable<PluginDispatcherReturnType<OperationResult>> task = new Callable<PluginDispatcherReturnType<OperationResult>>() {
+            @Override
+            public PluginDispatcherReturnType<OperationResult> call() throws ExceptionType {
+                return callback.doOperation();
+            }
+        };
+        return dispatch(task);
+    }
+
+    private OperationResult dispatch(final Callable<PluginDispatcherReturnType<OperationResult>> task) throws OperationException {
         final Account account = paymentStateContext.getAccount();
         logger.debug("Dispatching plugin call for account {}", account.getExternalKey());
 
         try {
-            final Callable<PluginDispatcherReturnType<OperationResult>> task = new CallableWithAccountLock<OperationResult, ExceptionType>(locker,
-                                                                                                                                           account.getExternalKey(),
-                                                                                                                                           callback);
             final OperationResult operationResult = paymentPluginDispatcher.dispatchWithTimeout(task);
             logger.debug("Successful plugin call for account {} with result {}", account.getExternalKey(), operationResult);
             return operationResult;
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.payment.core.sm;
+
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.core.ProcessorBase;
+import org.killbill.billing.payment.core.ProcessorBase.WithAccountLockCallback;
+import org.killbill.billing.util.globallocker.LockerType;
+import org.killbill.commons.locker.GlobalLock;
+import org.killbill.commons.locker.GlobalLocker;
+import org.killbill.commons.locker.LockFailedException;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+//
+// Takes the account lock around the short sections of the payment state machine that read or write the payment transaction
+// (reservation before the plugin call, reconciliation after it) and records for how long the lock was held.
+//
+public class PaymentAccountLockHelper {
+
+    public static final String RESERVE_PHASE = "reserve";
+    public static final String RECONCILE_PHASE = "reconcile";
+
+    private final GlobalLocker locker;
+    private final MetricRegistry metricRegistry;
+
+    public PaymentAccountLockHelper(final GlobalLocker locker, final MetricRegistry metricRegistry) {
+        this.locker = locker;
+        this.metricRegistry = metricRegistry;
+    }
+
+    public <ReturnType, ExceptionType extends Exception> ReturnType doWithAccountLock(final String accountExternalKey,
+                                                                                       final TransactionType transactionType,
+                                                                                       final String phase,
+                                                                                       final WithAccountLockCallback<ReturnType, ExceptionType> callback) throws ExceptionType, LockFailedException {
+        final GlobalLock lock = locker.lockWithNumberOfTries(LockerType.ACCNT_INV_PAY.toString(), accountExternalKey, ProcessorBase.NB_LOCK_TRY);
+        final Timer.Context lockHeldTimer = metricRegistry.timer(MetricRegistry.name(PaymentAutomatonRunner.class, "accountLock", transactionType.toString(), phase)).time();
+        try {
+            return callback.doOperation();
+        } finally {
+            lockHeldTimer.stop();
+            lock.release();
+        }
+    }
+}
@@ -126,6 +126,23 @@ public class PaymentAutomatonDAOHelper {
         paymentStateContext.setPaymentTransactionModelDao(paymentDao.getPaymentTransaction(paymentStateContext.getPaymentTransactionModelDao().getId(), internalCallContext));
     }
 
+    //
+    // Optimistic check used when the account lock is released during the plugin call: the transaction row reserved in the leaving state
+    // callback must not have been updated in between (e.g. by the Janitor or a plugin notification), using updated_date as its version.
+    // If it was, the context is refreshed with the current row and the caller should not override it with the plugin result.
+    //
+    public boolean isPaymentTransactionModifiedSinceReservation() {
+        final PaymentTransactionModelDao reservedPaymentTransaction = paymentStateContext.getPaymentTransactionModelDao();
+        final PaymentTransactionModelDao currentPaymentTransaction = paymentDao.getPaymentTransaction(reservedPaymentTransaction.getId(), internalCallContext);
+        if (currentPaymentTransaction.getTransactionStatus() == reservedPaymentTransaction.getTransactionStatus() &&
+            isSameDate(currentPaymentTransaction.getUpdatedDate(), reservedPaymentTransaction.getUpdatedDate())) {
+            return false;
+        }
+
+        paymentStateContext.setPaymentTransactionModelDao(currentPaymentTransaction);
+        return true;
+    }
+
     public PaymentPluginApi getPaymentProviderPlugin() throws PaymentApiException {
 
         final UUID paymentMethodId = paymentStateContext.getPaymentMethodId();
@@ -192,4 +209,8 @@ public class PaymentAutomatonDAOHelper {
         }
         return pluginApi;
     }
+
+    private boolean isSameDate(@Nullable final DateTime first, @Nullable final DateTime second) {
+        return first == null ? second == null : second != null && first.isEqual(second);
+    }
 }
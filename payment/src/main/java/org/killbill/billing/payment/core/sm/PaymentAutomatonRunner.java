@@ -57,6 +57,8 @@ import org.killbill.billing.payment.core.sm.payments.ChargebackOperation;
 import org.killbill.billing.payment.core.sm.payments.CreditCompleted;
 import org.killbill.billing.payment.core.sm.payments.CreditInitiated;
 import org.killbill.billing.payment.core.sm.payments.CreditOperation;
+import org.killbill.billing.payment.core.sm.payments.LockedPaymentEnteringStateCallback;
+import org.killbill.billing.payment.core.sm.payments.LockedPaymentLeavingStateCallback;
 import org.killbill.billing.payment.core.sm.payments.PurchaseCompleted;
 import org.killbill.billing.payment.core.sm.payments.PurchaseInitiated;
 import org.killbill.billing.payment.core.sm.payments.PurchaseOperation;
@@ -78,6 +80,7 @@ import org.killbill.bus.api.PersistentBus;
 import org.killbill.clock.Clock;
 import org.killbill.commons.locker.GlobalLocker;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -95,6 +98,7 @@ public class PaymentAutomatonRunner {
     protected final OSGIServiceRegistration<PaymentPluginApi> pluginRegistry;
     protected final Clock clock;
     private final PersistentBus eventBus;
+    private final PaymentAccountLockHelper accountLockHelper;
 
     @Inject
     public PaymentAutomatonRunner(@javax.inject.Named(PaymentModule.STATE_MACHINE_PAYMENT) final StateMachineConfig stateMachineConfig,
@@ -105,13 +109,15 @@ public class PaymentAutomatonRunner {
                                   final Clock clock,
                                   @Named(PLUGIN_EXECUTOR_NAMED) final ExecutorService executor,
                                   final PersistentBus eventBus,
-                                  final PaymentStateMachineHelper paymentSMHelper) {
+                                  final PaymentStateMachineHelper paymentSMHelper,
+                                  final MetricRegistry metricRegistry) {
         this.paymentSMHelper = paymentSMHelper;
         this.paymentDao = paymentDao;
         this.locker = locker;
         this.pluginRegistry = pluginRegistry;
         this.clock = clock;
         this.eventBus = eventBus;
+        this.accountLockHelper = new PaymentAccountLockHelper(locker, metricRegistry);
 
         final long paymentPluginTimeoutSec = TimeUnit.SECONDS.convert(paymentConfig.getPaymentPluginTimeout().getPeriod(), paymentConfig.getPaymentPluginTimeout().getUnit());
         this.paymentPluginDispatcher = new PluginDispatcher<OperationResult>(paymentPluginTimeoutSec, executor);
@@ -192,7 +198,21 @@ public class PaymentAutomatonRunner {
                 throw new IllegalStateException("Unsupported transaction type " + transactionType);
         }
 
-        runStateMachineOperation(currentStateName, transactionType, leavingStateCallback, operationCallback, enteringStateCallback, account.getId(), getInvoiceId(properties));
+        // The account lock is only held while reserving the transaction and while recording the plugin result, not during the plugin call itself
+        if (paymentStateContext.shouldLockAccountAndDispatch()) {
+            runStateMachineOperation(currentStateName, transactionType,
+                                     new LockedPaymentLeavingStateCallback(leavingStateCallback, accountLockHelper, paymentStateContext),
+                                     operationCallback,
+                                     new LockedPaymentEnteringStateCallback(enteringStateCallback, accountLockHelper, paymentStateContext),
+                                     account.getId(), getInvoiceId(properties));
+            if (paymentStateContext.isPluginResultNotRecorded()) {
+                throw new PaymentApiException(ErrorCode.PAYMENT_INTERNAL_ERROR,
+                                              String.format("Failed to lock account %s to record the plugin result for payment transaction %s, the transaction will be fixed by the Janitor",
+                                                            account.getExternalKey(), paymentStateContext.getPaymentTransactionModelDao().getId()));
+            }
+        } else {
+            runStateMachineOperation(currentStateName, transactionType, leavingStateCallback, operationCallback, enteringStateCallback, account.getId(), getInvoiceId(properties));
+        }
 
         return paymentStateContext.getPaymentId();
     }
@@ -51,6 +51,7 @@ public class PaymentStateContext {
     protected Currency currency;
     protected Iterable<PluginProperty> properties;
     protected boolean skipOperationForUnknownTransaction;
+    protected boolean pluginResultNotRecorded;
 
     // Can be updated later via paymentTransactionModelDao (e.g. for auth or purchase)
     protected final UUID paymentId;
@@ -96,6 +97,7 @@ public class PaymentStateContext {
         this.callContext = callContext;
         this.onLeavingStateExistingTransactions = ImmutableList.of();
         this.skipOperationForUnknownTransaction = false;
+        this.pluginResultNotRecorded = false;
     }
 
     public boolean isApiPayment() {
@@ -209,4 +211,12 @@ public class PaymentStateContext {
     public void setSkipOperationForUnknownTransaction(final boolean skipOperationForUnknownTransaction) {
         this.skipOperationForUnknownTransaction = skipOperationForUnknownTransaction;
     }
+
+    public boolean isPluginResultNotRecorded() {
+        return pluginResultNotRecorded;
+    }
+
+    public void setPluginResultNotRecorded(final boolean pluginResultNotRecorded) {
+        this.pluginResultNotRecorded = pluginResultNotRecorded;
+    }
 }
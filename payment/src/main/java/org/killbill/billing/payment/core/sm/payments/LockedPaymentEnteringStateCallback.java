@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.payment.core.sm.payments;
+
+import org.killbill.automaton.Operation.OperationCallback;
+import org.killbill.automaton.OperationResult;
+import org.killbill.automaton.State;
+import org.killbill.automaton.State.EnteringStateCallback;
+import org.killbill.automaton.State.LeavingStateCallback;
+import org.killbill.billing.payment.core.ProcessorBase.WithAccountLockCallback;
+import org.killbill.billing.payment.core.sm.PaymentAccountLockHelper;
+import org.killbill.billing.payment.core.sm.PaymentStateContext;
+import org.killbill.commons.locker.LockFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//
+// Reconcile the plugin result with the payment transaction under the account lock.
+//
+public class LockedPaymentEnteringStateCallback implements EnteringStateCallback {
+
+    private final Logger logger = LoggerFactory.getLogger(LockedPaymentEnteringStateCallback.class);
+
+    private final EnteringStateCallback delegate;
+    private final PaymentAccountLockHelper accountLockHelper;
+    private final PaymentStateContext paymentStateContext;
+
+    public LockedPaymentEnteringStateCallback(final EnteringStateCallback delegate, final PaymentAccountLockHelper accountLockHelper, final PaymentStateContext paymentStateContext) {
+        this.delegate = delegate;
+        this.accountLockHelper = accountLockHelper;
+        this.paymentStateContext = paymentStateContext;
+    }
+
+    @Override
+    public void enteringState(final State newState, final OperationCallback operationCallback, final OperationResult operationResult, final LeavingStateCallback leavingStateCallback) {
+        try {
+            accountLockHelper.doWithAccountLock(paymentStateContext.getAccount().getExternalKey(),
+                                                paymentStateContext.getTransactionType(),
+                                                PaymentAccountLockHelper.RECONCILE_PHASE,
+                                                new WithAccountLockCallback<Void, RuntimeException>() {
+                                                    @Override
+                                                    public Void doOperation() {
+                                                        delegate.enteringState(newState, operationCallback, operationResult, leavingStateCallback);
+                                                        return null;
+                                                    }
+                                                });
+        } catch (final LockFailedException e) {
+            // The transaction stays in the state it was reserved with (UNKNOWN) and will be fixed by the Janitor: let PaymentAutomatonRunner report it to the caller
+            paymentStateContext.setPluginResultNotRecorded(true);
+            logger.error("Failed to lock account {} to record plugin result {} for payment transaction {}",
+                         paymentStateContext.getAccount().getExternalKey(), operationResult,
+                         paymentStateContext.getPaymentTransactionModelDao() != null ? paymentStateContext.getPaymentTransactionModelDao().getId() : null);
+        }
+    }
+}
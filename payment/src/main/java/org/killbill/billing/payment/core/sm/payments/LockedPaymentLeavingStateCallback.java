@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.payment.core.sm.payments;
+
+import org.killbill.automaton.OperationException;
+import org.killbill.automaton.OperationResult;
+import org.killbill.automaton.State;
+import org.killbill.automaton.State.LeavingStateCallback;
+import org.killbill.billing.payment.core.ProcessorBase.WithAccountLockCallback;
+import org.killbill.billing.payment.core.sm.PaymentAccountLockHelper;
+import org.killbill.billing.payment.core.sm.PaymentStateContext;
+import org.killbill.commons.locker.LockFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//
+// Reserve the payment transaction (UNKNOWN row, or existing PENDING one) under the account lock; the lock is then released for the plugin call.
+//
+public class LockedPaymentLeavingStateCallback implements LeavingStateCallback {
+
+    private final Logger logger = LoggerFactory.getLogger(LockedPaymentLeavingStateCallback.class);
+
+    private final LeavingStateCallback delegate;
+    private final PaymentAccountLockHelper accountLockHelper;
+    private final PaymentStateContext paymentStateContext;
+
+    public LockedPaymentLeavingStateCallback(final LeavingStateCallback delegate, final PaymentAccountLockHelper accountLockHelper, final PaymentStateContext paymentStateContext) {
+        this.delegate = delegate;
+        this.accountLockHelper = accountLockHelper;
+        this.paymentStateContext = paymentStateContext;
+    }
+
+    @Override
+    public void leavingState(final State oldState) throws OperationException {
+        try {
+            accountLockHelper.doWithAccountLock(paymentStateContext.getAccount().getExternalKey(),
+                                                paymentStateContext.getTransactionType(),
+                                                PaymentAccountLockHelper.RESERVE_PHASE,
+                                                new WithAccountLockCallback<Void, OperationException>() {
+                                                    @Override
+                                                    public Void doOperation() throws OperationException {
+                                                        delegate.leavingState(oldState);
+                                                        return null;
+                                                    }
+                                                });
+        } catch (final LockFailedException e) {
+            logger.warn("Failed to lock account {}", paymentStateContext.getAccount().getExternalKey());
+            throw new OperationException(e, OperationResult.EXCEPTION);
+        }
+    }
+}
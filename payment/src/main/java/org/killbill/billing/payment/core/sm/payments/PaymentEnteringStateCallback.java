@@ -58,6 +58,13 @@ public abstract class PaymentEnteringStateCallback implements EnteringStateCallb
 
         // If the transaction was not created -- for instance we had an exception in leavingState callback then we bail; if not, then update state:
         if (paymentStateContext.getPaymentTransactionModelDao() != null && paymentStateContext.getPaymentTransactionModelDao().getId() != null) {
+            // The plugin call happened outside of the account lock: don't override a transaction that was updated in the meantime
+            if (paymentStateContext.shouldLockAccountAndDispatch() && daoHelper.isPaymentTransactionModifiedSinceReservation()) {
+                logger.warn("Payment transaction {} was modified during the plugin call, ignoring plugin result {}",
+                            paymentStateContext.getPaymentTransactionModelDao().getId(), operationResult);
+                return;
+            }
+
             final PaymentTransactionInfoPlugin paymentInfoPlugin = paymentStateContext.getPaymentTransactionInfoPlugin();
             final TransactionStatus transactionStatus = PaymentTransactionInfoPluginConverter.toTransactionStatus(paymentInfoPlugin);
             // The bus event will be posted from the transaction
@@ -89,8 +89,16 @@ public abstract class PaymentLeavingStateCallback implements LeavingStateCallbac
             // Handle PENDING cases, where we want to re-use the same transaction
             final PaymentTransactionModelDao pendingPaymentTransaction = getPendingPaymentTransaction(existingPaymentTransactions);
             if (pendingPaymentTransaction != null) {
+                // The plugin call will happen outside of the account lock: reserve the row first so that a concurrent completion of the same transaction fails here, before the plugin is called
+                final PaymentTransactionModelDao reservedPaymentTransaction = paymentStateContext.shouldLockAccountAndDispatch() ?
+                                                                              daoHelper.getPaymentDao().reservePendingPaymentTransaction(pendingPaymentTransaction, paymentStateContext.getInternalCallContext()) :
+                                                                              pendingPaymentTransaction;
+                if (reservedPaymentTransaction == null) {
+                    logger.warn("Payment transaction {} is already being completed, aborting", pendingPaymentTransaction.getId());
+                    throw new PaymentApiException(ErrorCode.PAYMENT_INVALID_OPERATION, paymentStateContext.getTransactionType(), pendingPaymentTransaction.getTransactionStatus());
+                }
                 // Set the current paymentTransaction in the context (needed for the state machine logic)
-                paymentStateContext.setPaymentTransactionModelDao(pendingPaymentTransaction);
+                paymentStateContext.setPaymentTransactionModelDao(reservedPaymentTransaction);
                 return;
             }
 
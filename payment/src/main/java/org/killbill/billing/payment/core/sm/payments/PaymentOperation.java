@@ -75,7 +75,7 @@ public abstract class PaymentOperation extends OperationCallbackBase<PaymentTran
             this.plugin = daoHelper.getPaymentProviderPlugin();
 
             if (paymentStateContext.shouldLockAccountAndDispatch()) {
-                return doOperationCallbackWithDispatchAndAccountLock();
+                return doOperationCallbackWithDispatch();
             } else {
                 return doSimpleOperationCallback();
             }
@@ -153,8 +153,12 @@ public abstract class PaymentOperation extends OperationCallbackBase<PaymentTran
         return result;
     }
 
-    private OperationResult doOperationCallbackWithDispatchAndAccountLock() throws OperationException {
-        return dispatchWithAccountLockAndTimeout(new WithAccountLockCallback<PluginDispatcherReturnType<OperationResult>, OperationException>() {
+    //
+    // The account lock is not held during the plugin call: the transaction has already been reserved under lock by the
+    // LockedPaymentLeavingStateCallback and its result is reconciled under lock by the LockedPaymentEnteringStateCallback.
+    //
+    private OperationResult doOperationCallbackWithDispatch() throws OperationException {
+        return dispatchWithTimeout(new WithAccountLockCallback<PluginDispatcherReturnType<OperationResult>, OperationException>() {
             @Override
             public PluginDispatcherReturnType<OperationResult> doOperation() throws OperationException {
                 final OperationResult result = doSimpleOperationCallback();
@@ -47,6 +47,7 @@ import org.killbill.billing.util.dao.NonEntityDao;
 import org.killbill.billing.util.entity.Entity;
 import org.killbill.billing.util.entity.Pagination;
 import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper;
+import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.KeysetPaginationIteratorBuilder;
 import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.PaginationIteratorBuilder;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
@@ -226,7 +227,7 @@ public class DefaultPaymentDao implements PaymentDao {
     @Override
     public Pagination<PaymentModelDao> getPayments(final String pluginName, final Long offset, final Long limit, final InternalTenantContext context) {
         return paginationHelper.getPagination(PaymentSqlDao.class,
-                                              new PaginationIteratorBuilder<PaymentModelDao, Payment, PaymentSqlDao>() {
+                                              new KeysetPaginationIteratorBuilder<PaymentModelDao, Payment, PaymentSqlDao>("getByPluginName", pluginName) {
                                                   @Override
                                                   public Long getCount(final PaymentSqlDao paymentSqlDao, final InternalTenantContext context) {
                                                       return paymentSqlDao.getCountByPluginName(pluginName, context);
@@ -237,6 +238,11 @@ public class DefaultPaymentDao implements PaymentDao {
                                                       final Iterator<PaymentModelDao> result = paymentSqlDao.getByPluginName(pluginName, offset, limit, context);
                                                       return result;
                                                   }
+
+                                                  @Override
+                                                  public Iterator<PaymentModelDao> build(final PaymentSqlDao paymentSqlDao, final Long fromRecordId, final Long limit, final InternalTenantContext context) {
+                                                      return paymentSqlDao.getByPluginNameFromRecordId(pluginName, fromRecordId, limit, context);
+                                                  }
                                               },
                                               offset,
                                               limit,
@@ -247,7 +253,7 @@ public class DefaultPaymentDao implements PaymentDao {
     @Override
     public Pagination<PaymentModelDao> searchPayments(final String searchKey, final Long offset, final Long limit, final InternalTenantContext context) {
         return paginationHelper.getPagination(PaymentSqlDao.class,
-                                              new PaginationIteratorBuilder<PaymentModelDao, Payment, PaymentSqlDao>() {
+                                              new KeysetPaginationIteratorBuilder<PaymentModelDao, Payment, PaymentSqlDao>("search", searchKey) {
                                                   @Override
                                                   public Long getCount(final PaymentSqlDao paymentSqlDao, final InternalTenantContext context) {
                                                       return paymentSqlDao.getSearchCount(searchKey, String.format("%%%s%%", searchKey), context);
@@ -257,6 +263,11 @@ public class DefaultPaymentDao implements PaymentDao {
                                                   public Iterator<PaymentModelDao> build(final PaymentSqlDao paymentSqlDao, final Long limit, final InternalTenantContext context) {
                                                       return paymentSqlDao.search(searchKey, String.format("%%%s%%", searchKey), offset, limit, context);
                                                   }
+
+                                                  @Override
+                                                  public Iterator<PaymentModelDao> build(final PaymentSqlDao paymentSqlDao, final Long fromRecordId, final Long limit, final InternalTenantContext context) {
+                                                      return paymentSqlDao.searchFromRecordId(searchKey, String.format("%%%s%%", searchKey), fromRecordId, limit, context);
+                                                  }
                                               },
                                               offset,
                                               limit,
@@ -294,6 +305,39 @@ public class DefaultPaymentDao implements PaymentDao {
         });
     }
 
+    //
+    // Move a PENDING transaction to UNKNOWN while its completion is in flight, provided the row still matches the given snapshot (status
+    // and updated_date, the latter serving as the version). The check and the update are a single conditional statement, so only one
+    // of several concurrent completions can win: the others get null back and must not call the plugin.
+    //
+    @Override
+    public PaymentTransactionModelDao reservePendingPaymentTransaction(final PaymentTransactionModelDao pendingPaymentTransaction, final InternalCallContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<PaymentTransactionModelDao>() {
+            @Override
+            public PaymentTransactionModelDao inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                final TransactionSqlDao transactional = entitySqlDaoWrapperFactory.become(TransactionSqlDao.class);
+                final int updated = transactional.reservePendingTransaction(pendingPaymentTransaction.getId().toString(),
+                                                                            TransactionStatus.PENDING.toString(),
+                                                                            pendingPaymentTransaction.getUpdatedDate() == null ? null : pendingPaymentTransaction.getUpdatedDate().toDate(),
+                                                                            TransactionStatus.UNKNOWN.toString(),
+                                                                            context);
+                if (updated != 1) {
+                    return null;
+                }
+
+                // Record the history and audit rows for the reservation
+                transactional.updateTransactionStatus(pendingPaymentTransaction.getId().toString(),
+                                                      pendingPaymentTransaction.getProcessedAmount(),
+                                                      pendingPaymentTransaction.getProcessedCurrency() == null ? null : pendingPaymentTransaction.getProcessedCurrency().toString(),
+                                                      TransactionStatus.UNKNOWN.toString(),
+                                                      pendingPaymentTransaction.getGatewayErrorCode(),
+                                                      pendingPaymentTransaction.getGatewayErrorMsg(),
+                                                      context);
+                return transactional.getById(pendingPaymentTransaction.getId().toString(), context);
+            }
+        });
+    }
+
     @Override
     public void updatePaymentAndTransactionOnCompletion(final UUID accountId, final UUID paymentId, final TransactionType transactionType,
                                                         final String currentPaymentStateName, @Nullable final String lastPaymentSuccessStateName,
@@ -352,6 +396,17 @@ public class DefaultPaymentDao implements PaymentDao {
         });
     }
 
+    @Override
+    public List<PaymentModelDao> getPaymentsForAccountAfterRecordId(final Long fromRecordId, final int maxNbRecords, final InternalTenantContext context) {
+        Preconditions.checkArgument(context.getAccountRecordId() != null);
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<PaymentModelDao>>() {
+            @Override
+            public List<PaymentModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(PaymentSqlDao.class).getByAccountRecordIdAfterRecordId(fromRecordId, maxNbRecords, context);
+            }
+        });
+    }
+
     @Override
     public List<PaymentModelDao> getPaymentsByStatesAcrossTenants(final String[] states, final DateTime createdBeforeDate, final DateTime createdAfterDate, final int limit) {
         return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<PaymentModelDao>>() {
@@ -373,6 +428,17 @@ public class DefaultPaymentDao implements PaymentDao {
         });
     }
 
+    @Override
+    public List<PaymentTransactionModelDao> getTransactionsForPaymentRecordIdRange(final Long fromPaymentRecordId, final Long toPaymentRecordId, final InternalTenantContext context) {
+        Preconditions.checkArgument(context.getAccountRecordId() != null);
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<PaymentTransactionModelDao>>() {
+            @Override
+            public List<PaymentTransactionModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(TransactionSqlDao.class).getByPaymentRecordIdRange(fromPaymentRecordId, toPaymentRecordId, context);
+            }
+        });
+    }
+
     @Override
     public List<PaymentTransactionModelDao> getTransactionsForPayment(final UUID paymentId, final InternalTenantContext context) {
         return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<PaymentTransactionModelDao>>() {
@@ -454,7 +520,7 @@ public class DefaultPaymentDao implements PaymentDao {
     @Override
     public Pagination<PaymentMethodModelDao> searchPaymentMethods(final String searchKey, final Long offset, final Long limit, final InternalTenantContext context) {
         return paginationHelper.getPagination(PaymentMethodSqlDao.class,
-                                              new PaginationIteratorBuilder<PaymentMethodModelDao, PaymentMethod, PaymentMethodSqlDao>() {
+                                              new KeysetPaginationIteratorBuilder<PaymentMethodModelDao, PaymentMethod, PaymentMethodSqlDao>("search", searchKey) {
                                                   @Override
                                                   public Long getCount(final PaymentMethodSqlDao paymentMethodSqlDao, final InternalTenantContext context) {
                                                       return paymentMethodSqlDao.getSearchCount(searchKey, String.format("%%%s%%", searchKey), context);
@@ -464,6 +530,11 @@ public class DefaultPaymentDao implements PaymentDao {
                                                   public Iterator<PaymentMethodModelDao> build(final PaymentMethodSqlDao paymentMethodSqlDao, final Long limit, final InternalTenantContext context) {
                                                       return paymentMethodSqlDao.search(searchKey, String.format("%%%s%%", searchKey), offset, limit, context);
                                                   }
+
+                                                  @Override
+                                                  public Iterator<PaymentMethodModelDao> build(final PaymentMethodSqlDao paymentMethodSqlDao, final Long fromRecordId, final Long limit, final InternalTenantContext context) {
+                                                      return paymentMethodSqlDao.searchFromRecordId(searchKey, String.format("%%%s%%", searchKey), fromRecordId, limit, context);
+                                                  }
                                               },
                                               offset,
                                               limit,
@@ -56,6 +56,8 @@ public interface PaymentDao {
 
     public PaymentTransactionModelDao updatePaymentWithNewTransaction(UUID paymentId, PaymentTransactionModelDao paymentTransaction, InternalCallContext context);
 
+    public PaymentTransactionModelDao reservePendingPaymentTransaction(PaymentTransactionModelDao pendingPaymentTransaction, InternalCallContext context);
+
     public void updatePaymentAndTransactionOnCompletion(UUID accountId, UUID paymentId, TransactionType transactionType, String currentPaymentStateName, String lastPaymentSuccessStateName, UUID transactionId,
                                                         TransactionStatus paymentStatus, BigDecimal processedAmount, Currency processedCurrency,
                                                         String gatewayErrorCode, String gatewayErrorMsg, InternalCallContext context);
@@ -66,10 +68,16 @@ public interface PaymentDao {
 
     public List<PaymentModelDao> getPaymentsForAccount(UUID accountId, InternalTenantContext context);
 
+    // Next payments of the account by record_id
+    public List<PaymentModelDao> getPaymentsForAccountAfterRecordId(Long fromRecordId, int maxNbRecords, InternalTenantContext context);
+
     public List<PaymentModelDao> getPaymentsByStatesAcrossTenants(String[] states, DateTime createdBeforeDate, DateTime createdAfterDate, int limit);
 
     public List<PaymentTransactionModelDao> getTransactionsForAccount(UUID accountId, InternalTenantContext context);
 
+    // Transactions of the payments of the account whose record_id is in ]fromPaymentRecordId, toPaymentRecordId]
+    public List<PaymentTransactionModelDao> getTransactionsForPaymentRecordIdRange(Long fromPaymentRecordId, Long toPaymentRecordId, InternalTenantContext context);
+
     public List<PaymentTransactionModelDao> getTransactionsForPayment(UUID paymentId, InternalTenantContext context);
 
     public PaymentAttemptModelDao getPaymentAttempt(UUID attemptId, InternalTenantContext context);
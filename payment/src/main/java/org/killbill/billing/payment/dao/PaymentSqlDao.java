@@ -61,6 +61,11 @@ public interface PaymentSqlDao extends EntitySqlDao<PaymentModelDao, Payment> {
     public PaymentModelDao getPaymentByExternalKey(@Bind("externalKey") final String externalKey,
                                                    @BindBean final InternalTenantContext context);
 
+    @SqlQuery
+    public List<PaymentModelDao> getByAccountRecordIdAfterRecordId(@Bind("fromRecordId") final Long fromRecordId,
+                                                                   @Bind("maxNbRecords") final int maxNbRecords,
+                                                                   @BindBean final InternalTenantContext context);
+
     @SqlQuery
     public List<PaymentModelDao> getPaymentsByStatesAcrossTenants(@StateCollectionBinder final Collection<String> states,
                                                                   @Bind("createdBeforeDate") final Date createdBeforeDate,
@@ -74,6 +79,13 @@ public interface PaymentSqlDao extends EntitySqlDao<PaymentModelDao, Payment> {
                                                      @Bind("rowCount") final Long rowCount,
                                                            @BindBean final InternalTenantContext context);
 
+    @SqlQuery
+    @SmartFetchSize(shouldStream = true)
+    public Iterator<PaymentModelDao> getByPluginNameFromRecordId(@Bind("pluginName") final String pluginName,
+                                                                 @Bind("fromRecordId") final Long fromRecordId,
+                                                                 @Bind("rowCount") final Long rowCount,
+                                                                 @BindBean final InternalTenantContext context);
+
     @SqlQuery
     public Long getCountByPluginName(@Bind("pluginName") final String pluginName,
                                      @BindBean final InternalTenantContext context);
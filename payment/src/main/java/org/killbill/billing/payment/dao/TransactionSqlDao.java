@@ -48,6 +48,14 @@ public interface TransactionSqlDao extends EntitySqlDao<PaymentTransactionModelD
                                  @Bind("gatewayErrorMsg") final String gatewayErrorMsg,
                                  @BindBean final InternalCallContext context);
 
+    // Not audited: the audit and history rows are written by the updateTransactionStatus call following a successful reservation
+    @SqlUpdate
+    int reservePendingTransaction(@Bind("id") final String transactionId,
+                                  @Bind("transactionStatus") final String transactionStatus,
+                                  @Bind("expectedUpdatedDate") final Date expectedUpdatedDate,
+                                  @Bind("newTransactionStatus") final String newTransactionStatus,
+                                  @BindBean final InternalCallContext context);
+
     @SqlQuery
     List<PaymentTransactionModelDao> getPaymentTransactionsByExternalKey(@Bind("transactionExternalKey") final String transactionExternalKey,
                                                                          @BindBean final InternalTenantContext context);
@@ -67,6 +75,11 @@ public interface TransactionSqlDao extends EntitySqlDao<PaymentTransactionModelD
     @SqlQuery
     public List<PaymentTransactionModelDao> getByPaymentId(@Bind("paymentId") final UUID paymentId,
                                                            @BindBean final InternalTenantContext context);
+
+    @SqlQuery
+    public List<PaymentTransactionModelDao> getByPaymentRecordIdRange(@Bind("fromPaymentRecordId") final Long fromPaymentRecordId,
+                                                                      @Bind("toPaymentRecordId") final Long toPaymentRecordId,
+                                                                      @BindBean final InternalTenantContext context);
 }
 
 
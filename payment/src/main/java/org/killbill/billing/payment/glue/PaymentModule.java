@@ -35,7 +35,9 @@ import org.killbill.billing.payment.api.DefaultPaymentApi;
 import org.killbill.billing.payment.api.DefaultPaymentGatewayApi;
 import org.killbill.billing.payment.api.PaymentApi;
 import org.killbill.billing.payment.api.PaymentGatewayApi;
+import org.killbill.billing.payment.api.PaymentInternalApi;
 import org.killbill.billing.payment.api.PaymentService;
+import org.killbill.billing.payment.api.svcs.DefaultPaymentInternalApi;
 import org.killbill.billing.payment.bus.PaymentBusEventHandler;
 import org.killbill.billing.payment.core.PaymentGatewayProcessor;
 import org.killbill.billing.payment.core.PaymentMethodProcessor;
@@ -75,6 +77,7 @@ public class PaymentModule extends KillBillModule {
     private static final String PLUGIN_THREAD_PREFIX = "Plugin-th-";
 
     public static final String JANITOR_EXECUTOR_NAMED = "JanitorExecutor";
+    public static final String JANITOR_WORKERS_EXECUTOR_NAMED = "JanitorWorkersExecutor";
     public static final String PLUGIN_EXECUTOR_NAMED = "PluginExecutor";
     public static final String RETRYABLE_NAMED = "Retryable";
 
@@ -99,10 +102,14 @@ public class PaymentModule extends KillBillModule {
     protected void installPaymentProviderPlugins(final PaymentConfig config) {
     }
 
-    protected void installJanitor() {
+    protected void installJanitor(final PaymentConfig paymentConfig) {
         final ScheduledExecutorService janitorExecutor = org.killbill.commons.concurrent.Executors.newSingleThreadScheduledExecutor("PaymentJanitor");
         bind(ScheduledExecutorService.class).annotatedWith(Names.named(JANITOR_EXECUTOR_NAMED)).toInstance(janitorExecutor);
 
+        // Shut down by Janitor#stop, with the payment service
+        final ExecutorService janitorWorkersExecutor = org.killbill.commons.concurrent.Executors.newFixedThreadPool(Math.max(1, paymentConfig.getJanitorThreadNb()), "PaymentJanitorWorker");
+        bind(ExecutorService.class).annotatedWith(Names.named(JANITOR_WORKERS_EXECUTOR_NAMED)).toInstance(janitorWorkersExecutor);
+
         bind(IncompletePaymentTransactionTask.class).asEagerSingleton();
         bind(IncompletePaymentAttemptTask.class).asEagerSingleton();
         bind(Janitor.class).asEagerSingleton();
@@ -162,6 +169,7 @@ public class PaymentModule extends KillBillModule {
         bind(new TypeLiteral<OSGIServiceRegistration<PaymentControlPluginApi>>() {}).toProvider(DefaultPaymentControlProviderPluginRegistryProvider.class).asEagerSingleton();
 
         bind(PaymentApi.class).to(DefaultPaymentApi.class).asEagerSingleton();
+        bind(PaymentInternalApi.class).to(DefaultPaymentInternalApi.class).asEagerSingleton();
         bind(PaymentGatewayApi.class).to(DefaultPaymentGatewayApi.class).asEagerSingleton();
         bind(AdminPaymentApi.class).to(DefaultAdminPaymentApi.class).asEagerSingleton();
         bind(PaymentBusEventHandler.class).asEagerSingleton();
@@ -173,7 +181,7 @@ public class PaymentModule extends KillBillModule {
         installStateMachines();
         installAutomatonRunner();
         installRetryEngines();
-        installJanitor();
+        installJanitor(paymentConfig);
     }
 
     public static final class StateMachineProvider implements Provider<StateMachineConfig> {
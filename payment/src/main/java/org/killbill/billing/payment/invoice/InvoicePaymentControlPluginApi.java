@@ -20,6 +20,8 @@ package org.killbill.billing.payment.invoice;
 import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -29,6 +31,7 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.killbill.billing.ObjectType;
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.callcontext.InternalCallContext;
@@ -75,6 +78,7 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
 
 public final class InvoicePaymentControlPluginApi implements PaymentControlPluginApi {
 
@@ -83,9 +87,18 @@ public final class InvoicePaymentControlPluginApi implements PaymentControlPlugi
     /* Don't change value String for properties as they are referenced from jaxrs without the constants which are not accessible */
     public static final String PLUGIN_NAME = "__INVOICE_PAYMENT_CONTROL_PLUGIN__";
     public static final String PROP_IPCD_INVOICE_ID = "IPCD_INVOICE_ID";
+    public static final String PROP_IPCD_PAY_ALL_INVOICES = "IPCD_PAY_ALL_INVOICES";
+    public static final String PROP_IPCD_INVOICE_IDS_WITH_AMOUNT_KEY = "IPCD_INVOICE_IDS_AMOUNTS";
     public static final String PROP_IPCD_REFUND_IDS_WITH_AMOUNT_KEY = "IPCD_REFUND_IDS_AMOUNTS";
     public static final String PROP_IPCD_REFUND_WITH_ADJUSTMENTS = "IPCD_REFUND_WITH_ADJUSTMENTS";
 
+    private static final Ordering<Invoice> INVOICE_DATE_ORDERING = Ordering.<LocalDate>natural().onResultOf(new Function<Invoice, LocalDate>() {
+        @Override
+        public LocalDate apply(final Invoice invoice) {
+            return invoice.getInvoiceDate();
+        }
+    });
+
     private final PaymentConfig paymentConfig;
     private final InvoiceInternalApi invoiceApi;
     private final TagUserApi tagApi;
@@ -144,6 +157,18 @@ public final class InvoicePaymentControlPluginApi implements PaymentControlPlugi
             final InvoicePayment existingInvoicePayment;
             switch (transactionType) {
                 case PURCHASE:
+                    final Map<UUID, BigDecimal> invoiceIdsWithAmounts = extractInvoiceIdsWithAmountFromProperties(pluginProperties);
+                    if (invoiceIdsWithAmounts != null) {
+                        // Single payment for several invoices: invoice payments already recorded are skipped by the invoice dao
+                        invoiceApi.notifyOfPayments(paymentControlContext.getPaymentId(),
+                                                    invoiceIdsWithAmounts,
+                                                    paymentControlContext.getCurrency(),
+                                                    paymentControlContext.getProcessedCurrency(),
+                                                    paymentControlContext.getCreatedDate(),
+                                                    internalContext);
+                        break;
+                    }
+
                     final UUID invoiceId = getInvoiceId(pluginProperties);
                     existingInvoicePayment = invoiceApi.getInvoicePaymentForAttempt(paymentControlContext.getPaymentId(), internalContext);
                     if (existingInvoicePayment != null) {
@@ -225,6 +250,10 @@ public final class InvoicePaymentControlPluginApi implements PaymentControlPlugi
     }
 
     private PriorPaymentControlResult getPluginPurchaseResult(final PaymentControlContext paymentControlPluginContext, final Iterable<PluginProperty> pluginProperties, final InternalCallContext internalContext) throws PaymentControlApiException {
+        if (isPayAllInvoices(pluginProperties)) {
+            return getPluginAccountPurchaseResult(paymentControlPluginContext, pluginProperties, internalContext);
+        }
+
         try {
             final UUID invoiceId = getInvoiceId(pluginProperties);
             final Invoice invoice = rebalanceAndGetInvoice(invoiceId, internalContext);
@@ -249,6 +278,87 @@ public final class InvoicePaymentControlPluginApi implements PaymentControlPlugi
         }
     }
 
+    //
+    // Single payment for all the unpaid invoices of the account: the CBA is rebalanced once, and the payment amount is allocated
+    // across the unpaid invoices (oldest first). The allocation is passed along in the plugin properties so it can be recorded
+    // in onSuccessCall.
+    //
+    private PriorPaymentControlResult getPluginAccountPurchaseResult(final PaymentControlContext paymentControlPluginContext, final Iterable<PluginProperty> pluginProperties, final InternalCallContext internalContext) throws PaymentControlApiException {
+        try {
+            invoiceApi.consumeExistingCBAOnAccountWithUnpaidInvoices(paymentControlPluginContext.getAccountId(), internalContext);
+            final Collection<Invoice> unpaidInvoices = invoiceApi.getUnpaidInvoicesByAccountId(paymentControlPluginContext.getAccountId(), clock.getUTCToday(), internalContext);
+
+            final Map<UUID, BigDecimal> invoiceIdsWithAmounts = allocatePaymentAmount(unpaidInvoices, paymentControlPluginContext.getAmount());
+            BigDecimal requestedAmount = BigDecimal.ZERO;
+            for (final BigDecimal amount : invoiceIdsWithAmounts.values()) {
+                requestedAmount = requestedAmount.add(amount);
+            }
+
+            final boolean isAborted = requestedAmount.compareTo(BigDecimal.ZERO) == 0;
+            if (!isAborted && insert_AUTO_PAY_OFF_ifRequired(paymentControlPluginContext, requestedAmount)) {
+                return new DefaultPriorPaymentControlResult(true);
+            }
+
+            if (paymentControlPluginContext.isApiPayment() && isAborted) {
+                throw new PaymentControlApiException("Payment for account " + paymentControlPluginContext.getAccountId() +
+                                                     " aborted : no unpaid invoice, requested payment amount is = " + paymentControlPluginContext.getAmount());
+            }
+
+            final List<PluginProperty> adjustedPluginProperties = new LinkedList<PluginProperty>();
+            for (final PluginProperty pluginProperty : pluginProperties) {
+                if (!PROP_IPCD_INVOICE_IDS_WITH_AMOUNT_KEY.equals(pluginProperty.getKey())) {
+                    adjustedPluginProperties.add(pluginProperty);
+                }
+            }
+            adjustedPluginProperties.add(new PluginProperty(PROP_IPCD_INVOICE_IDS_WITH_AMOUNT_KEY, invoiceIdsWithAmounts, false));
+
+            return new DefaultPriorPaymentControlResult(isAborted, requestedAmount, null, null, adjustedPluginProperties);
+        } catch (final InvoiceApiException e) {
+            throw new PaymentControlApiException(e);
+        }
+    }
+
+    private Map<UUID, BigDecimal> allocatePaymentAmount(final Collection<Invoice> unpaidInvoices, @Nullable final BigDecimal inputAmount) {
+        final List<Invoice> sortedUnpaidInvoices = INVOICE_DATE_ORDERING.sortedCopy(unpaidInvoices);
+
+        final Map<UUID, BigDecimal> invoiceIdsWithAmounts = new LinkedHashMap<UUID, BigDecimal>();
+        BigDecimal remainingAmount = inputAmount;
+        for (final Invoice invoice : sortedUnpaidInvoices) {
+            if (remainingAmount != null && remainingAmount.compareTo(BigDecimal.ZERO) <= 0) {
+                break;
+            }
+            if (invoice.getBalance().compareTo(BigDecimal.ZERO) <= 0) {
+                continue;
+            }
+
+            final BigDecimal amountToPay = remainingAmount == null || remainingAmount.compareTo(invoice.getBalance()) >= 0 ? invoice.getBalance() : remainingAmount;
+            invoiceIdsWithAmounts.put(invoice.getId(), amountToPay);
+            if (remainingAmount != null) {
+                remainingAmount = remainingAmount.subtract(amountToPay);
+            }
+        }
+        return invoiceIdsWithAmounts;
+    }
+
+    private boolean isPayAllInvoices(final Iterable<PluginProperty> pluginProperties) {
+        final PluginProperty prop = getPluginProperty(pluginProperties, PROP_IPCD_PAY_ALL_INVOICES);
+        return prop != null && Boolean.valueOf(String.valueOf(prop.getValue()));
+    }
+
+    private Map<UUID, BigDecimal> extractInvoiceIdsWithAmountFromProperties(final Iterable<PluginProperty> properties) {
+        final PluginProperty prop = getPluginProperty(properties, PROP_IPCD_INVOICE_IDS_WITH_AMOUNT_KEY);
+        if (prop == null) {
+            return null;
+        }
+
+        // The map may also have been deserialized from the payment attempt (String keys, numeric values)
+        final Map<UUID, BigDecimal> invoiceIdsWithAmounts = new LinkedHashMap<UUID, BigDecimal>();
+        for (final Map.Entry<?, ?> entry : ((Map<?, ?>) prop.getValue()).entrySet()) {
+            invoiceIdsWithAmounts.put(UUID.fromString(entry.getKey().toString()), new BigDecimal(entry.getValue().toString()));
+        }
+        return invoiceIdsWithAmounts;
+    }
+
     private PriorPaymentControlResult getPluginRefundResult(final PaymentControlContext paymentControlPluginContext, final Iterable<PluginProperty> pluginProperties, final InternalCallContext internalContext) throws PaymentControlApiException {
         final Map<UUID, BigDecimal> idWithAmount = extractIdsWithAmountFromProperties(pluginProperties);
         if ((paymentControlPluginContext.getAmount() == null || paymentControlPluginContext.getAmount().compareTo(BigDecimal.ZERO) == 0) &&
@@ -24,11 +24,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.joda.time.LocalDate;
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.api.TestApiListener;
 import org.killbill.billing.api.TestApiListener.NextEvent;
+import org.killbill.billing.callcontext.DefaultCallContext;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.invoice.api.Invoice;
@@ -42,6 +47,7 @@ import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.payment.api.TransactionStatus;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.bus.PaymentBusEventHandler;
+import org.killbill.billing.payment.core.janitor.IncompletePaymentTransactionTask;
 import org.killbill.billing.payment.core.janitor.Janitor;
 import org.killbill.billing.payment.dao.PaymentAttemptModelDao;
 import org.killbill.billing.payment.dao.PaymentTransactionModelDao;
@@ -49,7 +55,10 @@ import org.killbill.billing.payment.glue.DefaultPaymentService;
 import org.killbill.billing.payment.invoice.InvoicePaymentControlPluginApi;
 import org.killbill.billing.payment.provider.MockPaymentProviderPlugin;
 import org.killbill.billing.platform.api.KillbillConfigSource;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.CallOrigin;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.UserType;
 import org.killbill.bus.api.PersistentBus.EventBusException;
 import org.killbill.notificationq.api.NotificationEvent;
 import org.killbill.notificationq.api.NotificationEventWithMetadata;
@@ -96,6 +105,8 @@ public class TestJanitor extends PaymentTestSuiteWithEmbeddedDB {
     @Inject
     private Janitor janitor;
     @Inject
+    private IncompletePaymentTransactionTask incompletePaymentTransactionTask;
+    @Inject
     private PaymentBusEventHandler handler;
     private MockPaymentProviderPlugin mockPaymentProviderPlugin;
 
@@ -393,6 +404,75 @@ public class TestJanitor extends PaymentTestSuiteWithEmbeddedDB {
         Assert.assertEquals(updatedPayment.getTransactions().get(0).getTransactionStatus(), TransactionStatus.SUCCESS);
     }
 
+    @Test(groups = "slow")
+    public void testPendingEntriesCompletedDuringJanitorRun() throws Exception {
+
+        final BigDecimal requestedAmount = BigDecimal.TEN;
+        final String paymentExternalKey = "slow33";
+        final String transactionExternalKey = "gateway33";
+
+        testListener.pushExpectedEvent(NextEvent.PAYMENT);
+        final Payment payment = paymentApi.createAuthorization(account, account.getPaymentMethodId(), null, requestedAmount, account.getCurrency(), paymentExternalKey,
+                                                               transactionExternalKey, ImmutableList.<PluginProperty>of(), callContext);
+        testListener.assertListenerStatus();
+        final UUID transactionId = payment.getTransactions().get(0).getId();
+
+        // Past the plugin timeout, so that the Janitor looks at the transaction as soon as it is UNKNOWN
+        clock.addDeltaFromReality(5 * 60 * 1000);
+
+        // Artificially move the transaction status to PENDING
+        final InternalCallContext internalCallContext = internalCallContextFactory.createInternalCallContext(account.getId(), callContext);
+        final String paymentStateName = paymentSMHelper.getPendingStateForTransaction(TransactionType.AUTHORIZE).toString();
+        testListener.pushExpectedEvent(NextEvent.PAYMENT);
+        paymentDao.updatePaymentAndTransactionOnCompletion(account.getId(), payment.getId(), TransactionType.AUTHORIZE, paymentStateName, paymentStateName,
+                                                           transactionId, TransactionStatus.PENDING, requestedAmount, account.getCurrency(),
+                                                           "loup", "chat", internalCallContext);
+        testListener.assertListenerStatus();
+
+        // Complete the transaction through a slow gateway call, failing, while the plugin still reports the original success to the Janitor
+        final CountDownLatch gatewayLatch = new CountDownLatch(1);
+        mockPaymentProviderPlugin.makeNextPaymentWaitFor(gatewayLatch);
+        mockPaymentProviderPlugin.makeNextPaymentFailWithError();
+        testListener.pushExpectedEvent(NextEvent.PAYMENT_ERROR);
+        // Like a real request, the completion context is created now (the transaction reservation is dated from it)
+        final CallContext completionCallContext = new DefaultCallContext(callContext.getTenantId(), "test", CallOrigin.TEST, UserType.TEST, UUID.randomUUID(), clock);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Payment> completion = executor.submit(new Callable<Payment>() {
+                @Override
+                public Payment call() throws Exception {
+                    return paymentApi.createAuthorization(account, account.getPaymentMethodId(), payment.getId(), requestedAmount, account.getCurrency(), paymentExternalKey,
+                                                          transactionExternalKey, ImmutableList.<PluginProperty>of(), completionCallContext);
+                }
+            });
+
+            // Wait for the transaction to be reserved
+            await().atMost(5, SECONDS).until(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return paymentDao.getPaymentTransaction(transactionId, internalCallContext).getTransactionStatus() == TransactionStatus.UNKNOWN;
+                }
+            });
+            final int nbHistoryRowsBeforeJanitor = getPaymentTransactionHistory(transactionExternalKey).size();
+
+            // Neither a Janitor run nor a GET should repair the transaction while the plugin call is in flight
+            incompletePaymentTransactionTask.run();
+            final Payment paymentDuringPluginCall = paymentApi.getPayment(payment.getId(), true, ImmutableList.<PluginProperty>of(), callContext);
+            Assert.assertEquals(paymentDuringPluginCall.getTransactions().get(0).getTransactionStatus(), TransactionStatus.UNKNOWN);
+            Assert.assertEquals(getPaymentTransactionHistory(transactionExternalKey).size(), nbHistoryRowsBeforeJanitor);
+
+            // The plugin result is recorded
+            gatewayLatch.countDown();
+            final Payment completedPayment = completion.get(10, SECONDS);
+            testListener.assertListenerStatus();
+            Assert.assertEquals(completedPayment.getTransactions().size(), 1);
+            Assert.assertEquals(completedPayment.getTransactions().get(0).getTransactionStatus(), TransactionStatus.PAYMENT_FAILURE);
+        } finally {
+            gatewayLatch.countDown();
+            executor.shutdownNow();
+        }
+    }
+
     private List<PluginProperty> createPropertiesForInvoice(final Invoice invoice) {
         final List<PluginProperty> result = new ArrayList<PluginProperty>();
         result.add(new PluginProperty(InvoicePaymentControlPluginApi.PROP_IPCD_INVOICE_ID, invoice.getId().toString(), false));
@@ -39,6 +39,8 @@ import org.killbill.billing.payment.api.PaymentTransaction;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.payment.api.TransactionStatus;
 import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.provider.MockPaymentProviderPlugin;
+import org.killbill.billing.util.entity.Pagination;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -173,6 +175,65 @@ public class TestPaymentProcessor extends PaymentTestSuiteWithEmbeddedDB {
         paymentBusListener.verify(1, account.getId(), paymentId, TEN);
     }
 
+    @Test(groups = "slow")
+    public void testGetAccountPaymentsWithPluginInfo() throws Exception {
+        final int nbPayments = 12;
+        for (int i = 0; i < nbPayments; i++) {
+            paymentProcessor.createPurchase(true, null, account, null, null, TEN, CURRENCY, UUID.randomUUID().toString(), UUID.randomUUID().toString(),
+                                            SHOULD_LOCK_ACCOUNT, PLUGIN_PROPERTIES, callContext, internalCallContext);
+        }
+
+        final List<Payment> payments = paymentProcessor.getAccountPayments(account.getId(), true, callContext, internalCallContext);
+        Assert.assertEquals(payments.size(), nbPayments);
+        for (final Payment payment : payments) {
+            Assert.assertEquals(payment.getTransactions().size(), 1);
+            Assert.assertNotNull(payment.getTransactions().get(0).getPaymentInfoPlugin());
+        }
+
+        for (final Payment payment : paymentProcessor.getAccountPayments(account.getId(), false, callContext, internalCallContext)) {
+            Assert.assertNull(payment.getTransactions().get(0).getPaymentInfoPlugin());
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testGetAccountPaymentsWithFailingPluginInfo() throws Exception {
+        final List<Payment> createdPayments = new LinkedList<Payment>();
+        for (int i = 0; i < 3; i++) {
+            createdPayments.add(paymentProcessor.createPurchase(true, null, account, null, null, TEN, CURRENCY, UUID.randomUUID().toString(), UUID.randomUUID().toString(),
+                                                                SHOULD_LOCK_ACCOUNT, PLUGIN_PROPERTIES, callContext, internalCallContext));
+        }
+
+        final MockPaymentProviderPlugin mockPaymentProviderPlugin = (MockPaymentProviderPlugin) registry.getServiceForName(MockPaymentProviderPlugin.PLUGIN_NAME);
+        mockPaymentProviderPlugin.makePaymentInfoFail(createdPayments.get(0).getId(), false);
+        mockPaymentProviderPlugin.makePaymentInfoFail(createdPayments.get(1).getId(), true);
+
+        // Failures are isolated: these payments are returned without plugin info
+        final List<Payment> payments = paymentProcessor.getAccountPayments(account.getId(), true, callContext, internalCallContext);
+        verifyPaymentInfoPlugins(payments, createdPayments.get(2).getId(), 3);
+
+        final Pagination<Payment> paymentsPage = paymentProcessor.getPayments(0L, 10L, MockPaymentProviderPlugin.PLUGIN_NAME, true, PLUGIN_PROPERTIES, callContext, internalCallContext);
+        verifyPaymentInfoPlugins(ImmutableList.<Payment>copyOf(paymentsPage), createdPayments.get(2).getId(), 3);
+    }
+
+    @Test(groups = "slow")
+    public void testGetAccountPaymentsWithPluginInfoWithoutPayments() throws Exception {
+        Assert.assertEquals(paymentProcessor.getAccountPayments(account.getId(), true, callContext, internalCallContext).size(), 0);
+
+        final Pagination<Payment> paymentsPage = paymentProcessor.getPayments(0L, 10L, MockPaymentProviderPlugin.PLUGIN_NAME, true, PLUGIN_PROPERTIES, callContext, internalCallContext);
+        Assert.assertFalse(paymentsPage.iterator().hasNext());
+    }
+
+    private void verifyPaymentInfoPlugins(final List<Payment> payments, final UUID paymentIdWithPluginInfo, final int nbPayments) {
+        Assert.assertEquals(payments.size(), nbPayments);
+        for (final Payment payment : payments) {
+            if (payment.getId().equals(paymentIdWithPluginInfo)) {
+                Assert.assertNotNull(payment.getTransactions().get(0).getPaymentInfoPlugin());
+            } else {
+                Assert.assertNull(payment.getTransactions().get(0).getPaymentInfoPlugin());
+            }
+        }
+    }
+
     private void verifyPayment(final Payment payment, final String paymentExternalKey,
                                final BigDecimal authAmount, final BigDecimal capturedAmount, final BigDecimal refundedAmount,
                                final int transactionsSize) {
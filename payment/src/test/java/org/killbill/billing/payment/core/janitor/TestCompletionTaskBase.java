@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.payment.core.janitor;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.events.PaymentInternalEvent;
+import org.killbill.billing.payment.PaymentTestSuiteNoDB;
+import org.killbill.billing.payment.api.TransactionStatus;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.core.sm.PaymentControlStateMachineHelper;
+import org.killbill.billing.payment.dao.PaymentTransactionModelDao;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.globallocker.LockerType;
+import org.killbill.commons.concurrent.Executors;
+import org.killbill.commons.locker.GlobalLock;
+import org.killbill.commons.locker.GlobalLocker;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+
+public class TestCompletionTaskBase extends PaymentTestSuiteNoDB {
+
+    @Inject
+    protected InternalCallContextFactory internalCallContextFactory;
+    @Inject
+    protected PaymentControlStateMachineHelper retrySMHelper;
+    @Inject
+    protected GlobalLocker locker;
+
+    private ExecutorService janitorWorkersExecutor;
+
+    @BeforeMethod(groups = "fast")
+    public void setUpJanitorWorkers() throws Exception {
+        janitorWorkersExecutor = Executors.newFixedThreadPool(3, "TestPaymentJanitorWorker");
+    }
+
+    @AfterMethod(groups = "fast")
+    public void tearDownJanitorWorkers() throws Exception {
+        janitorWorkersExecutor.shutdownNow();
+        janitorWorkersExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test(groups = "fast")
+    public void testItemsAreShardedByAccount() throws Exception {
+        final List<PaymentTransactionModelDao> items = new ArrayList<PaymentTransactionModelDao>();
+        for (long tenantRecordId = 1; tenantRecordId <= 2; tenantRecordId++) {
+            for (long accountRecordId = 1; accountRecordId <= 5; accountRecordId++) {
+                for (int i = 0; i < 4; i++) {
+                    items.add(createItem(tenantRecordId, accountRecordId));
+                }
+            }
+        }
+
+        final RecordingCompletionTask task = new RecordingCompletionTask(items);
+        task.run();
+
+        // Every item was processed exactly once
+        Assert.assertEquals(task.processedItems.size(), items.size());
+        for (final PaymentTransactionModelDao item : items) {
+            Assert.assertTrue(task.processedItems.containsKey(item.getId()));
+        }
+
+        // All the items of a given account were processed by the same worker
+        final Map<Long, Set<String>> threadsPerAccount = new HashMap<Long, Set<String>>();
+        for (final PaymentTransactionModelDao item : items) {
+            Set<String> threads = threadsPerAccount.get(item.getAccountRecordId());
+            if (threads == null) {
+                threads = new HashSet<String>();
+                threadsPerAccount.put(item.getAccountRecordId(), threads);
+            }
+            threads.add(task.processedItems.get(item.getId()));
+        }
+        for (final Set<String> threads : threadsPerAccount.values()) {
+            Assert.assertEquals(threads.size(), 1);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testClaimedItemsAreSkipped() throws Exception {
+        final PaymentTransactionModelDao claimedItem = createItem(1L, 1L);
+        final PaymentTransactionModelDao otherItem = createItem(1L, 2L);
+
+        final RecordingCompletionTask task = new RecordingCompletionTask(ImmutableList.<PaymentTransactionModelDao>of(claimedItem, otherItem));
+
+        // Simulate another node working on the first item
+        final GlobalLock lock = locker.lockWithNumberOfTries(LockerType.PAYMENT_JANITOR.toString(), claimedItem.getId().toString(), 1);
+        try {
+            task.run();
+        } finally {
+            lock.release();
+        }
+
+        Assert.assertFalse(task.processedItems.containsKey(claimedItem.getId()));
+        Assert.assertTrue(task.processedItems.containsKey(otherItem.getId()));
+    }
+
+    @Test(groups = "fast")
+    public void testCompletedItemsAreSkipped() throws Exception {
+        final PaymentTransactionModelDao completedItem = createItem(1L, 1L);
+        final PaymentTransactionModelDao otherItem = createItem(1L, 1L);
+
+        final RecordingCompletionTask task = new RecordingCompletionTask(ImmutableList.<PaymentTransactionModelDao>of(completedItem, otherItem));
+        // Simulate another node completing the first item after we fetched it
+        task.completedItems.add(completedItem.getId());
+        task.run();
+
+        Assert.assertFalse(task.processedItems.containsKey(completedItem.getId()));
+        Assert.assertTrue(task.processedItems.containsKey(otherItem.getId()));
+    }
+
+    private PaymentTransactionModelDao createItem(final Long tenantRecordId, final Long accountRecordId) {
+        final PaymentTransactionModelDao item = new PaymentTransactionModelDao(clock.getUTCNow(), clock.getUTCNow(), null, UUID.randomUUID().toString(), UUID.randomUUID(),
+                                                                               TransactionType.AUTHORIZE, clock.getUTCNow(), TransactionStatus.UNKNOWN, BigDecimal.TEN, Currency.USD, null, null);
+        item.setTenantRecordId(tenantRecordId);
+        item.setAccountRecordId(accountRecordId);
+        return item;
+    }
+
+    private final class RecordingCompletionTask extends CompletionTaskBase<PaymentTransactionModelDao> {
+
+        private final Iterable<PaymentTransactionModelDao> items;
+        // Item id -> name of the worker thread which processed it
+        private final Map<UUID, String> processedItems = new ConcurrentHashMap<UUID, String>();
+        private final Set<UUID> completedItems = new HashSet<UUID>();
+
+        private RecordingCompletionTask(final Iterable<PaymentTransactionModelDao> items) {
+            // CompletionTaskBase has fields with the same names, hence the qualified references
+            super(TestCompletionTaskBase.this.internalCallContextFactory, TestCompletionTaskBase.this.paymentConfig, TestCompletionTaskBase.this.paymentDao,
+                  TestCompletionTaskBase.this.clock, paymentSMHelper, TestCompletionTaskBase.this.retrySMHelper, TestCompletionTaskBase.this.accountInternalApi,
+                  registry, TestCompletionTaskBase.this.locker, TestCompletionTaskBase.this.janitorWorkersExecutor, new MetricRegistry());
+            this.items = items;
+        }
+
+        @Override
+        public Iterable<PaymentTransactionModelDao> getItemsForIteration() {
+            return items;
+        }
+
+        @Override
+        public PaymentTransactionModelDao rehydrateItem(final PaymentTransactionModelDao item) {
+            return completedItems.contains(item.getId()) ? null : item;
+        }
+
+        @Override
+        public void doIteration(final PaymentTransactionModelDao item) {
+            processedItems.put(item.getId(), Thread.currentThread().getName());
+        }
+
+        @Override
+        public void processPaymentEvent(final PaymentInternalEvent event, final NotificationQueue janitorQueue) {
+        }
+    }
+}
@@ -105,6 +105,59 @@ public class TestPaymentEnteringStateCallback extends PaymentTestSuiteWithEmbedd
         Assert.assertEquals(paymentTransaction.getGatewayErrorMsg(), paymentInfoPlugin.getGatewayError());
     }
 
+    @Test(groups = "slow")
+    public void testEnterStateDoesNotOverrideTransactionModifiedDuringPluginCall() throws Exception {
+        final PaymentStateContext lockedPaymentStateContext = new PaymentStateContext(true,
+                                                                                      null,
+                                                                                      UUID.randomUUID().toString(),
+                                                                                      TransactionType.CAPTURE,
+                                                                                      paymentStateContext.getAccount(),
+                                                                                      UUID.randomUUID(),
+                                                                                      new BigDecimal("192.3920111"),
+                                                                                      Currency.BRL,
+                                                                                      true,
+                                                                                      ImmutableList.<PluginProperty>of(),
+                                                                                      internalCallContext,
+                                                                                      callContext);
+        final PaymentAutomatonDAOHelper lockedDaoHelper = new PaymentAutomatonDAOHelper(lockedPaymentStateContext, clock.getUTCNow(), paymentDao, registry, internalCallContext, eventBus, paymentSMHelper);
+        final PaymentEnteringStateTestCallback lockedCallback = new PaymentEnteringStateTestCallback(lockedDaoHelper, lockedPaymentStateContext);
+
+        // Reserve the payment and first transaction (would be done by PaymentLeavingStateCallback, under the account lock)
+        lockedDaoHelper.createNewPaymentTransaction();
+        final UUID transactionId = lockedPaymentStateContext.getPaymentTransactionModelDao().getId();
+
+        // While the plugin call is in flight (without the account lock), the transaction gets fixed by someone else (e.g. the Janitor)
+        paymentDao.updatePaymentAndTransactionOnCompletion(lockedPaymentStateContext.getAccount().getId(),
+                                                           lockedPaymentStateContext.getPaymentId(),
+                                                           TransactionType.CAPTURE,
+                                                           "CAPTURE_SUCCESS",
+                                                           "CAPTURE_SUCCESS",
+                                                           transactionId,
+                                                           TransactionStatus.SUCCESS,
+                                                           lockedPaymentStateContext.getAmount(),
+                                                           lockedPaymentStateContext.getCurrency(),
+                                                           null,
+                                                           null,
+                                                           internalCallContext);
+
+        // Late plugin result
+        final PaymentTransactionInfoPlugin paymentInfoPlugin = Mockito.mock(PaymentTransactionInfoPlugin.class);
+        Mockito.when(paymentInfoPlugin.getAmount()).thenReturn(new BigDecimal("82010.222"));
+        Mockito.when(paymentInfoPlugin.getCurrency()).thenReturn(Currency.CAD);
+        Mockito.when(paymentInfoPlugin.getStatus()).thenReturn(PaymentPluginStatus.PENDING);
+        lockedPaymentStateContext.setPaymentTransactionInfoPlugin(paymentInfoPlugin);
+
+        lockedCallback.enteringState(state, operationCallback, operationResult, leavingStateCallback);
+
+        // Verify the transaction was not overridden and the context was refreshed
+        final PaymentTransactionModelDao paymentTransaction = paymentDao.getPaymentTransaction(transactionId, internalCallContext);
+        Assert.assertEquals(paymentTransaction.getTransactionStatus(), TransactionStatus.SUCCESS);
+        Assert.assertEquals(paymentTransaction.getProcessedAmount().compareTo(lockedPaymentStateContext.getAmount()), 0);
+        Assert.assertEquals(paymentTransaction.getProcessedCurrency(), Currency.BRL);
+        Assert.assertEquals(lockedPaymentStateContext.getPaymentTransactionModelDao().getTransactionStatus(), TransactionStatus.SUCCESS);
+        Assert.assertEquals(paymentDao.getPayment(lockedPaymentStateContext.getPaymentId(), internalCallContext).getStateName(), "CAPTURE_SUCCESS");
+    }
+
     private static final class PaymentEnteringStateTestCallback extends PaymentEnteringStateCallback {
 
         private PaymentEnteringStateTestCallback(final PaymentAutomatonDAOHelper daoHelper, final PaymentStateContext paymentStateContext) throws PaymentApiException {
@@ -18,8 +18,15 @@
 package org.killbill.billing.payment.core.sm;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -143,6 +150,75 @@ public class TestPaymentLeavingStateCallback extends PaymentTestSuiteWithEmbedde
         callback.leavingState(state);
     }
 
+    @Test(groups = "slow")
+    public void testLeaveStateForConcurrentCompletionsOfPendingTransaction() throws Exception {
+        final UUID paymentId = UUID.randomUUID();
+        // Only authorizations can be left PENDING
+        setUp(paymentId, TransactionType.AUTHORIZE);
+
+        final List<PaymentTransactionModelDao> transactions = paymentDao.getTransactionsForPayment(paymentId, internalCallContext);
+        Assert.assertEquals(transactions.size(), 1);
+        final String paymentStateName = paymentSMHelper.getPendingStateForTransaction(TransactionType.AUTHORIZE);
+        paymentDao.updatePaymentAndTransactionOnCompletion(account.getId(), paymentId, TransactionType.AUTHORIZE, paymentStateName, null,
+                                                           transactions.get(0).getId(), TransactionStatus.PENDING, null, null,
+                                                           null, null, internalCallContext);
+
+        // Two completions of the same PENDING transaction, with the plugin call happening outside of the account lock
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                final PaymentStateContext completionContext = new PaymentStateContext(true,
+                                                                                      paymentId,
+                                                                                      null,
+                                                                                      null,
+                                                                                      paymentStateContext.getPaymentExternalKey(),
+                                                                                      paymentStateContext.getPaymentTransactionExternalKey(),
+                                                                                      TransactionType.AUTHORIZE,
+                                                                                      account,
+                                                                                      paymentStateContext.getPaymentMethodId(),
+                                                                                      paymentStateContext.getAmount(),
+                                                                                      paymentStateContext.getCurrency(),
+                                                                                      true,
+                                                                                      null,
+                                                                                      ImmutableList.<PluginProperty>of(),
+                                                                                      internalCallContext,
+                                                                                      callContext);
+                final PaymentAutomatonDAOHelper daoHelper = new PaymentAutomatonDAOHelper(completionContext, clock.getUTCNow(), paymentDao, registry, internalCallContext, eventBus, paymentSMHelper);
+                final PaymentLeavingStateCallback completionCallback = new PaymentLeavingStateTestCallback(daoHelper, completionContext);
+                results.add(executorService.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        startLatch.await();
+                        try {
+                            completionCallback.leavingState(state);
+                            // A completion starting after the reservation was committed sees the transaction as UNKNOWN and skips the plugin call
+                            return !completionContext.isSkipOperationForUnknownTransaction();
+                        } catch (final OperationException e) {
+                            return false;
+                        }
+                    }
+                }));
+            }
+            startLatch.countDown();
+
+            int nbReserved = 0;
+            for (final Future<Boolean> result : results) {
+                if (result.get(30, TimeUnit.SECONDS)) {
+                    nbReserved++;
+                }
+            }
+            // Only one completion may go on and call the plugin
+            Assert.assertEquals(nbReserved, 1);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        // The winner holds the transaction as UNKNOWN until it records the plugin result
+        Assert.assertEquals(paymentDao.getPaymentTransaction(transactions.get(0).getId(), internalCallContext).getTransactionStatus(), TransactionStatus.UNKNOWN);
+    }
+
     private void verifyPaymentTransaction() {
         Assert.assertNotNull(paymentStateContext.getPaymentTransactionModelDao().getPaymentId());
         Assert.assertEquals(paymentStateContext.getPaymentTransactionModelDao().getTransactionExternalKey(), paymentStateContext.getPaymentTransactionExternalKey());
@@ -156,6 +232,10 @@ public class TestPaymentLeavingStateCallback extends PaymentTestSuiteWithEmbedde
     }
 
     private void setUp(@Nullable final UUID paymentId) throws Exception {
+        setUp(paymentId, TransactionType.CAPTURE);
+    }
+
+    private void setUp(@Nullable final UUID paymentId, final TransactionType transactionType) throws Exception {
         account = Mockito.mock(Account.class);
         Mockito.when(account.getId()).thenReturn(UUID.randomUUID());
         paymentStateContext = new PaymentStateContext(true,
@@ -164,7 +244,7 @@ public class TestPaymentLeavingStateCallback extends PaymentTestSuiteWithEmbedde
                                                       null,
                                                       UUID.randomUUID().toString(),
                                                       UUID.randomUUID().toString(),
-                                                      TransactionType.CAPTURE,
+                                                      transactionType,
                                                       account,
                                                       UUID.randomUUID(),
                                                       new BigDecimal("192.3920111"),
@@ -66,6 +66,7 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -169,7 +170,8 @@ public class TestRetryablePayment extends PaymentTestSuiteNoDB {
                 executor,
                 paymentSMHelper,
                 retrySMHelper,
-                eventBus);
+                eventBus,
+                new MetricRegistry());
 
         paymentStateContext =
                 new PaymentStateControlContext(ImmutableList.<String>of(MockPaymentControlProviderPlugin.PLUGIN_NAME),
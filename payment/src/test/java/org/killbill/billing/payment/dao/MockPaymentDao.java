@@ -218,6 +218,18 @@ public class MockPaymentDao implements PaymentDao {
         return paymentTransaction;
     }
 
+    @Override
+    public PaymentTransactionModelDao reservePendingPaymentTransaction(final PaymentTransactionModelDao pendingPaymentTransaction, final InternalCallContext context) {
+        synchronized (this) {
+            final PaymentTransactionModelDao transaction = transactions.get(pendingPaymentTransaction.getId());
+            if (transaction == null || transaction.getTransactionStatus() != TransactionStatus.PENDING) {
+                return null;
+            }
+            transaction.setTransactionStatus(TransactionStatus.UNKNOWN);
+            return transaction;
+        }
+    }
+
     @Override
     public void updatePaymentAndTransactionOnCompletion(final UUID accountId, final UUID paymentId, final TransactionType transactionType,
                                                         final String currentPaymentStateName, final String lastSuccessPaymentStateName, final UUID transactionId,
@@ -265,6 +277,18 @@ public class MockPaymentDao implements PaymentDao {
         }
     }
 
+    @Override
+    public List<PaymentModelDao> getPaymentsForAccountAfterRecordId(final Long fromRecordId, final int maxNbRecords, final InternalTenantContext context) {
+        synchronized (this) {
+            return ImmutableList.copyOf(Iterables.limit(Iterables.filter(payments.values(), new Predicate<PaymentModelDao>() {
+                @Override
+                public boolean apply(final PaymentModelDao input) {
+                    return context.getAccountRecordId().equals(input.getAccountRecordId()) && input.getRecordId() != null && input.getRecordId() > fromRecordId;
+                }
+            }), maxNbRecords));
+        }
+    }
+
     @Override
     public List<PaymentModelDao> getPaymentsByStatesAcrossTenants(final String[] states, final DateTime createdBeforeDate, final DateTime createdAfterDate, final int limit) {
         return null;
@@ -287,6 +311,19 @@ public class MockPaymentDao implements PaymentDao {
         }
     }
 
+    @Override
+    public List<PaymentTransactionModelDao> getTransactionsForPaymentRecordIdRange(final Long fromPaymentRecordId, final Long toPaymentRecordId, final InternalTenantContext context) {
+        synchronized (this) {
+            return ImmutableList.copyOf(Iterables.filter(transactions.values(), new Predicate<PaymentTransactionModelDao>() {
+                @Override
+                public boolean apply(final PaymentTransactionModelDao input) {
+                    final PaymentModelDao payment = payments.get(input.getPaymentId());
+                    return payment != null && payment.getRecordId() != null && payment.getRecordId() > fromPaymentRecordId && payment.getRecordId() <= toPaymentRecordId;
+                }
+            }));
+        }
+    }
+
     @Override
     public List<PaymentTransactionModelDao> getTransactionsForPayment(final UUID paymentId, final InternalTenantContext context) {
         synchronized (this) {
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.payment.invoice;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.control.plugin.api.PaymentControlApiException;
+import org.killbill.billing.control.plugin.api.PaymentControlContext;
+import org.killbill.billing.control.plugin.api.PriorPaymentControlResult;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
+import org.killbill.billing.payment.PaymentTestSuiteNoDB;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.dao.PaymentDao;
+import org.killbill.billing.payment.invoice.dao.InvoicePaymentControlDao;
+import org.killbill.billing.payment.invoice.dao.PluginAutoPayOffModelDao;
+import org.killbill.billing.payment.retry.BaseRetryService.RetryServiceScheduler;
+import org.killbill.billing.util.api.TagUserApi;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.config.PaymentConfig;
+import org.killbill.billing.util.tag.ControlTagType;
+import org.killbill.billing.util.tag.Tag;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+public class TestInvoicePaymentControlPluginApi extends PaymentTestSuiteNoDB {
+
+    private static final Iterable<PluginProperty> PAY_ALL_INVOICES = ImmutableList.<PluginProperty>of(new PluginProperty(InvoicePaymentControlPluginApi.PROP_IPCD_PAY_ALL_INVOICES, "true", false));
+
+    private UUID accountId;
+    private InvoiceInternalApi invoiceInternalApi;
+    private TagUserApi tagUserApi;
+    private InvoicePaymentControlDao invoicePaymentControlDao;
+    private InvoicePaymentControlPluginApi pluginApi;
+
+    @BeforeMethod(groups = "fast")
+    public void setUpPluginApi() throws Exception {
+        accountId = UUID.randomUUID();
+        invoiceInternalApi = Mockito.mock(InvoiceInternalApi.class);
+        tagUserApi = Mockito.mock(TagUserApi.class);
+        Mockito.when(tagUserApi.getTagsForAccount(Mockito.<UUID>any(), Mockito.anyBoolean(), Mockito.<TenantContext>any())).thenReturn(ImmutableList.<Tag>of());
+        invoicePaymentControlDao = Mockito.mock(InvoicePaymentControlDao.class);
+
+        final InternalCallContextFactory internalCallContextFactory = Mockito.mock(InternalCallContextFactory.class);
+        Mockito.when(internalCallContextFactory.createInternalCallContext(Mockito.<UUID>any(), Mockito.<CallContext>any())).thenReturn(internalCallContext);
+
+        pluginApi = new InvoicePaymentControlPluginApi(Mockito.mock(PaymentConfig.class), invoiceInternalApi, tagUserApi, Mockito.mock(PaymentDao.class), invoicePaymentControlDao,
+                                                       Mockito.mock(RetryServiceScheduler.class), internalCallContextFactory, clock);
+    }
+
+    @Test(groups = "fast")
+    public void testPayAllInvoicesOldestFirst() throws Exception {
+        final Invoice newestInvoice = createInvoice(new LocalDate(2015, 3, 1), new BigDecimal("30"));
+        final Invoice oldestInvoice = createInvoice(new LocalDate(2015, 1, 1), new BigDecimal("10"));
+        final Invoice middleInvoice = createInvoice(new LocalDate(2015, 2, 1), new BigDecimal("20"));
+        setUnpaidInvoices(newestInvoice, oldestInvoice, middleInvoice);
+
+        final PriorPaymentControlResult result = pluginApi.priorCall(createContext(null, true), PAY_ALL_INVOICES);
+
+        Assert.assertFalse(result.isAborted());
+        Assert.assertEquals(result.getAdjustedAmount().compareTo(new BigDecimal("60")), 0);
+        final Map<UUID, BigDecimal> allocation = getAllocation(result);
+        Assert.assertEquals(ImmutableList.<UUID>copyOf(allocation.keySet()), ImmutableList.<UUID>of(oldestInvoice.getId(), middleInvoice.getId(), newestInvoice.getId()));
+        Mockito.verify(invoiceInternalApi).consumeExistingCBAOnAccountWithUnpaidInvoices(accountId, internalCallContext);
+    }
+
+    @Test(groups = "fast")
+    public void testPayAllInvoicesWithPartialAmount() throws Exception {
+        final Invoice oldestInvoice = createInvoice(new LocalDate(2015, 1, 1), new BigDecimal("10"));
+        final Invoice middleInvoice = createInvoice(new LocalDate(2015, 2, 1), new BigDecimal("20"));
+        final Invoice newestInvoice = createInvoice(new LocalDate(2015, 3, 1), new BigDecimal("30"));
+        setUnpaidInvoices(oldestInvoice, middleInvoice, newestInvoice);
+
+        final PriorPaymentControlResult result = pluginApi.priorCall(createContext(new BigDecimal("15"), true), PAY_ALL_INVOICES);
+
+        Assert.assertFalse(result.isAborted());
+        Assert.assertEquals(result.getAdjustedAmount().compareTo(new BigDecimal("15")), 0);
+        // The oldest invoice is paid in full, the next one partially, the newest one not at all
+        final Map<UUID, BigDecimal> allocation = getAllocation(result);
+        Assert.assertEquals(allocation.size(), 2);
+        Assert.assertEquals(allocation.get(oldestInvoice.getId()).compareTo(new BigDecimal("10")), 0);
+        Assert.assertEquals(allocation.get(middleInvoice.getId()).compareTo(new BigDecimal("5")), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testPayAllInvoicesSkipsZeroBalanceInvoices() throws Exception {
+        final Invoice paidInvoice = createInvoice(new LocalDate(2015, 1, 1), BigDecimal.ZERO);
+        final Invoice unpaidInvoice = createInvoice(new LocalDate(2015, 2, 1), new BigDecimal("20"));
+        setUnpaidInvoices(paidInvoice, unpaidInvoice);
+
+        final PriorPaymentControlResult result = pluginApi.priorCall(createContext(null, true), PAY_ALL_INVOICES);
+
+        Assert.assertEquals(result.getAdjustedAmount().compareTo(new BigDecimal("20")), 0);
+        Assert.assertEquals(getAllocation(result), ImmutableMap.<UUID, BigDecimal>of(unpaidInvoice.getId(), new BigDecimal("20")));
+    }
+
+    @Test(groups = "fast")
+    public void testPayAllInvoicesWithNothingToPay() throws Exception {
+        setUnpaidInvoices(createInvoice(new LocalDate(2015, 1, 1), BigDecimal.ZERO));
+
+        // API payments fail
+        try {
+            pluginApi.priorCall(createContext(null, true), PAY_ALL_INVOICES);
+            Assert.fail();
+        } catch (final PaymentControlApiException e) {
+            Assert.assertTrue(e.getMessage().contains(accountId.toString()));
+        }
+
+        // Retries are aborted
+        final PriorPaymentControlResult result = pluginApi.priorCall(createContext(null, false), PAY_ALL_INVOICES);
+        Assert.assertTrue(result.isAborted());
+        Assert.assertTrue(getAllocation(result).isEmpty());
+    }
+
+    @Test(groups = "fast")
+    public void testPayAllInvoicesWithAutoPayOff() throws Exception {
+        setUnpaidInvoices(createInvoice(new LocalDate(2015, 1, 1), new BigDecimal("10")));
+        final Tag autoPayOffTag = Mockito.mock(Tag.class);
+        Mockito.when(autoPayOffTag.getTagDefinitionId()).thenReturn(ControlTagType.AUTO_PAY_OFF.getId());
+        Mockito.when(tagUserApi.getTagsForAccount(Mockito.<UUID>any(), Mockito.anyBoolean(), Mockito.<TenantContext>any())).thenReturn(ImmutableList.<Tag>of(autoPayOffTag));
+
+        // Non API payments are parked until the tag is removed
+        final PriorPaymentControlResult result = pluginApi.priorCall(createContext(null, false), PAY_ALL_INVOICES);
+        Assert.assertTrue(result.isAborted());
+        Mockito.verify(invoicePaymentControlDao).insertAutoPayOff(Mockito.<PluginAutoPayOffModelDao>any());
+
+        // API payments go through
+        Assert.assertFalse(pluginApi.priorCall(createContext(null, true), PAY_ALL_INVOICES).isAborted());
+        Mockito.verify(invoicePaymentControlDao, Mockito.times(1)).insertAutoPayOff(Mockito.<PluginAutoPayOffModelDao>any());
+    }
+
+    @Test(groups = "fast")
+    public void testOnSuccessCallRecordsAllocation() throws Exception {
+        final Invoice oldestInvoice = createInvoice(new LocalDate(2015, 1, 1), new BigDecimal("10"));
+        final Invoice newestInvoice = createInvoice(new LocalDate(2015, 2, 1), new BigDecimal("20"));
+        setUnpaidInvoices(oldestInvoice, newestInvoice);
+
+        final PaymentControlContext context = createContext(null, true);
+        final PriorPaymentControlResult result = pluginApi.priorCall(context, PAY_ALL_INVOICES);
+        final Map<UUID, BigDecimal> allocation = getAllocation(result);
+
+        pluginApi.onSuccessCall(context, result.getAdjustedPluginProperties());
+        // E.g. completion by the Janitor: the invoice dao skips the invoice payments already recorded
+        pluginApi.onSuccessCall(context, result.getAdjustedPluginProperties());
+
+        Mockito.verify(invoiceInternalApi, Mockito.times(2)).notifyOfPayments(context.getPaymentId(), allocation, Currency.USD, Currency.USD, context.getCreatedDate(), internalCallContext);
+        Mockito.verify(invoiceInternalApi, Mockito.never()).getInvoicePaymentForAttempt(Mockito.<UUID>any(), Mockito.<InternalTenantContext>any());
+    }
+
+    @Test(groups = "fast")
+    public void testOnSuccessCallReplayFromPaymentAttempt() throws Exception {
+        final UUID invoiceId = UUID.randomUUID();
+        final PaymentControlContext context = createContext(new BigDecimal("12.5"), false);
+        // Properties deserialized from the payment attempt: String keys and numeric values
+        final Iterable<PluginProperty> properties = ImmutableList.<PluginProperty>of(new PluginProperty(InvoicePaymentControlPluginApi.PROP_IPCD_INVOICE_IDS_WITH_AMOUNT_KEY,
+                                                                                                        ImmutableMap.<String, Object>of(invoiceId.toString(), 12.5),
+                                                                                                        false));
+
+        pluginApi.onSuccessCall(context, properties);
+
+        Mockito.verify(invoiceInternalApi).notifyOfPayments(context.getPaymentId(), ImmutableMap.<UUID, BigDecimal>of(invoiceId, new BigDecimal("12.5")), Currency.USD, Currency.USD,
+                                                            context.getCreatedDate(), internalCallContext);
+    }
+
+    private Invoice createInvoice(final LocalDate invoiceDate, final BigDecimal balance) {
+        final Invoice invoice = Mockito.mock(Invoice.class);
+        Mockito.when(invoice.getId()).thenReturn(UUID.randomUUID());
+        Mockito.when(invoice.getInvoiceDate()).thenReturn(invoiceDate);
+        Mockito.when(invoice.getBalance()).thenReturn(balance);
+        return invoice;
+    }
+
+    private void setUnpaidInvoices(final Invoice... invoices) {
+        Mockito.when(invoiceInternalApi.getUnpaidInvoicesByAccountId(Mockito.eq(accountId), Mockito.<LocalDate>any(), Mockito.<InternalTenantContext>any())).thenReturn(ImmutableList.<Invoice>copyOf(invoices));
+    }
+
+    private PaymentControlContext createContext(final BigDecimal amount, final boolean isApiPayment) {
+        final PaymentControlContext context = Mockito.mock(PaymentControlContext.class);
+        Mockito.when(context.getAccountId()).thenReturn(accountId);
+        Mockito.when(context.getPaymentId()).thenReturn(UUID.randomUUID());
+        Mockito.when(context.getAttemptPaymentId()).thenReturn(UUID.randomUUID());
+        Mockito.when(context.getTransactionType()).thenReturn(TransactionType.PURCHASE);
+        Mockito.when(context.getAmount()).thenReturn(amount);
+        Mockito.when(context.getCurrency()).thenReturn(Currency.USD);
+        Mockito.when(context.getProcessedCurrency()).thenReturn(Currency.USD);
+        Mockito.when(context.isApiPayment()).thenReturn(isApiPayment);
+        Mockito.when(context.getCreatedDate()).thenReturn(new DateTime(2015, 4, 1, 0, 0));
+        return context;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<UUID, BigDecimal> getAllocation(final PriorPaymentControlResult result) {
+        final PluginProperty allocation = Iterables.find(result.getAdjustedPluginProperties(), new Predicate<PluginProperty>() {
+            @Override
+            public boolean apply(final PluginProperty input) {
+                return InvoicePaymentControlPluginApi.PROP_IPCD_INVOICE_IDS_WITH_AMOUNT_KEY.equals(input.getKey());
+            }
+        });
+        return (Map<UUID, BigDecimal>) allocation.getValue();
+    }
+}
@@ -24,7 +24,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.payment.api.PaymentMethodPlugin;
@@ -60,7 +62,10 @@ public class MockPaymentProviderPlugin implements NoOpPaymentPluginApi {
     private final AtomicBoolean makeNextInvoiceFailWithError = new AtomicBoolean(false);
     private final AtomicBoolean makeNextInvoiceFailWithException = new AtomicBoolean(false);
     private final AtomicBoolean makeAllInvoicesFailWithError = new AtomicBoolean(false);
+    private final AtomicReference<CountDownLatch> makeNextPaymentWaitFor = new AtomicReference<CountDownLatch>();
 
+    // Payment id -> whether getPaymentInfo throws a RuntimeException (instead of a PaymentPluginApiException)
+    private final Map<String, Boolean> failingPaymentInfos = new ConcurrentHashMap<String, Boolean>();
     private final Map<String, InternalPaymentInfo> payments = new ConcurrentHashMap<String, InternalPaymentInfo>();
     private final Map<String, List<PaymentTransactionInfoPlugin>> paymentTransactions = new ConcurrentHashMap<String, List<PaymentTransactionInfoPlugin>>();
 
@@ -184,6 +189,8 @@ public class MockPaymentProviderPlugin implements NoOpPaymentPluginApi {
         makeNextInvoiceFailWithException.set(false);
         makeAllInvoicesFailWithError.set(false);
         makeNextInvoiceFailWithError.set(false);
+        makeNextPaymentWaitFor.set(null);
+        failingPaymentInfos.clear();
         paymentMethods.clear();
         payments.clear();
         paymentTransactions.clear();
@@ -205,6 +212,15 @@ public class MockPaymentProviderPlugin implements NoOpPaymentPluginApi {
         makeAllInvoicesFailWithError.set(failure);
     }
 
+    // Simulate a slow gateway: the next payment call blocks until the latch is released
+    public void makeNextPaymentWaitFor(final CountDownLatch latch) {
+        makeNextPaymentWaitFor.set(latch);
+    }
+
+    public void makePaymentInfoFail(final UUID kbPaymentId, final boolean withRuntimeException) {
+        failingPaymentInfos.put(kbPaymentId.toString(), withRuntimeException);
+    }
+
     @Override
     public PaymentTransactionInfoPlugin authorizePayment(final UUID kbAccountId, final UUID kbPaymentId, final UUID kbTransactionId, final UUID kbPaymentMethodId, final BigDecimal amount, final Currency currency, final Iterable<PluginProperty> properties, final CallContext context)
             throws PaymentPluginApiException {
@@ -236,6 +252,14 @@ public class MockPaymentProviderPlugin implements NoOpPaymentPluginApi {
 
     @Override
     public List<PaymentTransactionInfoPlugin> getPaymentInfo(final UUID kbAccountId, final UUID kbPaymentId, final Iterable<PluginProperty> properties, final TenantContext context) throws PaymentPluginApiException {
+        final Boolean withRuntimeException = failingPaymentInfos.get(kbPaymentId.toString());
+        if (withRuntimeException != null) {
+            if (withRuntimeException) {
+                throw new IllegalStateException("test error");
+            } else {
+                throw new PaymentPluginApiException("", "test error");
+            }
+        }
         final List<PaymentTransactionInfoPlugin> result = paymentTransactions.get(kbPaymentId.toString());
         return result != null ? result : ImmutableList.<PaymentTransactionInfoPlugin>of();
     }
@@ -330,6 +354,16 @@ public class MockPaymentProviderPlugin implements NoOpPaymentPluginApi {
 
     private PaymentTransactionInfoPlugin getPaymentTransactionInfoPluginResult(final UUID kbPaymentId, final UUID kbTransactionId, final TransactionType type, final BigDecimal amount, final Currency currency) throws PaymentPluginApiException {
 
+        final CountDownLatch latch = makeNextPaymentWaitFor.getAndSet(null);
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PaymentPluginApiException("", "test interrupted");
+            }
+        }
+
         if (makeNextInvoiceFailWithException.getAndSet(false)) {
             throw new PaymentPluginApiException("", "test error");
         }
@@ -21,17 +21,32 @@ package org.killbill.billing.server.notifications;
 import java.io.IOException;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Inject;
 
+import org.joda.time.DateTime;
+import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.jaxrs.json.NotificationJson;
 import org.killbill.billing.notification.plugin.api.ExtBusEvent;
 import org.killbill.billing.tenant.api.TenantApiException;
 import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.killbill.billing.tenant.api.TenantUserApi;
 import org.killbill.billing.util.callcontext.CallContextFactory;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.config.NotificationConfig;
+import org.killbill.clock.Clock;
+import org.killbill.notificationq.api.NotificationEvent;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.killbill.notificationq.api.NotificationQueueService;
+import org.killbill.notificationq.api.NotificationQueueService.NoSuchNotificationQueue;
+import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueAlreadyExists;
+import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueHandler;
+import org.skife.config.TimeSpan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,14 +54,22 @@ import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
 import com.ning.http.client.AsyncHttpClientConfig;
-import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.Response;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
 
+/**
+ * Delivers external bus events to the tenant callbacks.
+ * <p/>
+ * Requests are sent asynchronously so that a slow endpoint never holds the bus thread. The number of outstanding
+ * requests is bounded per tenant, and failed (or deferred) deliveries are retried through a notification queue.
+ */
 public class PushNotificationListener {
 
     private static final Logger log = LoggerFactory.getLogger(PushNotificationListener.class);
@@ -56,19 +79,82 @@ public class PushNotificationListener {
     @VisibleForTesting
     public static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
 
-    private static final int TIMEOUT_NOTIFICATION = 15; // 15 seconds
+    public static final String PUSH_NOTIFICATION_SERVICE_NAME = "server-service";
+    public static final String PUSH_NOTIFICATION_QUEUE_NAME = "push-notification-queue";
+
+    // ConcurrentHashMap doesn't allow null keys (tenantId is null when multi-tenancy is disabled)
+    private static final UUID NO_TENANT_KEY = new UUID(0L, 0L);
+
+    // Delay before trying again a notification deferred because the tenant has too many outstanding requests, if no retry schedule is configured
+    private static final long DEFAULT_DEFERRAL_DELAY_MS = 15000L;
 
     private final TenantUserApi tenantApi;
     private final CallContextFactory contextFactory;
+    private final InternalCallContextFactory internalCallContextFactory;
+    private final NotificationQueueService notificationQueueService;
+    private final NotificationConfig notificationConfig;
+    private final Clock clock;
     private final AsyncHttpClient httpClient;
     private final ObjectMapper mapper;
+    private final ConcurrentMap<UUID, Semaphore> inFlightRequestsPerTenant;
+
+    private final Timer deliveryTimer;
+    private final Meter failuresMeter;
+    private final Meter retriesMeter;
+    private final Meter droppedMeter;
+
+    private NotificationQueue retryQueue;
 
     @Inject
-    public PushNotificationListener(final ObjectMapper mapper, final TenantUserApi tenantApi, final CallContextFactory contextFactory) {
-        this.httpClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setRequestTimeout(TIMEOUT_NOTIFICATION * 1000).build());
+    public PushNotificationListener(final ObjectMapper mapper,
+                                    final TenantUserApi tenantApi,
+                                    final CallContextFactory contextFactory,
+                                    final InternalCallContextFactory internalCallContextFactory,
+                                    final NotificationQueueService notificationQueueService,
+                                    final NotificationConfig notificationConfig,
+                                    final MetricRegistry metricRegistry,
+                                    final Clock clock) {
+        this.httpClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setRequestTimeout((int) notificationConfig.getPushNotificationsTimeout().getMillis()).build());
         this.tenantApi = tenantApi;
         this.contextFactory = contextFactory;
+        this.internalCallContextFactory = internalCallContextFactory;
+        this.notificationQueueService = notificationQueueService;
+        this.notificationConfig = notificationConfig;
+        this.clock = clock;
         this.mapper = mapper;
+        this.inFlightRequestsPerTenant = new ConcurrentHashMap<UUID, Semaphore>();
+        this.deliveryTimer = metricRegistry.timer(MetricRegistry.name(PushNotificationListener.class, "delivery"));
+        this.failuresMeter = metricRegistry.meter(MetricRegistry.name(PushNotificationListener.class, "failures"));
+        this.retriesMeter = metricRegistry.meter(MetricRegistry.name(PushNotificationListener.class, "retries"));
+        this.droppedMeter = metricRegistry.meter(MetricRegistry.name(PushNotificationListener.class, "dropped"));
+    }
+
+    public void initialize() throws NotificationQueueAlreadyExists {
+        retryQueue = notificationQueueService.createNotificationQueue(PUSH_NOTIFICATION_SERVICE_NAME,
+                                                                      PUSH_NOTIFICATION_QUEUE_NAME,
+                                                                      new NotificationQueueHandler() {
+                                                                          @Override
+                                                                          public void handleReadyNotification(final NotificationEvent notificationKey, final DateTime eventDateTime, final UUID userToken, final Long accountRecordId, final Long tenantRecordId) {
+                                                                              if (!(notificationKey instanceof PushNotificationKey)) {
+                                                                                  log.error("Push notification service received an unexpected event type {}", notificationKey.getClass().getName());
+                                                                                  return;
+                                                                              }
+                                                                              doPost((PushNotificationKey) notificationKey);
+                                                                          }
+                                                                      }
+                                                                     );
+    }
+
+    public void start() {
+        retryQueue.startQueue();
+    }
+
+    public void stop() throws NoSuchNotificationQueue {
+        if (retryQueue != null) {
+            retryQueue.stopQueue();
+            notificationQueueService.deleteNotificationQueue(PUSH_NOTIFICATION_SERVICE_NAME, PUSH_NOTIFICATION_QUEUE_NAME);
+        }
+        httpClient.close();
     }
 
     @AllowConcurrentEvents
@@ -93,30 +179,149 @@ public class PushNotificationListener {
         final NotificationJson notification = new NotificationJson(event);
         final String body = mapper.writeValueAsString(notification);
         for (final String cur : callbacks) {
-            doPost(tenantId, cur, body, TIMEOUT_NOTIFICATION);
+            doPost(new PushNotificationKey(tenantId, event.getAccountId(), cur, body, 0));
         }
     }
 
-    private boolean doPost(final UUID tenantId, final String url, final String body, final int timeoutSec) {
-        final BoundRequestBuilder builder = httpClient.preparePost(url);
-        builder.setBody(body == null ? "{}" : body);
-        builder.addHeader(HTTP_HEADER_CONTENT_TYPE, CONTENT_TYPE_JSON);
+    @VisibleForTesting
+    void doPost(final PushNotificationKey key) {
+        final Semaphore inFlightRequests = getInFlightRequests(key.getTenantId());
+        if (!inFlightRequests.tryAcquire()) {
+            // Don't block the caller (bus or notification queue thread) on a slow tenant endpoint, try again later: this isn't a failed delivery,
+            // so it doesn't count against the retry budget
+            log.info("Too many outstanding push notifications for tenant {}, deferring {}", key.getTenantId(), key.getUrl());
+            scheduleDeferral(key);
+            return;
+        }
 
-        final Response response;
+        final InFlightRequest inFlightRequest = new InFlightRequest(key, inFlightRequests, deliveryTimer.time());
         try {
-            final ListenableFuture<Response> futureStatus =
-                    builder.execute(new AsyncCompletionHandler<Response>() {
-                        @Override
-                        public Response onCompleted(final Response response) throws Exception {
-                            return response;
-                        }
-                    });
-            response = futureStatus.get(timeoutSec, TimeUnit.SECONDS);
+            final BoundRequestBuilder builder = httpClient.preparePost(key.getUrl());
+            builder.setBody(key.getBody() == null ? "{}" : key.getBody());
+            builder.addHeader(HTTP_HEADER_CONTENT_TYPE, CONTENT_TYPE_JSON);
+            builder.execute(new AsyncCompletionHandler<Response>() {
+                @Override
+                public Response onCompleted(final Response response) throws Exception {
+                    if (response.getStatusCode() < 200 || response.getStatusCode() >= 300) {
+                        log.warn("Failed to push notification {} for the tenant {}, status={}", key.getUrl(), key.getTenantId(), response.getStatusCode());
+                        inFlightRequest.complete(false);
+                    } else {
+                        inFlightRequest.complete(true);
+                    }
+                    return response;
+                }
+
+                @Override
+                public void onThrowable(final Throwable t) {
+                    log.warn(String.format("Failed to push notification %s for the tenant %s", key.getUrl(), key.getTenantId()), t);
+                    inFlightRequest.complete(false);
+                }
+            });
         } catch (final Exception e) {
-            log.warn(String.format("Failed to push notification %s for the tenant %s", url, tenantId), e);
+            log.warn(String.format("Failed to push notification %s for the tenant %s", key.getUrl(), key.getTenantId()), e);
+            inFlightRequest.complete(false);
+        }
+    }
+
+    //
+    // A request can be reported as done more than once (e.g. the client calls onThrowable when onCompleted throws, or execute throws after
+    // the handler was invoked): only the first outcome releases the permit and, on failure, schedules a retry.
+    //
+    @VisibleForTesting
+    final class InFlightRequest {
+
+        private final PushNotificationKey key;
+        private final Semaphore inFlightRequests;
+        private final Timer.Context timerContext;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        InFlightRequest(final PushNotificationKey key, final Semaphore inFlightRequests, final Timer.Context timerContext) {
+            this.key = key;
+            this.inFlightRequests = inFlightRequests;
+            this.timerContext = timerContext;
+        }
+
+        void complete(final boolean success) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                timerContext.stop();
+                if (!success) {
+                    onFailure(key);
+                }
+            } finally {
+                inFlightRequests.release();
+            }
+        }
+    }
+
+    private void onFailure(final PushNotificationKey key) {
+        failuresMeter.mark();
+        scheduleRetry(key);
+    }
+
+    private void scheduleDeferral(final PushNotificationKey key) {
+        if (retryQueue == null) {
+            log.warn("Dropping push notification {} for the tenant {}, retry queue isn't initialized", key.getUrl(), key.getTenantId());
+            droppedMeter.mark();
+            return;
+        }
+
+        // Same attempt number, so that the retry schedule is left untouched
+        final List<TimeSpan> retries = notificationConfig.getPushNotificationsRetries();
+        final long delayMs = retries.isEmpty() ? DEFAULT_DEFERRAL_DELAY_MS : retries.get(0).getMillis();
+        recordNotification(key, new PushNotificationKey(key, key.getAttemptNumber() == null ? 0 : key.getAttemptNumber()), clock.getUTCNow().plus(delayMs));
+    }
+
+    private void scheduleRetry(final PushNotificationKey key) {
+        final List<TimeSpan> retries = notificationConfig.getPushNotificationsRetries();
+        final int attemptNumber = key.getAttemptNumber() == null ? 0 : key.getAttemptNumber();
+        if (retryQueue == null || attemptNumber >= retries.size()) {
+            log.warn("Giving up on push notification {} for the tenant {} after {} attempts", key.getUrl(), key.getTenantId(), attemptNumber + 1);
+            droppedMeter.mark();
+            return;
+        }
+
+        if (recordNotification(key, new PushNotificationKey(key, attemptNumber + 1), clock.getUTCNow().plus(retries.get(attemptNumber).getMillis()))) {
+            retriesMeter.mark();
+        }
+    }
+
+    private boolean recordNotification(final PushNotificationKey key, final PushNotificationKey nextKey, final DateTime nextAttempt) {
+        try {
+            final InternalTenantContext internalContext = createInternalTenantContext(key);
+            // search_key1 cannot be null: tenant-level events aren't tied to an account
+            final Long accountRecordId = internalContext.getAccountRecordId() != null ? internalContext.getAccountRecordId() : InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID;
+            retryQueue.recordFutureNotification(nextAttempt, nextKey, null, accountRecordId, internalContext.getTenantRecordId());
+            return true;
+        } catch (final IOException e) {
+            log.warn(String.format("Failed to schedule retry of push notification %s for the tenant %s", key.getUrl(), key.getTenantId()), e);
+            droppedMeter.mark();
             return false;
         }
-        return response.getStatusCode() >= 200 && response.getStatusCode() < 300;
+    }
+
+    private InternalTenantContext createInternalTenantContext(final PushNotificationKey key) {
+        final TenantContext context = contextFactory.createTenantContext(key.getTenantId());
+        if (key.getAccountId() == null) {
+            return internalCallContextFactory.createInternalTenantContext(context);
+        } else {
+            return internalCallContextFactory.createInternalTenantContext(key.getAccountId(), context);
+        }
+    }
+
+    private Semaphore getInFlightRequests(final UUID tenantId) {
+        final UUID key = tenantId == null ? NO_TENANT_KEY : tenantId;
+        Semaphore inFlightRequests = inFlightRequestsPerTenant.get(key);
+        if (inFlightRequests == null) {
+            final Semaphore newInFlightRequests = new Semaphore(notificationConfig.getPushNotificationsMaxInFlightPerTenant());
+            inFlightRequests = inFlightRequestsPerTenant.putIfAbsent(key, newInFlightRequests);
+            if (inFlightRequests == null) {
+                inFlightRequests = newInFlightRequests;
+            }
+        }
+        return inFlightRequests;
     }
 
     private List<String> getCallbacksForTenant(final TenantContext context) throws TenantApiException {
@@ -38,16 +38,25 @@ import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.authc.UsernamePasswordToken;
 import org.apache.shiro.authc.pam.ModularRealmAuthenticator;
 import org.apache.shiro.realm.Realm;
+import org.killbill.billing.ObjectType;
 import org.killbill.billing.jaxrs.resources.JaxrsResource;
 import org.killbill.billing.server.listeners.KillbillGuiceListener;
 import org.killbill.billing.server.modules.KillbillPlatformModule;
 import org.killbill.billing.tenant.api.Tenant;
 import org.killbill.billing.tenant.api.TenantApiException;
 import org.killbill.billing.tenant.api.TenantUserApi;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.CacheLoaderArgument;
+import org.killbill.billing.util.cache.TenantAuthenticationCacheLoader.LoaderCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 
 @Singleton
 public class TenantFilter implements Filter {
@@ -64,7 +73,11 @@ public class TenantFilter implements Filter {
     @Named(KillbillPlatformModule.SHIRO_DATA_SOURCE_ID_NAMED)
     protected DataSource dataSource;
 
+    @Inject
+    protected CacheControllerDispatcher cacheControllerDispatcher;
+
     private ModularRealmAuthenticator modularRealmAuthenticator;
+    private CacheController<Object, Object> tenantAuthenticationCache;
 
     @Override
     public void init(final FilterConfig filterConfig) throws ServletException {
@@ -72,6 +85,7 @@ public class TenantFilter implements Filter {
         // We use Shiro to verify the api credentials - but the Shiro Subject is only used for RBAC
         modularRealmAuthenticator = new ModularRealmAuthenticator();
         modularRealmAuthenticator.setRealms(ImmutableList.<Realm>of(killbillJdbcTenantRealm));
+        tenantAuthenticationCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT_AUTHENTICATION);
     }
 
     @Override
@@ -93,11 +107,9 @@ public class TenantFilter implements Filter {
         }
 
         // Verify the apiKey/apiSecret combo
-        final AuthenticationToken token = new UsernamePasswordToken(apiKey, apiSecret);
-        try {
-            modularRealmAuthenticator.authenticate(token);
-        } catch (final AuthenticationException e) {
-            final String errorMessage = e.getLocalizedMessage();
+        final AuthenticationException authenticationException = authenticate(apiKey, apiSecret);
+        if (authenticationException != null) {
+            final String errorMessage = authenticationException.getLocalizedMessage();
             handleAuthenticationError(errorMessage, chain, request, response);
             return;
         }
@@ -114,6 +126,41 @@ public class TenantFilter implements Filter {
         }
     }
 
+    // Returns null if the credentials are valid. Successful verifications are cached (keyed by a digest of the credentials, the
+    // cached value being the principal), to avoid hitting the database and re-hashing the secret on each request
+    private AuthenticationException authenticate(final String apiKey, final String apiSecret) {
+        final AuthenticationCallback callback = new AuthenticationCallback(new UsernamePasswordToken(apiKey, apiSecret));
+        final String credentialsDigest = getCredentialsDigest(apiKey, apiSecret);
+        final Object principal = tenantAuthenticationCache.get(credentialsDigest, new CacheLoaderArgument(ObjectType.TENANT, new Object[]{callback}, null));
+        if (apiKey.equals(principal)) {
+            return null;
+        } else if (principal != null) {
+            // The entry was cached for another api key: never trust it, verify the credentials against the database
+            log.warn("Credentials digest collision for api key {}", apiKey);
+            return callback.authenticate() != null ? null : getFailure(callback, apiKey);
+        }
+
+        // Don't remember failed attempts
+        tenantAuthenticationCache.remove(credentialsDigest);
+        return getFailure(callback, apiKey);
+    }
+
+    private AuthenticationException getFailure(final AuthenticationCallback callback, final String apiKey) {
+        return callback.getFailure() != null ? callback.getFailure() : new AuthenticationException("Unable to authenticate api key " + apiKey);
+    }
+
+    // Each field is length-prefixed, so that different (apiKey, apiSecret) pairs can't have the same input (e.g. "a:b"/"c" and "a"/"b:c")
+    @VisibleForTesting
+    static String getCredentialsDigest(final String apiKey, final String apiSecret) {
+        return Hashing.sha256().newHasher()
+                      .putInt(apiKey.length())
+                      .putString(apiKey, Charsets.UTF_8)
+                      .putInt(apiSecret.length())
+                      .putString(apiSecret, Charsets.UTF_8)
+                      .hash()
+                      .toString();
+    }
+
     private void handleAuthenticationError(final String errorMessage, final FilterChain chain, final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
         if (shouldContinueIfTenantInformationIsWrongOrMissing(request)) {
             chain.doFilter(request, response);
@@ -188,4 +235,30 @@ public class TenantFilter implements Filter {
             httpServletResponse.sendError(401, errorMessage);
         }
     }
+
+    private final class AuthenticationCallback implements LoaderCallback {
+
+        private final AuthenticationToken token;
+
+        private AuthenticationException failure;
+
+        private AuthenticationCallback(final AuthenticationToken token) {
+            this.token = token;
+        }
+
+        @Override
+        public Object authenticate() {
+            try {
+                modularRealmAuthenticator.authenticate(token);
+                return token.getPrincipal();
+            } catch (final AuthenticationException e) {
+                failure = e;
+                return null;
+            }
+        }
+
+        public AuthenticationException getFailure() {
+            return failure;
+        }
+    }
 }
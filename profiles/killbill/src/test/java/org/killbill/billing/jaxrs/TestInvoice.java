@@ -20,6 +20,7 @@ package org.killbill.billing.jaxrs;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -31,6 +32,8 @@ import org.joda.time.LocalDate;
 import org.killbill.billing.catalog.api.BillingPeriod;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.catalog.api.ProductCategory;
+import org.killbill.billing.client.KillBillClientException;
+import org.killbill.billing.client.KillBillHttpClient;
 import org.killbill.billing.client.model.Account;
 import org.killbill.billing.client.model.AuditLog;
 import org.killbill.billing.client.model.Invoice;
@@ -42,13 +45,16 @@ import org.killbill.billing.client.model.Invoices;
 import org.killbill.billing.client.model.Payment;
 import org.killbill.billing.client.model.PaymentMethod;
 import org.killbill.billing.entitlement.api.SubscriptionEventType;
+import org.killbill.billing.jaxrs.resources.JaxrsResource;
 import org.killbill.billing.payment.provider.ExternalPaymentProviderPlugin;
 import org.killbill.billing.util.api.AuditLevel;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Multimap;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
@@ -172,6 +178,70 @@ public class TestInvoice extends TestJaxrsBase {
         assertEquals(killBillClient.getPaymentsForAccount(accountJson.getAccountId()).size(), 1);
     }
 
+    @Test(groups = "slow", description = "Can pay all invoices with a single payment")
+    public void testPayAllInvoicesWithBulkPayment() throws Exception {
+        clock.setTime(new DateTime(2012, 4, 25, 0, 3, 42, 0));
+
+        // No payment method
+        final Account accountJson = createAccountNoPMBundleAndSubscriptionAndWaitForFirstInvoice();
+        // Get a second unpaid invoice
+        clock.addMonths(1);
+        crappyWaitForLackOfProperSynchonization();
+
+        final List<Invoice> unpaidInvoices = getUnpaidInvoices(accountJson.getAccountId());
+        assertEquals(unpaidInvoices.size(), 2);
+        final Invoice oldestInvoice = unpaidInvoices.get(0);
+        final Invoice newestInvoice = unpaidInvoices.get(1);
+        Assert.assertTrue(oldestInvoice.getInvoiceDate().compareTo(newestInvoice.getInvoiceDate()) < 0);
+
+        // Partial amount: the oldest invoice is paid first
+        final BigDecimal partialAmount = oldestInvoice.getBalance().add(BigDecimal.ONE);
+        payAllInvoicesWithBulkPayment(accountJson.getAccountId(), partialAmount);
+        List<Payment> payments = killBillClient.getPaymentsForAccount(accountJson.getAccountId());
+        assertEquals(payments.size(), 1);
+        assertEquals(payments.get(0).getPurchasedAmount().compareTo(partialAmount), 0);
+        assertEquals(killBillClient.getInvoice(oldestInvoice.getInvoiceId()).getBalance().compareTo(BigDecimal.ZERO), 0);
+        assertEquals(killBillClient.getInvoice(newestInvoice.getInvoiceId()).getBalance().compareTo(newestInvoice.getBalance().subtract(BigDecimal.ONE)), 0);
+
+        // Pay the rest: a single payment for the remaining balance
+        payAllInvoicesWithBulkPayment(accountJson.getAccountId(), null);
+        for (final Invoice invoice : killBillClient.getInvoicesForAccount(accountJson.getAccountId())) {
+            assertEquals(invoice.getBalance().compareTo(BigDecimal.ZERO), 0);
+        }
+        payments = killBillClient.getPaymentsForAccount(accountJson.getAccountId());
+        assertEquals(payments.size(), 2);
+
+        // Nothing left to pay: no new payment
+        payAllInvoicesWithBulkPayment(accountJson.getAccountId(), null);
+        assertEquals(killBillClient.getPaymentsForAccount(accountJson.getAccountId()).size(), 2);
+    }
+
+    private List<Invoice> getUnpaidInvoices(final UUID accountId) throws KillBillClientException {
+        final List<Invoice> unpaidInvoices = new ArrayList<Invoice>();
+        for (final Invoice invoice : killBillClient.getInvoicesForAccount(accountId)) {
+            if (invoice.getBalance().compareTo(BigDecimal.ZERO) > 0) {
+                unpaidInvoices.add(invoice);
+            }
+        }
+        return unpaidInvoices;
+    }
+
+    private void payAllInvoicesWithBulkPayment(final UUID accountId, @Nullable final BigDecimal paymentAmount) throws KillBillClientException {
+        // The bulkPayment flag isn't exposed by the client yet
+        final String uri = JaxrsResource.ACCOUNTS_PATH + "/" + accountId + "/" + JaxrsResource.INVOICE_PAYMENTS;
+
+        final Multimap<String, String> options = HashMultimap.create();
+        options.put(JaxrsResource.QUERY_PAYMENT_EXTERNAL, "true");
+        options.put(JaxrsResource.QUERY_PAYMENT_BULK, "true");
+        if (paymentAmount != null) {
+            options.put(JaxrsResource.QUERY_PAYMENT_AMOUNT, paymentAmount.toString());
+        }
+        options.put(KillBillHttpClient.AUDIT_OPTION_CREATED_BY, createdBy);
+        options.put(KillBillHttpClient.AUDIT_OPTION_REASON, reason);
+        options.put(KillBillHttpClient.AUDIT_OPTION_COMMENT, comment);
+        killBillHttpClient.doPost(uri, null, options);
+    }
+
     @Test(groups = "slow", description = "Can create an insta-payment")
     public void testInvoiceCreatePayment() throws Exception {
         clock.setTime(new DateTime(2012, 4, 25, 0, 3, 42, 0));
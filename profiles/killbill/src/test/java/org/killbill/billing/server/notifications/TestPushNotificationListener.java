@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.server.notifications;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.server.log.ServerTestSuiteNoDB;
+import org.killbill.billing.tenant.api.TenantUserApi;
+import org.killbill.billing.util.callcontext.CallContextFactory;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.config.NotificationConfig;
+import org.killbill.notificationq.api.NotificationEvent;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.killbill.notificationq.api.NotificationQueueService;
+import org.killbill.notificationq.api.NotificationQueueService.NotificationQueueHandler;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.skife.config.TimeSpan;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+
+public class TestPushNotificationListener extends ServerTestSuiteNoDB {
+
+    private static final UUID TENANT_ID = UUID.randomUUID();
+    private static final List<TimeSpan> RETRIES = ImmutableList.<TimeSpan>of(new TimeSpan("15s"), new TimeSpan("1m"), new TimeSpan("5m"));
+
+    private NotificationConfig notificationConfig;
+    private NotificationQueue retryQueue;
+    private PushNotificationListener listener;
+
+    @BeforeMethod(groups = "fast")
+    public void setUp() throws Exception {
+        notificationConfig = Mockito.mock(NotificationConfig.class);
+        Mockito.when(notificationConfig.getPushNotificationsRetries()).thenReturn(RETRIES);
+        Mockito.when(notificationConfig.getPushNotificationsTimeout()).thenReturn(new TimeSpan("1s"));
+        Mockito.when(notificationConfig.getPushNotificationsMaxInFlightPerTenant()).thenReturn(1);
+
+        final CallContextFactory contextFactory = Mockito.mock(CallContextFactory.class);
+        final TenantContext tenantContext = Mockito.mock(TenantContext.class);
+        Mockito.when(contextFactory.createTenantContext(Mockito.<UUID>any())).thenReturn(tenantContext);
+
+        final InternalCallContextFactory internalCallContextFactory = Mockito.mock(InternalCallContextFactory.class);
+        final InternalTenantContext internalTenantContext = Mockito.mock(InternalTenantContext.class);
+        Mockito.when(internalTenantContext.getTenantRecordId()).thenReturn(12L);
+        Mockito.when(internalCallContextFactory.createInternalTenantContext(Mockito.<TenantContext>any())).thenReturn(internalTenantContext);
+
+        retryQueue = Mockito.mock(NotificationQueue.class);
+        final NotificationQueueService notificationQueueService = Mockito.mock(NotificationQueueService.class);
+        Mockito.when(notificationQueueService.createNotificationQueue(Mockito.anyString(), Mockito.anyString(), Mockito.<NotificationQueueHandler>any())).thenReturn(retryQueue);
+
+        listener = new PushNotificationListener(new ObjectMapper(), Mockito.mock(TenantUserApi.class), contextFactory, internalCallContextFactory,
+                                                notificationQueueService, notificationConfig, new MetricRegistry(), getClock());
+        listener.initialize();
+    }
+
+    @AfterMethod(groups = "fast")
+    public void tearDown() throws Exception {
+        listener.stop();
+    }
+
+    @Test(groups = "fast")
+    public void testSaturatedTenantDefersWithoutConsumingRetries() throws Exception {
+        Mockito.when(notificationConfig.getPushNotificationsMaxInFlightPerTenant()).thenReturn(0);
+
+        listener.doPost(new PushNotificationKey(TENANT_ID, null, "http://127.0.0.1:1/callback", "{}", 2));
+
+        final PushNotificationKey deferredKey = captureScheduledNotification();
+        // Same attempt number: the deferral doesn't count as a failed delivery
+        Assert.assertEquals(deferredKey.getAttemptNumber(), (Integer) 2);
+        Assert.assertEquals(deferredKey.getUrl(), "http://127.0.0.1:1/callback");
+    }
+
+    @Test(groups = "fast")
+    public void testFailedDeliveryIsRetriedOnce() throws Exception {
+        final PushNotificationKey key = new PushNotificationKey(TENANT_ID, null, "http://127.0.0.1:1/callback", "{}", 1);
+        final PushNotificationListener.InFlightRequest inFlightRequest = listener.new InFlightRequest(key, new Semaphore(0), new MetricRegistry().timer("test").time());
+
+        // E.g. onCompleted throws and the client then calls onThrowable
+        inFlightRequest.complete(false);
+        inFlightRequest.complete(false);
+
+        final PushNotificationKey retriedKey = captureScheduledNotification();
+        Assert.assertEquals(retriedKey.getAttemptNumber(), (Integer) 2);
+    }
+
+    @Test(groups = "fast")
+    public void testPermitIsReleasedOnce() throws Exception {
+        final PushNotificationKey key = new PushNotificationKey(TENANT_ID, null, "http://127.0.0.1:1/callback", "{}", 0);
+        final Semaphore inFlightRequests = new Semaphore(0);
+        final PushNotificationListener.InFlightRequest inFlightRequest = listener.new InFlightRequest(key, inFlightRequests, new MetricRegistry().timer("test").time());
+
+        inFlightRequest.complete(true);
+        inFlightRequest.complete(false);
+
+        Assert.assertEquals(inFlightRequests.availablePermits(), 1);
+        // The request succeeded first: no retry
+        Mockito.verify(retryQueue, Mockito.never()).recordFutureNotification(Mockito.<DateTime>any(), Mockito.<NotificationEvent>any(), Mockito.<UUID>any(), Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    @Test(groups = "fast")
+    public void testRetriesAreBounded() throws Exception {
+        final PushNotificationKey key = new PushNotificationKey(TENANT_ID, null, "http://127.0.0.1:1/callback", "{}", RETRIES.size());
+        final PushNotificationListener.InFlightRequest inFlightRequest = listener.new InFlightRequest(key, new Semaphore(0), new MetricRegistry().timer("test").time());
+
+        inFlightRequest.complete(false);
+
+        // Out of attempts, the notification is dropped
+        Mockito.verify(retryQueue, Mockito.never()).recordFutureNotification(Mockito.<DateTime>any(), Mockito.<NotificationEvent>any(), Mockito.<UUID>any(), Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    private PushNotificationKey captureScheduledNotification() throws Exception {
+        final ArgumentCaptor<NotificationEvent> eventCaptor = ArgumentCaptor.forClass(NotificationEvent.class);
+        Mockito.verify(retryQueue, Mockito.times(1)).recordFutureNotification(Mockito.<DateTime>any(), eventCaptor.capture(), Mockito.<UUID>any(), Mockito.anyLong(), Mockito.anyLong());
+        Assert.assertTrue(eventCaptor.getValue() instanceof PushNotificationKey);
+        return (PushNotificationKey) eventCaptor.getValue();
+    }
+}
@@ -80,4 +80,33 @@ public class TestTenantFilter extends TestJaxrsBase {
         loginTenant(apiKeyTenant1, apiSecretTenant1);
         Assert.assertNull(killBillClient.getAccount(account2.getExternalKey()));
     }
+
+    @Test(groups = "slow")
+    public void testCollidingCredentials() throws Exception {
+        // Both pairs used to map to the same cache entry ("bob:pass:word")
+        final String apiKey = "bob";
+        final String apiSecret = "pass:word";
+        final String collidingApiKey = "bob:pass";
+        final String collidingApiSecret = "word";
+        Assert.assertNotEquals(TenantFilter.getCredentialsDigest(apiKey, apiSecret), TenantFilter.getCredentialsDigest(collidingApiKey, collidingApiSecret));
+
+        loginTenant(apiKey, apiSecret);
+        final Tenant tenant = new Tenant();
+        tenant.setApiKey(apiKey);
+        tenant.setApiSecret(apiSecret);
+        killBillClient.createTenant(tenant, createdBy, reason, comment);
+
+        // Populate the cache
+        final Account account = createAccount();
+        Assert.assertEquals(killBillClient.getAccount(account.getExternalKey()), account);
+
+        // The other pair isn't a valid tenant
+        loginTenant(collidingApiKey, collidingApiSecret);
+        try {
+            killBillClient.getAccount(account.getExternalKey());
+            Assert.fail();
+        } catch (final KillBillClientException e) {
+            Assert.assertEquals(e.getResponse().getStatusCode(), Status.UNAUTHORIZED.getStatusCode());
+        }
+    }
 }
@@ -37,6 +37,7 @@ import org.killbill.billing.util.cache.Cachable.CacheType;
 import org.killbill.billing.util.cache.CacheController;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.killbill.billing.util.cache.CacheLoaderArgument;
+import org.killbill.billing.util.cache.TenantCacheLoader.LoaderCallback;
 import org.killbill.billing.util.callcontext.CallContext;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
@@ -67,12 +68,14 @@ public class DefaultTenantUserApi implements TenantUserApi {
     private final TenantDao tenantDao;
     private final InternalCallContextFactory internalCallContextFactory;
     private final CacheController<Object, Object> tenantKVCache;
+    private final CacheController<Object, Object> tenantCache;
 
     @Inject
     public DefaultTenantUserApi(final TenantDao tenantDao, final InternalCallContextFactory internalCallContextFactory, final CacheControllerDispatcher cacheControllerDispatcher) {
         this.tenantDao = tenantDao;
         this.internalCallContextFactory = internalCallContextFactory;
         this.tenantKVCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT_KV);
+        this.tenantCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT);
     }
 
     @Override
@@ -90,11 +93,13 @@ public class DefaultTenantUserApi implements TenantUserApi {
 
     @Override
     public Tenant getTenantByApiKey(final String key) throws TenantApiException {
-        final TenantModelDao tenant = tenantDao.getTenantByApiKey(key);
+        final Tenant tenant = (Tenant) tenantCache.get(key, new CacheLoaderArgument(ObjectType.TENANT, new Object[]{createTenantLoaderCallback()}, null));
         if (tenant == null) {
+            // Don't remember unknown keys, the tenant may be created right after
+            tenantCache.remove(key);
             throw new TenantApiException(ErrorCode.TENANT_DOES_NOT_EXIST_FOR_API_KEY, key);
         }
-        return new DefaultTenant(tenant);
+        return tenant;
     }
 
     @Override
@@ -146,6 +151,16 @@ public class DefaultTenantUserApi implements TenantUserApi {
         }
     }
 
+    private LoaderCallback createTenantLoaderCallback() {
+        return new LoaderCallback() {
+            @Override
+            public Object loadTenant(final String apiKey) {
+                final TenantModelDao tenant = tenantDao.getTenantByApiKey(apiKey);
+                return tenant == null ? null : new DefaultTenant(tenant);
+            }
+        };
+    }
+
     private String getCacheKeyName(final String key, final InternalTenantContext internalContext) {
         final StringBuilder tenantKey = new StringBuilder(key);
         tenantKey.append(CacheControllerDispatcher.CACHE_KEY_SEPARATOR);
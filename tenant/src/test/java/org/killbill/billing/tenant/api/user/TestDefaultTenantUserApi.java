@@ -18,8 +18,13 @@
 package org.killbill.billing.tenant.api.user;
 
 import java.util.List;
+import java.util.UUID;
 
+import org.killbill.billing.ErrorCode;
 import org.killbill.billing.tenant.TenantTestSuiteWithEmbeddedDb;
+import org.killbill.billing.tenant.api.DefaultTenant;
+import org.killbill.billing.tenant.api.Tenant;
+import org.killbill.billing.tenant.api.TenantApiException;
 import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -118,4 +123,28 @@ public class TestDefaultTenantUserApi extends TenantTestSuiteWithEmbeddedDb {
         value = tenantUserApi.getTenantValuesForKey(tenantKey, callContext);
         Assert.assertEquals(value.size(), 0);
     }
+
+    @Test(groups = "slow")
+    public void testGetTenantByApiKey() throws Exception {
+        final DefaultTenant tenant = new DefaultTenant(UUID.randomUUID(), null, null, UUID.randomUUID().toString(),
+                                                       UUID.randomUUID().toString(), UUID.randomUUID().toString());
+
+        // Unknown api keys must not be remembered
+        try {
+            tenantUserApi.getTenantByApiKey(tenant.getApiKey());
+            Assert.fail();
+        } catch (final TenantApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.TENANT_DOES_NOT_EXIST_FOR_API_KEY.getCode());
+        }
+
+        final Tenant createdTenant = tenantUserApi.createTenant(tenant, callContext);
+
+        final Tenant retrievedTenant = tenantUserApi.getTenantByApiKey(tenant.getApiKey());
+        Assert.assertEquals(retrievedTenant.getId(), createdTenant.getId());
+
+        // Warm cache
+        final Tenant cachedTenant = tenantUserApi.getTenantByApiKey(tenant.getApiKey());
+        Assert.assertEquals(cachedTenant.getId(), createdTenant.getId());
+        Assert.assertEquals(cachedTenant.getExternalKey(), tenant.getExternalKey());
+    }
 }
@@ -17,17 +17,24 @@
 
 package org.killbill.billing.usage.api.svcs;
 
+import java.util.LinkedList;
 import java.util.List;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import org.joda.time.LocalDate;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.usage.InternalUserApi;
 import org.killbill.billing.usage.RawUsage;
+import org.killbill.billing.usage.api.SubscriptionUsageRecord;
+import org.killbill.billing.usage.api.UnitUsageRecord;
+import org.killbill.billing.usage.api.UsageRecord;
 import org.killbill.billing.usage.dao.RolledUpUsageDao;
 import org.killbill.billing.usage.dao.RolledUpUsageModelDao;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
@@ -36,15 +43,19 @@ import com.google.common.collect.Iterables;
 public class DefaultInternalUserApi implements InternalUserApi {
 
     private final RolledUpUsageDao rolledUpUsageDao;
+    private final InternalCallContextFactory internalCallContextFactory;
 
     @Inject
-    public DefaultInternalUserApi(final RolledUpUsageDao rolledUpUsageDao) {
+    public DefaultInternalUserApi(final RolledUpUsageDao rolledUpUsageDao,
+                                  final InternalCallContextFactory internalCallContextFactory) {
         this.rolledUpUsageDao = rolledUpUsageDao;
+        this.internalCallContextFactory = internalCallContextFactory;
     }
 
     @Override
     public List<RawUsage> getRawUsageForAccount(final LocalDate stateDate, final LocalDate endDate, final InternalTenantContext internalTenantContext) {
-        final List<RolledUpUsageModelDao> usage = rolledUpUsageDao.getRawUsageForAccount(stateDate, endDate, internalTenantContext);
+        // Invoicing only cares about daily amounts, so we read the daily roll-up rather than each individual record
+        final List<RolledUpUsageModelDao> usage = rolledUpUsageDao.getDailyUsageForAccount(stateDate, endDate, internalTenantContext);
         return ImmutableList.copyOf(Iterables.transform(usage, new Function<RolledUpUsageModelDao, RawUsage>() {
             @Nullable
             @Override
@@ -53,4 +64,22 @@ public class DefaultInternalUserApi implements InternalUserApi {
             }
         }));
     }
+
+    @Override
+    public boolean recordRolledUpUsage(final List<SubscriptionUsageRecord> records, @Nullable final String trackingId, final InternalCallContext context) {
+        final List<RolledUpUsageModelDao> rolledUpUsages = new LinkedList<RolledUpUsageModelDao>();
+        for (final SubscriptionUsageRecord record : records) {
+            // Records may span several accounts: resolve the account record id once per subscription (this also verifies the tenant)
+            final Long accountRecordId = internalCallContextFactory.createInternalCallContext(record.getSubscriptionId(), ObjectType.SUBSCRIPTION, context.getCreatedBy(),
+                                                                                              context.getCallOrigin(), context.getContextUserType(), context.getUserToken(),
+                                                                                              context.getTenantRecordId()).getAccountRecordId();
+            for (final UnitUsageRecord unitUsageRecord : record.getUnitUsageRecord()) {
+                for (final UsageRecord usageRecord : unitUsageRecord.getDailyAmount()) {
+                    rolledUpUsages.add(new RolledUpUsageModelDao(record.getSubscriptionId(), unitUsageRecord.getUnitType(), usageRecord.getDate(), usageRecord.getAmount(),
+                                                                 context.getCreatedDate(), accountRecordId, context.getTenantRecordId()));
+                }
+            }
+        }
+        return rolledUpUsages.isEmpty() || rolledUpUsageDao.record(rolledUpUsages, trackingId, context);
+    }
 }
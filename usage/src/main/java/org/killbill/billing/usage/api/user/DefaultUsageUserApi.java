@@ -18,6 +18,7 @@ package org.killbill.billing.usage.api.user;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -40,6 +41,8 @@ import org.killbill.billing.util.callcontext.CallContext;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
 
+import com.google.common.collect.ImmutableList;
+
 public class DefaultUsageUserApi implements UsageUserApi {
 
     private final RolledUpUsageDao rolledUpUsageDao;
@@ -55,29 +58,49 @@ public class DefaultUsageUserApi implements UsageUserApi {
     @Override
     public void recordRolledUpUsage(final SubscriptionUsageRecord record, final CallContext callContext) {
         final InternalCallContext internalCallContext = internalCallContextFactory.createInternalCallContext(record.getSubscriptionId(), ObjectType.SUBSCRIPTION, callContext);
+        final List<RolledUpUsageModelDao> rolledUpUsages = new LinkedList<RolledUpUsageModelDao>();
         for (UnitUsageRecord unitUsageRecord : record.getUnitUsageRecord()) {
             for (UsageRecord usageRecord : unitUsageRecord.getDailyAmount()) {
-                rolledUpUsageDao.record(record.getSubscriptionId(), unitUsageRecord.getUnitType(), usageRecord.getDate(), usageRecord.getAmount(), internalCallContext);
+                rolledUpUsages.add(new RolledUpUsageModelDao(record.getSubscriptionId(), unitUsageRecord.getUnitType(), usageRecord.getDate(), usageRecord.getAmount(),
+                                                             internalCallContext.getCreatedDate(), internalCallContext.getAccountRecordId(), internalCallContext.getTenantRecordId()));
             }
         }
+        // Record all entries in a single transaction
+        if (!rolledUpUsages.isEmpty()) {
+            rolledUpUsageDao.record(rolledUpUsages, null, internalCallContext);
+        }
     }
 
     @Override
     public RolledUpUsage getUsageForSubscription(final UUID subscriptionId, final String unitType, final LocalDate startDate, final LocalDate endDate, final TenantContext tenantContext) {
-        final List<RolledUpUsageModelDao> usageForSubscription = rolledUpUsageDao.getUsageForSubscription(subscriptionId, startDate, endDate, unitType, internalCallContextFactory.createInternalTenantContext(tenantContext));
+        final List<RolledUpUsageModelDao> usageForSubscription = rolledUpUsageDao.getAggregatedUsageForSubscription(subscriptionId, startDate, endDate, unitType, internalCallContextFactory.createInternalTenantContext(tenantContext));
         final List<RolledUpUnit> rolledUpAmount = getRolledUpUnits(usageForSubscription);
         return new DefaultRolledUpUsage(subscriptionId, startDate, endDate, rolledUpAmount);
     }
 
     @Override
     public List<RolledUpUsage> getAllUsageForSubscription(final UUID subscriptionId, final List<LocalDate> transitionTimes, final TenantContext tenantContext) {
+        if (transitionTimes.size() < 2) {
+            return ImmutableList.<RolledUpUsage>of();
+        }
+
+        // Retrieve the daily roll-ups across all intervals at once (entries are sorted by date)
         final InternalTenantContext internalCallContext = internalCallContextFactory.createInternalTenantContext(subscriptionId, ObjectType.SUBSCRIPTION, tenantContext);
-        List<RolledUpUsage> result = new ArrayList<RolledUpUsage>();
+        final List<RolledUpUsageModelDao> dailyUsage = rolledUpUsageDao.getDailyUsageForSubscription(subscriptionId, transitionTimes.get(0), transitionTimes.get(transitionTimes.size() - 1), internalCallContext);
+
+        final List<RolledUpUsage> result = new ArrayList<RolledUpUsage>();
+        int dailyUsageIndex = 0;
         LocalDate prevDate = null;
         for (LocalDate curDate : transitionTimes) {
             if (prevDate != null) {
-                final List<RolledUpUsageModelDao> usageForSubscription = rolledUpUsageDao.getAllUsageForSubscription(subscriptionId, prevDate, curDate, internalCallContext);
-                final List<RolledUpUnit> rolledUpAmount = getRolledUpUnits(usageForSubscription);
+                final List<RolledUpUsageModelDao> usageForInterval = new LinkedList<RolledUpUsageModelDao>();
+                while (dailyUsageIndex < dailyUsage.size() && dailyUsage.get(dailyUsageIndex).getRecordDate().compareTo(curDate) < 0) {
+                    final RolledUpUsageModelDao cur = dailyUsage.get(dailyUsageIndex++);
+                    if (cur.getRecordDate().compareTo(prevDate) >= 0) {
+                        usageForInterval.add(cur);
+                    }
+                }
+                final List<RolledUpUnit> rolledUpAmount = getRolledUpUnits(usageForInterval);
                 result.add(new DefaultRolledUpUsage(subscriptionId, prevDate, curDate, rolledUpAmount));
             }
             prevDate = curDate;
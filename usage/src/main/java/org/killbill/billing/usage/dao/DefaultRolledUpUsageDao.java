@@ -16,30 +16,140 @@
 
 package org.killbill.billing.usage.dao;
 
-import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import org.joda.time.LocalDate;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
+import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
+import org.skife.jdbi.v2.TransactionCallback;
+import org.skife.jdbi.v2.TransactionStatus;
+
+import com.google.common.collect.ImmutableList;
 
 public class DefaultRolledUpUsageDao implements RolledUpUsageDao {
 
+    private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+
+    private final IDBI dbi;
     private final RolledUpUsageSqlDao rolledUpUsageSqlDao;
 
     @Inject
     public DefaultRolledUpUsageDao(final IDBI dbi) {
+        this.dbi = dbi;
         this.rolledUpUsageSqlDao = dbi.onDemand(RolledUpUsageSqlDao.class);
     }
 
     @Override
     public void record(final UUID subscriptionId, final String unitType, final LocalDate date, final Long amount, final InternalCallContext context) {
         final RolledUpUsageModelDao rolledUpUsageModelDao = new RolledUpUsageModelDao(subscriptionId, unitType, date, amount);
-        rolledUpUsageSqlDao.create(rolledUpUsageModelDao, context);
+        final TransactionCallback<Void> recordCallback = new TransactionCallback<Void>() {
+            @Override
+            public Void inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                final RolledUpUsageSqlDao transactional = handle.attach(RolledUpUsageSqlDao.class);
+                transactional.create(rolledUpUsageModelDao, context);
+
+                // Keep the daily roll-up (one row per subscription, day and unit type) in sync, so that readers don't have to scan the raw entries
+                if (transactional.updateDailyUsage(rolledUpUsageModelDao, context) == 0) {
+                    transactional.createDailyUsage(new RolledUpUsageModelDao(subscriptionId, unitType, date, amount), context);
+                }
+                return null;
+            }
+        };
+
+        inTransactionWithRetries(recordCallback);
+    }
+
+    @Override
+    public boolean record(final Iterable<RolledUpUsageModelDao> rolledUpUsages, @Nullable final String trackingId, final InternalCallContext context) {
+        // A concurrent retry of the same batch fails on the unique index on the tracking id: the retried transaction then sees it and returns false (409)
+        return inTransactionWithRetries(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                final RolledUpUsageSqlDao transactional = handle.attach(RolledUpUsageSqlDao.class);
+                if (trackingId != null) {
+                    if (transactional.getBatchCountForTrackingId(trackingId, context) > 0) {
+                        return false;
+                    }
+                    transactional.createBatchTrackingId(trackingId, context);
+                }
+
+                transactional.createBatch(rolledUpUsages, context.getCreatedBy());
+
+                // The daily roll-up has a single row per subscription, day and unit type: sum the entries of the batch first
+                final List<RolledUpUsageModelDao> dailyUsages = aggregateDailyUsage(rolledUpUsages);
+                final int[] updatedRows = transactional.updateDailyUsageBatch(dailyUsages, context.getCreatedBy());
+                final List<RolledUpUsageModelDao> newDailyUsages = new LinkedList<RolledUpUsageModelDao>();
+                for (int i = 0; i < updatedRows.length; i++) {
+                    if (updatedRows[i] == 0) {
+                        newDailyUsages.add(dailyUsages.get(i));
+                    }
+                }
+                if (!newDailyUsages.isEmpty()) {
+                    transactional.createDailyUsageBatch(newDailyUsages, context.getCreatedBy());
+                }
+                return true;
+            }
+        });
+    }
+
+    //
+    // Concurrent records for the same subscription, day and unit type race to create the daily entry: the loser fails on the unique index
+    // (or, depending on the database, on a deadlock between the two inserts). The whole transaction is rolled back (including the raw
+    // entries, so nothing is counted twice) and retried, the update then finds the row created by the winner.
+    // We don't use an upsert, as there is no portable syntax across the supported databases.
+    //
+    private <T> T inTransactionWithRetries(final TransactionCallback<T> callback) {
+        int attempt = 1;
+        while (true) {
+            try {
+                return dbi.inTransaction(callback);
+            } catch (final RuntimeException e) {
+                if (attempt >= MAX_TRANSACTION_ATTEMPTS || !isConcurrentInsertFailure(e)) {
+                    throw e;
+                }
+                attempt++;
+            }
+        }
+    }
+
+    // SQLState class 23 is an integrity constraint violation (duplicate key), 40001 a serialization failure (deadlock)
+    private static boolean isConcurrentInsertFailure(final Throwable throwable) {
+        Throwable cur = throwable;
+        while (cur != null) {
+            if (cur instanceof SQLException) {
+                final String sqlState = ((SQLException) cur).getSQLState();
+                if (sqlState != null && (sqlState.startsWith("23") || "40001".equals(sqlState))) {
+                    return true;
+                }
+            }
+            cur = cur.getCause();
+        }
+        return false;
+    }
+
+    private List<RolledUpUsageModelDao> aggregateDailyUsage(final Iterable<RolledUpUsageModelDao> rolledUpUsages) {
+        final Map<List<Object>, RolledUpUsageModelDao> dailyUsages = new LinkedHashMap<List<Object>, RolledUpUsageModelDao>();
+        for (final RolledUpUsageModelDao cur : rolledUpUsages) {
+            final List<Object> key = ImmutableList.<Object>of(cur.getSubscriptionId(), cur.getRecordDate(), cur.getUnitType());
+            final RolledUpUsageModelDao dailyUsage = dailyUsages.get(key);
+            if (dailyUsage == null) {
+                dailyUsages.put(key, new RolledUpUsageModelDao(cur.getSubscriptionId(), cur.getUnitType(), cur.getRecordDate(), cur.getAmount(),
+                                                               cur.getCreatedDate(), cur.getAccountRecordId(), cur.getTenantRecordId()));
+            } else {
+                dailyUsage.setAmount(dailyUsage.getAmount() + cur.getAmount());
+            }
+        }
+        return ImmutableList.<RolledUpUsageModelDao>copyOf(dailyUsages.values());
     }
 
     @Override
@@ -52,8 +162,27 @@ public class DefaultRolledUpUsageDao implements RolledUpUsageDao {
         return rolledUpUsageSqlDao.getAllUsageForSubscription(subscriptionId, startDate.toDate(), endDate.toDate(), context);
     }
 
+    @Override
+    public List<RolledUpUsageModelDao> getAggregatedUsageForSubscription(final UUID subscriptionId, final LocalDate startDate, final LocalDate endDate, @Nullable final String unitType, final InternalTenantContext context) {
+        if (unitType == null) {
+            return rolledUpUsageSqlDao.getAggregatedUsageForSubscription(subscriptionId, startDate.toDate(), endDate.toDate(), context);
+        } else {
+            return rolledUpUsageSqlDao.getAggregatedUsageForSubscriptionAndUnitType(subscriptionId, startDate.toDate(), endDate.toDate(), unitType, context);
+        }
+    }
+
+    @Override
+    public List<RolledUpUsageModelDao> getDailyUsageForSubscription(final UUID subscriptionId, final LocalDate startDate, final LocalDate endDate, final InternalTenantContext context) {
+        return rolledUpUsageSqlDao.getDailyUsageForSubscription(subscriptionId, startDate.toDate(), endDate.toDate(), context);
+    }
+
     @Override
     public List<RolledUpUsageModelDao> getRawUsageForAccount(final LocalDate startDate, final LocalDate endDate, final InternalTenantContext context) {
         return rolledUpUsageSqlDao.getRawUsageForAccount(startDate.toDate(), endDate.toDate(), context);
     }
+
+    @Override
+    public List<RolledUpUsageModelDao> getDailyUsageForAccount(final LocalDate startDate, final LocalDate endDate, final InternalTenantContext context) {
+        return rolledUpUsageSqlDao.getDailyUsageForAccount(startDate.toDate(), endDate.toDate(), context);
+    }
 }
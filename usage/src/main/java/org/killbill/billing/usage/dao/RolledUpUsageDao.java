@@ -19,6 +19,8 @@ package org.killbill.billing.usage.dao;
 import java.util.List;
 import java.util.UUID;
 
+import javax.annotation.Nullable;
+
 import org.joda.time.LocalDate;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
@@ -28,10 +30,42 @@ public interface RolledUpUsageDao {
     void record(UUID subscriptionId, String unitType, LocalDate date,
                 Long amount, InternalCallContext context);
 
+    /**
+     * Record many entries at once, in a single transaction
+     *
+     * @param rolledUpUsages the entries to record, with their account and tenant record ids populated
+     * @param trackingId     optional key identifying the batch, to make retries idempotent
+     * @param context        call context
+     * @return false if the batch was ignored because its trackingId had already been recorded
+     */
+    boolean record(Iterable<RolledUpUsageModelDao> rolledUpUsages, @Nullable String trackingId, InternalCallContext context);
+
     List<RolledUpUsageModelDao> getUsageForSubscription(UUID subscriptionId, LocalDate startDate, LocalDate endDate, String unitType, InternalTenantContext context);
 
     List<RolledUpUsageModelDao> getAllUsageForSubscription(UUID subscriptionId, LocalDate startDate, LocalDate endDate, InternalTenantContext context);
 
+    /**
+     * Sum the usage of a subscription per unit type between startDate (inclusive) and endDate (exclusive)
+     *
+     * @param unitType the unit type to restrict to, or null for all unit types
+     * @return one entry per unit type, with the summed amount (id and recordDate are not populated)
+     */
+    List<RolledUpUsageModelDao> getAggregatedUsageForSubscription(UUID subscriptionId, LocalDate startDate, LocalDate endDate, @Nullable String unitType, InternalTenantContext context);
+
+    /**
+     * Raw entries recorded before the daily roll-up was maintained are summed per day on the fly. Only the subscription id, unit type, record date and
+     * amount are populated.
+     *
+     * @return the daily roll-up entries (one per day and unit type) between startDate (inclusive) and endDate (exclusive), sorted by date
+     */
+    List<RolledUpUsageModelDao> getDailyUsageForSubscription(UUID subscriptionId, LocalDate startDate, LocalDate endDate, InternalTenantContext context);
 
     List<RolledUpUsageModelDao> getRawUsageForAccount(LocalDate startDate, LocalDate endDate, InternalTenantContext context);
+
+    /**
+     * See getDailyUsageForSubscription
+     *
+     * @return the daily roll-up entries (one per subscription, day and unit type) for the account, sorted by date
+     */
+    List<RolledUpUsageModelDao> getDailyUsageForAccount(LocalDate startDate, LocalDate endDate, InternalTenantContext context);
 }
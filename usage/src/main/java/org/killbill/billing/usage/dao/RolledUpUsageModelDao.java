@@ -47,6 +47,14 @@ public class RolledUpUsageModelDao extends EntityModelDaoBase implements EntityM
         this(UUIDs.randomUUID(), null, null, subscriptionId, unitType, recordDate, amount);
     }
 
+    // Used for batch inserts, where the record ids cannot be bound from the call context
+    public RolledUpUsageModelDao(final UUID subscriptionId, final String unitType, final LocalDate recordDate, final Long amount,
+                                 final DateTime createdDate, final Long accountRecordId, final Long tenantRecordId) {
+        this(UUIDs.randomUUID(), createdDate, createdDate, subscriptionId, unitType, recordDate, amount);
+        setAccountRecordId(accountRecordId);
+        setTenantRecordId(tenantRecordId);
+    }
+
     public UUID getSubscriptionId() {
         return subscriptionId;
     }
@@ -30,6 +30,7 @@ import org.killbill.billing.util.entity.dao.EntitySqlDao;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoStringTemplate;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.BindBean;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 
@@ -57,4 +58,56 @@ public interface RolledUpUsageSqlDao extends EntitySqlDao<RolledUpUsageModelDao,
     public List<RolledUpUsageModelDao> getRawUsageForAccount(@Bind("startDate") final Date startDate,
                                                              @Bind("endDate") final Date endDate,
                                                              @InternalTenantContextBinder final InternalTenantContext context);
+
+    @SqlUpdate
+    public int updateDailyUsage(@BindBean RolledUpUsageModelDao rolledUpUsage,
+                                @InternalTenantContextBinder final InternalCallContext context);
+
+    @SqlUpdate
+    public void createDailyUsage(@BindBean RolledUpUsageModelDao rolledUpUsage,
+                                 @InternalTenantContextBinder final InternalCallContext context);
+
+    @SqlBatch
+    public void createBatch(@BindBean Iterable<RolledUpUsageModelDao> rolledUpUsages,
+                            @Bind("userName") final String userName);
+
+    @SqlBatch
+    public int[] updateDailyUsageBatch(@BindBean Iterable<RolledUpUsageModelDao> rolledUpUsages,
+                                       @Bind("userName") final String userName);
+
+    @SqlBatch
+    public void createDailyUsageBatch(@BindBean Iterable<RolledUpUsageModelDao> rolledUpUsages,
+                                      @Bind("userName") final String userName);
+
+    @SqlQuery
+    public Long getBatchCountForTrackingId(@Bind("trackingId") final String trackingId,
+                                           @InternalTenantContextBinder final InternalTenantContext context);
+
+    @SqlUpdate
+    public void createBatchTrackingId(@Bind("trackingId") final String trackingId,
+                                      @InternalTenantContextBinder final InternalCallContext context);
+
+    @SqlQuery
+    public List<RolledUpUsageModelDao> getAggregatedUsageForSubscription(@Bind("subscriptionId") final UUID subscriptionId,
+                                                                         @Bind("startDate") final Date startDate,
+                                                                         @Bind("endDate") final Date endDate,
+                                                                         @InternalTenantContextBinder final InternalTenantContext context);
+
+    @SqlQuery
+    public List<RolledUpUsageModelDao> getAggregatedUsageForSubscriptionAndUnitType(@Bind("subscriptionId") final UUID subscriptionId,
+                                                                                    @Bind("startDate") final Date startDate,
+                                                                                    @Bind("endDate") final Date endDate,
+                                                                                    @Bind("unitType") final String unitType,
+                                                                                    @InternalTenantContextBinder final InternalTenantContext context);
+
+    @SqlQuery
+    public List<RolledUpUsageModelDao> getDailyUsageForSubscription(@Bind("subscriptionId") final UUID subscriptionId,
+                                                                    @Bind("startDate") final Date startDate,
+                                                                    @Bind("endDate") final Date endDate,
+                                                                    @InternalTenantContextBinder final InternalTenantContext context);
+
+    @SqlQuery
+    public List<RolledUpUsageModelDao> getDailyUsageForAccount(@Bind("startDate") final Date startDate,
+                                                               @Bind("endDate") final Date endDate,
+                                                               @InternalTenantContextBinder final InternalTenantContext context);
 }
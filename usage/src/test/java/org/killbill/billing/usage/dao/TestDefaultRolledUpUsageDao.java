@@ -17,14 +17,27 @@
 
 package org.killbill.billing.usage.dao;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.joda.time.LocalDate;
 import org.killbill.billing.usage.UsageTestSuiteWithEmbeddedDB;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.tweak.HandleCallback;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.ImmutableList;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class TestDefaultRolledUpUsageDao extends UsageTestSuiteWithEmbeddedDB {
 
@@ -96,4 +109,221 @@ public class TestDefaultRolledUpUsageDao extends UsageTestSuiteWithEmbeddedDB {
         final List<RolledUpUsageModelDao> result = rolledUpUsageDao.getUsageForSubscription(subscriptionId, startDate, endDate, unitType, internalCallContext);
         assertEquals(result.size(), 0);
     }
+
+    @Test(groups = "slow")
+    public void testDailyRollUpAndAggregation() {
+        final UUID subscriptionId = UUID.randomUUID();
+        final String unitType1 = "foo";
+        final String unitType2 = "bar";
+        final LocalDate startDate = new LocalDate(2014, 1, 1);
+        final LocalDate endDate = new LocalDate(2014, 2, 1);
+
+        // Several records for the same day and unit type end up in a single daily entry
+        rolledUpUsageDao.record(subscriptionId, unitType1, startDate, 10L, internalCallContext);
+        rolledUpUsageDao.record(subscriptionId, unitType1, startDate, 5L, internalCallContext);
+        rolledUpUsageDao.record(subscriptionId, unitType1, startDate.plusDays(1), 7L, internalCallContext);
+        rolledUpUsageDao.record(subscriptionId, unitType2, startDate, 3L, internalCallContext);
+        // Outside of the range
+        rolledUpUsageDao.record(subscriptionId, unitType2, endDate, 100L, internalCallContext);
+
+        assertEquals(rolledUpUsageDao.getAllUsageForSubscription(subscriptionId, startDate, endDate, internalCallContext).size(), 4);
+
+        final List<RolledUpUsageModelDao> dailyUsage = rolledUpUsageDao.getDailyUsageForSubscription(subscriptionId, startDate, endDate, internalCallContext);
+        assertEquals(dailyUsage.size(), 3);
+        assertEquals(dailyUsage.get(0).getRecordDate().compareTo(startDate), 0);
+        assertEquals(dailyUsage.get(0).getUnitType(), unitType2);
+        assertEquals(dailyUsage.get(0).getAmount().compareTo(3L), 0);
+        assertEquals(dailyUsage.get(1).getRecordDate().compareTo(startDate), 0);
+        assertEquals(dailyUsage.get(1).getUnitType(), unitType1);
+        assertEquals(dailyUsage.get(1).getAmount().compareTo(15L), 0);
+        assertEquals(dailyUsage.get(2).getRecordDate().compareTo(startDate.plusDays(1)), 0);
+        assertEquals(dailyUsage.get(2).getUnitType(), unitType1);
+        assertEquals(dailyUsage.get(2).getAmount().compareTo(7L), 0);
+
+        assertEquals(rolledUpUsageDao.getDailyUsageForAccount(startDate, endDate, internalCallContext).size(), 3);
+
+        final List<RolledUpUsageModelDao> aggregatedUsage = rolledUpUsageDao.getAggregatedUsageForSubscription(subscriptionId, startDate, endDate, null, internalCallContext);
+        assertEquals(aggregatedUsage.size(), 2);
+        assertEquals(aggregatedUsage.get(0).getUnitType(), unitType2);
+        assertEquals(aggregatedUsage.get(0).getAmount().compareTo(3L), 0);
+        assertEquals(aggregatedUsage.get(1).getUnitType(), unitType1);
+        assertEquals(aggregatedUsage.get(1).getAmount().compareTo(22L), 0);
+
+        final List<RolledUpUsageModelDao> aggregatedUsageForUnitType = rolledUpUsageDao.getAggregatedUsageForSubscription(subscriptionId, startDate, endDate, unitType1, internalCallContext);
+        assertEquals(aggregatedUsageForUnitType.size(), 1);
+        assertEquals(aggregatedUsageForUnitType.get(0).getAmount().compareTo(22L), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testRawEntriesRecordedBeforeDailyRollUp() {
+        final UUID subscriptionId = UUID.randomUUID();
+        final String unitType1 = "foo";
+        final String unitType2 = "bar";
+        final LocalDate startDate = new LocalDate(2014, 4, 1);
+        final LocalDate endDate = new LocalDate(2014, 5, 1);
+
+        rolledUpUsageDao.record(subscriptionId, unitType1, startDate, 10L, internalCallContext);
+        rolledUpUsageDao.record(subscriptionId, unitType1, startDate.plusDays(1), 5L, internalCallContext);
+        rolledUpUsageDao.record(subscriptionId, unitType2, startDate, 3L, internalCallContext);
+
+        // Upgrade path: these entries were recorded before the daily roll-up existed
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                handle.execute("delete from rolled_up_usage_daily where subscription_id = ?", subscriptionId.toString());
+                return null;
+            }
+        });
+
+        // New records, including one for a day which already has raw entries
+        rolledUpUsageDao.record(subscriptionId, unitType1, startDate.plusDays(1), 7L, internalCallContext);
+        rolledUpUsageDao.record(subscriptionId, unitType1, startDate.plusDays(2), 1L, internalCallContext);
+
+        final List<RolledUpUsageModelDao> dailyUsage = rolledUpUsageDao.getDailyUsageForSubscription(subscriptionId, startDate, endDate, internalCallContext);
+        assertEquals(dailyUsage.size(), 4);
+        assertEquals(dailyUsage.get(0).getRecordDate().compareTo(startDate), 0);
+        assertEquals(dailyUsage.get(0).getUnitType(), unitType2);
+        assertEquals(dailyUsage.get(0).getAmount().compareTo(3L), 0);
+        assertEquals(dailyUsage.get(1).getRecordDate().compareTo(startDate), 0);
+        assertEquals(dailyUsage.get(1).getUnitType(), unitType1);
+        assertEquals(dailyUsage.get(1).getAmount().compareTo(10L), 0);
+        assertEquals(dailyUsage.get(2).getRecordDate().compareTo(startDate.plusDays(1)), 0);
+        assertEquals(dailyUsage.get(2).getUnitType(), unitType1);
+        assertEquals(dailyUsage.get(2).getAmount().compareTo(12L), 0);
+        assertEquals(dailyUsage.get(3).getRecordDate().compareTo(startDate.plusDays(2)), 0);
+        assertEquals(dailyUsage.get(3).getUnitType(), unitType1);
+        assertEquals(dailyUsage.get(3).getAmount().compareTo(1L), 0);
+
+        final List<RolledUpUsageModelDao> dailyUsageForAccount = rolledUpUsageDao.getDailyUsageForAccount(startDate, endDate, internalCallContext);
+        assertEquals(dailyUsageForAccount.size(), 4);
+        assertEquals(dailyUsageForAccount.get(2).getAmount().compareTo(12L), 0);
+
+        final List<RolledUpUsageModelDao> aggregatedUsage = rolledUpUsageDao.getAggregatedUsageForSubscription(subscriptionId, startDate, endDate, null, internalCallContext);
+        assertEquals(aggregatedUsage.size(), 2);
+        assertEquals(aggregatedUsage.get(0).getUnitType(), unitType2);
+        assertEquals(aggregatedUsage.get(0).getAmount().compareTo(3L), 0);
+        assertEquals(aggregatedUsage.get(1).getUnitType(), unitType1);
+        assertEquals(aggregatedUsage.get(1).getAmount().compareTo(23L), 0);
+
+        final List<RolledUpUsageModelDao> aggregatedUsageForUnitType = rolledUpUsageDao.getAggregatedUsageForSubscription(subscriptionId, startDate, endDate, unitType2, internalCallContext);
+        assertEquals(aggregatedUsageForUnitType.size(), 1);
+        assertEquals(aggregatedUsageForUnitType.get(0).getAmount().compareTo(3L), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testConcurrentRecords() throws Exception {
+        final UUID subscriptionId = UUID.randomUUID();
+        final String unitType = "foo";
+        final LocalDate recordDate = new LocalDate(2014, 3, 1);
+        final int nbThreads = 8;
+
+        // All threads race to create the daily entry for the same subscription, day and unit type
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(nbThreads);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < nbThreads; i++) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        startLatch.await();
+                        rolledUpUsageDao.record(subscriptionId, unitType, recordDate, 2L, internalCallContext);
+                        return null;
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(rolledUpUsageDao.getAllUsageForSubscription(subscriptionId, recordDate, recordDate.plusDays(1), internalCallContext).size(), nbThreads);
+        final List<RolledUpUsageModelDao> dailyUsage = rolledUpUsageDao.getDailyUsageForSubscription(subscriptionId, recordDate, recordDate.plusDays(1), internalCallContext);
+        assertEquals(dailyUsage.size(), 1);
+        assertEquals(dailyUsage.get(0).getAmount().compareTo(2L * nbThreads), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testBatchWithTrackingId() {
+        final UUID subscriptionId1 = UUID.randomUUID();
+        final UUID subscriptionId2 = UUID.randomUUID();
+        final String unitType = "foo";
+        final LocalDate startDate = new LocalDate(2015, 1, 1);
+        final LocalDate endDate = new LocalDate(2015, 2, 1);
+
+        // Existing daily entry, to be updated by the batch
+        rolledUpUsageDao.record(subscriptionId1, unitType, startDate, 1L, internalCallContext);
+
+        final List<RolledUpUsageModelDao> batch = ImmutableList.<RolledUpUsageModelDao>of(newRolledUpUsage(subscriptionId1, unitType, startDate, 10L),
+                                                                                          newRolledUpUsage(subscriptionId1, unitType, startDate, 5L),
+                                                                                          newRolledUpUsage(subscriptionId2, unitType, startDate.plusDays(3), 7L));
+        assertTrue(rolledUpUsageDao.record(batch, "batch-1", internalCallContext));
+        // Retrying the same batch is a no-op
+        assertFalse(rolledUpUsageDao.record(batch, "batch-1", internalCallContext));
+
+        assertEquals(rolledUpUsageDao.getAllUsageForSubscription(subscriptionId1, startDate, endDate, internalCallContext).size(), 3);
+        final List<RolledUpUsageModelDao> dailyUsage1 = rolledUpUsageDao.getDailyUsageForSubscription(subscriptionId1, startDate, endDate, internalCallContext);
+        assertEquals(dailyUsage1.size(), 1);
+        assertEquals(dailyUsage1.get(0).getAmount().compareTo(16L), 0);
+
+        assertEquals(rolledUpUsageDao.getAllUsageForSubscription(subscriptionId2, startDate, endDate, internalCallContext).size(), 1);
+        final List<RolledUpUsageModelDao> dailyUsage2 = rolledUpUsageDao.getDailyUsageForSubscription(subscriptionId2, startDate, endDate, internalCallContext);
+        assertEquals(dailyUsage2.size(), 1);
+        assertEquals(dailyUsage2.get(0).getRecordDate().compareTo(startDate.plusDays(3)), 0);
+        assertEquals(dailyUsage2.get(0).getAmount().compareTo(7L), 0);
+
+        // Without tracking id, nothing prevents recording the same usage twice
+        final List<RolledUpUsageModelDao> sameUsage = ImmutableList.<RolledUpUsageModelDao>of(newRolledUpUsage(subscriptionId1, unitType, startDate, 10L),
+                                                                                              newRolledUpUsage(subscriptionId1, unitType, startDate, 5L));
+        assertTrue(rolledUpUsageDao.record(sameUsage, null, internalCallContext));
+        assertEquals(rolledUpUsageDao.getDailyUsageForSubscription(subscriptionId1, startDate, endDate, internalCallContext).get(0).getAmount().compareTo(31L), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testConcurrentBatchesWithSameTrackingId() throws Exception {
+        final UUID subscriptionId = UUID.randomUUID();
+        final String unitType = "foo";
+        final LocalDate recordDate = new LocalDate(2015, 3, 1);
+        final List<RolledUpUsageModelDao> batch = ImmutableList.<RolledUpUsageModelDao>of(newRolledUpUsage(subscriptionId, unitType, recordDate, 10L));
+        final int nbThreads = 4;
+
+        // Concurrent retries of the same batch: only one of them is recorded, the other ones are reported as conflicts
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(nbThreads);
+        int nbRecorded = 0;
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < nbThreads; i++) {
+                futures.add(executorService.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        startLatch.await();
+                        return rolledUpUsageDao.record(batch, "concurrent-batch", internalCallContext);
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (final Future<Boolean> future : futures) {
+                if (future.get(30, TimeUnit.SECONDS)) {
+                    nbRecorded++;
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(nbRecorded, 1);
+        assertEquals(rolledUpUsageDao.getAllUsageForSubscription(subscriptionId, recordDate, recordDate.plusDays(1), internalCallContext).size(), 1);
+        final List<RolledUpUsageModelDao> dailyUsage = rolledUpUsageDao.getDailyUsageForSubscription(subscriptionId, recordDate, recordDate.plusDays(1), internalCallContext);
+        assertEquals(dailyUsage.size(), 1);
+        assertEquals(dailyUsage.get(0).getAmount().compareTo(10L), 0);
+    }
+
+    private RolledUpUsageModelDao newRolledUpUsage(final UUID subscriptionId, final String unitType, final LocalDate recordDate, final Long amount) {
+        return new RolledUpUsageModelDao(subscriptionId, unitType, recordDate, amount, internalCallContext.getCreatedDate(),
+                                         internalCallContext.getAccountRecordId(), internalCallContext.getTenantRecordId());
+    }
 }
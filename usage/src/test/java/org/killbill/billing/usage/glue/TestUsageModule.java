@@ -22,6 +22,7 @@ import org.killbill.billing.mock.glue.MockTenantModule;
 import org.killbill.billing.platform.api.KillbillConfigSource;
 import org.killbill.billing.usage.api.UsageUserApi;
 import org.killbill.billing.usage.api.user.MockUsageUserApi;
+import org.killbill.billing.util.glue.CacheModule;
 
 public class TestUsageModule extends UsageModule {
 
@@ -32,6 +33,8 @@ public class TestUsageModule extends UsageModule {
     @Override
     protected void configure() {
         super.configure();
+
+        install(new CacheModule(configSource));
     }
 
     protected void installUsageUserApi() {
@@ -19,6 +19,7 @@
 package org.killbill.billing.usage.glue;
 
 import org.killbill.billing.GuicyKillbillTestNoDBModule;
+import org.killbill.billing.mock.glue.MockNonEntityDaoModule;
 import org.killbill.billing.platform.api.KillbillConfigSource;
 
 public class TestUsageModuleNoDB extends TestUsageModule {
@@ -32,5 +33,6 @@ public class TestUsageModuleNoDB extends TestUsageModule {
         super.configure();
 
         install(new GuicyKillbillTestNoDBModule(configSource));
+        install(new MockNonEntityDaoModule(configSource));
     }
 }
@@ -20,6 +20,7 @@ package org.killbill.billing.usage.glue;
 
 import org.killbill.billing.GuicyKillbillTestWithEmbeddedDBModule;
 import org.killbill.billing.platform.api.KillbillConfigSource;
+import org.killbill.billing.util.glue.NonEntityDaoModule;
 
 public class TestUsageModuleWithEmbeddedDB extends TestUsageModule {
 
@@ -32,5 +33,6 @@ public class TestUsageModuleWithEmbeddedDB extends TestUsageModule {
         super.configure();
 
         install(new GuicyKillbillTestWithEmbeddedDBModule(configSource));
+        install(new NonEntityDaoModule(configSource));
     }
 }
@@ -32,9 +32,14 @@ public @interface Cachable {
     public final String AUDIT_LOG_CACHE_NAME = "audit-log";
     public final String AUDIT_LOG_VIA_HISTORY_CACHE_NAME = "audit-log-via-history";
     public final String TENANT_CATALOG_CACHE_NAME = "tenant-catalog";
+    public final String TENANT_PLUGIN_CATALOG_CACHE_NAME = "tenant-plugin-catalog";
     public final String TENANT_OVERDUE_CONFIG_CACHE_NAME = "tenant-overdue-config";
     public final String TENANT_KV_CACHE_NAME = "tenant-kv";
     public final String OVERRIDDEN_PLAN_CACHE_NAME = "overridden-plan";
+    public final String TENANT_CACHE_NAME = "tenant";
+    public final String TENANT_AUTHENTICATION_CACHE_NAME = "tenant-authentication";
+    public final String TENANT_INVOICE_TEMPLATE_CACHE_NAME = "tenant-invoice-template";
+    public final String TENANT_TRANSLATION_CACHE_NAME = "tenant-translation";
 
     public CacheType value();
 
@@ -61,6 +66,9 @@ public @interface Cachable {
         /* Tenant catalog cache */
         TENANT_CATALOG(TENANT_CATALOG_CACHE_NAME, false),
 
+        /* Tenant catalog provided by a catalog plugin */
+        TENANT_PLUGIN_CATALOG(TENANT_PLUGIN_CATALOG_CACHE_NAME, false),
+
         /* Tenant overdue config cache */
         TENANT_OVERDUE_CONFIG(TENANT_OVERDUE_CONFIG_CACHE_NAME, false),
 
@@ -68,7 +76,19 @@ public @interface Cachable {
         TENANT_KV(TENANT_KV_CACHE_NAME, false),
 
         /* Overwritten plans  */
-        OVERRIDDEN_PLAN(OVERRIDDEN_PLAN_CACHE_NAME, false);
+        OVERRIDDEN_PLAN(OVERRIDDEN_PLAN_CACHE_NAME, false),
+
+        /* Mapping from tenant 'apiKey (String)' -> 'Tenant' */
+        TENANT(TENANT_CACHE_NAME, false),
+
+        /* Mapping from a digest of verified tenant credentials 'apiKey/apiSecret' -> 'apiKey (String)' */
+        TENANT_AUTHENTICATION(TENANT_AUTHENTICATION_CACHE_NAME, false),
+
+        /* Mapping from 'tenantKey::tenantRecordId' -> compiled invoice template */
+        TENANT_INVOICE_TEMPLATE(TENANT_INVOICE_TEMPLATE_CACHE_NAME, false),
+
+        /* Mapping from 'tenantKey::tenantRecordId' -> translation 'ResourceBundle' */
+        TENANT_TRANSLATION(TENANT_TRANSLATION_CACHE_NAME, false);
 
         private final String cacheName;
         private final boolean isKeyPrefixedWithTableName;
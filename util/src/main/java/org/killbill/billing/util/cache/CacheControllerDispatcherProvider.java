@@ -26,6 +26,7 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 
 import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.config.CacheConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,10 +43,19 @@ public class CacheControllerDispatcherProvider implements Provider<CacheControll
     private static final Logger logger = LoggerFactory.getLogger(CacheControllerDispatcherProvider.class);
 
     private final CacheManager cacheManager;
+    private final CacheConfig cacheConfig;
+    private final Collection<BaseIdCacheLoader> idCacheLoaders;
 
     @Inject
-    public CacheControllerDispatcherProvider(final CacheManager cacheManager) {
+    public CacheControllerDispatcherProvider(final CacheManager cacheManager,
+                                             final CacheConfig cacheConfig,
+                                             final RecordIdCacheLoader recordIdCacheLoader,
+                                             final AccountRecordIdCacheLoader accountRecordIdCacheLoader,
+                                             final TenantRecordIdCacheLoader tenantRecordIdCacheLoader,
+                                             final ObjectIdCacheLoader objectIdCacheLoader) {
         this.cacheManager = cacheManager;
+        this.cacheConfig = cacheConfig;
+        this.idCacheLoaders = ImmutableList.<BaseIdCacheLoader>of(recordIdCacheLoader, accountRecordIdCacheLoader, tenantRecordIdCacheLoader, objectIdCacheLoader);
     }
 
     @Override
@@ -61,6 +71,13 @@ public class CacheControllerDispatcherProvider implements Provider<CacheControll
                 cacheControllers.put(cacheType, ehCacheBasedCacheController);
             }
         }
+
+        if (cacheConfig.isIdMappingCacheEnabled()) {
+            // The id mapping caches are too hot (and too large) for EhCache
+            for (final BaseIdCacheLoader idCacheLoader : idCacheLoaders) {
+                cacheControllers.put(idCacheLoader.getCacheType(), new IdMappingCacheController(idCacheLoader, cacheConfig.getIdMappingCacheMaxEntriesPerTable()));
+            }
+        }
         return new CacheControllerDispatcher(cacheControllers);
     }
 
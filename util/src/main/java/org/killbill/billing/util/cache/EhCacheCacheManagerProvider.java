@@ -58,9 +58,14 @@ public class EhCacheCacheManagerProvider implements Provider<CacheManager> {
                                        final AuditLogCacheLoader auditLogCacheLoader,
                                        final AuditLogViaHistoryCacheLoader auditLogViaHistoryCacheLoader,
                                        final TenantCatalogCacheLoader tenantCatalogCacheLoader,
+                                       final TenantPluginCatalogCacheLoader tenantPluginCatalogCacheLoader,
                                        final TenantOverdueConfigCacheLoader tenantOverdueConfigCacheLoader,
                                        final TenantKVCacheLoader tenantKVCacheLoader,
-                                       final OverriddenPlanCacheLoader overriddenPlanCacheLoader) {
+                                       final OverriddenPlanCacheLoader overriddenPlanCacheLoader,
+                                       final TenantCacheLoader tenantCacheLoader,
+                                       final TenantAuthenticationCacheLoader tenantAuthenticationCacheLoader,
+                                       final TenantInvoiceTemplateCacheLoader tenantInvoiceTemplateCacheLoader,
+                                       final TenantTranslationCacheLoader tenantTranslationCacheLoader) {
         this.metricRegistry = metricRegistry;
         this.cacheConfig = cacheConfig;
         cacheLoaders.add(recordIdCacheLoader);
@@ -70,9 +75,14 @@ public class EhCacheCacheManagerProvider implements Provider<CacheManager> {
         cacheLoaders.add(auditLogCacheLoader);
         cacheLoaders.add(auditLogViaHistoryCacheLoader);
         cacheLoaders.add(tenantCatalogCacheLoader);
+        cacheLoaders.add(tenantPluginCatalogCacheLoader);
         cacheLoaders.add(tenantOverdueConfigCacheLoader);
         cacheLoaders.add(tenantKVCacheLoader);
         cacheLoaders.add(overriddenPlanCacheLoader);
+        cacheLoaders.add(tenantCacheLoader);
+        cacheLoaders.add(tenantAuthenticationCacheLoader);
+        cacheLoaders.add(tenantInvoiceTemplateCacheLoader);
+        cacheLoaders.add(tenantTranslationCacheLoader);
     }
 
     @Override
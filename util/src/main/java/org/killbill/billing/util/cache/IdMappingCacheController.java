@@ -0,0 +1,430 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.cache;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.dao.TableName;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Controller for the id mapping caches (RECORD_ID, ACCOUNT_RECORD_ID, TENANT_RECORD_ID and OBJECT_ID), backed by primitive maps
+ * split per table instead of EhCache. Callers knowing the table should use the typed methods, which don't build any key String.
+ * <p/>
+ * The mappings of each table are split in stripes, each guarded by its own read/write lock: lookups (the common case) run
+ * concurrently, and a write only blocks the lookups hashing to the same stripe.
+ * <p/>
+ * When a stripe is full, entries are evicted one at a time to make room for the new ones (these caches are eternal, and the
+ * mappings are reloaded on demand).
+ */
+public class IdMappingCacheController implements CacheController<Object, Object> {
+
+    // Value used to represent a missing mapping in the UUID -> long maps (record ids are positive)
+    private static final long NO_VALUE = Long.MIN_VALUE;
+
+    // Power of two, the stripe is picked from the top bits of the hash (the maps use the bottom ones)
+    private static final int NB_STRIPES_BITS = 4;
+    private static final int NB_STRIPES = 1 << NB_STRIPES_BITS;
+
+    private final CacheType cacheType;
+    private final BaseIdCacheLoader cacheLoader;
+    // One of the two is used, depending on the cache type
+    private final Map<TableName, ObjectIdMappings> mappingsByObjectId;
+    private final Map<TableName, RecordIdMappings> mappingsByRecordId;
+    // Mappings added through the CacheController API with a key not prefixed with the table name (object ids are unique
+    // across tables, so these are still valid for the typed lookups)
+    private final ObjectIdMappings mappingsByObjectIdWithoutTable;
+
+    public IdMappingCacheController(final BaseIdCacheLoader cacheLoader, final int maxEntriesPerTable) {
+        this.cacheType = cacheLoader.getCacheType();
+        this.cacheLoader = cacheLoader;
+        final int maxEntriesPerStripe = Math.max(1, (maxEntriesPerTable + NB_STRIPES - 1) / NB_STRIPES);
+        this.mappingsByObjectId = new EnumMap<TableName, ObjectIdMappings>(TableName.class);
+        this.mappingsByRecordId = new EnumMap<TableName, RecordIdMappings>(TableName.class);
+        // The maps are never added or removed after construction, so they can be read without locking
+        for (final TableName tableName : TableName.values()) {
+            if (isKeyedByRecordId()) {
+                mappingsByRecordId.put(tableName, new RecordIdMappings(maxEntriesPerStripe));
+            } else {
+                mappingsByObjectId.put(tableName, new ObjectIdMappings(maxEntriesPerStripe));
+            }
+        }
+        this.mappingsByObjectIdWithoutTable = isKeyedByRecordId() ? null : new ObjectIdMappings(maxEntriesPerStripe);
+    }
+
+    //
+    // Typed API
+    //
+
+    public Long get(final UUID objectId, final TableName tableName, final CacheLoaderArgument cacheLoaderArgument) {
+        Preconditions.checkState(!isKeyedByRecordId(), "Cache %s is keyed by record id", cacheType);
+
+        final ObjectIdMappings mappings = mappingsByObjectId.get(tableName);
+        long value = mappings.get(objectId);
+        if (value == NO_VALUE) {
+            value = mappingsByObjectIdWithoutTable.get(objectId);
+        }
+        if (value != NO_VALUE) {
+            return value;
+        }
+
+        final Object loaded = cacheLoader.load(getKey(objectId.toString(), tableName), cacheLoaderArgument);
+        if (loaded instanceof Long) {
+            mappings.put(objectId, (Long) loaded);
+            return (Long) loaded;
+        }
+        return null;
+    }
+
+    public UUID get(final Long recordId, final TableName tableName, final CacheLoaderArgument cacheLoaderArgument) {
+        Preconditions.checkState(isKeyedByRecordId(), "Cache %s is keyed by object id", cacheType);
+
+        final RecordIdMappings mappings = mappingsByRecordId.get(tableName);
+        final UUID value = mappings.get(recordId);
+        if (value != null) {
+            return value;
+        }
+
+        final Object loaded = cacheLoader.load(getKey(recordId.toString(), tableName), cacheLoaderArgument);
+        if (loaded instanceof UUID) {
+            mappings.put(recordId, (UUID) loaded);
+            return (UUID) loaded;
+        }
+        return null;
+    }
+
+    public void add(final UUID objectId, final TableName tableName, @Nullable final Long value) {
+        Preconditions.checkState(!isKeyedByRecordId(), "Cache %s is keyed by record id", cacheType);
+        if (value == null) {
+            return;
+        }
+        mappingsByObjectId.get(tableName).put(objectId, value);
+    }
+
+    public void add(final Long recordId, final TableName tableName, @Nullable final UUID value) {
+        Preconditions.checkState(isKeyedByRecordId(), "Cache %s is keyed by object id", cacheType);
+        if (value == null) {
+            return;
+        }
+        mappingsByRecordId.get(tableName).put(recordId, value);
+    }
+
+    //
+    // CacheController API (String keys, as built for the EhCache based controllers)
+    //
+
+    @Override
+    public void add(final Object key, final Object value) {
+        final TableName tableName = getTableNameFromKey(key);
+        if (isKeyedByRecordId()) {
+            // Record ids are only unique per table
+            Preconditions.checkArgument(tableName != null, "Unable to find the table for key %s", key);
+            add(Long.valueOf(getRawKey(key)), tableName, (UUID) value);
+        } else if (tableName != null) {
+            add(UUID.fromString(getRawKey(key)), tableName, (Long) value);
+        } else if (value != null) {
+            mappingsByObjectIdWithoutTable.put(UUID.fromString(getRawKey(key)), (Long) value);
+        }
+    }
+
+    @Override
+    public Object get(final Object key, final CacheLoaderArgument cacheLoaderArgument) {
+        TableName tableName = getTableNameFromKey(key);
+        if (tableName == null && cacheLoaderArgument != null && cacheLoaderArgument.getObjectType() != null) {
+            tableName = TableName.fromObjectType(cacheLoaderArgument.getObjectType());
+        }
+
+        if (isKeyedByRecordId()) {
+            Preconditions.checkArgument(tableName != null, "Unable to find the table for key %s", key);
+            return get(Long.valueOf(getRawKey(key)), tableName, cacheLoaderArgument);
+        } else if (tableName != null) {
+            return get(UUID.fromString(getRawKey(key)), tableName, cacheLoaderArgument);
+        } else {
+            return getWithoutTable(UUID.fromString(getRawKey(key)), cacheLoaderArgument);
+        }
+    }
+
+    @Override
+    public boolean remove(final Object key) {
+        final TableName tableName = getTableNameFromKey(key);
+        boolean removed = false;
+        if (isKeyedByRecordId()) {
+            final long recordId = Long.valueOf(getRawKey(key));
+            for (final Map.Entry<TableName, RecordIdMappings> entry : mappingsByRecordId.entrySet()) {
+                if (tableName == null || tableName == entry.getKey()) {
+                    removed = entry.getValue().remove(recordId) || removed;
+                }
+            }
+        } else {
+            final UUID objectId = UUID.fromString(getRawKey(key));
+            for (final Map.Entry<TableName, ObjectIdMappings> entry : mappingsByObjectId.entrySet()) {
+                if (tableName == null || tableName == entry.getKey()) {
+                    removed = entry.getValue().remove(objectId) || removed;
+                }
+            }
+            removed = mappingsByObjectIdWithoutTable.remove(objectId) || removed;
+        }
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final ObjectIdMappings mappings : mappingsByObjectId.values()) {
+            size += mappings.size();
+        }
+        for (final RecordIdMappings mappings : mappingsByRecordId.values()) {
+            size += mappings.size();
+        }
+        if (mappingsByObjectIdWithoutTable != null) {
+            size += mappingsByObjectIdWithoutTable.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void removeAll() {
+        for (final ObjectIdMappings mappings : mappingsByObjectId.values()) {
+            mappings.clear();
+        }
+        for (final RecordIdMappings mappings : mappingsByRecordId.values()) {
+            mappings.clear();
+        }
+        if (mappingsByObjectIdWithoutTable != null) {
+            mappingsByObjectIdWithoutTable.clear();
+        }
+    }
+
+    @Override
+    public CacheType getCacheType() {
+        return cacheType;
+    }
+
+    private Long getWithoutTable(final UUID objectId, @Nullable final CacheLoaderArgument cacheLoaderArgument) {
+        final long value = mappingsByObjectIdWithoutTable.get(objectId);
+        if (value != NO_VALUE) {
+            return value;
+        }
+
+        // Keys of the object id keyed caches aren't prefixed, so the raw key is what the loader expects
+        final Object loaded = cacheLoader.load(objectId.toString(), cacheLoaderArgument);
+        if (loaded instanceof Long) {
+            mappingsByObjectIdWithoutTable.put(objectId, (Long) loaded);
+            return (Long) loaded;
+        }
+        return null;
+    }
+
+    private boolean isKeyedByRecordId() {
+        return cacheType == CacheType.OBJECT_ID;
+    }
+
+    // Same format as the keys of the EhCache based controllers, expected by the cache loaders
+    private String getKey(final String rawKey, final TableName tableName) {
+        return cacheType.isKeyPrefixedWithTableName() ?
+               tableName + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + rawKey :
+               rawKey;
+    }
+
+    private TableName getTableNameFromKey(final Object key) {
+        final String keyString = key.toString();
+        final int separatorIndex = keyString.indexOf(CacheControllerDispatcher.CACHE_KEY_SEPARATOR);
+        return separatorIndex < 0 ? null : TableName.valueOf(keyString.substring(0, separatorIndex));
+    }
+
+    private String getRawKey(final Object key) {
+        final String keyString = key.toString();
+        final int separatorIndex = keyString.indexOf(CacheControllerDispatcher.CACHE_KEY_SEPARATOR);
+        return separatorIndex < 0 ? keyString : keyString.substring(separatorIndex + CacheControllerDispatcher.CACHE_KEY_SEPARATOR.length());
+    }
+
+    private static ReadWriteLock[] createLocks() {
+        final ReadWriteLock[] locks = new ReadWriteLock[NB_STRIPES];
+        for (int i = 0; i < NB_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        return locks;
+    }
+
+    private static int getStripe(final int hash) {
+        return hash >>> (Integer.SIZE - NB_STRIPES_BITS);
+    }
+
+    // UUID -> long mappings of a table
+    private static final class ObjectIdMappings {
+
+        private final UUIDLongOpenHashMap[] stripes = new UUIDLongOpenHashMap[NB_STRIPES];
+        private final ReadWriteLock[] locks = createLocks();
+        private final int maxEntriesPerStripe;
+
+        private ObjectIdMappings(final int maxEntriesPerStripe) {
+            this.maxEntriesPerStripe = maxEntriesPerStripe;
+            for (int i = 0; i < NB_STRIPES; i++) {
+                stripes[i] = new UUIDLongOpenHashMap();
+            }
+        }
+
+        private long get(final UUID objectId) {
+            final int stripe = getStripe(objectId);
+            locks[stripe].readLock().lock();
+            try {
+                return stripes[stripe].get(objectId, NO_VALUE);
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+
+        private void put(final UUID objectId, final long value) {
+            final int stripe = getStripe(objectId);
+            locks[stripe].writeLock().lock();
+            try {
+                final UUIDLongOpenHashMap mappings = stripes[stripe];
+                if (mappings.size() >= maxEntriesPerStripe && !mappings.containsKey(objectId)) {
+                    mappings.evictOne();
+                }
+                mappings.put(objectId, value);
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+
+        private boolean remove(final UUID objectId) {
+            final int stripe = getStripe(objectId);
+            locks[stripe].writeLock().lock();
+            try {
+                return stripes[stripe].remove(objectId);
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+
+        private int size() {
+            int size = 0;
+            for (int i = 0; i < NB_STRIPES; i++) {
+                locks[i].readLock().lock();
+                try {
+                    size += stripes[i].size();
+                } finally {
+                    locks[i].readLock().unlock();
+                }
+            }
+            return size;
+        }
+
+        private void clear() {
+            for (int i = 0; i < NB_STRIPES; i++) {
+                locks[i].writeLock().lock();
+                try {
+                    stripes[i].clear();
+                } finally {
+                    locks[i].writeLock().unlock();
+                }
+            }
+        }
+
+        private static int getStripe(final UUID objectId) {
+            return IdMappingCacheController.getStripe(UUIDLongOpenHashMap.hash(objectId.getMostSignificantBits(), objectId.getLeastSignificantBits()));
+        }
+    }
+
+    // long -> UUID mappings of a table
+    private static final class RecordIdMappings {
+
+        private final LongUUIDOpenHashMap[] stripes = new LongUUIDOpenHashMap[NB_STRIPES];
+        private final ReadWriteLock[] locks = createLocks();
+        private final int maxEntriesPerStripe;
+
+        private RecordIdMappings(final int maxEntriesPerStripe) {
+            this.maxEntriesPerStripe = maxEntriesPerStripe;
+            for (int i = 0; i < NB_STRIPES; i++) {
+                stripes[i] = new LongUUIDOpenHashMap();
+            }
+        }
+
+        private UUID get(final long recordId) {
+            final int stripe = getStripe(recordId);
+            locks[stripe].readLock().lock();
+            try {
+                return stripes[stripe].get(recordId);
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+
+        private void put(final long recordId, final UUID value) {
+            final int stripe = getStripe(recordId);
+            locks[stripe].writeLock().lock();
+            try {
+                final LongUUIDOpenHashMap mappings = stripes[stripe];
+                if (mappings.size() >= maxEntriesPerStripe && !mappings.containsKey(recordId)) {
+                    mappings.evictOne();
+                }
+                mappings.put(recordId, value);
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+
+        private boolean remove(final long recordId) {
+            final int stripe = getStripe(recordId);
+            locks[stripe].writeLock().lock();
+            try {
+                return stripes[stripe].remove(recordId);
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+
+        private int size() {
+            int size = 0;
+            for (int i = 0; i < NB_STRIPES; i++) {
+                locks[i].readLock().lock();
+                try {
+                    size += stripes[i].size();
+                } finally {
+                    locks[i].readLock().unlock();
+                }
+            }
+            return size;
+        }
+
+        private void clear() {
+            for (int i = 0; i < NB_STRIPES; i++) {
+                locks[i].writeLock().lock();
+                try {
+                    stripes[i].clear();
+                } finally {
+                    locks[i].writeLock().unlock();
+                }
+            }
+        }
+
+        private static int getStripe(final long recordId) {
+            return IdMappingCacheController.getStripe(LongUUIDOpenHashMap.mix(recordId));
+        }
+    }
+}
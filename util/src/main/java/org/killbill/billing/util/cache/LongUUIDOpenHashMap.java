@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.cache;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Map from long to UUID using open addressing (linear probing): the keys are stored as primitives and the values
+ * as two longs, so there is neither boxing nor per-entry object.
+ * <p/>
+ * Not thread-safe: see IdMappingCacheController for the locking.
+ */
+public class LongUUIDOpenHashMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private boolean[] used;
+    private int mask;
+    private int size;
+    // Slot where the next eviction starts looking for an entry
+    private int evictionCursor;
+
+    public LongUUIDOpenHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public boolean containsKey(final long key) {
+        return findSlot(key) >= 0;
+    }
+
+    // Returns null if there is no mapping for the key
+    public UUID get(final long key) {
+        final int slot = findSlot(key);
+        return slot >= 0 ? new UUID(mostSigBits[slot], leastSigBits[slot]) : null;
+    }
+
+    public void put(final long key, final UUID value) {
+        int slot = mix(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        mostSigBits[slot] = value.getMostSignificantBits();
+        leastSigBits[slot] = value.getLeastSignificantBits();
+        if (used[slot]) {
+            return;
+        }
+        keys[slot] = key;
+        used[slot] = true;
+        size++;
+
+        // Keep the load factor under 1/2
+        if (size * 2 > used.length) {
+            rehash(used.length * 2);
+        }
+    }
+
+    public boolean remove(final long key) {
+        final int slot = findSlot(key);
+        if (slot < 0) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    // Removes one (arbitrary) entry: the slots are walked round-robin across calls, so repeated evictions
+    // don't keep hitting the same cluster. Returns false if the map is empty.
+    public boolean evictOne() {
+        if (size == 0) {
+            return false;
+        }
+        while (!used[evictionCursor]) {
+            evictionCursor = (evictionCursor + 1) & mask;
+        }
+        removeSlot(evictionCursor);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        if (used.length > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(used, false);
+        }
+        size = 0;
+    }
+
+    private void removeSlot(int slot) {
+        used[slot] = false;
+        size--;
+
+        // Shift back the following entries of the cluster, so that lookups don't stop at the hole
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (!used[next]) {
+                return;
+            }
+            final int ideal = mix(keys[next]) & mask;
+            final boolean stays = slot <= next ? (slot < ideal && ideal <= next) : (slot < ideal || ideal <= next);
+            if (!stays) {
+                keys[slot] = keys[next];
+                mostSigBits[slot] = mostSigBits[next];
+                leastSigBits[slot] = leastSigBits[next];
+                used[slot] = true;
+                used[next] = false;
+                slot = next;
+            }
+        }
+    }
+
+    private int findSlot(final long key) {
+        int slot = mix(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(final int newCapacity) {
+        final long[] oldKeys = keys;
+        final long[] oldMostSigBits = mostSigBits;
+        final long[] oldLeastSigBits = leastSigBits;
+        final boolean[] oldUsed = used;
+
+        allocate(newCapacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                mostSigBits[slot] = oldMostSigBits[i];
+                leastSigBits[slot] = oldLeastSigBits[i];
+                used[slot] = true;
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        evictionCursor = 0;
+    }
+
+    // MurmurHash3 finalizer: record ids are sequential, spread them over the table
+    static int mix(final long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.cache;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Map from UUID to long using open addressing (linear probing): the keys are stored as two longs and the values
+ * as primitives, so there is neither boxing nor per-entry object.
+ * <p/>
+ * Not thread-safe: see IdMappingCacheController for the locking.
+ */
+public class UUIDLongOpenHashMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private long[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+    // Slot where the next eviction starts looking for an entry
+    private int evictionCursor;
+
+    public UUIDLongOpenHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public boolean containsKey(final UUID key) {
+        return findSlot(key.getMostSignificantBits(), key.getLeastSignificantBits()) >= 0;
+    }
+
+    // Returns defaultValue if there is no mapping for the key
+    public long get(final UUID key, final long defaultValue) {
+        final int slot = findSlot(key.getMostSignificantBits(), key.getLeastSignificantBits());
+        return slot >= 0 ? values[slot] : defaultValue;
+    }
+
+    public void put(final UUID key, final long value) {
+        final long msb = key.getMostSignificantBits();
+        final long lsb = key.getLeastSignificantBits();
+
+        int slot = hash(msb, lsb) & mask;
+        while (used[slot]) {
+            if (mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        mostSigBits[slot] = msb;
+        leastSigBits[slot] = lsb;
+        values[slot] = value;
+        used[slot] = true;
+        size++;
+
+        // Keep the load factor under 1/2
+        if (size * 2 > used.length) {
+            rehash(used.length * 2);
+        }
+    }
+
+    public boolean remove(final UUID key) {
+        final int slot = findSlot(key.getMostSignificantBits(), key.getLeastSignificantBits());
+        if (slot < 0) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    // Removes one (arbitrary) entry: the slots are walked round-robin across calls, so repeated evictions
+    // don't keep hitting the same cluster. Returns false if the map is empty.
+    public boolean evictOne() {
+        if (size == 0) {
+            return false;
+        }
+        while (!used[evictionCursor]) {
+            evictionCursor = (evictionCursor + 1) & mask;
+        }
+        removeSlot(evictionCursor);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        if (used.length > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(used, false);
+        }
+        size = 0;
+    }
+
+    private void removeSlot(int slot) {
+        used[slot] = false;
+        size--;
+
+        // Shift back the following entries of the cluster, so that lookups don't stop at the hole
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (!used[next]) {
+                return;
+            }
+            final int ideal = hash(mostSigBits[next], leastSigBits[next]) & mask;
+            final boolean stays = slot <= next ? (slot < ideal && ideal <= next) : (slot < ideal || ideal <= next);
+            if (!stays) {
+                mostSigBits[slot] = mostSigBits[next];
+                leastSigBits[slot] = leastSigBits[next];
+                values[slot] = values[next];
+                used[slot] = true;
+                used[next] = false;
+                slot = next;
+            }
+        }
+    }
+
+    private int findSlot(final long msb, final long lsb) {
+        int slot = hash(msb, lsb) & mask;
+        while (used[slot]) {
+            if (mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(final int newCapacity) {
+        final long[] oldMostSigBits = mostSigBits;
+        final long[] oldLeastSigBits = leastSigBits;
+        final long[] oldValues = values;
+        final boolean[] oldUsed = used;
+
+        allocate(newCapacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int slot = hash(oldMostSigBits[i], oldLeastSigBits[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                mostSigBits[slot] = oldMostSigBits[i];
+                leastSigBits[slot] = oldLeastSigBits[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        evictionCursor = 0;
+    }
+
+    static int hash(final long msb, final long lsb) {
+        return LongUUIDOpenHashMap.mix(msb ^ (lsb * 0x9E3779B97F4A7C15L));
+    }
+}
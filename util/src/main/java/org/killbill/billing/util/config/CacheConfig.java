@@ -27,4 +27,14 @@ public interface CacheConfig extends KillbillConfig {
     @Description("Path to Ehcache XML configuration")
     public String getCacheConfigLocation();
 
+    @Config("org.killbill.cache.idMapping.enabled")
+    @Default("false")
+    @Description("Whether the id mapping caches (record-id, account-record-id, tenant-record-id and object-id) use primitive maps instead of Ehcache")
+    public boolean isIdMappingCacheEnabled();
+
+    @Config("org.killbill.cache.idMapping.maxEntriesPerTable")
+    @Default("100000")
+    @Description("Maximum number of entries per table in each id mapping cache")
+    public int getIdMappingCacheMaxEntriesPerTable();
+
 }
@@ -44,4 +44,14 @@ public interface InvoiceConfig extends KillbillConfig {
     @Description("Maximum number of past billing periods we use to fetch raw usage data (usage optimization)")
     public int getMaxRawUsagePreviousPeriod();
 
+    @Config("org.killbill.invoice.incrementalGenerationEnabled")
+    @Default("false")
+    @Description("Whether to only re-evaluate subscriptions whose billing events or invoice items changed since the last invoice run")
+    public boolean isIncrementalGenerationEnabled();
+
+    @Config("org.killbill.invoice.coalescing.window")
+    @Default("0s")
+    @Description("Window during which invoice runs triggered by entitlement and blocking transitions of the same account are collapsed into one (ignored if set to 0s)")
+    public TimeSpan getCoalescingWindow();
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.config;
+
+import java.util.List;
+
+import org.skife.config.Config;
+import org.skife.config.Default;
+import org.skife.config.Description;
+import org.skife.config.TimeSpan;
+
+public interface NotificationConfig extends KillbillConfig {
+
+    @Config("org.killbill.server.notifications.retries")
+    @Default("15s,1m,5m,15m,1h,1d")
+    @Description("Delays before which failed push notifications should be retried")
+    public List<TimeSpan> getPushNotificationsRetries();
+
+    @Config("org.killbill.server.notifications.timeout")
+    @Default("15s")
+    @Description("Timeout for a single push notification request")
+    public TimeSpan getPushNotificationsTimeout();
+
+    @Config("org.killbill.server.notifications.tenant.inflight.max")
+    @Default("20")
+    @Description("Maximum number of outstanding push notification requests per tenant")
+    public int getPushNotificationsMaxInFlightPerTenant();
+}
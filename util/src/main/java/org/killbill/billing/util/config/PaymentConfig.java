@@ -61,6 +61,16 @@ public interface PaymentConfig extends KillbillConfig {
     @Description("Number of threads for plugin executor dispatcher")
     public int getPaymentPluginThreadNb();
 
+    @Config("org.killbill.payment.plugin.info.concurrency")
+    @Default("5")
+    @Description("Maximum number of concurrent plugin calls per request when retrieving plugin info for a list of payments")
+    public int getPaymentPluginInfoConcurrency();
+
+    @Config("org.killbill.payment.plugin.info.timeout")
+    @Default("30s")
+    @Description("Overall timeout when retrieving plugin info for a list of payments (payments not retrieved by then are returned without plugin info)")
+    public TimeSpan getPaymentPluginInfoTimeout();
+
     @Config("org.killbill.payment.janitor.attempts.delay")
     @Default("12h")
     @Description("Delay before which unresolved attempt should be retried")
@@ -76,6 +86,16 @@ public interface PaymentConfig extends KillbillConfig {
     @Description("Rate at which janitor tasks are scheduled")
     public TimeSpan getJanitorRunningRate();
 
+    @Config("org.killbill.payment.janitor.threads.nb")
+    @Default("3")
+    @Description("Number of janitor worker threads (incomplete items are partitioned by account across workers)")
+    public int getJanitorThreadNb();
+
+    @Config("org.killbill.payment.janitor.attempts.max")
+    @Default("1000")
+    @Description("Maximum number of incomplete attempts picked up by each janitor run")
+    public int getJanitorMaxAttemptsPerRun();
+
     @Config("org.killbill.payment.invoice.plugin")
     @Default("")
     @Description("Default payment control plugin names")
@@ -18,15 +18,22 @@
 
 package org.killbill.billing.util.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.cache.Cachable.CacheType;
 import org.killbill.billing.util.cache.CacheController;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.killbill.billing.util.cache.CacheLoaderArgument;
+import org.killbill.billing.util.cache.IdMappingCacheController;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.commons.profiling.Profiling;
 import org.killbill.commons.profiling.Profiling.WithProfilingCallback;
@@ -160,11 +167,64 @@ public class DefaultNonEntityDao implements NonEntityDao {
         return transactional.getLastHistoryRecordId(targetRecordId, tableName.getTableName());
     }
 
+    @Override
+    public Map<UUID, Long> retrieveHistoryRecordIdsFromTransaction(final Collection<Long> targetRecordIds, final Collection<UUID> historyIds, final TableName tableName, final NonEntitySqlDao transactional) {
+        // No caching either, for the same reasons as above
+        final Collection<String> historyIdsAsStrings = new ArrayList<String>(historyIds.size());
+        for (final UUID historyId : historyIds) {
+            historyIdsAsStrings.add(historyId.toString());
+        }
+
+        // Filtering on the history ids too only returns the rows of the batch, not the whole history of these targets
+        final Map<UUID, Long> historyRecordIds = new HashMap<UUID, Long>();
+        for (final RecordIdIdMappings mapping : transactional.getHistoryRecordIdIdMappingsForTargetRecordIds(targetRecordIds, historyIdsAsStrings, tableName.getTableName())) {
+            historyRecordIds.put(mapping.getId(), mapping.getRecordId());
+        }
+        return historyRecordIds;
+    }
+
     @Override
     public Long retrieveHistoryTargetRecordId(@Nullable final Long recordId, final TableName tableName) {
         return nonEntitySqlDao.getHistoryTargetRecordId(recordId, tableName.getTableName());
     }
 
+    @Override
+    public void populateIdMappingCachesForAccount(final Iterable<TableName> tableNames, final InternalTenantContext context, final CacheControllerDispatcher cacheControllerDispatcher) {
+        Preconditions.checkNotNull(context.getAccountRecordId(), "Context should be an account context");
+
+        final CacheController<Object, Object> recordIdCache = cacheControllerDispatcher.getCacheController(CacheType.RECORD_ID);
+        final CacheController<Object, Object> objectIdCache = cacheControllerDispatcher.getCacheController(CacheType.OBJECT_ID);
+        final CacheController<Object, Object> accountRecordIdCache = cacheControllerDispatcher.getCacheController(CacheType.ACCOUNT_RECORD_ID);
+        final CacheController<Object, Object> tenantRecordIdCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT_RECORD_ID);
+
+        for (final TableName tableName : tableNames) {
+            Preconditions.checkArgument(tableName.getObjectType() != null && tableName != TableName.ACCOUNT, "Table %s doesn't store account objects", tableName);
+
+            for (final RecordIdIdMappings mapping : nonEntitySqlDao.getRecordIdIdMappings(tableName.getTableName(), context)) {
+                populateIdMappingCache(recordIdCache, tableName, mapping.getId(), mapping.getRecordId());
+                populateIdMappingCache(objectIdCache, tableName, mapping.getRecordId(), mapping.getId());
+                populateIdMappingCache(accountRecordIdCache, tableName, mapping.getId(), context.getAccountRecordId());
+                populateIdMappingCache(tenantRecordIdCache, tableName, mapping.getId(), context.getTenantRecordId());
+            }
+        }
+    }
+
+    private void populateIdMappingCache(@Nullable final CacheController<Object, Object> cache, final TableName tableName, final UUID objectId, final Long value) {
+        if (cache instanceof IdMappingCacheController) {
+            ((IdMappingCacheController) cache).add(objectId, tableName, value);
+        } else if (cache != null) {
+            cache.add(objectId.toString(), value);
+        }
+    }
+
+    private void populateIdMappingCache(@Nullable final CacheController<Object, Object> cache, final TableName tableName, final Long recordId, final UUID value) {
+        if (cache instanceof IdMappingCacheController) {
+            ((IdMappingCacheController) cache).add(recordId, tableName, value);
+        } else if (cache != null) {
+            cache.add(tableName + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + recordId, value);
+        }
+    }
+
     private interface OperationRetrieval<TypeIn, TypeOut> {
 
         public TypeOut doRetrieve(final TypeIn objectOrRecordId, final ObjectType objectType);
@@ -179,7 +239,16 @@ public class DefaultNonEntityDao implements NonEntityDao {
             if (objectOrRecordId == null) {
                 return null;
             }
-            if (cache != null) {
+            if (cache instanceof IdMappingCacheController) {
+                // No need to build a String key
+                final IdMappingCacheController idMappingCache = (IdMappingCacheController) cache;
+                final CacheLoaderArgument cacheLoaderArgument = new CacheLoaderArgument(objectType);
+                if (objectOrRecordId instanceof UUID) {
+                    return (TypeOut) idMappingCache.get((UUID) objectOrRecordId, tableName, cacheLoaderArgument);
+                } else {
+                    return (TypeOut) idMappingCache.get((Long) objectOrRecordId, tableName, cacheLoaderArgument);
+                }
+            } else if (cache != null) {
                 final String key = (cache.getCacheType().isKeyPrefixedWithTableName()) ?
                                    tableName + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + objectOrRecordId.toString() :
                                    objectOrRecordId.toString();
@@ -18,12 +18,16 @@
 
 package org.killbill.billing.util.dao;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
 
 import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.skife.jdbi.v2.Handle;
 
 // This should only be used for internal operations (trusted code, not API), because the context will not be validated!
@@ -48,6 +52,12 @@ public interface NonEntityDao {
     // This retrieves from the history table the latest record for which targetId matches the one we are passing
     public Long retrieveLastHistoryRecordIdFromTransaction(final Long targetRecordId, final TableName tableName, final NonEntitySqlDao transactional);
 
+    // Bulk version of retrieveLastHistoryRecordIdFromTransaction: this retrieves the given history rows of these targets, as a mapping history id -> history record id
+    public Map<UUID, Long> retrieveHistoryRecordIdsFromTransaction(final Collection<Long> targetRecordIds, final Collection<UUID> historyIds, final TableName tableName, final NonEntitySqlDao transactional);
+
     // This is the reverse from retrieveLastHistoryRecordIdFromTransaction; this retrieves the record_id of the object matching a given history row
     public Long retrieveHistoryTargetRecordId(final Long recordId, final TableName tableName);
+
+    // Bulk load in the id mapping caches (record id, object id, account record id and tenant record id) all the objects of these tables for the account
+    public void populateIdMappingCachesForAccount(final Iterable<TableName> tableNames, final InternalTenantContext context, final CacheControllerDispatcher cacheControllerDispatcher);
 }
@@ -32,6 +32,8 @@ public enum TableName {
     BLOCKING_STATES("blocking_states", ObjectType.BLOCKING_STATES),
     CUSTOM_FIELD_HISTORY("custom_field_history"),
     CUSTOM_FIELD("custom_fields", ObjectType.CUSTOM_FIELD, CUSTOM_FIELD_HISTORY),
+    INVOICE_ACCOUNT_BALANCES("invoice_account_balances"),
+    INVOICE_BILLING_WATERMARKS("invoice_billing_watermarks"),
     INVOICE_ITEMS("invoice_items", ObjectType.INVOICE_ITEM),
     INVOICE_PAYMENTS("invoice_payments", ObjectType.INVOICE_PAYMENT),
     INVOICES("invoices", ObjectType.INVOICE),
@@ -54,7 +56,8 @@ public enum TableName {
     TENANT_KVS("tenant_kvs", ObjectType.TENANT_KVS),
     TENANT_BROADCASTS("tenant_broadcasts"),
     TAG("tags", ObjectType.TAG, TAG_HISTORY),
-    ROLLED_UP_USAGE("rolled_up_usage");
+    ROLLED_UP_USAGE("rolled_up_usage"),
+    ROLLED_UP_USAGE_DAILY("rolled_up_usage_daily");
 
     private final String tableName;
     private final ObjectType objectType;
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.email;
+
+import javax.inject.Inject;
+
+import org.killbill.billing.platform.api.LifecycleHandlerType;
+import org.killbill.billing.platform.api.LifecycleHandlerType.LifecycleLevel;
+
+public class DefaultEmailService implements EmailService {
+
+    public static final String EMAIL_SERVICE_NAME = "email-service";
+
+    private final EmailSender emailSender;
+
+    @Inject
+    public DefaultEmailService(final EmailSender emailSender) {
+        this.emailSender = emailSender;
+    }
+
+    @Override
+    public String getName() {
+        return EMAIL_SERVICE_NAME;
+    }
+
+    @LifecycleHandlerType(LifecycleLevel.STOP_SERVICE)
+    public void stop() {
+        // Close the SMTP connections kept open
+        if (emailSender instanceof PooledEmailSender) {
+            ((PooledEmailSender) emailSender).close();
+        }
+    }
+}
@@ -16,10 +16,13 @@
 
 package org.killbill.billing.util.email;
 
+import java.util.List;
+
 import org.skife.config.Config;
 import org.skife.config.Default;
 import org.skife.config.DefaultNull;
 import org.skife.config.Description;
+import org.skife.config.TimeSpan;
 
 import org.killbill.billing.util.config.KillbillConfig;
 
@@ -64,4 +67,19 @@ public interface EmailConfig extends KillbillConfig {
     @Default("Your invoice")
     @Description("Default Subject: field for invoice notifications")
     String getInvoiceEmailSubject();
+
+    @Config("org.killbill.mail.smtp.pool.size")
+    @Default("5")
+    @Description("Maximum number of idle SMTP connections kept open for reuse")
+    int getSmtpConnectionPoolSize();
+
+    @Config("org.killbill.mail.retries")
+    @Default("5m,15m,1h,6h,1d")
+    @Description("Delays before which failed invoice emails should be retried")
+    List<TimeSpan> getEmailRetries();
+
+    @Config("org.killbill.mail.tenant.rate")
+    @Default("0")
+    @Description("Maximum number of invoice emails sent per second for a given tenant (0 for no limit)")
+    int getMaxEmailsPerSecondPerTenant();
 }
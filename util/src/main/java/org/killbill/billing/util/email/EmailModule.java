@@ -33,8 +33,18 @@ public class EmailModule extends KillBillModule {
         bind(EmailConfig.class).toInstance(config);
     }
 
+    protected void installEmailSender() {
+        bind(EmailSender.class).to(PooledEmailSender.class).asEagerSingleton();
+    }
+
+    protected void installEmailService() {
+        bind(EmailService.class).to(DefaultEmailService.class).asEagerSingleton();
+    }
+
     @Override
     protected void configure() {
         installEmailConfig();
+        installEmailSender();
+        installEmailService();
     }
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.email;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.inject.Inject;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.mail.Email;
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.HtmlEmail;
+import org.apache.commons.mail.SimpleEmail;
+import org.killbill.billing.ErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * EmailSender which keeps SMTP connections open and reuses them across messages,
+ * instead of opening a new connection for each email (see DefaultEmailSender).
+ */
+public class PooledEmailSender implements EmailSender {
+
+    private static final Logger log = LoggerFactory.getLogger(PooledEmailSender.class);
+
+    private final EmailConfig config;
+    private final BlockingQueue<Transport> idleTransports;
+
+    // Lazily created, as the SMTP configuration is optional
+    private volatile Session session;
+    private volatile boolean isClosed;
+
+    @Inject
+    public PooledEmailSender(final EmailConfig config) {
+        this.config = config;
+        this.idleTransports = new LinkedBlockingQueue<Transport>(Math.max(1, config.getSmtpConnectionPoolSize()));
+    }
+
+    @Override
+    public void sendHTMLEmail(final List<String> to, final List<String> cc, final String subject, final String htmlBody) throws EmailApiException {
+        final HtmlEmail email = new HtmlEmail();
+        try {
+            email.setHtmlMsg(htmlBody);
+        } catch (final EmailException e) {
+            throw new EmailApiException(e, ErrorCode.EMAIL_SENDING_FAILED);
+        }
+
+        sendEmail(to, cc, subject, email);
+    }
+
+    @Override
+    public void sendPlainTextEmail(final List<String> to, final List<String> cc, final String subject, final String body) throws EmailApiException {
+        final SimpleEmail email = new SimpleEmail();
+        try {
+            email.setMsg(body);
+        } catch (final EmailException e) {
+            throw new EmailApiException(e, ErrorCode.EMAIL_SENDING_FAILED);
+        }
+
+        sendEmail(to, cc, subject, email);
+    }
+
+    // Invoked when the service is stopped (see DefaultEmailService)
+    public void close() {
+        isClosed = true;
+        Transport transport;
+        while ((transport = idleTransports.poll()) != null) {
+            closeQuietly(transport);
+        }
+    }
+
+    @VisibleForTesting
+    int getNbIdleTransports() {
+        return idleTransports.size();
+    }
+
+    private void sendEmail(final List<String> to, final List<String> cc, final String subject, final Email email) throws EmailApiException {
+        final MimeMessage message = buildMessage(to, cc, subject, email);
+
+        log.info("Sending email to {}, cc {}, subject {}", new Object[]{to, cc, subject});
+        Transport transport = null;
+        boolean isReusable = false;
+        try {
+            transport = borrowTransport();
+            transport.sendMessage(message, message.getAllRecipients());
+            isReusable = true;
+        } catch (final MessagingException e) {
+            throw new EmailApiException(e, ErrorCode.EMAIL_SENDING_FAILED);
+        } finally {
+            if (isReusable) {
+                releaseTransport(transport);
+            } else {
+                // The connection may be in a bad state, don't reuse it
+                closeQuietly(transport);
+            }
+        }
+    }
+
+    private MimeMessage buildMessage(final List<String> to, final List<String> cc, final String subject, final Email email) throws EmailApiException {
+        try {
+            email.setMailSession(getSession());
+            email.setFrom(config.getDefaultFrom());
+            email.setSubject(subject);
+
+            if (to != null) {
+                for (final String recipient : to) {
+                    email.addTo(recipient);
+                }
+            }
+
+            if (cc != null) {
+                for (final String recipient : cc) {
+                    email.addCc(recipient);
+                }
+            }
+
+            email.buildMimeMessage();
+            final MimeMessage message = email.getMimeMessage();
+            // Transport#send would do it for us
+            message.saveChanges();
+            return message;
+        } catch (final EmailException e) {
+            throw new EmailApiException(e, ErrorCode.EMAIL_SENDING_FAILED);
+        } catch (final MessagingException e) {
+            throw new EmailApiException(e, ErrorCode.EMAIL_SENDING_FAILED);
+        }
+    }
+
+    private Transport borrowTransport() throws MessagingException {
+        Transport transport;
+        while ((transport = idleTransports.poll()) != null) {
+            if (transport.isConnected()) {
+                return transport;
+            }
+            // Closed by the server in the meantime
+            closeQuietly(transport);
+        }
+
+        transport = createTransport();
+        boolean isConnected = false;
+        try {
+            if (config.useSmtpAuth()) {
+                transport.connect(config.getSmtpServerName(), config.getSmtpPort(), config.getSmtpUserName(), config.getSmtpPassword());
+            } else {
+                transport.connect(config.getSmtpServerName(), config.getSmtpPort(), null, null);
+            }
+            isConnected = true;
+        } finally {
+            if (!isConnected) {
+                // Release whatever the partial connection attempt may hold on to
+                closeQuietly(transport);
+            }
+        }
+        return transport;
+    }
+
+    @VisibleForTesting
+    Transport createTransport() throws MessagingException {
+        return getSession().getTransport(config.useSSL() ? "smtps" : "smtp");
+    }
+
+    private void releaseTransport(final Transport transport) {
+        if (isClosed || !idleTransports.offer(transport)) {
+            // Shutting down or pool is full
+            closeQuietly(transport);
+        }
+    }
+
+    private void closeQuietly(final Transport transport) {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.close();
+        } catch (final MessagingException e) {
+            log.debug("Failed to close SMTP connection", e);
+        }
+    }
+
+    private Session getSession() {
+        if (session == null) {
+            synchronized (this) {
+                if (session == null) {
+                    session = Session.getInstance(getSessionProperties(config));
+                }
+            }
+        }
+        return session;
+    }
+
+    private static Properties getSessionProperties(final EmailConfig config) {
+        final Properties properties = new Properties();
+        if (config.getSmtpServerName() != null) {
+            properties.setProperty("mail.smtp.host", config.getSmtpServerName());
+            properties.setProperty("mail.smtps.host", config.getSmtpServerName());
+        }
+        properties.setProperty("mail.smtp.port", String.valueOf(config.getSmtpPort()));
+        properties.setProperty("mail.smtps.port", String.valueOf(config.getSmtpPort()));
+        properties.setProperty("mail.smtp.auth", String.valueOf(config.useSmtpAuth()));
+        properties.setProperty("mail.smtps.auth", String.valueOf(config.useSmtpAuth()));
+        return properties;
+    }
+}
@@ -23,9 +23,30 @@ import com.samskivert.mustache.Template;
 
 public class MustacheTemplateEngine implements TemplateEngine {
 
+    // The compiler is immutable and can be shared
+    private final Mustache.Compiler compiler = Mustache.compiler();
+
     @Override
     public String executeTemplateText(final String templateText, final Map<String, Object> data) {
-        final Template template = Mustache.compiler().compile(templateText);
-        return template.execute(data);
+        return compileTemplate(templateText).execute(data);
+    }
+
+    @Override
+    public CompiledTemplate compileTemplate(final String templateText) {
+        return new MustacheCompiledTemplate(compiler.compile(templateText));
+    }
+
+    private static final class MustacheCompiledTemplate implements CompiledTemplate {
+
+        private final Template template;
+
+        private MustacheCompiledTemplate(final Template template) {
+            this.template = template;
+        }
+
+        @Override
+        public String execute(final Map<String, Object> data) {
+            return template.execute(data);
+        }
     }
 }
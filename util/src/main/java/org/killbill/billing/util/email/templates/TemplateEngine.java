@@ -22,4 +22,6 @@ public interface TemplateEngine {
 
     public String executeTemplateText(final String templateText, final Map<String, Object> data);
 
+    // Parse the template once, so that it can be cached and rendered many times
+    public CompiledTemplate compileTemplate(final String templateText);
 }
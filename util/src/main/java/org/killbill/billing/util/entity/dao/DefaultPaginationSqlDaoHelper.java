@@ -16,7 +16,10 @@
 
 package org.killbill.billing.util.entity.dao;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -27,10 +30,25 @@ import org.killbill.billing.util.entity.Pagination;
 
 public class DefaultPaginationSqlDaoHelper {
 
+    // Maximum number of keyset cursors kept in memory per DAO (least recently used ones are evicted first)
+    private static final int MAX_NB_CURSORS = 1000;
+    // Cursors (and the counts they carry) are only reused for a limited time
+    private static final long CURSOR_TTL_MILLIS = 10 * 60 * 1000L;
+
     private final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
+    // Offset of the next page -> record_id of the last row returned, for pages served by a KeysetPaginationIteratorBuilder.
+    // Note that cursors are local to this process: when the next page is served by another node (or after a restart, or
+    // once the cursor has been evicted), we simply fall back to the offset based query (and count again).
+    private final Map<String, PaginationCursor> cursors;
 
     public DefaultPaginationSqlDaoHelper(final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao) {
         this.transactionalSqlDao = transactionalSqlDao;
+        this.cursors = Collections.synchronizedMap(new LinkedHashMap<String, PaginationCursor>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, PaginationCursor> eldest) {
+                return size() > MAX_NB_CURSORS;
+            }
+        });
     }
 
     public <E extends Entity, M extends EntityModelDao<E>, S extends EntitySqlDao<M, E>> Pagination<M> getPagination(final Class<? extends EntitySqlDao<M, E>> sqlDaoClazz,
@@ -38,25 +56,62 @@ public class DefaultPaginationSqlDaoHelper {
                                                                                                                      final Long offset,
                                                                                                                      final Long limit,
                                                                                                                      @Nullable final InternalTenantContext context) {
-        // Note: the connection will be busy as we stream the results out: hence we cannot use
-        // SQL_CALC_FOUND_ROWS / FOUND_ROWS on the actual query.
-        // We still need to know the actual number of results, mainly for the UI so that it knows if it needs to fetch
-        // more pages.
-        final Long count = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Long>() {
-            @Override
-            public Long inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
-                final EntitySqlDao<M, E> sqlDao = entitySqlDaoWrapperFactory.become(sqlDaoClazz);
-                return paginationIteratorBuilder.getCount((S) sqlDao, context);
-            }
-        });
+        // The pagination API only carries offsets: when the previous page was served by this helper, the requested offset
+        // maps to the record_id of the last row returned, and we can seek to it instead of scanning (and counting) again
+        final String cursorKeyPrefix = paginationIteratorBuilder instanceof KeysetPaginationIteratorBuilder ?
+                                       getCursorKeyPrefix(sqlDaoClazz, (KeysetPaginationIteratorBuilder<M, E, S>) paginationIteratorBuilder, context) :
+                                       null;
+        final PaginationCursor cursor = cursorKeyPrefix != null && offset > 0 ? getCursor(cursorKeyPrefix + offset) : null;
+
+        final Long count;
+        if (cursor != null) {
+            // Counts are computed once, when starting to page through the results
+            count = cursor.getCount();
+        } else {
+            // Note: the connection will be busy as we stream the results out: hence we cannot use
+            // SQL_CALC_FOUND_ROWS / FOUND_ROWS on the actual query.
+            // We still need to know the actual number of results, mainly for the UI so that it knows if it needs to fetch
+            // more pages.
+            count = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Long>() {
+                @Override
+                public Long inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                    final EntitySqlDao<M, E> sqlDao = entitySqlDaoWrapperFactory.become(sqlDaoClazz);
+                    return paginationIteratorBuilder.getCount((S) sqlDao, context);
+                }
+            });
+        }
 
         // We usually always want to wrap our queries in an EntitySqlDaoTransactionWrapper... except here.
         // Since we want to stream the results out, we don't want to auto-commit when this method returns.
         final EntitySqlDao<M, E> sqlDao = transactionalSqlDao.onDemandForStreamingResults(sqlDaoClazz);
-        final Long totalCount = context !=  null ? sqlDao.getCount(context) : null;
-        final Iterator<M> results = paginationIteratorBuilder.build((S) sqlDao, limit, context);
+        final Long totalCount;
+        if (cursor != null) {
+            totalCount = cursor.getTotalCount();
+        } else {
+            totalCount = context != null ? sqlDao.getCount(context) : null;
+        }
+
+        final Iterator<M> results;
+        if (cursor != null) {
+            results = ((KeysetPaginationIteratorBuilder<M, E, S>) paginationIteratorBuilder).build((S) sqlDao, cursor.getLastRecordId(), limit, context);
+        } else {
+            results = paginationIteratorBuilder.build((S) sqlDao, limit, context);
+        }
+
+        final Iterator<M> trackedResults = cursorKeyPrefix != null ? new CursorTrackingIterator<M>(results, cursorKeyPrefix, offset, limit, count, totalCount) : results;
+        return new DefaultPagination<M>(offset, limit, count, totalCount, trackedResults);
+    }
+
+    private PaginationCursor getCursor(final String cursorKey) {
+        final PaginationCursor cursor = cursors.get(cursorKey);
+        if (cursor == null || System.currentTimeMillis() - cursor.getCreationTimeMillis() > CURSOR_TTL_MILLIS) {
+            return null;
+        }
+        return cursor;
+    }
 
-        return new DefaultPagination<M>(offset, limit, count, totalCount, results);
+    private String getCursorKeyPrefix(final Class<?> sqlDaoClazz, final KeysetPaginationIteratorBuilder<?, ?, ?> paginationIteratorBuilder, @Nullable final InternalTenantContext context) {
+        return String.format("%s::%s::%s::", sqlDaoClazz.getName(), context != null ? context.getTenantRecordId() : null, paginationIteratorBuilder.getQueryKey());
     }
 
     public abstract static class PaginationIteratorBuilder<M extends EntityModelDao<E>, E extends Entity, S extends EntitySqlDao<M, E>> {
@@ -65,4 +120,107 @@ public class DefaultPaginationSqlDaoHelper {
 
         public abstract Iterator<M> build(final S sqlDao, final Long limit, final InternalTenantContext context);
     }
+
+    // For queries ordered by record_id, which can be resumed from the last record_id seen (keyset pagination)
+    public abstract static class KeysetPaginationIteratorBuilder<M extends EntityModelDao<E>, E extends Entity, S extends EntitySqlDao<M, E>> extends PaginationIteratorBuilder<M, E, S> {
+
+        private final String queryKey;
+
+        // The query name (e.g. "search") and its parameter (e.g. the search key) identify the query: pages of different
+        // queries on the same DAO never share cursors. The parameter is length-prefixed to keep the key unambiguous.
+        public KeysetPaginationIteratorBuilder(final String queryName, @Nullable final String queryParameter) {
+            this.queryKey = String.format("%s(%s)", queryName, queryParameter == null ? "" : queryParameter.length() + ":" + queryParameter);
+        }
+
+        public String getQueryKey() {
+            return queryKey;
+        }
+
+        public abstract Iterator<M> build(final S sqlDao, final Long fromRecordId, final Long limit, final InternalTenantContext context);
+    }
+
+    private static final class PaginationCursor {
+
+        private final Long lastRecordId;
+        private final Long count;
+        private final Long totalCount;
+        private final long creationTimeMillis;
+
+        private PaginationCursor(final Long lastRecordId, final Long count, final Long totalCount) {
+            this.lastRecordId = lastRecordId;
+            this.count = count;
+            this.totalCount = totalCount;
+            this.creationTimeMillis = System.currentTimeMillis();
+        }
+
+        public Long getLastRecordId() {
+            return lastRecordId;
+        }
+
+        public Long getCount() {
+            return count;
+        }
+
+        public Long getTotalCount() {
+            return totalCount;
+        }
+
+        public long getCreationTimeMillis() {
+            return creationTimeMillis;
+        }
+    }
+
+    // Remembers where the page ended, once it has been fully consumed
+    private final class CursorTrackingIterator<M extends EntityModelDao> implements Iterator<M> {
+
+        private final Iterator<M> delegate;
+        private final String cursorKeyPrefix;
+        private final Long offset;
+        private final Long limit;
+        private final Long count;
+        private final Long totalCount;
+
+        private long nbResults = 0;
+        private Long lastRecordId = null;
+
+        private CursorTrackingIterator(final Iterator<M> delegate, final String cursorKeyPrefix, final Long offset, final Long limit, final Long count, final Long totalCount) {
+            this.delegate = delegate;
+            this.cursorKeyPrefix = cursorKeyPrefix;
+            this.offset = offset;
+            this.limit = limit;
+            this.count = count;
+            this.totalCount = totalCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            final boolean hasNext = delegate.hasNext();
+            if (!hasNext) {
+                saveCursor();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public M next() {
+            final M next = delegate.next();
+            lastRecordId = next.getRecordId();
+            nbResults++;
+            if (nbResults == limit) {
+                saveCursor();
+            }
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void saveCursor() {
+            if (lastRecordId != null) {
+                cursors.put(cursorKeyPrefix + (offset + nbResults), new PaginationCursor(lastRecordId, count, totalCount));
+            }
+        }
+    }
 }
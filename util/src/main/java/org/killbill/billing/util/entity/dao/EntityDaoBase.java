@@ -26,10 +26,14 @@ import org.killbill.billing.util.audit.ChangeType;
 import org.killbill.billing.util.entity.DefaultPagination;
 import org.killbill.billing.util.entity.Entity;
 import org.killbill.billing.util.entity.Pagination;
+import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.KeysetPaginationIteratorBuilder;
 import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.PaginationIteratorBuilder;
 
 public abstract class EntityDaoBase<M extends EntityModelDao<E>, E extends Entity, U extends BillingExceptionBase> implements EntityDao<M, E, U> {
 
+    // Only results ordered by record_id can be paginated using keyset cursors
+    private static final String DEFAULT_ORDERING_COLUMNS = "record_id";
+
     protected final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
     protected final DefaultPaginationSqlDaoHelper paginationHelper;
 
@@ -77,7 +81,7 @@ public abstract class EntityDaoBase<M extends EntityModelDao<E>, E extends Entit
     protected abstract U generateAlreadyExistsException(final M entity, final InternalCallContext context);
 
     protected String getNaturalOrderingColumns() {
-        return "record_id";
+        return DEFAULT_ORDERING_COLUMNS;
     }
 
     @Override
@@ -133,18 +137,41 @@ public abstract class EntityDaoBase<M extends EntityModelDao<E>, E extends Entit
 
     @Override
     public Pagination<M> get(final Long offset, final Long limit, final InternalTenantContext context) {
+        final String orderingColumns = getNaturalOrderingColumns();
+        final PaginationIteratorBuilder<M, E, EntitySqlDao<M, E>> paginationIteratorBuilder;
+        if (DEFAULT_ORDERING_COLUMNS.equals(orderingColumns)) {
+            paginationIteratorBuilder = new KeysetPaginationIteratorBuilder<M, E, EntitySqlDao<M, E>>("get", null) {
+                @Override
+                public Long getCount(final EntitySqlDao<M, E> sqlDao, final InternalTenantContext context) {
+                    return sqlDao.getCount(context);
+                }
+
+                @Override
+                public Iterator<M> build(final EntitySqlDao<M, E> sqlDao, final Long limit, final InternalTenantContext context) {
+                    return sqlDao.get(offset, limit, orderingColumns, context);
+                }
+
+                @Override
+                public Iterator<M> build(final EntitySqlDao<M, E> sqlDao, final Long fromRecordId, final Long limit, final InternalTenantContext context) {
+                    return sqlDao.getFromRecordId(fromRecordId, limit, context);
+                }
+            };
+        } else {
+            paginationIteratorBuilder = new PaginationIteratorBuilder<M, E, EntitySqlDao<M, E>>() {
+                @Override
+                public Long getCount(final EntitySqlDao<M, E> sqlDao, final InternalTenantContext context) {
+                    return sqlDao.getCount(context);
+                }
+
+                @Override
+                public Iterator<M> build(final EntitySqlDao<M, E> sqlDao, final Long limit, final InternalTenantContext context) {
+                    return sqlDao.get(offset, limit, orderingColumns, context);
+                }
+            };
+        }
+
         return paginationHelper.getPagination(realSqlDao,
-                                              new PaginationIteratorBuilder<M, E, EntitySqlDao<M, E>>() {
-                                                  @Override
-                                                  public Long getCount(final EntitySqlDao<M, E> sqlDao, final InternalTenantContext context) {
-                                                      return sqlDao.getCount(context);
-                                                  }
-
-                                                  @Override
-                                                  public Iterator<M> build(final EntitySqlDao<M, E> sqlDao, final Long limit, final InternalTenantContext context) {
-                                                      return sqlDao.get(offset, limit, getNaturalOrderingColumns(), context);
-                                                  }
-                                              },
+                                              paginationIteratorBuilder,
                                               offset,
                                               limit,
                                               context);
@@ -75,6 +75,14 @@ public interface EntitySqlDao<M extends EntityModelDao<E>, E extends Entity> ext
                               @Bind("rowCount") final Long rowCount,
                               @BindBean final InternalTenantContext context);
 
+    @SqlQuery
+    @SmartFetchSize(shouldStream = true)
+    public Iterator<M> searchFromRecordId(@Bind("searchKey") final String searchKey,
+                                          @Bind("likeSearchKey") final String likeSearchKey,
+                                          @Bind("fromRecordId") final Long fromRecordId,
+                                          @Bind("rowCount") final Long rowCount,
+                                          @BindBean final InternalTenantContext context);
+
     @SqlQuery
     public Long getSearchCount(@Bind("searchKey") final String searchKey,
                                @Bind("likeSearchKey") final String likeSearchKey,
@@ -91,6 +99,12 @@ public interface EntitySqlDao<M extends EntityModelDao<E>, E extends Entity> ext
                            @Define("orderBy") final String orderBy,
                            @BindBean final InternalTenantContext context);
 
+    @SqlQuery
+    @SmartFetchSize(shouldStream = true)
+    public Iterator<M> getFromRecordId(@Bind("fromRecordId") final Long fromRecordId,
+                                       @Bind("rowCount") final Long rowCount,
+                                       @BindBean final InternalTenantContext context);
+
     @SqlQuery
     public Long getCount(@BindBean final InternalTenantContext context);
 
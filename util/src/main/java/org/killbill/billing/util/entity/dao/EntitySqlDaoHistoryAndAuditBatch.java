@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.entity.dao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.util.audit.ChangeType;
+import org.killbill.billing.util.dao.EntityAudit;
+import org.killbill.billing.util.dao.EntityHistoryModelDao;
+import org.killbill.billing.util.dao.NonEntityDao;
+import org.killbill.billing.util.dao.NonEntitySqlDao;
+import org.killbill.billing.util.dao.TableName;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.sqlobject.SqlObjectBuilder;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+
+/**
+ * Collects the history and audit rows generated by the @Audited calls of a transaction, so they can be written
+ * with a few batch statements right before the transaction commits, instead of one round trip per row.
+ * <p/>
+ * Audit entries point to the history record id: once the history rows have been inserted, their record ids
+ * are retrieved with a single query per history table (by target record id, restricted to the history ids of the
+ * batch) and matched using the history ids.
+ *
+ * @see EntitySqlDaoWrapperInvocationHandler
+ */
+class EntitySqlDaoHistoryAndAuditBatch {
+
+    // Keep the IN clauses reasonably sized when retrieving the history record ids
+    private static final int MAX_HISTORIES_PER_QUERY = 1000;
+
+    private final Handle handle;
+    private final NonEntityDao nonEntityDao;
+
+    // Rows are grouped per sql dao class (the statements depend on the table) and per context (bound for the whole batch)
+    private final Map<BatchKey, List<EntityHistoryModelDao>> histories = new LinkedHashMap<BatchKey, List<EntityHistoryModelDao>>();
+    private final Map<BatchKey, List<PendingAudit>> audits = new LinkedHashMap<BatchKey, List<PendingAudit>>();
+    private final Map<TableName, List<EntityHistoryModelDao>> historiesPerTable = new HashMap<TableName, List<EntityHistoryModelDao>>();
+
+    EntitySqlDaoHistoryAndAuditBatch(final Handle handle, @Nullable final NonEntityDao nonEntityDao) {
+        this.handle = handle;
+        this.nonEntityDao = nonEntityDao;
+    }
+
+    void addHistory(final Class<? extends EntitySqlDao> sqlDaoClass, final EntitySqlDao sqlDao, final TableName historyTableName,
+                    final EntityHistoryModelDao history, final InternalCallContext context) {
+        getOrCreate(histories, new BatchKey(sqlDaoClass, sqlDao, context)).add(history);
+
+        List<EntityHistoryModelDao> historiesForTable = historiesPerTable.get(historyTableName);
+        if (historiesForTable == null) {
+            historiesForTable = new ArrayList<EntityHistoryModelDao>();
+            historiesPerTable.put(historyTableName, historiesForTable);
+        }
+        historiesForTable.add(history);
+    }
+
+    // Either the history row (if the table has history) or the record id of the entity itself is the target of the audit
+    void addAudit(final Class<? extends EntitySqlDao> sqlDaoClass, final EntitySqlDao sqlDao, final TableName destinationTableName,
+                  @Nullable final EntityHistoryModelDao history, @Nullable final Long targetRecordId,
+                  final ChangeType changeType, final DateTime createdDate, final InternalCallContext context) {
+        getOrCreate(audits, new BatchKey(sqlDaoClass, sqlDao, context)).add(new PendingAudit(destinationTableName, history, targetRecordId, changeType, createdDate));
+    }
+
+    boolean isEmpty() {
+        return histories.isEmpty() && audits.isEmpty();
+    }
+
+    void flush() {
+        if (isEmpty()) {
+            return;
+        }
+
+        try {
+            for (final BatchKey batchKey : histories.keySet()) {
+                batchKey.sqlDao.addHistoriesFromTransaction(histories.get(batchKey), batchKey.context);
+            }
+
+            final Map<UUID, Long> historyRecordIds = retrieveHistoryRecordIds();
+
+            for (final BatchKey batchKey : audits.keySet()) {
+                final List<PendingAudit> pendingAudits = audits.get(batchKey);
+                final List<EntityAudit> entityAudits = new ArrayList<EntityAudit>(pendingAudits.size());
+                for (final PendingAudit pendingAudit : pendingAudits) {
+                    final Long targetRecordId;
+                    if (pendingAudit.history != null) {
+                        targetRecordId = historyRecordIds.get(pendingAudit.history.getId());
+                        Preconditions.checkState(targetRecordId != null, "Unable to retrieve the record id of history row %s", pendingAudit.history.getId());
+                    } else {
+                        targetRecordId = pendingAudit.targetRecordId;
+                    }
+                    entityAudits.add(new EntityAudit(pendingAudit.tableName, targetRecordId, pendingAudit.changeType, pendingAudit.createdDate));
+                }
+                batchKey.sqlDao.insertAuditsFromTransaction(entityAudits, batchKey.context);
+            }
+        } finally {
+            histories.clear();
+            audits.clear();
+            historiesPerTable.clear();
+        }
+    }
+
+    private Map<UUID, Long> retrieveHistoryRecordIds() {
+        final Map<UUID, Long> historyRecordIds = new HashMap<UUID, Long>();
+        if (historiesPerTable.isEmpty()) {
+            return historyRecordIds;
+        }
+
+        final NonEntitySqlDao transactional = SqlObjectBuilder.attach(handle, NonEntitySqlDao.class);
+        for (final TableName historyTableName : historiesPerTable.keySet()) {
+            for (final List<EntityHistoryModelDao> historiesForQuery : Iterables.partition(historiesPerTable.get(historyTableName), MAX_HISTORIES_PER_QUERY)) {
+                final Set<Long> targetRecordIds = new LinkedHashSet<Long>();
+                final List<UUID> historyIds = new ArrayList<UUID>(historiesForQuery.size());
+                for (final EntityHistoryModelDao history : historiesForQuery) {
+                    targetRecordIds.add(history.getTargetRecordId());
+                    historyIds.add(history.getId());
+                }
+                historyRecordIds.putAll(nonEntityDao.retrieveHistoryRecordIdsFromTransaction(targetRecordIds, historyIds, historyTableName, transactional));
+            }
+        }
+        return historyRecordIds;
+    }
+
+    private static <T> List<T> getOrCreate(final Map<BatchKey, List<T>> rows, final BatchKey batchKey) {
+        List<T> rowsForKey = rows.get(batchKey);
+        if (rowsForKey == null) {
+            rowsForKey = new ArrayList<T>();
+            rows.put(batchKey, rowsForKey);
+        }
+        return rowsForKey;
+    }
+
+    private static final class BatchKey {
+
+        private final Class<? extends EntitySqlDao> sqlDaoClass;
+        // First sql dao seen for that class, all of them share the same handle
+        private final EntitySqlDao sqlDao;
+        // Compared by reference: the context is bound as-is for all the rows of the batch
+        private final InternalCallContext context;
+
+        private BatchKey(final Class<? extends EntitySqlDao> sqlDaoClass, final EntitySqlDao sqlDao, final InternalCallContext context) {
+            this.sqlDaoClass = sqlDaoClass;
+            this.sqlDao = sqlDao;
+            this.context = context;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            final BatchKey batchKey = (BatchKey) o;
+            return sqlDaoClass.equals(batchKey.sqlDaoClass) && context == batchKey.context;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sqlDaoClass.hashCode() + System.identityHashCode(context);
+        }
+    }
+
+    private static final class PendingAudit {
+
+        private final TableName tableName;
+        private final EntityHistoryModelDao history;
+        private final Long targetRecordId;
+        private final ChangeType changeType;
+        private final DateTime createdDate;
+
+        private PendingAudit(final TableName tableName, @Nullable final EntityHistoryModelDao history, @Nullable final Long targetRecordId,
+                             final ChangeType changeType, final DateTime createdDate) {
+            this.tableName = tableName;
+            this.history = history;
+            this.targetRecordId = targetRecordId;
+            this.changeType = changeType;
+            this.createdDate = createdDate;
+        }
+    }
+}
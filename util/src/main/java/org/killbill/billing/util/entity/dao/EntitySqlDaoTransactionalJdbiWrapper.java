@@ -58,7 +58,10 @@ public class EntitySqlDaoTransactionalJdbiWrapper {
         @Override
         public ReturnType inTransaction(final EntitySqlDao<M, E> transactionalSqlDao, final TransactionStatus status) throws Exception {
             final EntitySqlDaoWrapperFactory factoryEntitySqlDao = new EntitySqlDaoWrapperFactory(h, clock, cacheControllerDispatcher, nonEntityDao);
-            return entitySqlDaoTransactionWrapper.inTransaction(factoryEntitySqlDao);
+            final ReturnType result = entitySqlDaoTransactionWrapper.inTransaction(factoryEntitySqlDao);
+            // History and audit rows are written in batch, right before the commit
+            factoryEntitySqlDao.flushHistoryAndAudits();
+            return result;
         }
     }
 
@@ -30,6 +30,10 @@ import org.skife.jdbi.v2.sqlobject.SqlObjectBuilder;
 /**
  * Factory to create wrapped EntitySqlDao objects. During a transaction, make sure
  * to create other EntitySqlDao objects via the #become call.
+ * <p/>
+ * The history and audit rows generated by the @Audited calls are batched and only inserted right before the transaction
+ * commits: until then, they are invisible to the queries of the transaction (e.g. audit logs or history lookups).
+ * Call #flushHistoryAndAudits first if such rows need to be read within the same transaction.
  *
  * @see EntitySqlDaoWrapperInvocationHandler
  */
@@ -41,11 +45,15 @@ public class EntitySqlDaoWrapperFactory {
 
     private final NonEntityDao nonEntityDao;
 
+    // Shared by all the EntitySqlDao objects of the transaction
+    private final EntitySqlDaoHistoryAndAuditBatch historyAndAuditBatch;
+
     public EntitySqlDaoWrapperFactory(final Handle handle, final Clock clock, final CacheControllerDispatcher cacheControllerDispatcher, final NonEntityDao nonEntityDao) {
         this.handle = handle;
         this.clock = clock;
         this.cacheControllerDispatcher = cacheControllerDispatcher;
         this.nonEntityDao = nonEntityDao;
+        this.historyAndAuditBatch = new EntitySqlDaoHistoryAndAuditBatch(handle, nonEntityDao);
     }
 
     /**
@@ -67,13 +75,20 @@ public class EntitySqlDaoWrapperFactory {
         return handle;
     }
 
+    /**
+     * Write the history and audit rows accumulated so far. This is done automatically before the transaction commits.
+     */
+    public void flushHistoryAndAudits() {
+        historyAndAuditBatch.flush();
+    }
+
     private <NewSqlDao extends EntitySqlDao<NewEntityModelDao, NewEntity>,
             NewEntityModelDao extends EntityModelDao<NewEntity>,
             NewEntity extends Entity> NewSqlDao create(final Class<NewSqlDao> newSqlDaoClass, final NewSqlDao newSqlDao) {
         final ClassLoader classLoader = newSqlDao.getClass().getClassLoader();
         final Class[] interfacesToImplement = {newSqlDaoClass};
         final EntitySqlDaoWrapperInvocationHandler<NewSqlDao, NewEntityModelDao, NewEntity> wrapperInvocationHandler =
-                new EntitySqlDaoWrapperInvocationHandler<NewSqlDao, NewEntityModelDao, NewEntity>(newSqlDaoClass, newSqlDao, handle, clock, cacheControllerDispatcher, nonEntityDao);
+                new EntitySqlDaoWrapperInvocationHandler<NewSqlDao, NewEntityModelDao, NewEntity>(newSqlDaoClass, newSqlDao, handle, clock, cacheControllerDispatcher, nonEntityDao, historyAndAuditBatch);
 
         final Object newSqlDaoObject = Proxy.newProxyInstance(classLoader, interfacesToImplement, wrapperInvocationHandler);
         return newSqlDaoClass.cast(newSqlDaoObject);
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.export.api;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.UUIDs;
+import org.killbill.billing.util.api.ColumnInfo;
+import org.killbill.billing.util.config.ExportConfig;
+import org.killbill.billing.util.export.api.TenantExportManifest.ChunkExport;
+import org.killbill.billing.util.export.api.TenantExportManifest.TableExport;
+import org.killbill.billing.util.export.dao.CSVExportOutputStream;
+import org.killbill.billing.util.export.dao.DatabaseExportDao;
+import org.killbill.billing.util.glue.ExportModule;
+import org.killbill.billing.util.jackson.ObjectMapper;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports all the data of a tenant as gzipped CSV chunks (one directory per export, with a manifest).
+ * <p/>
+ * Tables are exported in parallel on the export executor (which bounds the number of database connections used), each
+ * one in chunks of record_id ranges. The manifest is rewritten after each chunk, which makes the export resumable and
+ * gives the per-table watermarks used by incremental exports.
+ */
+public class TenantDataExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(TenantDataExporter.class);
+
+    private static final String MANIFEST_FILE_NAME = "manifest.json";
+    private static final long SHUTDOWN_TIMEOUT_SEC = 5;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final DatabaseExportDao exportDao;
+    private final ExportConfig exportConfig;
+    private final ExecutorService exportExecutor;
+    private final Clock clock;
+    private final Set<UUID> runningExports;
+
+    @Inject
+    public TenantDataExporter(final DatabaseExportDao exportDao,
+                              final ExportConfig exportConfig,
+                              @Named(ExportModule.EXPORT_EXECUTOR_NAMED) final ExecutorService exportExecutor,
+                              final Clock clock) {
+        this.exportDao = exportDao;
+        this.exportConfig = exportConfig;
+        this.exportExecutor = exportExecutor;
+        this.clock = clock;
+        this.runningExports = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    }
+
+    /**
+     * Start a new export of the tenant data. If sinceExportId is specified, only the rows created after that export are exported.
+     */
+    public TenantExportManifest startExport(@Nullable final UUID sinceExportId, final InternalTenantContext context) throws IOException {
+        final TenantExportManifest sinceManifest = sinceExportId != null ? getExport(sinceExportId, context) : null;
+        if (sinceExportId != null && sinceManifest == null) {
+            throw new IllegalArgumentException("No export " + sinceExportId + " found for this tenant");
+        }
+
+        final Map<String, TableExport> tables = new LinkedHashMap<String, TableExport>();
+        for (final String tableName : exportDao.getTenantTables().keySet()) {
+            if (isExcluded(tableName)) {
+                continue;
+            }
+            final TableExport previousTableExport = sinceManifest != null ? sinceManifest.getTables().get(tableName) : null;
+            tables.put(tableName, new TableExport(previousTableExport != null ? previousTableExport.getLastRecordId() : 0L));
+        }
+
+        final TenantExportManifest manifest = new TenantExportManifest(UUIDs.randomUUID(), sinceExportId, clock.getUTCNow(), tables);
+        final File exportDirectory = getExportDirectory(manifest.getExportId(), context);
+        if (!exportDirectory.mkdirs()) {
+            throw new IOException("Unable to create export directory " + exportDirectory);
+        }
+        writeManifest(manifest, exportDirectory);
+
+        runExport(manifest, exportDirectory, context);
+        return manifest;
+    }
+
+    /**
+     * Resume an export which was interrupted (no-op if it is completed or still running)
+     */
+    public TenantExportManifest resumeExport(final UUID exportId, final InternalTenantContext context) throws IOException {
+        final TenantExportManifest manifest = getExport(exportId, context);
+        if (manifest == null) {
+            return null;
+        }
+
+        runExport(manifest, getExportDirectory(exportId, context), context);
+        return manifest;
+    }
+
+    public TenantExportManifest getExport(final UUID exportId, final InternalTenantContext context) throws IOException {
+        final File manifestFile = new File(getExportDirectory(exportId, context), MANIFEST_FILE_NAME);
+        if (!manifestFile.exists()) {
+            return null;
+        }
+        return objectMapper.readValue(manifestFile, TenantExportManifest.class);
+    }
+
+    public void stop() {
+        // Running exports are interrupted, they can be resumed after the restart
+        exportExecutor.shutdownNow();
+        try {
+            if (!exportExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                log.warn("Export executor didn't terminate within {} seconds", SHUTDOWN_TIMEOUT_SEC);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isExcluded(final String tableName) {
+        for (final String excludedTable : exportConfig.getExportExcludedTables()) {
+            if (excludedTable.trim().equalsIgnoreCase(tableName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void runExport(final TenantExportManifest manifest, final File exportDirectory, final InternalTenantContext context) {
+        if (manifest.isCompleted() || !runningExports.add(manifest.getExportId())) {
+            return;
+        }
+
+        final Map<String, List<ColumnInfo>> tenantTables = exportDao.getTenantTables();
+        final AtomicInteger nbRemainingTables = new AtomicInteger(manifest.getTables().size());
+        for (final String tableName : manifest.getTables().keySet()) {
+            exportExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final List<ColumnInfo> columnsForTable = tenantTables.get(tableName);
+                        if (columnsForTable == null) {
+                            // The table was dropped since the export started
+                            manifest.getTables().get(tableName).markCompleted();
+                            writeManifest(manifest, exportDirectory);
+                        } else {
+                            exportTable(manifest, tableName, columnsForTable, exportDirectory, context);
+                        }
+                    } catch (final IOException e) {
+                        log.warn("Failed to export table " + tableName + " for export " + manifest.getExportId() + ", the export will need to be resumed", e);
+                    } catch (final RuntimeException e) {
+                        log.warn("Failed to export table " + tableName + " for export " + manifest.getExportId() + ", the export will need to be resumed", e);
+                    } finally {
+                        if (nbRemainingTables.decrementAndGet() == 0) {
+                            runningExports.remove(manifest.getExportId());
+                            log.info("Export {} ended (completed={})", manifest.getExportId(), manifest.isCompleted());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void exportTable(final TenantExportManifest manifest, final String tableName, final List<ColumnInfo> columnsForTable,
+                             final File exportDirectory, final InternalTenantContext context) throws IOException {
+        final TableExport tableExport = manifest.getTables().get(tableName);
+        final int chunkSize = exportConfig.getExportChunkSize();
+        while (!tableExport.isCompleted()) {
+            // A chunk file which isn't in the manifest yet (interrupted export) is simply overwritten
+            final String fileName = String.format("%s-%05d.csv.gz", tableName, tableExport.getNbChunks());
+            final File chunkFile = new File(exportDirectory, fileName);
+
+            final ChunkOutputStream out = new ChunkOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(chunkFile))));
+            try {
+                exportDao.exportDataForTenantAndTable(out, tableName, columnsForTable, tableExport.getLastRecordId(), chunkSize, context);
+            } finally {
+                out.close();
+            }
+
+            if (out.getNbRows() > 0) {
+                tableExport.addChunk(new ChunkExport(fileName, out.getFirstRecordId(), out.getLastRecordId(), out.getNbRows()));
+            } else if (!chunkFile.delete()) {
+                log.warn("Unable to delete empty chunk {}", chunkFile);
+            }
+            if (out.getNbRows() < chunkSize) {
+                tableExport.markCompleted();
+            }
+            writeManifest(manifest, exportDirectory);
+        }
+    }
+
+    private void writeManifest(final TenantExportManifest manifest, final File exportDirectory) throws IOException {
+        synchronized (manifest) {
+            final File tmpManifestFile = new File(exportDirectory, MANIFEST_FILE_NAME + ".tmp");
+            objectMapper.writeValue(tmpManifestFile, manifest);
+            Files.move(tmpManifestFile.toPath(), new File(exportDirectory, MANIFEST_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private File getExportDirectory(final UUID exportId, final InternalTenantContext context) {
+        return new File(new File(exportConfig.getExportDirectory(), String.valueOf(context.getTenantRecordId())), exportId.toString());
+    }
+
+    // Keeps track of the record_id range written to a chunk
+    private static final class ChunkOutputStream extends CSVExportOutputStream {
+
+        private final OutputStream delegate;
+
+        private int nbRows = 0;
+        private Long firstRecordId;
+        private Long lastRecordId;
+
+        private ChunkOutputStream(final OutputStream delegate) {
+            super(delegate);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(final Map<String, Object> row) throws IOException {
+            super.write(row);
+
+            final Long recordId = ((Number) row.get("record_id")).longValue();
+            if (firstRecordId == null) {
+                firstRecordId = recordId;
+            }
+            lastRecordId = recordId;
+            nbRows++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            delegate.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        public int getNbRows() {
+            return nbRows;
+        }
+
+        public Long getFirstRecordId() {
+            return firstRecordId;
+        }
+
+        public Long getLastRecordId() {
+            return lastRecordId;
+        }
+    }
+}
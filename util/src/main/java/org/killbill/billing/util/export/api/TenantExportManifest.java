@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.export.api;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Describes the chunks of a tenant export, and for each table the last record_id exported: it is rewritten after each chunk,
+ * so that an interrupted export can be resumed, and used as the watermark of a subsequent incremental export.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class TenantExportManifest {
+
+    private final UUID exportId;
+    private final UUID sinceExportId;
+    private final DateTime createdDate;
+    private final Map<String, TableExport> tables;
+
+    @JsonCreator
+    public TenantExportManifest(@JsonProperty("exportId") final UUID exportId,
+                                @JsonProperty("sinceExportId") @Nullable final UUID sinceExportId,
+                                @JsonProperty("createdDate") final DateTime createdDate,
+                                @JsonProperty("tables") final Map<String, TableExport> tables) {
+        this.exportId = exportId;
+        this.sinceExportId = sinceExportId;
+        this.createdDate = createdDate;
+        this.tables = new LinkedHashMap<String, TableExport>(tables);
+    }
+
+    public UUID getExportId() {
+        return exportId;
+    }
+
+    public UUID getSinceExportId() {
+        return sinceExportId;
+    }
+
+    public DateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    public Map<String, TableExport> getTables() {
+        return tables;
+    }
+
+    @JsonProperty("completed")
+    public boolean isCompleted() {
+        for (final TableExport table : tables.values()) {
+            if (!table.isCompleted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class TableExport {
+
+        private final List<ChunkExport> chunks;
+        private Long lastRecordId;
+        private boolean completed;
+
+        public TableExport(final Long fromRecordId) {
+            this(fromRecordId, false, new ArrayList<ChunkExport>());
+        }
+
+        @JsonCreator
+        public TableExport(@JsonProperty("lastRecordId") final Long lastRecordId,
+                           @JsonProperty("completed") final boolean completed,
+                           @JsonProperty("chunks") final List<ChunkExport> chunks) {
+            this.lastRecordId = lastRecordId;
+            this.completed = completed;
+            this.chunks = new ArrayList<ChunkExport>(chunks);
+        }
+
+        public synchronized Long getLastRecordId() {
+            return lastRecordId;
+        }
+
+        public synchronized boolean isCompleted() {
+            return completed;
+        }
+
+        public synchronized List<ChunkExport> getChunks() {
+            return new ArrayList<ChunkExport>(chunks);
+        }
+
+        @JsonIgnore
+        public synchronized int getNbChunks() {
+            return chunks.size();
+        }
+
+        public synchronized void addChunk(final ChunkExport chunk) {
+            chunks.add(chunk);
+            lastRecordId = chunk.getLastRecordId();
+        }
+
+        public synchronized void markCompleted() {
+            completed = true;
+        }
+    }
+
+    public static class ChunkExport {
+
+        private final String fileName;
+        private final Long firstRecordId;
+        private final Long lastRecordId;
+        private final int nbRows;
+
+        @JsonCreator
+        public ChunkExport(@JsonProperty("fileName") final String fileName,
+                           @JsonProperty("firstRecordId") final Long firstRecordId,
+                           @JsonProperty("lastRecordId") final Long lastRecordId,
+                           @JsonProperty("nbRows") final int nbRows) {
+            this.fileName = fileName;
+            this.firstRecordId = firstRecordId;
+            this.lastRecordId = lastRecordId;
+            this.nbRows = nbRows;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Long getFirstRecordId() {
+            return firstRecordId;
+        }
+
+        public Long getLastRecordId() {
+            return lastRecordId;
+        }
+
+        public int getNbRows() {
+            return nbRows;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.killbill.billing.util.export.dao;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -72,6 +73,76 @@ public class DatabaseExportDao {
         exportDataForAccountAndTable(out, columnsForTable, context);
     }
 
+    /**
+     * @return the columns of the tables which can be exported per tenant (i.e. with a record_id and a tenant_record_id column), by table name
+     */
+    public Map<String, List<ColumnInfo>> getTenantTables() {
+        final Map<String, List<ColumnInfo>> columnsPerTable = new LinkedHashMap<String, List<ColumnInfo>>();
+        for (final ColumnInfo column : databaseSchemaDao.getColumnInfoList()) {
+            if (columnsPerTable.get(column.getTableName()) == null) {
+                columnsPerTable.put(column.getTableName(), new ArrayList<ColumnInfo>());
+            }
+            columnsPerTable.get(column.getTableName()).add(column);
+        }
+
+        final Map<String, List<ColumnInfo>> tenantTables = new LinkedHashMap<String, List<ColumnInfo>>();
+        for (final String tableName : columnsPerTable.keySet()) {
+            boolean hasRecordIdColumn = false;
+            boolean hasTenantRecordIdColumn = false;
+            for (final ColumnInfo column : columnsPerTable.get(tableName)) {
+                hasRecordIdColumn = hasRecordIdColumn || "record_id".equals(column.getColumnName());
+                hasTenantRecordIdColumn = hasTenantRecordIdColumn || "tenant_record_id".equals(column.getColumnName());
+            }
+            if (hasRecordIdColumn && hasTenantRecordIdColumn) {
+                tenantTables.put(tableName, columnsPerTable.get(tableName));
+            }
+        }
+        return tenantTables;
+    }
+
+    /**
+     * Export the next rows of a table for the tenant, ordered by record_id (the caller is expected to resume from the last record_id seen)
+     */
+    public void exportDataForTenantAndTable(final DatabaseExportOutputStream out, final String tableName, final List<ColumnInfo> columnsForTable,
+                                            final Long fromRecordId, final int maxNbRows, final InternalTenantContext context) {
+        final StringBuilder queryBuilder = new StringBuilder("select ");
+        boolean firstColumn = true;
+        for (final ColumnInfo column : columnsForTable) {
+            if (!firstColumn) {
+                queryBuilder.append(", ");
+            } else {
+                firstColumn = false;
+            }
+            queryBuilder.append(column.getColumnName());
+        }
+        // Keyset pagination on record_id, so that each chunk is an index range scan
+        queryBuilder.append(" from ")
+                    .append(tableName)
+                    .append(" where tenant_record_id = :tenantRecordId and record_id > :fromRecordId order by record_id asc limit :maxNbRows");
+
+        out.newTable(tableName, columnsForTable);
+
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                final ResultIterator<Map<String, Object>> iterator = handle.createQuery(queryBuilder.toString())
+                                                                           .bind("tenantRecordId", context.getTenantRecordId())
+                                                                           .bind("fromRecordId", fromRecordId)
+                                                                           .bind("maxNbRows", maxNbRows)
+                                                                           .iterator();
+                try {
+                    while (iterator.hasNext()) {
+                        out.write(iterator.next());
+                    }
+                } finally {
+                    iterator.close();
+                }
+
+                return null;
+            }
+        });
+    }
+
     private void exportDataForAccountAndTable(final DatabaseExportOutputStream out, final List<ColumnInfo> columnsForTable, final InternalTenantContext context) {
         boolean hasAccountRecordIdColumn = false;
         boolean firstColumn = true;
@@ -17,5 +17,8 @@
 package org.killbill.billing.util.globallocker;
 
 public enum LockerType {
-    ACCNT_INV_PAY
+    ACCNT_INV_PAY,
+    PAYMENT_JANITOR,
+    OVERDUE_SWEEP,
+    COALESCED_INVOICE_RUN
 }
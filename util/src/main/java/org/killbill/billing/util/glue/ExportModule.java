@@ -18,12 +18,25 @@
 
 package org.killbill.billing.util.glue;
 
+import java.util.concurrent.ExecutorService;
+
 import org.killbill.billing.platform.api.KillbillConfigSource;
 import org.killbill.billing.util.api.ExportUserApi;
+import org.killbill.billing.util.config.ExportConfig;
+import org.killbill.billing.util.export.api.DefaultExportService;
 import org.killbill.billing.util.export.api.DefaultExportUserApi;
+import org.killbill.billing.util.export.api.ExportService;
+import org.killbill.billing.util.export.api.TenantDataExporter;
+import org.killbill.commons.concurrent.Executors;
+import org.skife.config.ConfigurationObjectFactory;
+
+import com.google.inject.name.Names;
 
 public class ExportModule extends KillBillModule {
 
+    public static final String EXPORT_EXECUTOR_NAMED = "ExportExecutor";
+    public static final String EXPORT_THREAD_PREFIX = "TenantExport";
+
     public ExportModule(final KillbillConfigSource configSource) {
         super(configSource);
     }
@@ -32,8 +45,20 @@ public class ExportModule extends KillBillModule {
         bind(ExportUserApi.class).to(DefaultExportUserApi.class).asEagerSingleton();
     }
 
+    protected void installTenantExporter() {
+        final ExportConfig exportConfig = new ConfigurationObjectFactory(skifeConfigSource).build(ExportConfig.class);
+        bind(ExportConfig.class).toInstance(exportConfig);
+
+        // Shut down by TenantDataExporter#stop, with the export service
+        final ExecutorService exportExecutor = Executors.newFixedThreadPool(Math.max(1, exportConfig.getExportThreadNb()), EXPORT_THREAD_PREFIX);
+        bind(ExecutorService.class).annotatedWith(Names.named(EXPORT_EXECUTOR_NAMED)).toInstance(exportExecutor);
+        bind(TenantDataExporter.class).asEagerSingleton();
+        bind(ExportService.class).to(DefaultExportService.class).asEagerSingleton();
+    }
+
     @Override
     protected void configure() {
         installUserApi();
+        installTenantExporter();
     }
 }
@@ -61,15 +61,12 @@ public class DefaultTagInternalApi implements TagInternalApi {
 
     @Override
     public List<Tag> getTags(final UUID objectId, final ObjectType objectType, final InternalTenantContext context) {
-        return ImmutableList.<Tag>copyOf(Collections2.transform(tagDao.getTagsForObject(objectId, objectType, false, context),
-                                                                new Function<TagModelDao, Tag>() {
-                                                                    @Override
-                                                                    public Tag apply(final TagModelDao input) {
-                                                                        return TagModelDaoHelper.isControlTag(input.getTagDefinitionId()) ?
-                                                                               new DefaultControlTag(ControlTagType.getTypeFromId(input.getTagDefinitionId()), objectType, objectId, input.getCreatedDate()) :
-                                                                               new DescriptiveTag(input.getTagDefinitionId(), objectType, objectId, input.getCreatedDate());
-                                                                    }
-                                                                }));
+        return toTags(tagDao.getTagsForObject(objectId, objectType, false, context));
+    }
+
+    @Override
+    public List<Tag> getTagsForAccountType(final UUID accountId, final ObjectType objectType, final boolean includedDeleted, final InternalTenantContext context) {
+        return toTags(tagDao.getTagsForAccountType(accountId, objectType, includedDeleted, context));
     }
 
     @Override
@@ -85,4 +82,16 @@ public class DefaultTagInternalApi implements TagInternalApi {
             throws TagApiException {
         tagDao.deleteTag(objectId, objectType, tagDefinitionId, context);
     }
+
+    private List<Tag> toTags(final List<TagModelDao> tagModelDaos) {
+        return ImmutableList.<Tag>copyOf(Collections2.transform(tagModelDaos,
+                                                                new Function<TagModelDao, Tag>() {
+                                                                    @Override
+                                                                    public Tag apply(final TagModelDao input) {
+                                                                        return TagModelDaoHelper.isControlTag(input.getTagDefinitionId()) ?
+                                                                               new DefaultControlTag(ControlTagType.getTypeFromId(input.getTagDefinitionId()), input.getObjectType(), input.getObjectId(), input.getCreatedDate()) :
+                                                                               new DescriptiveTag(input.getTagDefinitionId(), input.getObjectType(), input.getObjectId(), input.getCreatedDate());
+                                                                    }
+                                                                }));
+    }
 }
@@ -51,6 +51,11 @@ public class CompletionUserRequestBase implements CompletionUserRequest {
         this.isCompleted = false;
     }
 
+    @Override
+    public UUID getUserToken() {
+        return userToken;
+    }
+
     @Override
     public List<BusInternalEvent> waitForCompletion(final long timeoutMilliSec) throws InterruptedException, TimeoutException {
 
@@ -16,7 +16,9 @@
 
 package org.killbill.billing.util.audit.dao;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.skife.jdbi.v2.Handle;
@@ -33,7 +35,12 @@ import org.killbill.billing.util.audit.AccountAuditLogs;
 import org.killbill.billing.util.audit.AccountAuditLogsForObjectType;
 import org.killbill.billing.util.audit.AuditLog;
 import org.killbill.billing.util.audit.ChangeType;
+import org.killbill.billing.util.customfield.dao.CustomFieldModelDao;
+import org.killbill.billing.util.customfield.dao.CustomFieldSqlDao;
 import org.killbill.billing.util.dao.TableName;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
 import org.killbill.billing.util.tag.DescriptiveTag;
 import org.killbill.billing.util.tag.Tag;
 import org.killbill.billing.util.tag.dao.TagDefinitionModelDao;
@@ -91,6 +98,84 @@ public class TestDefaultAuditDao extends UtilTestSuiteWithEmbeddedDB {
         Assert.assertEquals(secondAuditLogs.get(1).getChangeType(), ChangeType.DELETE);
     }
 
+    @Test(groups = "slow", description = "Verify history and audit rows written in batch at the end of the transaction point to the right records")
+    public void testBatchedHistoryAndAuditsInSingleTransaction() throws Exception {
+        final UUID objectId = UUID.randomUUID();
+        final List<CustomFieldModelDao> customFields = new ArrayList<CustomFieldModelDao>();
+        for (int i = 0; i < 25; i++) {
+            customFields.add(new CustomFieldModelDao(UUID.randomUUID(), clock.getUTCNow(), clock.getUTCNow(), "field-" + i, "value-" + i, objectId, ObjectType.ACCOUNT));
+        }
+
+        final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, controlCacheDispatcher, nonEntityDao);
+        transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
+            @Override
+            public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                final CustomFieldSqlDao customFieldSqlDao = entitySqlDaoWrapperFactory.become(CustomFieldSqlDao.class);
+                for (final CustomFieldModelDao customField : customFields) {
+                    customFieldSqlDao.create(customField, internalCallContext);
+                }
+                // Several changes for the same entity within the transaction
+                customFieldSqlDao.markTagAsDeleted(customFields.get(0).getId().toString(), internalCallContext);
+                return null;
+            }
+        });
+
+        final Handle handle = dbi.open();
+        try {
+            for (final CustomFieldModelDao customField : customFields) {
+                final boolean deleted = customField.getId().equals(customFields.get(0).getId());
+
+                final List<AuditLog> auditLogs = auditDao.getAuditLogsForId(TableName.CUSTOM_FIELD, customField.getId(), AuditLevel.FULL, internalCallContext);
+                Assert.assertEquals(auditLogs.size(), deleted ? 2 : 1);
+                Assert.assertEquals(auditLogs.get(0).getChangeType(), ChangeType.INSERT);
+                if (deleted) {
+                    Assert.assertEquals(auditLogs.get(1).getChangeType(), ChangeType.DELETE);
+                }
+
+                // Each audit entry points to its own history row
+                final List<String> historyChangeTypes = new ArrayList<String>();
+                for (final AuditLog auditLog : auditLogs) {
+                    final List<Map<String, Object>> historyRows = handle.select("select h.change_type from custom_field_history h join audit_log a on a.target_record_id = h.record_id " +
+                                                                                    "where a.table_name = 'CUSTOM_FIELD_HISTORY' and a.id = ?", auditLog.getId().toString());
+                    Assert.assertEquals(historyRows.size(), 1);
+                    historyChangeTypes.add((String) historyRows.get(0).get("change_type"));
+                }
+                Assert.assertEquals(historyChangeTypes.get(0), ChangeType.INSERT.toString());
+                if (deleted) {
+                    Assert.assertEquals(historyChangeTypes.get(1), ChangeType.DELETE.toString());
+                }
+            }
+        } finally {
+            handle.close();
+        }
+    }
+
+    @Test(groups = "slow", description = "Verify batched history and audit rows can be flushed to be read within the transaction")
+    public void testFlushHistoryAndAuditsWithinTransaction() throws Exception {
+        final CustomFieldModelDao customField = new CustomFieldModelDao(UUID.randomUUID(), clock.getUTCNow(), clock.getUTCNow(), "field", "value", UUID.randomUUID(), ObjectType.ACCOUNT);
+        final String historyQuery = "select h.record_id from custom_field_history h join custom_fields t on h.target_record_id = t.record_id where t.id = ?";
+
+        final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, controlCacheDispatcher, nonEntityDao);
+        transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
+            @Override
+            public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                entitySqlDaoWrapperFactory.become(CustomFieldSqlDao.class).create(customField, internalCallContext);
+
+                // Not written yet
+                Assert.assertEquals(entitySqlDaoWrapperFactory.getHandle().select(historyQuery, customField.getId().toString()).size(), 0);
+
+                entitySqlDaoWrapperFactory.flushHistoryAndAudits();
+                Assert.assertEquals(entitySqlDaoWrapperFactory.getHandle().select(historyQuery, customField.getId().toString()).size(), 1);
+                return null;
+            }
+        });
+
+        // Nothing is written twice on commit
+        final List<AuditLog> auditLogs = auditDao.getAuditLogsForId(TableName.CUSTOM_FIELD, customField.getId(), AuditLevel.FULL, internalCallContext);
+        Assert.assertEquals(auditLogs.size(), 1);
+        Assert.assertEquals(auditLogs.get(0).getChangeType(), ChangeType.INSERT);
+    }
+
     private void addTag() throws TagDefinitionApiException, TagApiException {
         // Create a tag definition
         eventsListener.pushExpectedEvent(NextEvent.TAG_DEFINITION);
@@ -30,6 +30,8 @@ import org.killbill.billing.util.tag.dao.TagSqlDao;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.ImmutableList;
+
 public class TestCache extends UtilTestSuiteWithEmbeddedDB {
 
     private EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
@@ -120,6 +122,30 @@ public class TestCache extends UtilTestSuiteWithEmbeddedDB {
 
     }
 
+    @Test(groups = "slow")
+    public void testPopulateIdMappingCachesForAccount() throws Exception {
+        this.transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, controlCacheDispatcher, nonEntityDao);
+        final TagModelDao tag = new TagModelDao(clock.getUTCNow(), UUID.randomUUID(), UUID.randomUUID(), ObjectType.TAG);
+
+        insertTag(tag);
+
+        // Verify we start with nothing in the cache
+        Assert.assertEquals(getCacheSize(CacheType.RECORD_ID), 0);
+        Assert.assertEquals(getCacheSize(CacheType.OBJECT_ID), 0);
+
+        nonEntityDao.populateIdMappingCachesForAccount(ImmutableList.<TableName>of(TableName.TAG), internalCallContext, controlCacheDispatcher);
+
+        Assert.assertEquals(getCacheSize(CacheType.RECORD_ID), 1);
+        Assert.assertEquals(getCacheSize(CacheType.ACCOUNT_RECORD_ID), 1);
+        Assert.assertEquals(getCacheSize(CacheType.TENANT_RECORD_ID), 1);
+        Assert.assertEquals(getCacheSize(CacheType.OBJECT_ID), 1);
+
+        final Long recordId = retrieveRecordIdFromCache(tag.getId());
+        Assert.assertEquals(recordId, getTagRecordId(tag.getId()));
+        Assert.assertEquals(nonEntityDao.retrieveIdFromObject(recordId, ObjectType.TAG, controlCacheDispatcher.getCacheController(CacheType.OBJECT_ID)), tag.getId());
+        Assert.assertEquals(nonEntityDao.retrieveAccountRecordIdFromObject(tag.getId(), ObjectType.TAG, controlCacheDispatcher.getCacheController(CacheType.ACCOUNT_RECORD_ID)), internalCallContext.getAccountRecordId());
+    }
+
     private void insertTag(final TagModelDao modelDao) {
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
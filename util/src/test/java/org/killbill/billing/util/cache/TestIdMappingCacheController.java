@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.util.UtilTestSuiteNoDB;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.dao.NonEntityDao;
+import org.killbill.billing.util.dao.TableName;
+import org.killbill.commons.concurrent.Executors;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.Handle;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestIdMappingCacheController extends UtilTestSuiteNoDB {
+
+    private static final int MAX_ENTRIES_PER_TABLE = 160;
+
+    private NonEntityDao nonEntityDao;
+    private IdMappingCacheController recordIdCache;
+    private IdMappingCacheController objectIdCache;
+
+    @BeforeMethod(groups = "fast")
+    public void setUpIdMappingCaches() throws Exception {
+        nonEntityDao = Mockito.mock(NonEntityDao.class);
+
+        final RecordIdCacheLoader recordIdCacheLoader = new RecordIdCacheLoader(nonEntityDao);
+        recordIdCacheLoader.init();
+        recordIdCache = new IdMappingCacheController(recordIdCacheLoader, MAX_ENTRIES_PER_TABLE);
+
+        final ObjectIdCacheLoader objectIdCacheLoader = new ObjectIdCacheLoader(nonEntityDao);
+        objectIdCacheLoader.init();
+        objectIdCache = new IdMappingCacheController(objectIdCacheLoader, MAX_ENTRIES_PER_TABLE);
+    }
+
+    @Test(groups = "fast")
+    public void testMissIsLoadedOnce() throws Exception {
+        final UUID objectId = UUID.randomUUID();
+        Mockito.when(nonEntityDao.retrieveRecordIdFromObjectInTransaction(Mockito.eq(objectId), Mockito.eq(ObjectType.TAG), Mockito.<CacheController<Object, Object>>any(), Mockito.<Handle>any())).thenReturn(12L);
+
+        Assert.assertEquals(recordIdCache.get(objectId, TableName.TAG, new CacheLoaderArgument(ObjectType.TAG)), (Long) 12L);
+        Assert.assertEquals(recordIdCache.get(objectId, TableName.TAG, new CacheLoaderArgument(ObjectType.TAG)), (Long) 12L);
+
+        Mockito.verify(nonEntityDao, Mockito.times(1)).retrieveRecordIdFromObjectInTransaction(Mockito.eq(objectId), Mockito.eq(ObjectType.TAG), Mockito.<CacheController<Object, Object>>any(), Mockito.<Handle>any());
+        Assert.assertEquals(recordIdCache.size(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testFullTableEvictsIncrementally() throws Exception {
+        final List<UUID> objectIds = new ArrayList<UUID>();
+        for (int i = 0; i < 10 * MAX_ENTRIES_PER_TABLE; i++) {
+            final UUID objectId = UUID.randomUUID();
+            objectIds.add(objectId);
+            recordIdCache.add(objectId, TableName.TAG, (long) i);
+
+            Assert.assertTrue(recordIdCache.size() <= MAX_ENTRIES_PER_TABLE);
+            // The table is never emptied to make room: the latest mapping is always there
+            Assert.assertEquals(recordIdCache.get(objectId, TableName.TAG, new CacheLoaderArgument(ObjectType.TAG)), (Long) (long) i);
+        }
+        Assert.assertEquals(recordIdCache.size(), MAX_ENTRIES_PER_TABLE);
+
+        // Other tables aren't impacted
+        recordIdCache.add(UUID.randomUUID(), TableName.ACCOUNT, 1L);
+        Assert.assertEquals(recordIdCache.size(), MAX_ENTRIES_PER_TABLE + 1);
+        Mockito.verifyZeroInteractions(nonEntityDao);
+    }
+
+    @Test(groups = "fast")
+    public void testKeysWithoutTable() throws Exception {
+        // RECORD_ID, ACCOUNT_RECORD_ID and TENANT_RECORD_ID keys aren't prefixed with the table name
+        final UUID objectId = UUID.randomUUID();
+        recordIdCache.add(objectId.toString(), 12L);
+
+        Assert.assertEquals(recordIdCache.get(objectId.toString(), new CacheLoaderArgument((ObjectType) null)), 12L);
+        Assert.assertEquals(recordIdCache.get(objectId.toString(), new CacheLoaderArgument(ObjectType.TAG)), 12L);
+        Assert.assertEquals(recordIdCache.get(objectId, TableName.TAG, new CacheLoaderArgument(ObjectType.TAG)), (Long) 12L);
+        Mockito.verifyZeroInteractions(nonEntityDao);
+
+        // Unknown table: the mapping is loaded and cached without table
+        final UUID otherObjectId = UUID.randomUUID();
+        Mockito.when(nonEntityDao.retrieveRecordIdFromObjectInTransaction(Mockito.eq(otherObjectId), Mockito.<ObjectType>any(), Mockito.<CacheController<Object, Object>>any(), Mockito.<Handle>any())).thenReturn(13L);
+        Assert.assertEquals(recordIdCache.get(otherObjectId.toString(), new CacheLoaderArgument((ObjectType) null)), 13L);
+        Assert.assertEquals(recordIdCache.get(otherObjectId.toString(), new CacheLoaderArgument((ObjectType) null)), 13L);
+        Mockito.verify(nonEntityDao, Mockito.times(1)).retrieveRecordIdFromObjectInTransaction(Mockito.eq(otherObjectId), Mockito.<ObjectType>any(), Mockito.<CacheController<Object, Object>>any(), Mockito.<Handle>any());
+
+        Assert.assertEquals(recordIdCache.size(), 2);
+        Assert.assertTrue(recordIdCache.remove(objectId.toString()));
+        Assert.assertEquals(recordIdCache.size(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testKeysWithTable() throws Exception {
+        // OBJECT_ID keys are prefixed with the table name, record ids are only unique per table
+        final UUID tagId = UUID.randomUUID();
+        final UUID accountId = UUID.randomUUID();
+        objectIdCache.add(TableName.TAG + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + "1", tagId);
+        objectIdCache.add(TableName.ACCOUNT + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + "1", accountId);
+
+        Assert.assertEquals(objectIdCache.get(TableName.TAG + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + "1", new CacheLoaderArgument(ObjectType.TAG)), tagId);
+        Assert.assertEquals(objectIdCache.get(1L, TableName.ACCOUNT, new CacheLoaderArgument(ObjectType.ACCOUNT)), accountId);
+        Mockito.verifyZeroInteractions(nonEntityDao);
+
+        try {
+            objectIdCache.add("1", tagId);
+            Assert.fail();
+        } catch (final IllegalArgumentException e) {
+            Assert.assertEquals(objectIdCache.size(), 2);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testConcurrentAccess() throws Exception {
+        Mockito.when(nonEntityDao.retrieveRecordIdFromObjectInTransaction(Mockito.<UUID>any(), Mockito.<ObjectType>any(), Mockito.<CacheController<Object, Object>>any(), Mockito.<Handle>any())).thenReturn(null);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4, "TestIdMappingCacheController");
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 5000; j++) {
+                            final UUID objectId = UUID.randomUUID();
+                            recordIdCache.add(objectId, TableName.TAG, (long) j);
+                            final Long recordId = recordIdCache.get(objectId, TableName.TAG, new CacheLoaderArgument(ObjectType.TAG));
+                            // The mapping may have been evicted by another thread already, in which case it is reloaded (not found here)
+                            Assert.assertTrue(recordId == null || recordId == j);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        Assert.assertTrue(recordIdCache.size() <= MAX_ENTRIES_PER_TABLE);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.killbill.billing.util.UtilTestSuiteNoDB;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestIdMappingOpenHashMaps extends UtilTestSuiteNoDB {
+
+    @Test(groups = "fast", description = "Verify UUIDLongOpenHashMap behaves like a HashMap")
+    public void testUUIDLongOpenHashMap() {
+        final Random random = new Random(42);
+        final UUIDLongOpenHashMap map = new UUIDLongOpenHashMap();
+        final Map<UUID, Long> expected = new HashMap<UUID, Long>();
+        final List<UUID> keys = new ArrayList<UUID>();
+        for (int i = 0; i < 500; i++) {
+            keys.add(UUID.randomUUID());
+        }
+
+        for (int i = 0; i < 20000; i++) {
+            final UUID key = keys.get(random.nextInt(keys.size()));
+            final int operation = random.nextInt(3);
+            if (operation == 0) {
+                final long value = random.nextLong();
+                map.put(key, value);
+                expected.put(key, value);
+            } else if (operation == 1) {
+                Assert.assertEquals(map.remove(key), expected.remove(key) != null);
+            } else {
+                final Long expectedValue = expected.get(key);
+                Assert.assertEquals(map.get(key, Long.MIN_VALUE), expectedValue == null ? Long.MIN_VALUE : (long) expectedValue);
+                Assert.assertEquals(map.containsKey(key), expectedValue != null);
+            }
+            Assert.assertEquals(map.size(), expected.size());
+        }
+
+        for (final UUID key : keys) {
+            final Long expectedValue = expected.get(key);
+            Assert.assertEquals(map.get(key, Long.MIN_VALUE), expectedValue == null ? Long.MIN_VALUE : (long) expectedValue);
+        }
+
+        map.clear();
+        Assert.assertEquals(map.size(), 0);
+        Assert.assertFalse(map.containsKey(keys.get(0)));
+    }
+
+    @Test(groups = "fast", description = "Verify LongUUIDOpenHashMap behaves like a HashMap")
+    public void testLongUUIDOpenHashMap() {
+        final Random random = new Random(42);
+        final LongUUIDOpenHashMap map = new LongUUIDOpenHashMap();
+        final Map<Long, UUID> expected = new HashMap<Long, UUID>();
+
+        for (int i = 0; i < 20000; i++) {
+            // Sequential keys, like record ids
+            final long key = random.nextInt(500);
+            final int operation = random.nextInt(3);
+            if (operation == 0) {
+                final UUID value = UUID.randomUUID();
+                map.put(key, value);
+                expected.put(key, value);
+            } else if (operation == 1) {
+                Assert.assertEquals(map.remove(key), expected.remove(key) != null);
+            } else {
+                Assert.assertEquals(map.get(key), expected.get(key));
+                Assert.assertEquals(map.containsKey(key), expected.containsKey(key));
+            }
+            Assert.assertEquals(map.size(), expected.size());
+        }
+
+        for (long key = 0; key < 500; key++) {
+            Assert.assertEquals(map.get(key), expected.get(key));
+        }
+
+        map.clear();
+        Assert.assertEquals(map.size(), 0);
+        Assert.assertNull(map.get(0L));
+    }
+
+    @Test(groups = "fast", description = "Verify evictOne removes one mapping at a time, leaving the other ones reachable")
+    public void testEvictOne() {
+        final UUIDLongOpenHashMap uuidLongMap = new UUIDLongOpenHashMap();
+        final LongUUIDOpenHashMap longUUIDMap = new LongUUIDOpenHashMap();
+        final Map<UUID, Long> expected = new HashMap<UUID, Long>();
+        for (long i = 0; i < 100; i++) {
+            final UUID key = UUID.randomUUID();
+            uuidLongMap.put(key, i);
+            longUUIDMap.put(i, key);
+            expected.put(key, i);
+        }
+
+        for (int i = 1; i <= 100; i++) {
+            Assert.assertTrue(uuidLongMap.evictOne());
+            Assert.assertTrue(longUUIDMap.evictOne());
+            Assert.assertEquals(uuidLongMap.size(), 100 - i);
+            Assert.assertEquals(longUUIDMap.size(), 100 - i);
+
+            int nbRemaining = 0;
+            for (final Map.Entry<UUID, Long> entry : expected.entrySet()) {
+                final long value = uuidLongMap.get(entry.getKey(), Long.MIN_VALUE);
+                if (value != Long.MIN_VALUE) {
+                    Assert.assertEquals(value, (long) entry.getValue());
+                    nbRemaining++;
+                }
+            }
+            Assert.assertEquals(nbRemaining, 100 - i);
+        }
+
+        Assert.assertFalse(uuidLongMap.evictOne());
+        Assert.assertFalse(longUUIDMap.evictOne());
+    }
+}
@@ -17,12 +17,17 @@
 package org.killbill.billing.util.dao;
 
 import java.util.List;
+import java.util.UUID;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import org.killbill.billing.ObjectType;
 import org.killbill.billing.api.TestApiListener.NextEvent;
 import org.killbill.billing.util.UtilTestSuiteWithEmbeddedDB;
+import org.killbill.billing.util.customfield.StringCustomField;
+import org.killbill.billing.util.customfield.dao.CustomFieldModelDao;
+import org.killbill.billing.util.entity.Pagination;
 import org.killbill.billing.util.tag.dao.TagDefinitionModelDao;
 import org.killbill.billing.util.tag.dao.TagDefinitionSqlDao;
 
@@ -74,4 +79,77 @@ public class TestPagination extends UtilTestSuiteWithEmbeddedDB {
             }
         }
     }
+
+    @Test(groups = "slow", description = "Test Pagination: keyset cursors when walking through the pages")
+    public void testTagDefinitionsKeysetPagination() throws Exception {
+        final TagDefinitionSqlDao tagDefinitionSqlDao = dbi.onDemand(TagDefinitionSqlDao.class);
+
+        for (int i = 0; i < 10; i++) {
+            eventsListener.pushExpectedEvent(NextEvent.TAG_DEFINITION);
+            tagDefinitionDao.create("name-" + i, "description-" + i, internalCallContext);
+            assertListenerStatus();
+        }
+
+        // Tests via SQL dao directly
+        final List<TagDefinitionModelDao> firstPage = ImmutableList.<TagDefinitionModelDao>copyOf(tagDefinitionSqlDao.get(0L, 4L, "record_id", internalCallContext));
+        Assert.assertEquals(firstPage.size(), 4);
+        final List<TagDefinitionModelDao> nextPage = ImmutableList.<TagDefinitionModelDao>copyOf(tagDefinitionSqlDao.getFromRecordId(firstPage.get(3).getRecordId(), 4L, internalCallContext));
+        Assert.assertEquals(nextPage.size(), 4);
+        Assert.assertEquals(nextPage.get(0).getName(), "name-4");
+        Assert.assertEquals(nextPage.get(3).getName(), "name-7");
+
+        // Tests via DAO: the first page is retrieved using the offset, the following ones from the cursor left by the previous page
+        long offset = 0L;
+        int i = 0;
+        while (i < 10) {
+            final Pagination<TagDefinitionModelDao> page = tagDefinitionDao.get(offset, 3L, internalCallContext);
+            Assert.assertEquals(page.getCurrentOffset(), (Long) offset);
+            Assert.assertEquals(page.getTotalNbRecords(), (Long) 10L);
+            for (final TagDefinitionModelDao tagDefinition : page) {
+                Assert.assertEquals(tagDefinition.getName(), "name-" + i);
+                i++;
+            }
+            if (page.getNextOffset() == null) {
+                break;
+            }
+            offset = page.getNextOffset();
+        }
+        Assert.assertEquals(i, 10);
+
+        // Pages can still be accessed randomly
+        final List<TagDefinitionModelDao> randomPage = ImmutableList.<TagDefinitionModelDao>copyOf(tagDefinitionDao.get(5L, 2L, internalCallContext));
+        Assert.assertEquals(randomPage.size(), 2);
+        Assert.assertEquals(randomPage.get(0).getName(), "name-5");
+        Assert.assertEquals(randomPage.get(1).getName(), "name-6");
+    }
+
+    @Test(groups = "slow", description = "Test Pagination: keyset cursors of different queries on the same DAO don't mix")
+    public void testInterleavedKeysetPagination() throws Exception {
+        final UUID objectId = UUID.randomUUID();
+        for (int i = 0; i < 10; i++) {
+            // The search key matches the name of the list query ("get")
+            final String fieldValue = (i % 2 == 0 ? "get-" : "put-") + i;
+            eventsListener.pushExpectedEvent(NextEvent.CUSTOM_FIELD);
+            customFieldDao.create(new CustomFieldModelDao(new StringCustomField("field-" + i, fieldValue, ObjectType.ACCOUNT, objectId, internalCallContext.getCreatedDate())), internalCallContext);
+            assertListenerStatus();
+        }
+
+        // First page of each query
+        checkCustomFields(customFieldDao.get(0L, 3L, internalCallContext), 10L, 0, 1, 2);
+        checkCustomFields(customFieldDao.searchCustomFields("get", 0L, 3L, internalCallContext), 5L, 0, 2, 4);
+
+        // Next pages, resumed from their own cursor
+        checkCustomFields(customFieldDao.get(3L, 3L, internalCallContext), 10L, 3, 4, 5);
+        checkCustomFields(customFieldDao.searchCustomFields("get", 3L, 3L, internalCallContext), 5L, 6, 8);
+        checkCustomFields(customFieldDao.get(6L, 3L, internalCallContext), 10L, 6, 7, 8);
+    }
+
+    private void checkCustomFields(final Pagination<CustomFieldModelDao> page, final Long expectedTotalNbRecords, final int... expectedFieldNumbers) {
+        Assert.assertEquals(page.getTotalNbRecords(), expectedTotalNbRecords);
+        final List<CustomFieldModelDao> customFields = ImmutableList.<CustomFieldModelDao>copyOf(page);
+        Assert.assertEquals(customFields.size(), expectedFieldNumbers.length);
+        for (int i = 0; i < expectedFieldNumbers.length; i++) {
+            Assert.assertEquals(customFields.get(i).getFieldName(), "field-" + expectedFieldNumbers[i]);
+        }
+    }
 }
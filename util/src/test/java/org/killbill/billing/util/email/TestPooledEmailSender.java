@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.email;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+
+import org.killbill.billing.util.UtilTestSuiteNoDB;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestPooledEmailSender extends UtilTestSuiteNoDB {
+
+    private static final List<String> TO = ImmutableList.<String>of("john@example.com");
+
+    private EmailConfig emailConfig;
+    private List<Transport> createdTransports;
+    private PooledEmailSender emailSender;
+
+    @BeforeMethod(groups = "fast")
+    public void setUpEmailSender() throws Exception {
+        emailConfig = Mockito.mock(EmailConfig.class);
+        Mockito.when(emailConfig.getDefaultFrom()).thenReturn("billing@example.com");
+        Mockito.when(emailConfig.getSmtpPort()).thenReturn(25);
+        Mockito.when(emailConfig.getSmtpConnectionPoolSize()).thenReturn(1);
+
+        createdTransports = new LinkedList<Transport>();
+        emailSender = new PooledEmailSender(emailConfig) {
+            @Override
+            Transport createTransport() {
+                final Transport transport = Mockito.mock(Transport.class);
+                Mockito.when(transport.isConnected()).thenReturn(true);
+                createdTransports.add(transport);
+                return transport;
+            }
+        };
+    }
+
+    @Test(groups = "fast")
+    public void testConnectionIsReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            emailSender.sendPlainTextEmail(TO, null, "Invoice " + i, "Body");
+        }
+
+        Assert.assertEquals(createdTransports.size(), 1);
+        final Transport transport = createdTransports.get(0);
+        Mockito.verify(transport, Mockito.times(1)).connect(Mockito.<String>any(), Mockito.anyInt(), Mockito.<String>any(), Mockito.<String>any());
+        Mockito.verify(transport, Mockito.times(3)).sendMessage(Mockito.<Message>any(), Mockito.<Address[]>any());
+        Mockito.verify(transport, Mockito.never()).close();
+        Assert.assertEquals(emailSender.getNbIdleTransports(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testDisconnectedConnectionIsNotReused() throws Exception {
+        emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+        // Closed by the server in the meantime
+        Mockito.when(createdTransports.get(0).isConnected()).thenReturn(false);
+
+        emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+
+        Assert.assertEquals(createdTransports.size(), 2);
+        Mockito.verify(createdTransports.get(0)).close();
+        Assert.assertEquals(emailSender.getNbIdleTransports(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testConnectionIsClosedOnSendFailure() throws Exception {
+        emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+        final Transport transport = createdTransports.get(0);
+        Mockito.doThrow(new MessagingException("Connection reset")).when(transport).sendMessage(Mockito.<Message>any(), Mockito.<Address[]>any());
+
+        try {
+            emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+            Assert.fail();
+        } catch (final EmailApiException e) {
+            Assert.assertTrue(e.getCause() instanceof MessagingException);
+        }
+
+        Mockito.verify(transport).close();
+        Assert.assertEquals(emailSender.getNbIdleTransports(), 0);
+
+        // A new connection is opened for the next email
+        emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+        Assert.assertEquals(createdTransports.size(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testConnectionIsClosedOnRuntimeFailure() throws Exception {
+        emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+        final Transport transport = createdTransports.get(0);
+        Mockito.doThrow(new IllegalStateException("Not connected")).when(transport).sendMessage(Mockito.<Message>any(), Mockito.<Address[]>any());
+
+        try {
+            emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+            Assert.fail();
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "Not connected");
+        }
+
+        Mockito.verify(transport).close();
+        Assert.assertEquals(emailSender.getNbIdleTransports(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testConnectionIsClosedOnConnectFailure() throws Exception {
+        emailSender = new PooledEmailSender(emailConfig) {
+            @Override
+            Transport createTransport() throws MessagingException {
+                final Transport transport = Mockito.mock(Transport.class);
+                Mockito.doThrow(new MessagingException("Connection refused")).when(transport).connect(Mockito.<String>any(), Mockito.anyInt(), Mockito.<String>any(), Mockito.<String>any());
+                createdTransports.add(transport);
+                return transport;
+            }
+        };
+
+        try {
+            emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+            Assert.fail();
+        } catch (final EmailApiException e) {
+            Assert.assertTrue(e.getCause() instanceof MessagingException);
+        }
+
+        Assert.assertEquals(createdTransports.size(), 1);
+        Mockito.verify(createdTransports.get(0)).close();
+        Mockito.verify(createdTransports.get(0), Mockito.never()).sendMessage(Mockito.<Message>any(), Mockito.<Address[]>any());
+        Assert.assertEquals(emailSender.getNbIdleTransports(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testCloseReleasesConnections() throws Exception {
+        emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+        Assert.assertEquals(emailSender.getNbIdleTransports(), 1);
+
+        new DefaultEmailService(emailSender).stop();
+
+        Mockito.verify(createdTransports.get(0)).close();
+        Assert.assertEquals(emailSender.getNbIdleTransports(), 0);
+
+        // Connections in use while shutting down aren't put back in the pool
+        emailSender.sendPlainTextEmail(TO, null, "Invoice", "Body");
+        Assert.assertEquals(createdTransports.size(), 2);
+        Mockito.verify(createdTransports.get(1)).close();
+        Assert.assertEquals(emailSender.getNbIdleTransports(), 0);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014-2015 Groupon, Inc
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.export.api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.UtilTestSuiteWithEmbeddedDB;
+import org.killbill.billing.util.api.ColumnInfo;
+import org.killbill.billing.util.api.DatabaseExportOutputStream;
+import org.killbill.billing.util.config.ExportConfig;
+import org.killbill.billing.util.export.api.TenantExportManifest.ChunkExport;
+import org.killbill.billing.util.export.api.TenantExportManifest.TableExport;
+import org.killbill.billing.util.export.dao.DatabaseExportDao;
+import org.mockito.Mockito;
+import org.skife.config.ConfigurationObjectFactory;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.tweak.HandleCallback;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class TestTenantDataExporter extends UtilTestSuiteWithEmbeddedDB {
+
+    private static final String TABLE_NAME = "test_tenant_data_exporter";
+
+    private File exportDirectory;
+    private TenantDataExporter exporter;
+
+    @Override
+    @BeforeMethod(groups = "slow")
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        exportDirectory = Files.createTempDirectory("killbill-export").toFile();
+        exportDirectory.deleteOnExit();
+
+        exporter = createExporter(dao, new Properties());
+
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                handle.execute("drop table if exists " + TABLE_NAME);
+                handle.execute("create table " + TABLE_NAME + "(record_id serial unique," +
+                               "a_column char default 'a'," +
+                               "tenant_record_id bigint /*! unsigned */ not null default 0," +
+                               "primary key(record_id));");
+                return null;
+            }
+        });
+    }
+
+    @Test(groups = "slow")
+    public void testFullAndIncrementalExports() throws Exception {
+        insertRows(5, internalCallContext.getTenantRecordId());
+        // Rows from another tenant should never be exported
+        insertRows(3, internalCallContext.getTenantRecordId() + 1);
+
+        final TenantExportManifest fullExport = exporter.startExport(null, internalCallContext);
+        Assert.assertTrue(fullExport.isCompleted());
+
+        final TableExport fullTableExport = fullExport.getTables().get(TABLE_NAME);
+        Assert.assertEquals(fullTableExport.getChunks().size(), 3);
+        Assert.assertEquals(fullTableExport.getChunks().get(0).getNbRows(), 2);
+        Assert.assertEquals(fullTableExport.getChunks().get(1).getNbRows(), 2);
+        Assert.assertEquals(fullTableExport.getChunks().get(2).getNbRows(), 1);
+        Assert.assertEquals(fullTableExport.getLastRecordId(), (Long) 5L);
+
+        final File firstChunk = new File(new File(new File(exportDirectory, String.valueOf(internalCallContext.getTenantRecordId())), fullExport.getExportId().toString()),
+                                         fullTableExport.getChunks().get(0).getFileName());
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(firstChunk))));
+        try {
+            Assert.assertEquals(reader.readLine(), "-- " + TABLE_NAME + " record_id,a_column,tenant_record_id");
+            Assert.assertEquals(reader.readLine(), "1,a," + internalCallContext.getTenantRecordId());
+            Assert.assertEquals(reader.readLine(), "2,a," + internalCallContext.getTenantRecordId());
+            Assert.assertNull(reader.readLine());
+        } finally {
+            reader.close();
+        }
+
+        // The manifest is persisted
+        final TenantExportManifest persistedExport = exporter.getExport(fullExport.getExportId(), internalCallContext);
+        Assert.assertTrue(persistedExport.isCompleted());
+        Assert.assertEquals(persistedExport.getTables().get(TABLE_NAME).getLastRecordId(), (Long) 5L);
+
+        // Only the new rows are exported incrementally
+        insertRows(2, internalCallContext.getTenantRecordId());
+        final TenantExportManifest incrementalExport = exporter.startExport(fullExport.getExportId(), internalCallContext);
+        Assert.assertTrue(incrementalExport.isCompleted());
+        Assert.assertEquals(incrementalExport.getSinceExportId(), fullExport.getExportId());
+
+        final TableExport incrementalTableExport = incrementalExport.getTables().get(TABLE_NAME);
+        Assert.assertEquals(incrementalTableExport.getChunks().size(), 1);
+        final ChunkExport incrementalChunk = incrementalTableExport.getChunks().get(0);
+        Assert.assertEquals(incrementalChunk.getNbRows(), 2);
+        Assert.assertEquals(incrementalChunk.getFirstRecordId(), (Long) 9L);
+        Assert.assertEquals(incrementalChunk.getLastRecordId(), (Long) 10L);
+    }
+
+    @Test(groups = "slow")
+    public void testResumeAfterPartialExport() throws Exception {
+        insertRows(5, internalCallContext.getTenantRecordId());
+
+        // Fail on the second chunk
+        final DatabaseExportDao failingDao = Mockito.spy(dao);
+        Mockito.doCallRealMethod()
+               .doThrow(new RuntimeException("Connection lost"))
+               .doCallRealMethod()
+               .when(failingDao).exportDataForTenantAndTable(Mockito.<DatabaseExportOutputStream>any(), Mockito.eq(TABLE_NAME), Mockito.<List<ColumnInfo>>any(),
+                                                             Mockito.anyLong(), Mockito.anyInt(), Mockito.<InternalTenantContext>any());
+        exporter = createExporter(failingDao, new Properties());
+
+        final TenantExportManifest partialExport = exporter.startExport(null, internalCallContext);
+        Assert.assertFalse(partialExport.isCompleted());
+
+        // The progress made before the failure is persisted
+        final TenantExportManifest persistedExport = exporter.getExport(partialExport.getExportId(), internalCallContext);
+        Assert.assertFalse(persistedExport.isCompleted());
+        final TableExport persistedTableExport = persistedExport.getTables().get(TABLE_NAME);
+        Assert.assertFalse(persistedTableExport.isCompleted());
+        Assert.assertEquals(persistedTableExport.getChunks().size(), 1);
+        Assert.assertEquals(persistedTableExport.getLastRecordId(), (Long) 2L);
+
+        // Resuming only exports the remaining rows
+        final TenantExportManifest resumedExport = exporter.resumeExport(partialExport.getExportId(), internalCallContext);
+        Assert.assertTrue(resumedExport.isCompleted());
+        final TableExport resumedTableExport = resumedExport.getTables().get(TABLE_NAME);
+        Assert.assertEquals(resumedTableExport.getChunks().size(), 3);
+        Assert.assertEquals(resumedTableExport.getChunks().get(0).getFirstRecordId(), (Long) 1L);
+        Assert.assertEquals(resumedTableExport.getChunks().get(1).getFirstRecordId(), (Long) 3L);
+        Assert.assertEquals(resumedTableExport.getChunks().get(2).getFirstRecordId(), (Long) 5L);
+        Assert.assertEquals(resumedTableExport.getLastRecordId(), (Long) 5L);
+        Assert.assertTrue(exporter.getExport(partialExport.getExportId(), internalCallContext).isCompleted());
+
+        // Resuming a completed export is a no-op
+        exporter.resumeExport(partialExport.getExportId(), internalCallContext);
+        Mockito.verify(failingDao, Mockito.times(4)).exportDataForTenantAndTable(Mockito.<DatabaseExportOutputStream>any(), Mockito.eq(TABLE_NAME), Mockito.<List<ColumnInfo>>any(),
+                                                                                  Mockito.anyLong(), Mockito.anyInt(), Mockito.<InternalTenantContext>any());
+    }
+
+    @Test(groups = "slow")
+    public void testExcludedTables() throws Exception {
+        Assert.assertTrue(new ConfigurationObjectFactory(new Properties()).build(ExportConfig.class).getExportExcludedTables().contains("tenant_kvs"));
+
+        insertRows(1, internalCallContext.getTenantRecordId());
+        final Properties properties = new Properties();
+        properties.setProperty("org.killbill.export.tables.excluded", "tenant_kvs," + TABLE_NAME);
+        exporter = createExporter(dao, properties);
+
+        final TenantExportManifest export = exporter.startExport(null, internalCallContext);
+        Assert.assertTrue(export.isCompleted());
+        Assert.assertFalse(export.getTables().containsKey(TABLE_NAME));
+        Assert.assertFalse(export.getTables().containsKey("tenant_kvs"));
+    }
+
+    private TenantDataExporter createExporter(final DatabaseExportDao exportDao, final Properties properties) {
+        properties.setProperty("org.killbill.export.directory", exportDirectory.getAbsolutePath());
+        properties.setProperty("org.killbill.export.chunk.size", "2");
+        final ExportConfig exportConfig = new ConfigurationObjectFactory(properties).build(ExportConfig.class);
+
+        // Run the table exports in the calling thread to make the test deterministic
+        return new TenantDataExporter(exportDao, exportConfig, MoreExecutors.sameThreadExecutor(), clock);
+    }
+
+    private void insertRows(final int nbRows, final Long tenantRecordId) {
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                for (int i = 0; i < nbRows; i++) {
+                    handle.execute("insert into " + TABLE_NAME + " (tenant_record_id) values (?)", tenantRecordId);
+                }
+                return null;
+            }
+        });
+    }
+}